@@ -0,0 +1,120 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.CmnLogMessage;
+import org.jcoderz.commons.EntityNotFoundException;
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.Loggable;
+
+
+/**
+ * Creates the log records used by the benchmarks. The records look like the
+ * ones created by the logging calls of the applications.
+ *
+ */
+final class BenchmarkRecords
+{
+   private static final String SOURCE_CLASS
+         = "org.jcoderz.example.OrderService";
+   private static final String SOURCE_METHOD
+         = "placeOrder(OrderService.java:123)";
+
+   private BenchmarkRecords ()
+   {
+      // no instances allowed.
+   }
+
+   /**
+    * Creates a trace record without parameters as logged by a plain
+    * java.util.logging call.
+    *
+    * @return a plain trace log record.
+    */
+   static LogRecord createPlainRecord ()
+   {
+      final LogRecord rc = new LogRecord(Level.INFO,
+            "Order 4711 placed for customer 0815 in 12 ms.");
+      rc.setSourceClassName(SOURCE_CLASS);
+      rc.setSourceMethodName("placeOrder");
+      return rc;
+   }
+
+   /**
+    * Creates a record carrying a log event with parameters.
+    *
+    * @return a log record carrying a LogEvent.
+    */
+   static LogRecord createLogEventRecord ()
+   {
+      final LogEvent event = new LogEvent(CmnLogMessage.ENTITY_NOT_FOUND);
+      CmnLogMessage.EntityNotFound.addParameters(event, "ORDERS",
+            "findByCustomer", "0815", "Order");
+      event.addParameter("REQUEST_ID", "a1b2c3d4e5f6");
+      event.addParameter("ITEMS", "4711");
+      event.addParameter("ITEMS", "4712");
+      return createRecord(event);
+   }
+
+   /**
+    * Creates a record carrying a chain of nested exceptions, a BaseException
+    * caused by a BaseRuntimeException caused by a plain Exception.
+    *
+    * @return a log record carrying a nested exception chain.
+    */
+   static LogRecord createExceptionChainRecord ()
+   {
+      final SQLException root
+            = new SQLException("Connection reset by peer", "08S01");
+      final InternalErrorException middle
+            = new InternalErrorException("Order lookup failed", root);
+      final EntityNotFoundException top = new EntityNotFoundException(
+            "ORDERS", "findByCustomer", "0815", "Order", middle);
+      return createRecord(top);
+   }
+
+   private static LogRecord createRecord (final Loggable loggable)
+   {
+      final LogRecord rc = new LogRecord(
+            loggable.getLogMessageInfo().getLogLevel(), loggable.getMessage());
+      rc.setSourceClassName(SOURCE_CLASS);
+      rc.setSourceMethodName(SOURCE_METHOD);
+      rc.setParameters(new Object[] {loggable});
+      return rc;
+   }
+}
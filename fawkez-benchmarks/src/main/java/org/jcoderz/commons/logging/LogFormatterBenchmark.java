@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.DevelopersLogFormatter;
+import org.jcoderz.commons.LogFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the formatting of log records by the {@link LogFormatter} and the
+ * {@link DevelopersLogFormatter}.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogFormatterBenchmark
+{
+   private LogFormatter mLogFormatter;
+   private DevelopersLogFormatter mDevelopersLogFormatter;
+   private LogRecord mPlainRecord;
+   private LogRecord mLogEventRecord;
+   private LogRecord mExceptionChainRecord;
+
+   /**
+    * Creates the formatters and the records to format.
+    */
+   @Setup
+   public void setUp ()
+   {
+      mLogFormatter = new LogFormatter();
+      mDevelopersLogFormatter = new DevelopersLogFormatter();
+      mPlainRecord = BenchmarkRecords.createPlainRecord();
+      mLogEventRecord = BenchmarkRecords.createLogEventRecord();
+      mExceptionChainRecord = BenchmarkRecords.createExceptionChainRecord();
+   }
+
+   /**
+    * Formats a plain trace record.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String formatPlainRecord ()
+   {
+      return mLogFormatter.format(mPlainRecord);
+   }
+
+   /**
+    * Formats a record carrying a log event with parameters.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String formatLogEvent ()
+   {
+      return mLogFormatter.format(mLogEventRecord);
+   }
+
+   /**
+    * Formats a record carrying a nested exception chain.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String formatExceptionChain ()
+   {
+      return mLogFormatter.format(mExceptionChainRecord);
+   }
+
+   /**
+    * Formats a plain trace record with the developers formatter.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String developersFormatPlainRecord ()
+   {
+      return mDevelopersLogFormatter.format(mPlainRecord);
+   }
+
+   /**
+    * Formats a record carrying a log event with the developers formatter.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String developersFormatLogEvent ()
+   {
+      return mDevelopersLogFormatter.format(mLogEventRecord);
+   }
+
+   /**
+    * Formats a record carrying a nested exception chain with the developers
+    * formatter.
+    *
+    * @return the formatted record.
+    */
+   @Benchmark
+   public String developersFormatExceptionChain ()
+   {
+      return mDevelopersLogFormatter.format(mExceptionChainRecord);
+   }
+}
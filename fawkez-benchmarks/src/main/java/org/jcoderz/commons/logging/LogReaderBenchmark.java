@@ -0,0 +1,216 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.LogFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures reading a complete synthetic log file with the {@link LogReader}
+ * and the {@link MappedLogReader}, and reading the same records from a
+ * binary log file with the {@link BinaryLogReader}.
+ * The log file is written by the {@link LogFormatter} and contains trace
+ * records, log events and exception chains.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LogReaderBenchmark
+{
+   private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+
+   /** The size of the synthetic log file in megabytes. */
+   @Param("8")
+   private int mSizeInMegabytes;
+
+   private File mLogFile;
+   private File mBinaryLogFile;
+
+   /**
+    * Writes the synthetic log file and the binary log file with the same
+    * records.
+    *
+    * @throws IOException if the file cannot be written.
+    * @throws InstantiationException if the binary log file cannot be opened.
+    */
+   @Setup
+   public void setUp ()
+         throws IOException, InstantiationException
+   {
+      mLogFile = File.createTempFile("fawkez-benchmark", ".log");
+      final LogFormatter formatter = new LogFormatter();
+      final LogRecord[] records = {
+            BenchmarkRecords.createPlainRecord(),
+            BenchmarkRecords.createPlainRecord(),
+            BenchmarkRecords.createLogEventRecord(),
+            BenchmarkRecords.createPlainRecord(),
+            BenchmarkRecords.createExceptionChainRecord()};
+      final long size = (long) mSizeInMegabytes * BYTES_PER_MEGABYTE;
+      final Writer writer = new OutputStreamWriter(
+            new FileOutputStream(mLogFile), "UTF-8");
+      int count = 0;
+      try
+      {
+         long written = 0;
+         while (written < size)
+         {
+            final String entry
+                  = formatter.format(records[count % records.length]);
+            writer.write(entry);
+            written += entry.length();
+            count++;
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+      mBinaryLogFile = File.createTempFile("fawkez-benchmark", ".bin");
+      final BinaryLogHandler handler
+            = new BinaryLogHandler(mBinaryLogFile, false);
+      try
+      {
+         for (int i = 0; i < count; i++)
+         {
+            handler.publish(records[i % records.length]);
+         }
+      }
+      finally
+      {
+         handler.close();
+      }
+   }
+
+   /**
+    * Deletes the synthetic log file.
+    */
+   @TearDown
+   public void tearDown ()
+   {
+      delete(mLogFile);
+      delete(mBinaryLogFile);
+   }
+
+   /**
+    * Reads all entries of the log file.
+    *
+    * @return the number of entries read.
+    * @throws InstantiationException if the reader cannot be created.
+    */
+   @Benchmark
+   public int readLogFile ()
+         throws InstantiationException
+   {
+      return readAll(new LogReader(mLogFile.getAbsolutePath()));
+   }
+
+   /**
+    * Reads all entries of the log file with the {@link MappedLogReader}
+    * using one thread per processor.
+    *
+    * @return the number of entries read.
+    * @throws InstantiationException if the reader cannot be created.
+    */
+   @Benchmark
+   public int readLogFileMapped ()
+         throws InstantiationException
+   {
+      return readAll(new MappedLogReader(mLogFile.getAbsolutePath()));
+   }
+
+   /**
+    * Reads all entries of the binary log file holding the same records as
+    * the log file.
+    *
+    * @return the number of entries read.
+    * @throws InstantiationException if the reader cannot be created.
+    */
+   @Benchmark
+   public int readBinaryLogFile ()
+         throws InstantiationException
+   {
+      return readAll(new BinaryLogReader(mBinaryLogFile.getAbsolutePath()));
+   }
+
+   private static void delete (final File file)
+   {
+      if (file != null && ! file.delete())
+      {
+         file.deleteOnExit();
+      }
+   }
+
+   private static int readAll (final LogReader reader)
+   {
+      int rc = 0;
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            rc++;
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return rc;
+   }
+}
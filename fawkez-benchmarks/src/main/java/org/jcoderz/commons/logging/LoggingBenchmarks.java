@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the logging benchmarks with the gc profiler, so the allocation rate is
+ * reported along with the throughput. All JMH command line options are
+ * supported, e.g. a regular expression selecting the benchmarks to run.
+ * Without a regular expression all benchmarks of this package are run.
+ *
+ */
+public final class LoggingBenchmarks
+{
+   private static final String DEFAULT_INCLUDE
+         = LoggingBenchmarks.class.getPackage().getName() + ".*Benchmark";
+
+   private LoggingBenchmarks ()
+   {
+      // no instances allowed.
+   }
+
+   /**
+    * Runs the benchmarks.
+    *
+    * @param args JMH command line options.
+    * @throws Exception if the options are invalid or a benchmark fails.
+    */
+   public static void main (String[] args)
+         throws Exception
+   {
+      final CommandLineOptions commandLine = new CommandLineOptions(args);
+      final ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class);
+      if (commandLine.getIncludes().isEmpty())
+      {
+         options.include(DEFAULT_INCLUDE);
+      }
+      new Runner(options.build()).run();
+   }
+}
@@ -0,0 +1,155 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.nio.CharBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the parsing of the stack trace lines of a nested exception chain
+ * by the {@link StackTraceElementParser} against the former regular
+ * expression based {@link RegexStackTraceElementParser}.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackTraceElementParserBenchmark
+{
+   private static final int MORE_FRAMES = 12;
+
+   private CharBuffer[] mLines;
+
+   /**
+    * Creates the stack trace lines of the exception chain of the
+    * benchmark records.
+    */
+   @Setup
+   public void setUp ()
+   {
+      final Throwable thrown = (Throwable) BenchmarkRecords
+            .createExceptionChainRecord().getParameters()[0];
+      final List<String> lines = new ArrayList<String>();
+      lines.add(thrown.toString());
+      Throwable current = thrown;
+      while (current != null)
+      {
+         if (current != thrown)
+         {
+            lines.add("Caused by: " + current);
+         }
+         final StackTraceElement[] elements = current.getStackTrace();
+         for (int i = 0; i < elements.length; ++i)
+         {
+            lines.add("  at " + elements[i]);
+         }
+         lines.add("  ..." + MORE_FRAMES + " more");
+         current = current.getCause();
+      }
+      mLines = new CharBuffer[lines.size()];
+      for (int i = 0; i < mLines.length; ++i)
+      {
+         mLines[i] = CharBuffer.wrap(lines.get(i));
+      }
+   }
+
+   /**
+    * Parses all lines with the single pass scanner.
+    *
+    * @return the sum of the parsed source line numbers.
+    * @throws ParseException if a line cannot be parsed.
+    */
+   @Benchmark
+   public int parseScanner ()
+         throws ParseException
+   {
+      int rc = 0;
+      for (int i = 0; i < mLines.length; ++i)
+      {
+         mLines[i].rewind();
+         rc += lineOf(StackTraceElementParser.parse(mLines[i]));
+      }
+      return rc;
+   }
+
+   /**
+    * Parses all lines with the former regular expression based parser.
+    *
+    * @return the sum of the parsed source line numbers.
+    * @throws ParseException if a line cannot be parsed.
+    */
+   @Benchmark
+   public int parseRegex ()
+         throws ParseException
+   {
+      int rc = 0;
+      for (int i = 0; i < mLines.length; ++i)
+      {
+         mLines[i].rewind();
+         rc += lineOf(RegexStackTraceElementParser.parse(mLines[i]));
+      }
+      return rc;
+   }
+
+   private static int lineOf (final StackTraceInfo info)
+   {
+      final int rc;
+      if (info.isLocationLine())
+      {
+         rc = info.getLine();
+      }
+      else
+      {
+         rc = 0;
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the printing of log records as xml by the {@link XmlPrinter}, as
+ * it is done for each record published by the {@link JmsHandler}.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlPrinterBenchmark
+{
+   private XmlPrinter mPrinter;
+   private CharArrayWriter mWriter;
+   private PrintWriter mPrintWriter;
+   private LogRecord mLogEventRecord;
+   private LogRecord mExceptionChainRecord;
+
+   /**
+    * Creates the printer and the records to print.
+    *
+    * @throws InstantiationException if the printer cannot be created.
+    */
+   @Setup
+   public void setUp ()
+         throws InstantiationException
+   {
+      mPrinter = new XmlPrinter();
+      mPrinter.setDisplayOptions(new DisplayOptions());
+      mWriter = new CharArrayWriter();
+      mPrintWriter = new PrintWriter(mWriter);
+      mLogEventRecord = BenchmarkRecords.createLogEventRecord();
+      mExceptionChainRecord = BenchmarkRecords.createExceptionChainRecord();
+   }
+
+   /**
+    * Prints a record carrying a log event with parameters.
+    *
+    * @return the number of characters printed.
+    */
+   @Benchmark
+   public int printLogEvent ()
+   {
+      return print(mLogEventRecord);
+   }
+
+   /**
+    * Prints a record carrying a nested exception chain.
+    *
+    * @return the number of characters printed.
+    */
+   @Benchmark
+   public int printExceptionChain ()
+   {
+      return print(mExceptionChainRecord);
+   }
+
+   private int print (final LogRecord record)
+   {
+      mWriter.reset();
+      mPrinter.print(mPrintWriter, new LogElement(record));
+      mPrintWriter.flush();
+      return mWriter.size();
+   }
+}
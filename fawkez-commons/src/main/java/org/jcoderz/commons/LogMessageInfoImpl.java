@@ -33,11 +33,8 @@
 package org.jcoderz.commons;
 
 import java.io.Serializable;
-import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -71,6 +68,11 @@ public abstract class LogMessageInfoImpl
    private final String mApplicationNameAbbreviation;
    private final String mGroupName;
    private final String mGroupNameAbbreviation;
+   /**
+    * The message pattern compiled once, the info objects are singletons
+    * that live as long as their class.
+    */
+   private transient MessageTemplate mTemplate;
 
    protected LogMessageInfoImpl (String symbol, int id, Level level,
          String text, String solution, BusinessImpact businessImpact,
@@ -89,6 +91,7 @@ public abstract class LogMessageInfoImpl
       mApplicationNameAbbreviation = appNameAbbr;
       mGroupName = groupName;
       mGroupNameAbbreviation = groupNameAbbr;
+      mTemplate = new MessageTemplate(text);
    }
 
    /**
@@ -154,28 +157,20 @@ public abstract class LogMessageInfoImpl
            = buffer != null ? buffer : new StringBuffer();
        try
        {
-          final MessageFormat formatter = new MessageFormat(getMessagePattern());
-
-          final List<Object> parameter = new ArrayList<Object>();
-
-          if (parameters != null && !getParameterList().isEmpty())
+          Object[] parameter = null;
+          if (parameters != null && !mParameters.isEmpty())
           {
-             final Iterator<String> i = getParameterList().iterator();
-             while (i.hasNext())
+             parameter = new Object[mParameters.size()];
+             for (int i = 0; i < parameter.length; i++)
              {
-                final String parameterName = (String) i.next();
-                final List<?> parameterValues = (List<?>) parameters.get(parameterName);
-                if (parameterValues == null || parameterValues.isEmpty())
+                final List<?> parameterValues = parameters.get(mParameters.get(i));
+                if (parameterValues != null && !parameterValues.isEmpty())
                 {
-                   parameter.add(null);
-                }
-                else
-                {
-                   parameter.add(parameterValues.get(0));
+                   parameter[i] = parameterValues.get(0);
                 }
              }
           }
-          formatter.format(parameter.toArray(), result, null);
+          getTemplate().format(parameter, result);
        }
        // could be caused by invalid message format!
        catch (Exception ex)
@@ -234,4 +229,16 @@ public abstract class LogMessageInfoImpl
    {
       return mGroupNameAbbreviation;
    }
+
+   private MessageTemplate getTemplate ()
+   {
+      MessageTemplate rc = mTemplate;
+      if (rc == null)
+      {
+         // deserialized instance that was not resolved to its singleton
+         rc = new MessageTemplate(mMessagePattern);
+         mTemplate = rc;
+      }
+      return rc;
+   }
 }
@@ -36,23 +36,23 @@ package org.jcoderz.commons;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jcoderz.commons.util.ArraysUtil;
 import org.jcoderz.commons.util.StringUtil;
+import org.jcoderz.commons.util.ThrowableGetters;
 import org.jcoderz.commons.util.ThrowableUtil;
 
 
@@ -168,18 +168,6 @@ public class LoggableImpl
    private static final String DUMMY_INSTANCE_ID
          = "P" + Integer.toHexString(RANDOM_ID_GENERATOR.nextInt());
    private static final String DUMMY_NODE_ID = "127.0.0.1";
-
-   /** Name of getter methods start with this prefix. */
-   private static final String GETTER_METHOD_PREFIX = "get";
-   /** Name of getter methods start with this prefix. */
-   private static final String BOOLEAN_GETTER_METHOD_PREFIX = "is";
-   /** Length of the getter prefix. */
-   private static final int GETTER_METHOD_PREFIX_LENGTH
-       = GETTER_METHOD_PREFIX.length();
-   /** Length of the boolean getter prefix. */
-   @SuppressWarnings("unused")
-   private static final int BOOLEAN_GETTER_METHOD_PREFIX_LENGTH
-       = BOOLEAN_GETTER_METHOD_PREFIX.length();
    
    /**
     * Stores the Throwable.getCause() method if this method is available.
@@ -199,10 +187,47 @@ public class LoggableImpl
 
    private static final int MAX_NESTING_DEPTH = 15;
 
+   /**
+    * Name of the system property that, if set to <tt>true</tt>, lets
+    * loggables that are throwables (exceptions, log events) take their
+    * source from their own stack trace instead of walking the current
+    * stack. The source then denotes the creation site of the loggable
+    * rather than the place where it is logged.
+    */
+   public static final String SOURCE_FROM_THROWABLE_PROPERTY
+         = CLASSNAME + ".sourceFromThrowable";
+
+   private static final boolean SOURCE_FROM_THROWABLE
+         = Boolean.getBoolean(SOURCE_FROM_THROWABLE_PROPERTY);
+
+   /** Upper bound for the number of cached class classifications. */
+   static final int MAX_CACHED_CLASSES = 1024;
+
+   /**
+    * Caches, per class name, whether the class is a Loggable or a
+    * LogMessageInfo and therefore must be skipped when looking for the
+    * source of a loggable. Keyed by name to not pin any class loader.
+    */
+   private static final ConcurrentMap<String, Boolean> LOGGING_CLASSES
+         = new ConcurrentHashMap<String, Boolean>();
+
    /**
     * list of parameter for this exception The list is not thread save!
     */
-   private final Map<String, List<Serializable>> mParameters = new HashMap<String, List<Serializable>>();
+   private final ParameterStore mParameters = new ParameterStore();
+
+   /**
+    * The thread context at construction time as alternating keys and
+    * values, <code>null</code> if the context was empty.
+    */
+   private final String[] mThreadContext;
+
+   /**
+    * The internal and thread context parameters are only added to the
+    * parameter map when it is read, most loggables of a disabled level
+    * are never formatted.
+    */
+   private boolean mInternalParametersAdded = false;
 
    /**
     * Remember the ERROR_RESPONSE_ID. Intention is to log this id with the
@@ -313,8 +338,7 @@ public class LoggableImpl
       mInstanceId = instanceId;
       mNodeId = nodeId;
       mOuter = outer;
-      initInternalParameters();
-      initThreadContextParameters();
+      mThreadContext = getThreadContext();
    }
 
    /**
@@ -359,8 +383,7 @@ public class LoggableImpl
       mNodeId = nodeId;
       mOuter = outer;
       initCause(cause);
-      initInternalParameters();
-      initThreadContextParameters();
+      mThreadContext = getThreadContext();
    }
 
    /**
@@ -422,34 +445,28 @@ public class LoggableImpl
    }
 
    private static void collectParameters (
-	       Loggable loggable, Throwable thr, int nesting)
-	       throws IllegalAccessException, InvocationTargetException
-	   {
-	       final Method[] methods = thr.getClass().getMethods();
-	       for (int i = 0; i < methods.length; i++)
-	       {
-	          final int modifier = methods[i].getModifiers();
-	          if (methods[i].getDeclaringClass() != Throwable.class
-	              && methods[i].getDeclaringClass() != Object.class
-	              && methods[i].getParameterTypes().length == 0
-	              && methods[i].getExceptionTypes().length == 0
-	              && Modifier.isPublic(modifier)
-	              && !Modifier.isStatic(modifier)
-	              && methods[i].getName().startsWith(GETTER_METHOD_PREFIX)
-	              && !methods[i].getReturnType().equals(Void.TYPE))
-	          {
-	              final Object result = methods[i].invoke(thr, (Object[]) null);
-	              if (result != null && result != thr.getCause())
-	              {
-	                  loggable.addParameter(
-	                      "CAUSE_" + nesting + "_" + thr.getClass().getName()
-	                          + "#" + methods[i].getName().substring(
-	                              GETTER_METHOD_PREFIX_LENGTH),
-	                      asString(result));
-	              }
-	          }
-	       }
-	   }
+         Loggable loggable, Throwable thr, int nesting)
+         throws IllegalAccessException, InvocationTargetException
+   {
+      final Iterator<ThrowableGetters.Getter> getters
+            = ThrowableGetters.forClass(thr.getClass()).getGetters()
+               .iterator();
+      while (getters.hasNext())
+      {
+         final ThrowableGetters.Getter getter = getters.next();
+         if (! getter.isBooleanGetter() && ! getter.declaresExceptions())
+         {
+            final Object result = getter.invoke(thr);
+            if (result != null && result != thr.getCause())
+            {
+               loggable.addParameter(
+                     "CAUSE_" + nesting + "_" + thr.getClass().getName()
+                        + "#" + getter.getPropertyName(),
+                     asString(result));
+            }
+         }
+      }
+   }
 
    /**
     * Tries to fix the exception chaining for the given Throwable.
@@ -479,8 +496,8 @@ public class LoggableImpl
             }
             if (current.getCause() == null)
             {
-               final Method theGetCauseMethod
-                     = findGetCauseMethod(current.getClass().getMethods());
+               final Method theGetCauseMethod = ThrowableGetters.forClass(
+                     current.getClass()).getCauseMethod();
                if (theGetCauseMethod != null)
                {
                   initCause(current, theGetCauseMethod);
@@ -497,42 +514,6 @@ public class LoggableImpl
       }
    }
 
-   static Method findGetCauseMethod (final Method[] methods)
-   {
-      Method theGetCauseMethod = null;
-      for (int i = 0; i < methods.length; i++)
-      {
-         if (methods[i].getDeclaringClass() == Throwable.class)
-         {
-            continue;
-         }
-         final int modifier = methods[i].getModifiers();
-         if (methods[i].getParameterTypes().length == 0
-             && Modifier.isPublic(modifier)
-             && !Modifier.isStatic(modifier)
-             && Throwable.class.isAssignableFrom(methods[i].getReturnType()))
-         {
-             // if the method is called getCause, assume it does 
-             // what it is named FIXES #76
-             if (methods[i].getName().equals("getCause"))
-             {
-                 theGetCauseMethod = methods[i];
-                 break;
-             }
-            if (theGetCauseMethod != null)
-            {
-               // 2nd hit, safety first
-               logger.fine("Found 2 matching methods "  + theGetCauseMethod
-                     + " or " + methods[i] + ".");
-               theGetCauseMethod = null;
-               break;
-            }
-            theGetCauseMethod = methods[i];
-         }
-      }
-      return theGetCauseMethod;
-   }
-
    private static void initCause (Throwable current, Method theGetCauseMethod)
    {
       try
@@ -574,26 +555,14 @@ public class LoggableImpl
     */
    public final void addParameter (String name, Serializable value)
    {
-      List<Serializable> values = mParameters.get(name);
-      if (values == null)
-      {
-         values = new ArrayList<Serializable>();
-         mParameters.put(name, values);
-      }
-      values.add(value);
+      mParameters.add(name, value);
    }
 
    /** {@inheritDoc} */
    public List<Serializable> getParameter (String name)
    {
-      final List<Serializable> values = (List<Serializable>) mParameters.get(name);
-
-      final List<Serializable> result;
-      if (values != null)
-      {
-         result = Collections.unmodifiableList(values);
-      }
-      else
+      List<Serializable> result = getParameters().get(name);
+      if (result == null)
       {
          result = Collections.emptyList();
       }
@@ -603,7 +572,7 @@ public class LoggableImpl
    /** {@inheritDoc} */
    public Set<String> getParameterNames ()
    {
-      return Collections.unmodifiableSet(mParameters.keySet());
+      return Collections.unmodifiableSet(getParameters().keySet());
    }
 
    /** {@inheritDoc} */
@@ -666,7 +635,7 @@ public class LoggableImpl
    public String getMessage ()
    {
       return getLogMessageInfo().formatMessage(
-          mParameters, new StringBuffer()).toString();
+          getParameters(), new StringBuffer()).toString();
    }
 
    /** {@inheritDoc} */
@@ -696,7 +665,7 @@ public class LoggableImpl
           sb.append(getClass().getName());
       }
       sb.append(": ");
-      getLogMessageInfo().formatMessage(mParameters, sb);
+      getLogMessageInfo().formatMessage(getParameters(), sb);
       return sb.toString();
    }
 
@@ -744,82 +713,178 @@ public class LoggableImpl
        return sb.toString();
    }
 
-   private void initInternalParameters ()
+   /**
+    * Returns the parameter map, after adding the internal and thread
+    * context parameters captured at construction time.
+    */
+   private ParameterStore getParameters ()
+   {
+      if (! mInternalParametersAdded)
+      {
+         mInternalParametersAdded = true;
+         addInternalParameters();
+         addThreadContextParameters();
+      }
+      return mParameters;
+   }
+
+   private void addInternalParameters ()
    {
-      addParameter(MESSAGE_INFO_PARAMETER_NAME, mLogMessageInfo);
-      addParameter(TRACKING_NUMBER_PARAMETER_NAME, mTrackingNumber);
-      addParameter(EVENT_TIME_PARAMETER_NAME, new Long(mEventTime));
-      addParameter(THREAD_ID_PARAMETER_NAME, new Long(mThreadId));
-      addParameter(THREAD_NAME_PARAMETER_NAME, mThreadName);
-      addParameter(INSTANCE_ID_PARAMETER_NAME, mInstanceId);
-      addParameter(NODE_ID_PARAMETER_NAME, mNodeId);
-      addParameter(APPLICATION_NAME_PARAMETER_NAME,
+      addInternalParameter(MESSAGE_INFO_PARAMETER_NAME, mLogMessageInfo);
+      addInternalParameter(TRACKING_NUMBER_PARAMETER_NAME, mTrackingNumber);
+      addInternalParameter(EVENT_TIME_PARAMETER_NAME, new Long(mEventTime));
+      addInternalParameter(THREAD_ID_PARAMETER_NAME, new Long(mThreadId));
+      addInternalParameter(THREAD_NAME_PARAMETER_NAME, mThreadName);
+      addInternalParameter(INSTANCE_ID_PARAMETER_NAME, mInstanceId);
+      addInternalParameter(NODE_ID_PARAMETER_NAME, mNodeId);
+      addInternalParameter(APPLICATION_NAME_PARAMETER_NAME,
             mLogMessageInfo.getAppName());
-      addParameter(GROUP_NAME_PARAMETER_NAME, mLogMessageInfo.getGroupName());
+      addInternalParameter(GROUP_NAME_PARAMETER_NAME,
+            mLogMessageInfo.getGroupName());
    }
 
-   private final void initThreadContextParameters ()
+   private void addThreadContextParameters ()
    {
-       final Iterator<Map.Entry<String, String>> i = LogThreadContext.get().entrySet().iterator();
-       while (i.hasNext())
-       {
-           final Map.Entry<String, String> entry = (Map.Entry<String, String>) i.next();
-           addParameter(
-               CONTEXT_PARAMETER_PREFIX + entry.getKey(), 
-               String.valueOf(entry.getValue()));
-       }
+      if (mThreadContext != null)
+      {
+         for (int i = 0; i < mThreadContext.length; i += 2)
+         {
+            addInternalParameter(
+                  CONTEXT_PARAMETER_PREFIX + mThreadContext[i],
+                  mThreadContext[i + 1]);
+         }
+      }
    }
-   
+
+   /**
+    * Adds the value in front of the values already added for the name,
+    * as if it had been added during construction.
+    */
+   private void addInternalParameter (String name, Serializable value)
+   {
+      mParameters.addFirst(name, value);
+   }
+
+   private static String[] getThreadContext ()
+   {
+      final Map<String, String> context = LogThreadContext.get();
+      String[] rc = null;
+      if (! context.isEmpty())
+      {
+         rc = new String[context.size() * 2];
+         int pos = 0;
+         final Iterator<Map.Entry<String, String>> i
+               = context.entrySet().iterator();
+         while (i.hasNext())
+         {
+            final Map.Entry<String, String> entry = i.next();
+            rc[pos++] = entry.getKey();
+            rc[pos++] = String.valueOf(entry.getValue());
+         }
+      }
+      return rc;
+   }
+
    private final void getSource ()
    {
       // not analyzed yet.
       if (mMethodName == null || mClassName == null)
       {
-          final StackTraceElement[] stack = new Throwable().getStackTrace();
-          // First, search back to a method in the Logger class.
-          int ix = 0;
-          boolean found = false;
-          while (ix < stack.length)
-          {
-             final StackTraceElement frame = stack[ix];
-             final String cname = frame.getClassName();
-             if (cname.equals(CLASSNAME))
-             {
-                found = true;
-             }
-             else if (found)
-             {
-                break;
-             }
-             ix++;
-          }
-          // Now search for the first frame before the "LoggableImpl" class or
-          // LogMessageInfo class.
-          while (ix < stack.length)
-          {
-             final StackTraceElement frame = stack[ix];
-             try
-             {
-                final String cname = frame.getClassName();
-                final Class<?> clazz = Class.forName(cname);
-                if (! (Loggable.class.isAssignableFrom(clazz)
-                      || LogMessageInfo.class.isAssignableFrom(clazz)))
-                {
-                   // We've found the relevant frame.
-                   setMethodAndClass(frame);
-                   break;
-                }
-             }
-             catch (ClassNotFoundException e)
-             {
-                setMethodAndClass(frame);
-                break;
-             }
-             ix++;
-          }
+         if (SOURCE_FROM_THROWABLE)
+         {
+            findSourceInThrowable();
+         }
+         if (mClassName == null)
+         {
+            final StackTraceElement[] stack = new Throwable().getStackTrace();
+            // First, search back to a method in the Logger class.
+            int ix = 0;
+            boolean found = false;
+            while (ix < stack.length)
+            {
+               final String cname = stack[ix].getClassName();
+               if (cname.equals(CLASSNAME))
+               {
+                  found = true;
+               }
+               else if (found)
+               {
+                  break;
+               }
+               ix++;
+            }
+            findSource(stack, ix);
+         }
       }
    }
 
+   /**
+    * Takes the source from the stack trace of the outer loggable, if it is
+    * a throwable. The trace starts at the creation of the loggable, there
+    * are no LoggableImpl frames to skip.
+    */
+   final void findSourceInThrowable ()
+   {
+      if (mOuter instanceof Throwable)
+      {
+         findSource(((Throwable) mOuter).getStackTrace(), 0);
+      }
+   }
+
+   /**
+    * Searches the given stack, starting at the given index, for the
+    * first frame that is not part of a Loggable or LogMessageInfo class
+    * and takes this frame as source.
+    */
+   private void findSource (final StackTraceElement[] stack, final int start)
+   {
+      for (int ix = start; ix < stack.length; ix++)
+      {
+         final StackTraceElement frame = stack[ix];
+         if (! isLoggingClass(frame.getClassName()))
+         {
+            // We've found the relevant frame.
+            setMethodAndClass(frame);
+            break;
+         }
+      }
+   }
+
+   /**
+    * Checks whether the named class is a Loggable or a LogMessageInfo. The
+    * result is cached for up to {@link #MAX_CACHED_CLASSES} classes.
+    */
+   static boolean isLoggingClass (final String cname)
+   {
+      Boolean rc = LOGGING_CLASSES.get(cname);
+      if (rc == null)
+      {
+         try
+         {
+            final Class<?> clazz = Class.forName(cname);
+            rc = Boolean.valueOf(Loggable.class.isAssignableFrom(clazz)
+                  || LogMessageInfo.class.isAssignableFrom(clazz));
+         }
+         catch (ClassNotFoundException e)
+         {
+            rc = Boolean.FALSE;
+         }
+         if (LOGGING_CLASSES.size() < MAX_CACHED_CLASSES)
+         {
+            LOGGING_CLASSES.put(cname, rc);
+         }
+      }
+      return rc.booleanValue();
+   }
+
+   /**
+    * Gets the number of classes whose classification is cached.
+    */
+   static int getNumberOfCachedClasses ()
+   {
+      return LOGGING_CLASSES.size();
+   }
+
    private void setMethodAndClass (final StackTraceElement frame)
    {
       mClassName = frame.getClassName();
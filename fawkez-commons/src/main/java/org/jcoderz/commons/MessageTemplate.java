@@ -0,0 +1,281 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons;
+
+import java.text.ChoiceFormat;
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Immutable, thread-safe, precompiled form of a
+ * {@link java.text.MessageFormat} pattern.
+ * <p>
+ * The pattern is parsed once into its literal segments and argument
+ * slots. {@link #format(Object[], StringBuffer)} renders the arguments
+ * directly into the target buffer with the same result as
+ * <code>new MessageFormat(pattern).format(arguments, buffer, null)</code>
+ * but without parsing the pattern again on each call.
+ * <p>
+ * Formats of typed arguments (<code>{0,number}</code>, ...) are not
+ * thread-safe, access to them is synchronized on the format itself.
+ *
+ */
+final class MessageTemplate
+{
+   private final String mPattern;
+   private final Locale mLocale;
+   /** The literal text preceding each argument slot. */
+   private final String[] mLiterals;
+   /** The argument index of each slot. */
+   private final int[] mArguments;
+   /** The format of each slot, <code>null</code> for the default. */
+   private final Format[] mFormats;
+   /** The literal text after the last argument slot. */
+   private final String mTail;
+   /** The parse error of the pattern, <code>null</code> if valid. */
+   private final IllegalArgumentException mError;
+
+   /**
+    * Compiles the given message pattern using the default locale.
+    * An invalid pattern does not fail here, but on each call to
+    * {@link #format(Object[], StringBuffer)}.
+    * @param pattern the message pattern as described for
+    *       {@link java.text.MessageFormat}.
+    */
+   MessageTemplate (String pattern)
+   {
+      mPattern = pattern;
+      mLocale = Locale.getDefault();
+      final List<String> literals = new ArrayList<String>();
+      final List<Integer> arguments = new ArrayList<Integer>();
+      Format[] formats = null;
+      String tail = null;
+      IllegalArgumentException error = null;
+      try
+      {
+         // MessageFormat validates the pattern and creates the formats
+         // of the typed arguments in order of their occurrence.
+         formats = new MessageFormat(pattern, mLocale).getFormats();
+         tail = parse(pattern, literals, arguments);
+         if (arguments.size() != formats.length)
+         {
+            throw new IllegalArgumentException("Pattern '" + pattern
+                  + "' parsed to " + arguments.size()
+                  + " arguments, but MessageFormat has " + formats.length
+                  + " formats.");
+         }
+      }
+      catch (IllegalArgumentException ex)
+      {
+         error = ex;
+      }
+      mError = error;
+      mTail = tail;
+      mFormats = formats == null ? new Format[0] : formats;
+      mLiterals = literals.toArray(new String[literals.size()]);
+      mArguments = new int[arguments.size()];
+      for (int i = 0; i < mArguments.length; i++)
+      {
+         mArguments[i] = arguments.get(i).intValue();
+      }
+   }
+
+   /**
+    * Returns the pattern this template was compiled from.
+    * @return the pattern this template was compiled from.
+    */
+   String getPattern ()
+   {
+      return mPattern;
+   }
+
+   /**
+    * Formats the given arguments into the buffer.
+    * @param arguments the arguments to substitute, might be
+    *       <code>null</code>.
+    * @param buffer the buffer to append to.
+    * @return the buffer argument.
+    * @throws IllegalArgumentException if the pattern is invalid or an
+    *       argument cannot be formatted by its format.
+    */
+   StringBuffer format (Object[] arguments, StringBuffer buffer)
+   {
+      if (mError != null)
+      {
+         throw mError;
+      }
+      for (int i = 0; i < mArguments.length; i++)
+      {
+         buffer.append(mLiterals[i]);
+         final int index = mArguments[i];
+         if (arguments == null || index >= arguments.length)
+         {
+            buffer.append('{').append(index).append('}');
+         }
+         else
+         {
+            formatArgument(i, arguments[index], arguments, buffer);
+         }
+      }
+      buffer.append(mTail);
+      return buffer;
+   }
+
+   private void formatArgument (int slot, Object value, Object[] arguments,
+         StringBuffer buffer)
+   {
+      final Format format = mFormats[slot];
+      if (value == null)
+      {
+         buffer.append("null");
+      }
+      else if (format != null)
+      {
+         final String text;
+         synchronized (format)
+         {
+            text = format.format(value);
+         }
+         if (format instanceof ChoiceFormat && text.indexOf('{') >= 0)
+         {
+            new MessageFormat(text, mLocale).format(arguments, buffer, null);
+         }
+         else
+         {
+            buffer.append(text);
+         }
+      }
+      else if (value instanceof Number)
+      {
+         buffer.append(NumberFormat.getInstance(mLocale).format(value));
+      }
+      else if (value instanceof Date)
+      {
+         buffer.append(DateFormat.getDateTimeInstance(
+               DateFormat.SHORT, DateFormat.SHORT, mLocale).format(value));
+      }
+      else if (value instanceof String)
+      {
+         buffer.append((String) value);
+      }
+      else
+      {
+         buffer.append(String.valueOf(value.toString()));
+      }
+   }
+
+   /**
+    * Splits the pattern into literals and argument indices, following
+    * the quoting rules of MessageFormat.
+    * @return the literal text after the last argument.
+    */
+   private static String parse (String pattern, List<String> literals,
+         List<Integer> arguments)
+   {
+      final StringBuilder literal = new StringBuilder();
+      final StringBuilder index = new StringBuilder();
+      boolean inQuote = false;
+      boolean inArgument = false;
+      boolean inIndex = false;
+      int braces = 0;
+      final int length = pattern.length();
+      for (int i = 0; i < length; i++)
+      {
+         final char c = pattern.charAt(i);
+         if (! inArgument)
+         {
+            if (c == '\'')
+            {
+               if (i + 1 < length && pattern.charAt(i + 1) == '\'')
+               {
+                  literal.append(c);
+                  i++;
+               }
+               else
+               {
+                  inQuote = ! inQuote;
+               }
+            }
+            else if (c == '{' && ! inQuote)
+            {
+               inArgument = true;
+               inIndex = true;
+               index.setLength(0);
+            }
+            else
+            {
+               literal.append(c);
+            }
+         }
+         else if (inQuote)
+         {
+            inQuote = c != '\'';
+         }
+         else if (c == '\'')
+         {
+            inQuote = true;
+         }
+         else if (c == '{')
+         {
+            braces++;
+         }
+         else if (c == '}' && braces > 0)
+         {
+            braces--;
+         }
+         else if (c == '}')
+         {
+            literals.add(literal.toString());
+            literal.setLength(0);
+            arguments.add(Integer.valueOf(index.toString()));
+            inArgument = false;
+         }
+         else if (c == ',' && braces == 0)
+         {
+            inIndex = false;
+         }
+         else if (inIndex)
+         {
+            index.append(c);
+         }
+      }
+      return literal.toString();
+   }
+}
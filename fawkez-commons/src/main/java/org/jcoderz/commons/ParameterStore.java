@@ -0,0 +1,295 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jcoderz.commons.util.ObjectUtil;
+
+
+/**
+ * Compact store for the named parameters of a loggable.
+ * <p>
+ * Names and values are kept in parallel arrays. Nearly every name
+ * holds exactly one value, which is stored as is; only a second value
+ * for the same name promotes the entry to a list. Names are typically
+ * constants, so they are compared by identity first.
+ * <p>
+ * The store is a read only {@link java.util.Map} view of name to
+ * unmodifiable value list, iterating in the order the names were added.
+ * Changes go through {@link #add(String, Serializable)} and
+ * {@link #addFirst(String, Serializable)}. The store is not thread
+ * safe.
+ *
+ */
+final class ParameterStore
+      extends AbstractMap<String, List<Serializable>>
+      implements Serializable
+{
+   static final long serialVersionUID = 1L;
+
+   private static final int INITIAL_CAPACITY = 16;
+
+   private String[] mNames = new String[INITIAL_CAPACITY];
+   /** A single value or a {@link Values} list per name. */
+   private Object[] mValues = new Object[INITIAL_CAPACITY];
+   private int mSize = 0;
+
+   /**
+    * Adds the value at the end of the values of the given name.
+    * @param name the name of the parameter.
+    * @param value the value to add, might be <code>null</code>.
+    */
+   void add (String name, Serializable value)
+   {
+      final int pos = indexOf(name);
+      if (pos < 0)
+      {
+         append(name, value);
+      }
+      else if (mValues[pos] instanceof Values)
+      {
+         ((Values) mValues[pos]).add(value);
+      }
+      else
+      {
+         mValues[pos] = new Values((Serializable) mValues[pos], value);
+      }
+   }
+
+   /**
+    * Adds the value in front of the values of the given name.
+    * @param name the name of the parameter.
+    * @param value the value to add, might be <code>null</code>.
+    */
+   void addFirst (String name, Serializable value)
+   {
+      final int pos = indexOf(name);
+      if (pos < 0)
+      {
+         append(name, value);
+      }
+      else if (mValues[pos] instanceof Values)
+      {
+         ((Values) mValues[pos]).add(0, value);
+      }
+      else
+      {
+         mValues[pos] = new Values(value, (Serializable) mValues[pos]);
+      }
+   }
+
+   /** {@inheritDoc} */
+   public List<Serializable> get (Object name)
+   {
+      final int pos = indexOf(name);
+      return pos < 0 ? null : valuesAt(pos);
+   }
+
+   /** {@inheritDoc} */
+   public boolean containsKey (Object name)
+   {
+      return indexOf(name) >= 0;
+   }
+
+   /** {@inheritDoc} */
+   public int size ()
+   {
+      return mSize;
+   }
+
+   /** {@inheritDoc} */
+   public Set<Map.Entry<String, List<Serializable>>> entrySet ()
+   {
+      return new AbstractSet<Map.Entry<String, List<Serializable>>>()
+      {
+         public Iterator<Map.Entry<String, List<Serializable>>> iterator ()
+         {
+            return new EntryIterator();
+         }
+
+         public int size ()
+         {
+            return mSize;
+         }
+      };
+   }
+
+   private int indexOf (Object name)
+   {
+      int rc = -1;
+      for (int i = 0; i < mSize && rc < 0; i++)
+      {
+         if (mNames[i] == name)
+         {
+            rc = i;
+         }
+      }
+      if (rc < 0 && name != null)
+      {
+         for (int i = 0; i < mSize && rc < 0; i++)
+         {
+            if (name.equals(mNames[i]))
+            {
+               rc = i;
+            }
+         }
+      }
+      return rc;
+   }
+
+   private void append (String name, Serializable value)
+   {
+      if (mSize == mNames.length)
+      {
+         final String[] names = new String[mSize * 2];
+         System.arraycopy(mNames, 0, names, 0, mSize);
+         mNames = names;
+         final Object[] values = new Object[mSize * 2];
+         System.arraycopy(mValues, 0, values, 0, mSize);
+         mValues = values;
+      }
+      mNames[mSize] = name;
+      mValues[mSize] = value;
+      mSize++;
+   }
+
+   private List<Serializable> valuesAt (int pos)
+   {
+      final Object value = mValues[pos];
+      final List<Serializable> rc;
+      if (value instanceof Values)
+      {
+         rc = Collections.unmodifiableList((Values) value);
+      }
+      else
+      {
+         rc = Collections.singletonList((Serializable) value);
+      }
+      return rc;
+   }
+
+   /**
+    * The values of a name that got more than one value. Never handed
+    * out, so a value can not be mistaken for a list of values.
+    */
+   private static final class Values
+         extends ArrayList<Serializable>
+   {
+      static final long serialVersionUID = 1L;
+
+      Values (Serializable first, Serializable second)
+      {
+         super(2);
+         add(first);
+         add(second);
+      }
+   }
+
+   private final class EntryIterator
+         implements Iterator<Map.Entry<String, List<Serializable>>>
+   {
+      private int mPos = 0;
+
+      /** {@inheritDoc} */
+      public boolean hasNext ()
+      {
+         return mPos < mSize;
+      }
+
+      /** {@inheritDoc} */
+      public Map.Entry<String, List<Serializable>> next ()
+      {
+         if (mPos >= mSize)
+         {
+            throw new NoSuchElementException();
+         }
+         final int pos = mPos++;
+         return new Map.Entry<String, List<Serializable>>()
+         {
+            public String getKey ()
+            {
+               return mNames[pos];
+            }
+
+            public List<Serializable> getValue ()
+            {
+               return valuesAt(pos);
+            }
+
+            public List<Serializable> setValue (List<Serializable> value)
+            {
+               throw new UnsupportedOperationException();
+            }
+
+            public boolean equals (Object obj)
+            {
+               boolean rc = false;
+               if (obj instanceof Map.Entry)
+               {
+                  final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+                  rc = ObjectUtil.equals(getKey(), other.getKey())
+                        && getValue().equals(other.getValue());
+               }
+               return rc;
+            }
+
+            public int hashCode ()
+            {
+               return (getKey() == null ? 0 : getKey().hashCode())
+                     ^ getValue().hashCode();
+            }
+
+            public String toString ()
+            {
+               return getKey() + "=" + getValue();
+            }
+         };
+      }
+
+      /** {@inheritDoc} */
+      public void remove ()
+      {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
@@ -0,0 +1,280 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Reflective metadata of a throwable class: its property getters and
+ * the method used to access a nested exception.
+ * <p>
+ * Scanning <code>getMethods()</code> of every exception in a cause
+ * chain is expensive, so the metadata is resolved once per class and
+ * cached. The cache does not prevent classes from being unloaded: keys
+ * are weak and the metadata, which references the class through its
+ * methods, is only softly reachable.
+ *
+ */
+public final class ThrowableGetters
+{
+   /** class name for use in logger */
+   private static final String CLASSNAME = ThrowableGetters.class.getName();
+
+   /** logging facility */
+   private static final Logger logger = Logger.getLogger(CLASSNAME);
+
+   /** Name of getter methods start with this prefix. */
+   private static final String GETTER_METHOD_PREFIX = "get";
+   /** Name of boolean getter methods start with this prefix. */
+   private static final String BOOLEAN_GETTER_METHOD_PREFIX = "is";
+
+   private static final Map<Class<?>, SoftReference<ThrowableGetters>> CACHE
+         = new WeakHashMap<Class<?>, SoftReference<ThrowableGetters>>();
+
+   private final List<Getter> mGetters;
+   private final Method mCauseMethod;
+
+   private ThrowableGetters (Class<?> clazz)
+   {
+      final Method[] methods = clazz.getMethods();
+      final List<Getter> getters = new ArrayList<Getter>();
+      for (int i = 0; i < methods.length; i++)
+      {
+         final Getter getter = Getter.create(methods[i]);
+         if (getter != null)
+         {
+            getters.add(getter);
+         }
+      }
+      mGetters = Collections.unmodifiableList(getters);
+      mCauseMethod = findCauseMethod(methods);
+   }
+
+   /**
+    * Returns the metadata of the given throwable class.
+    * @param clazz the throwable class.
+    * @return the metadata of the given throwable class.
+    */
+   public static ThrowableGetters forClass (
+         Class<? extends Throwable> clazz)
+   {
+      ThrowableGetters rc = null;
+      synchronized (CACHE)
+      {
+         final SoftReference<ThrowableGetters> ref = CACHE.get(clazz);
+         if (ref != null)
+         {
+            rc = ref.get();
+         }
+      }
+      if (rc == null)
+      {
+         rc = new ThrowableGetters(clazz);
+         synchronized (CACHE)
+         {
+            CACHE.put(clazz, new SoftReference<ThrowableGetters>(rc));
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Returns the public, non static getters without parameters that are
+    * not declared by {@link Throwable} or {@link Object}. This includes
+    * <code>getXxx</code> getters of any type and <code>isXxx</code>
+    * getters of a boolean type.
+    * @return the unmodifiable list of property getters.
+    */
+   public List<Getter> getGetters ()
+   {
+      return mGetters;
+   }
+
+   /**
+    * Returns the method to access the nested exception for throwables
+    * that do not use the standard {@link Throwable#getCause()}. This is
+    * a method named <code>getCause</code> or the only public, non static
+    * method without parameters that returns a throwable.
+    * @return the method to access the nested exception, or
+    *       <code>null</code> if none or more than one was found.
+    */
+   public Method getCauseMethod ()
+   {
+      return mCauseMethod;
+   }
+
+   private static Method findCauseMethod (final Method[] methods)
+   {
+      Method theGetCauseMethod = null;
+      for (int i = 0; i < methods.length; i++)
+      {
+         if (methods[i].getDeclaringClass() == Throwable.class)
+         {
+            continue;
+         }
+         final int modifier = methods[i].getModifiers();
+         if (methods[i].getParameterTypes().length == 0
+             && Modifier.isPublic(modifier)
+             && !Modifier.isStatic(modifier)
+             && Throwable.class.isAssignableFrom(methods[i].getReturnType()))
+         {
+            // if the method is called getCause, assume it does
+            // what it is named FIXES #76
+            if (methods[i].getName().equals("getCause"))
+            {
+               theGetCauseMethod = methods[i];
+               break;
+            }
+            if (theGetCauseMethod != null)
+            {
+               // 2nd hit, safety first
+               logger.fine("Found 2 matching methods "  + theGetCauseMethod
+                     + " or " + methods[i] + ".");
+               theGetCauseMethod = null;
+               break;
+            }
+            theGetCauseMethod = methods[i];
+         }
+      }
+      return theGetCauseMethod;
+   }
+
+   /**
+    * A property getter of a throwable class.
+    */
+   public static final class Getter
+   {
+      private final Method mMethod;
+      private final String mPropertyName;
+      private final boolean mBooleanGetter;
+      private final boolean mDeclaresExceptions;
+
+      private Getter (Method method, String propertyName,
+            boolean booleanGetter)
+      {
+         mMethod = method;
+         mPropertyName = propertyName;
+         mBooleanGetter = booleanGetter;
+         mDeclaresExceptions = method.getExceptionTypes().length != 0;
+      }
+
+      private static Getter create (Method method)
+      {
+         Getter rc = null;
+         final int modifier = method.getModifiers();
+         final Class<?> returnType = method.getReturnType();
+         if (method.getDeclaringClass() != Throwable.class
+             && method.getDeclaringClass() != Object.class
+             && method.getParameterTypes().length == 0
+             && Modifier.isPublic(modifier)
+             && !Modifier.isStatic(modifier)
+             && !returnType.equals(Void.TYPE))
+         {
+            final String name = method.getName();
+            if (name.startsWith(GETTER_METHOD_PREFIX))
+            {
+               rc = new Getter(method,
+                     name.substring(GETTER_METHOD_PREFIX.length()), false);
+            }
+            else if (name.startsWith(BOOLEAN_GETTER_METHOD_PREFIX)
+                && (returnType.equals(Boolean.class)
+                    || returnType.equals(Boolean.TYPE)))
+            {
+               rc = new Getter(method,
+                     name.substring(BOOLEAN_GETTER_METHOD_PREFIX.length()),
+                     true);
+            }
+         }
+         return rc;
+      }
+
+      /**
+       * Returns the getter method.
+       * @return the getter method.
+       */
+      public Method getMethod ()
+      {
+         return mMethod;
+      }
+
+      /**
+       * Returns the name of the property, the method name without the
+       * <code>get</code> or <code>is</code> prefix.
+       * @return the name of the property.
+       */
+      public String getPropertyName ()
+      {
+         return mPropertyName;
+      }
+
+      /**
+       * Returns true if this is a <code>isXxx</code> boolean getter.
+       * @return true if this is a <code>isXxx</code> boolean getter.
+       */
+      public boolean isBooleanGetter ()
+      {
+         return mBooleanGetter;
+      }
+
+      /**
+       * Returns true if the getter declares checked exceptions.
+       * @return true if the getter declares checked exceptions.
+       */
+      public boolean declaresExceptions ()
+      {
+         return mDeclaresExceptions;
+      }
+
+      /**
+       * Reads the property from the given throwable.
+       * @param thr the throwable to read the property from.
+       * @return the value of the property.
+       * @throws IllegalAccessException if the getter is not accessible.
+       * @throws InvocationTargetException if the getter failed.
+       */
+      public Object invoke (Throwable thr)
+            throws IllegalAccessException, InvocationTargetException
+      {
+         return mMethod.invoke(thr, (Object[]) null);
+      }
+   }
+}
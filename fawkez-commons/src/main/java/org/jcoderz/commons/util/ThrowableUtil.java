@@ -35,9 +35,8 @@ package org.jcoderz.commons.util;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 
@@ -47,17 +46,6 @@ import java.util.Map;
  */
 public final class ThrowableUtil
 {
-   /** Name of getter methods start with this prefix. */
-   private static final String GETTER_METHOD_PREFIX = "get";
-   /** Name of getter methods start with this prefix. */
-   private static final String BOOLEAN_GETTER_METHOD_PREFIX = "is";
-   /** Length of the getter prefix. */
-   private static final int GETTER_METHOD_PREFIX_LENGTH
-       = GETTER_METHOD_PREFIX.length();
-   /** Length of the boolean getter prefix. */
-   private static final int BOOLEAN_GETTER_METHOD_PREFIX_LENGTH
-       = BOOLEAN_GETTER_METHOD_PREFIX.length();
-   
    private ThrowableUtil ()
    {
       // NO Instances
@@ -72,54 +60,26 @@ public final class ThrowableUtil
    public static Map<String, Object> getProperties(Throwable thr)
    {
        final Map<String, Object> result = new HashMap<String, Object>();
-       final Method[] methods = thr.getClass().getMethods();
-       for (int i = 0; i < methods.length; i++)
+       final Iterator<ThrowableGetters.Getter> getters
+           = ThrowableGetters.forClass(thr.getClass()).getGetters().iterator();
+       while (getters.hasNext())
        {
-          final int modifier = methods[i].getModifiers();
-          if (methods[i].getDeclaringClass() != Throwable.class
-              && methods[i].getDeclaringClass() != Object.class
-              && methods[i].getParameterTypes().length == 0
-              && Modifier.isPublic(modifier)
-              && !Modifier.isStatic(modifier)
-              && !methods[i].getReturnType().equals(Void.TYPE))
+          final ThrowableGetters.Getter getter = getters.next();
+          try
+          {
+              result.put(getter.getPropertyName(), getter.invoke(thr));
+          }
+          catch (InvocationTargetException e)
+          {
+              // Ignore this property, continue with next
+          }
+          catch (IllegalArgumentException e)
+          {
+              // Ignore this property, continue with next
+          }
+          catch (IllegalAccessException e)
           {
-              try
-              {
-                  if (methods[i].getName().startsWith(GETTER_METHOD_PREFIX))
-                  {
-                      final Object value
-                          = methods[i].invoke(thr, (Object[]) null);
-                      final String key
-                          = methods[i].getName().substring(
-                              GETTER_METHOD_PREFIX_LENGTH);
-                      result.put(key, value);
-                  }
-                  else if (methods[i].getName().startsWith(
-                          BOOLEAN_GETTER_METHOD_PREFIX)
-                      && (methods[i].getReturnType().equals(Boolean.class)
-                          || methods[i].getReturnType().equals(
-                              java.lang.Boolean.TYPE)))
-                  {
-                      final Object value
-                          = methods[i].invoke(thr, (Object[]) null);
-                      final String key
-                          = methods[i].getName().substring(
-                              BOOLEAN_GETTER_METHOD_PREFIX_LENGTH);
-                      result.put(key, value);
-                  }
-              }
-              catch (InvocationTargetException e)
-              {
-                  // Ignore this property, continue with next
-              }
-              catch (IllegalArgumentException e)
-              {
-                  // Ignore this property, continue with next
-              }
-              catch (IllegalAccessException e)
-              {
-                  // Ignore this property, continue with next
-              }
+              // Ignore this property, continue with next
           }
        }
        return result;
@@ -0,0 +1,116 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import junit.framework.TestCase;
+
+/**
+ * Tests the MessageTemplate class against {@link MessageFormat}.
+ *
+ */
+public class MessageTemplateTest
+      extends TestCase
+{
+   private static final Object[] ARGUMENTS = new Object[] {
+         "foo", new Integer(12345), new Date(0L), null,
+         new Double(1.5), Boolean.TRUE};
+
+   /** Tests plain argument slots and literals. */
+   public void testPlainArguments ()
+   {
+      assertSameAsMessageFormat("");
+      assertSameAsMessageFormat("no arguments at all");
+      assertSameAsMessageFormat("{0}");
+      assertSameAsMessageFormat("{0}{1}{2}{3}{4}{5}");
+      assertSameAsMessageFormat("a {0} b {1} c {2} d {3} e {5} f");
+      assertSameAsMessageFormat("{5} twice {5} and out of range {9}.");
+   }
+
+   /** Tests the quoting rules. */
+   public void testQuotes ()
+   {
+      assertSameAsMessageFormat("caused by '{0}'.");
+      assertSameAsMessageFormat("it''s {0}");
+      assertSameAsMessageFormat("'{'{0}'}' and '' and 'quoted '' text'");
+      assertSameAsMessageFormat("unterminated '{0}");
+   }
+
+   /** Tests arguments with format type and style. */
+   public void testTypedArguments ()
+   {
+      assertSameAsMessageFormat("{1,number} {1,number,#.00} {4,number,%}");
+      assertSameAsMessageFormat("{2,date} {2,time,short} {2,date,yyyy}");
+      assertSameAsMessageFormat("{1,number,'{'#'}'} and {0}");
+      assertSameAsMessageFormat(
+            "{1,choice,0#none|1#one|1<many {0}} after choice {5}");
+      assertSameAsMessageFormat("{3,number} null with format");
+   }
+
+   /** Tests formatting without arguments. */
+   public void testNoArguments ()
+   {
+      final String pattern = "a {0} b {1,number}";
+      assertEquals("Formatting without arguments.",
+            new MessageFormat(pattern).format(null, new StringBuffer(), null)
+               .toString(),
+            new MessageTemplate(pattern).format(null, new StringBuffer())
+               .toString());
+   }
+
+   /** Tests that an invalid pattern fails when formatting. */
+   public void testInvalidPattern ()
+   {
+      final MessageTemplate template = new MessageTemplate("broken {0");
+      try
+      {
+         template.format(ARGUMENTS, new StringBuffer());
+         fail("Invalid pattern should fail.");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // expected
+      }
+   }
+
+   private static void assertSameAsMessageFormat (String pattern)
+   {
+      final String expected = new MessageFormat(pattern).format(
+            ARGUMENTS, new StringBuffer(), null).toString();
+      final StringBuffer actual = new StringBuffer("prefix:");
+      new MessageTemplate(pattern).format(ARGUMENTS, actual);
+      assertEquals("Pattern '" + pattern + "'.",
+            "prefix:" + expected, actual.toString());
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests the ParameterStore class.
+ *
+ */
+public class ParameterStoreTest
+      extends TestCase
+{
+   /** Tests single and multiple values per name. */
+   public void testAddAndGet ()
+   {
+      final ParameterStore store = new ParameterStore();
+      assertNull("Unknown name", store.get("a"));
+      store.add("a", "1");
+      store.add("b", null);
+      store.add("a", "2");
+      store.addFirst("a", "0");
+      store.addFirst("c", "3");
+      store.add(new String("b"), "4");
+
+      assertEquals("Size", 3, store.size());
+      assertEquals("Values of a", Arrays.asList("0", "1", "2"), store.get("a"));
+      assertEquals("Values of b", Arrays.asList(null, "4"), store.get("b"));
+      assertEquals("Values of c", Arrays.asList("3"), store.get("c"));
+      assertTrue("Contains b", store.containsKey(new String("b")));
+      assertFalse("Contains d", store.containsKey("d"));
+   }
+
+   /** Tests that a list value is kept as a single value. */
+   public void testListValue ()
+   {
+      final ParameterStore store = new ParameterStore();
+      final ArrayList<String> value = new ArrayList<String>();
+      value.add("x");
+      store.add("list", value);
+      assertEquals("Values", 1, store.get("list").size());
+      assertSame("Value", value, store.get("list").get(0));
+   }
+
+   /** Tests iteration order, growth and equality with a plain map. */
+   public void testIterationAndGrowth ()
+   {
+      final ParameterStore store = new ParameterStore();
+      final Map<String, List<Serializable>> expected
+            = new HashMap<String, List<Serializable>>();
+      for (int i = 0; i < 50; i++)
+      {
+         store.add("name" + i, new Integer(i));
+         expected.put("name" + i, Arrays.asList(
+               new Serializable[] {new Integer(i)}));
+      }
+      final Iterator<String> names = store.keySet().iterator();
+      for (int i = 0; i < 50; i++)
+      {
+         assertEquals("Name " + i, "name" + i, names.next());
+      }
+      assertFalse("More names", names.hasNext());
+      assertEquals("Map content", expected, store);
+      assertEquals("Map hash code", expected.hashCode(), store.hashCode());
+   }
+
+   /** Tests that the store is read only as a map. */
+   public void testReadOnly ()
+   {
+      final ParameterStore store = new ParameterStore();
+      store.add("a", "1");
+      try
+      {
+         store.get("a").add("2");
+         fail("Values must not be modifiable.");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+         // expected
+      }
+      try
+      {
+         store.keySet().iterator().remove();
+         fail("Names must not be removable.");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+         // expected
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+   }
+
+   /** Tests serialization of the store. */
+   public void testSerialization ()
+         throws Exception
+   {
+      final ParameterStore store = new ParameterStore();
+      store.add("a", "1");
+      store.add("a", "2");
+      store.add("b", new Long(3));
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(store);
+      out.close();
+      final ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+      final ParameterStore copy = (ParameterStore) in.readObject();
+      assertEquals("Copy", store, copy);
+      copy.add("a", "3");
+      assertEquals("Values of copy", Arrays.asList("1", "2", "3"),
+            copy.get("a"));
+   }
+}
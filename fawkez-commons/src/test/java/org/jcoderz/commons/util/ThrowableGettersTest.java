@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * Tests the ThrowableGetters class.
+ */
+public class ThrowableGettersTest
+extends TestCase
+{
+    /** Tests the getters found for a throwable class. */
+    public void testGetters ()
+    {
+        final Map<String, ThrowableGetters.Getter> getters
+            = getters(ThrowableGetters.forClass(LegacyException.class));
+        assertTrue("Property getter", getters.containsKey("Code"));
+        assertFalse("Code getter", getters.get("Code").isBooleanGetter());
+        assertTrue("Boolean getter", getters.get("Fatal").isBooleanGetter());
+        assertTrue("Getter with exception",
+            getters.get("Risky").declaresExceptions());
+        assertFalse("Non boolean is getter", getters.containsKey("Nt"));
+        assertFalse("Throwable getter", getters.containsKey("StackTrace"));
+        assertFalse("Object getter", getters.containsKey("Class"));
+        assertFalse("Static getter", getters.containsKey("Static"));
+    }
+
+    /** Tests the detection of the nested exception getter. */
+    public void testCauseMethod ()
+        throws Exception
+    {
+        assertEquals("Legacy cause method",
+            LegacyException.class.getMethod("getNested", (Class[]) null),
+            ThrowableGetters.forClass(LegacyException.class)
+                .getCauseMethod());
+        assertNull("No cause method",
+            ThrowableGetters.forClass(Exception.class).getCauseMethod());
+    }
+
+    /** Tests that the metadata is resolved once per class. */
+    public void testCached ()
+    {
+        assertSame("Cached metadata",
+            ThrowableGetters.forClass(SAXParseException.class),
+            ThrowableGetters.forClass(SAXParseException.class));
+        final SAXParseException ex
+            = new SAXParseException("SAX", "public id", "system id", 5, 4);
+        assertEquals("Property", "public id",
+            ThrowableUtil.getProperties(ex).get("PublicId"));
+    }
+
+    private static Map<String, ThrowableGetters.Getter> getters (
+        ThrowableGetters info)
+    {
+        final Map<String, ThrowableGetters.Getter> rc
+            = new HashMap<String, ThrowableGetters.Getter>();
+        final Iterator<ThrowableGetters.Getter> i
+            = info.getGetters().iterator();
+        while (i.hasNext())
+        {
+            final ThrowableGetters.Getter getter = i.next();
+            rc.put(getter.getPropertyName(), getter);
+        }
+        return rc;
+    }
+
+    /** Exception using its own nesting and some properties. */
+    public static class LegacyException
+        extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** @return the nested exception. */
+        public Exception getNested ()
+        {
+            return null;
+        }
+
+        /** @return the code. */
+        public int getCode ()
+        {
+            return 1;
+        }
+
+        /** @return whether this is fatal. */
+        public boolean isFatal ()
+        {
+            return true;
+        }
+
+        /** @return something not boolean. */
+        public String isNt ()
+        {
+            return "";
+        }
+
+        /**
+         * @return something risky.
+         * @throws Exception never.
+         */
+        public String getRisky ()
+            throws Exception
+        {
+            return "";
+        }
+
+        /** @return a static value. */
+        public static String getStatic ()
+        {
+            return "";
+        }
+    }
+}
@@ -33,17 +33,16 @@
 package org.jcoderz.commons;
 
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.jcoderz.commons.logging.LogLineFormat;
 import org.jcoderz.commons.logging.LogLineFormat.LogLineType;
-import org.jcoderz.commons.logging.LogLineFormatFactory;
+import org.jcoderz.commons.logging.LogLineWriter;
+import org.jcoderz.commons.logging.StackTraceFingerprints;
 
 
 /**
@@ -51,6 +50,15 @@ import org.jcoderz.commons.logging.LogLineFormatFactory;
  * allows filtering of log files with standard tools and little effort. It
  * formats both standard a {@link java.util.logging.LogRecord} and instances of
  * {@link org.jcoderz.commons.Loggable}.
+ * The log lines are written by a {@link LogLineWriter} into a buffer, both
+ * are kept per thread and reused for subsequent records.
+ * <p>
+ * If the property
+ * <code>org.jcoderz.commons.LogFormatter.fingerprints</code> is set to
+ * <code>true</code>, each distinct stack trace is written in full only the
+ * first time after the head of a log file, later it is referenced by its
+ * fingerprint (see {@link StackTraceFingerprints}). This requires the records
+ * to be written in the order they are formatted, as file handlers do.
  *
  */
 public class LogFormatter
@@ -63,84 +71,116 @@ public class LogFormatter
     public static final String MSG_LOGGER_STACK_TRACE = "msgLoggerStackTrace";
     private static final Logger FWK_TRACE_LOGGER_LOGGER 
         = Logger.getLogger(MSG_LOGGER_STACK_TRACE);
-    private final ThreadLocal<Map<LogLineFormat.LogLineType, LogLineFormat>> mMessageFormatters = new ThreadLocal<Map<LogLineFormat.LogLineType, LogLineFormat>>();
 
-   /** {@inheritDoc} */
-   public String format (LogRecord record)
+   /** Initial capacity of the per thread buffer. */
+   private static final int INITIAL_BUFFER_CAPACITY = 1024;
+   /** Buffers grown beyond this capacity are not kept for reuse. */
+   private static final int MAX_BUFFER_CAPACITY = 64 * 1024;
+
+   private static final String FINGERPRINTS_PROPERTY
+         = LogFormatter.class.getName() + ".fingerprints";
+
+   private final ThreadLocal<FormatContext> mFormatContexts
+         = new ThreadLocal<FormatContext>();
+
+   /** The stack traces written to the current file, null if disabled. */
+   private final StackTraceFingerprints mFingerprints;
+
+   /**
+    * The line writer and buffer used by one thread.
+    */
+   private static final class FormatContext
    {
-      final StringBuffer sb = new StringBuffer();
-      Loggable loggable = null;
-      if (record.getParameters() != null && record.getParameters().length > 0)
-      {
-         if (record.getParameters()[0] instanceof Loggable)
-         {
-            loggable = (Loggable) record.getParameters()[0];
-         }
-      }
-      format(sb, record, loggable);
-      return sb.toString();
+      private final LogLineWriter mWriter = new LogLineWriter();
+      private StringBuilder mBuffer
+            = new StringBuilder(INITIAL_BUFFER_CAPACITY);
    }
 
    /**
-    * Gets the message format for a log line with <code>type</code> as type
-    * specifier.
+    * Creates a new instance of this, stack trace fingerprints are enabled
+    * by the logging property
+    * <code>org.jcoderz.commons.LogFormatter.fingerprints</code>.
+    */
+   public LogFormatter ()
+   {
+      this(Boolean.valueOf(LogManager.getLogManager().getProperty(
+            FINGERPRINTS_PROPERTY)).booleanValue());
+   }
+
+   /**
+    * Creates a new instance of this.
     *
-    * @param type The type specifier for the requested message format.
+    * @param fingerprints Whether stack traces written before are referenced
+    *       by their fingerprint.
+    */
+   public LogFormatter (boolean fingerprints)
+   {
+      mFingerprints = fingerprints ? new StackTraceFingerprints() : null;
+   }
+
+   /**
+    * Called by the handler before the first record is written to a new log
+    * file, so all stack traces are written in full again.
     *
-    * @return MessageFormat for log line of type <code>type</code>
+    * @param handler The target handler.
+    * @return the head of the log file, an empty string.
     */
-   private LogLineFormat getMessageFormat (
-         final LogLineFormat.LogLineType type)
+   public String getHead (Handler handler)
    {
-	   Map<LogLineFormat.LogLineType, LogLineFormat> formatters = mMessageFormatters.get();
-      if (formatters == null)
+      if (mFingerprints != null)
       {
-         formatters = createMessageFormats();
-         mMessageFormatters.set(formatters);
+         mFingerprints.clear();
       }
-      return (LogLineFormat) formatters.get(type);
+      return super.getHead(handler);
    }
 
-   private Map<LogLineFormat.LogLineType, LogLineFormat> createMessageFormats ()
+   /** {@inheritDoc} */
+   public String format (LogRecord record)
    {
-      final Map<LogLineFormat.LogLineType, LogLineFormat> rc = new HashMap<LogLineFormat.LogLineType, LogLineFormat>();
-
-      addMessageFormat(rc, LogLineFormat.TRACE_MESSAGE);
-      addMessageFormat(rc, LogLineFormat.EXCEPTION_MESSAGE);
-      addMessageFormat(rc, LogLineFormat.LOG_MESSAGE);
-      addMessageFormat(rc, LogLineFormat.ERROR_MESSAGE);
-      addMessageFormat(rc, LogLineFormat.STACKTRACE_MESSAGE);
-      addMessageFormat(rc, LogLineFormat.PARAMETER_LINE);
-      addMessageFormat(rc, LogLineFormat.NESTED_MESSAGE);
-
+      final FormatContext context = getFormatContext();
+      final StringBuilder sb = context.mBuffer;
+      Loggable loggable = null;
+      if (record.getParameters() != null && record.getParameters().length > 0)
+      {
+         if (record.getParameters()[0] instanceof Loggable)
+         {
+            loggable = (Loggable) record.getParameters()[0];
+         }
+      }
+      final String rc;
+      try
+      {
+         format(sb, context.mWriter, record, loggable);
+         rc = sb.toString();
+      }
+      finally
+      {
+         if (sb.capacity() > MAX_BUFFER_CAPACITY)
+         {
+            context.mBuffer = new StringBuilder(INITIAL_BUFFER_CAPACITY);
+         }
+         else
+         {
+            sb.setLength(0);
+         }
+      }
       return rc;
    }
 
    /**
-    * Formats a LogRecord, which does not carry any parameters. In this case it
-    * is a trace record, not a Loggable is logged.
+    * Gets the format context of the current thread.
     *
-    * @param sb the StringBuffer where to append the formatted log record
-    * @param record the log record to format
-    * @param trackingIdSequence a list collecting all tracking ids of messages
-    * being formatted by one call.
+    * @return FormatContext of the current thread.
     */
-   private void formatLogRecord (
-         final StringBuffer sb,
-         final LogRecord record,
-         final List<String> trackingIdSequence)
+   private FormatContext getFormatContext ()
    {
-      LogLineFormat.LogLineType type;
-      if (record.getThrown() != null)
-      {
-         type = LogLineFormat.EXCEPTION_MESSAGE;
-      }
-      else
+      FormatContext rc = mFormatContexts.get();
+      if (rc == null)
       {
-         type = LogLineFormat.TRACE_MESSAGE;
+         rc = new FormatContext();
+         mFormatContexts.set(rc);
       }
-      final LogLineFormat format = getMessageFormat(type);
-      format.format(sb, record, null, trackingIdSequence, null, null);
+      return rc;
    }
 
    /**
@@ -149,70 +189,49 @@ public class LogFormatter
     * done here. The stack trace appended by this contains the complete chain
     * of throwables.
     *
-    * @param sb the StringBuffer to which to append the stack trace
+    * @param sb the StringBuilder to which to append the stack trace
+    * @param writer the LogLineWriter holding the sequence of tracking ids.
     * @param record The LogRecord
     * @param loggable the Loggable, might be null.
-    * @param trackingIdSequence the list collecting the sequence of tracking
-    * ids, must not be null.
     */
    private void appendStackTrace (
-         final StringBuffer sb,
+         final StringBuilder sb,
+         final LogLineWriter writer,
          final LogRecord record,
-         final Loggable loggable,
-         final List<String> trackingIdSequence)
+         final Loggable loggable)
    {
       Throwable thrown = getTopLevelThrown(record, loggable);
       Throwable outerTrace = null;
-      final LogLineFormat.LogLineType type = LogLineFormat.STACKTRACE_MESSAGE;
-      final LogLineFormat format = getMessageFormat(type);
       while (thrown != null)
       {
          if (thrown instanceof Loggable)
          {
-            addTrackingNumber(trackingIdSequence, (Loggable) thrown);
+            writer.addTrackingId(((Loggable) thrown).getTrackingNumber());
          }
-         format.format(sb, record, loggable, trackingIdSequence,
-               thrown, outerTrace);
+         writer.appendStackTraceLines(sb, record, loggable, thrown,
+               outerTrace, mFingerprints);
          outerTrace = thrown;
          thrown = outerTrace.getCause();
       }
    }
 
-   /**
-    * Appends the parameters carried by the supplied LogRecord or Loggable
-    * to the string buffer. If there are no parameters, nothing is done here.
-    *
-    * @param sb the StringBuffer to which to append the stack trace
-    * @param loggable the Loggable, might be null.
-    * @param trackingIdSequence the list collecting the sequence of tracking
-    * ids, must not be null.
-    */
-   private void appendParameters (
-         final StringBuffer sb,
-         final LogRecord record,
-         final Loggable loggable,
-         final List<String> trackingIdSequence)
-   {
-      final LogLineFormat.LogLineType type = LogLineFormat.PARAMETER_LINE;
-      final LogLineFormat format = getMessageFormat(type);
-      format.format(sb, record, loggable, trackingIdSequence, null, null);
-   }
-
    /**
     * This loops through the nested Loggables/throwables and formats the
     * complete message stack.
     *
-    * @param sb The StringBuffer where to append the formatted message stack.
+    * @param sb The StringBuilder where to append the formatted message stack.
+    * @param writer The LogLineWriter to use.
     * @param record The source LogRecord to format
     * @param loggable The first instance of Loggable, might be null if
     * <code>record</code> does not carry a Loggable.
     */
    private void format (
-         final StringBuffer sb,
+         final StringBuilder sb,
+         final LogLineWriter writer,
          final LogRecord record,
          final Loggable loggable)
    {
-      List<String> trackingIds = initialiseTrackingIds(record, loggable);
+      writer.startTrackingIds(record, loggable);
       Loggable currentLoggable = loggable;
       boolean isFirst = true;
 
@@ -222,12 +241,12 @@ public class LogFormatter
          Throwable nestedCause = null;
          if (currentLoggable != null)
          {
-            formatLoggable(sb, record, currentLoggable, trackingIds);
+            formatLoggable(sb, writer, record, currentLoggable);
             nestedCause = currentLoggable.getCause();
          }
          else if (isFirst)
          {
-            formatLogRecord(sb, record, trackingIds);
+            writer.appendTraceLine(sb, record);
             nestedCause = record.getThrown();
          }
          isFirst = false;
@@ -236,7 +255,7 @@ public class LogFormatter
 
          if (cause != null)
          {
-            appendNestingLevel(sb, record, cause, trackingIds);
+            appendNestingLevel(sb, writer, record, cause);
             if (cause instanceof Loggable)
             {
                currentLoggable = (Loggable) cause;
@@ -248,37 +267,19 @@ public class LogFormatter
       if (!(loggable instanceof LogEvent)
           || FWK_TRACE_LOGGER_LOGGER.isLoggable(record.getLevel()))
       {
-          trackingIds = initialiseTrackingIds(record, loggable);
-          appendStackTrace(sb, record, loggable, trackingIds);
+          writer.startTrackingIds(record, loggable);
+          appendStackTrace(sb, writer, record, loggable);
       }
    }
 
    private void formatLoggable (
-         final StringBuffer sb,
+         final StringBuilder sb,
+         final LogLineWriter writer,
          final LogRecord record,
-         final Loggable loggable,
-         final List<String> trackingIds)
-   {
-      final LogLineFormat.LogLineType type = determineType(loggable);
-      final LogLineFormat format = getMessageFormat(type);
-      format.format(sb, record, loggable, trackingIds, null, null);
-      appendParameters(sb, record, loggable, trackingIds);
-   }
-
-   /**
-    * Creates the message format for the specified type and adds it to the
-    * supplied map.
-    *
-    * @param msgFormats The map to which to add the new message format with
-    * <code>type</code> as key.
-    * @param type The type for which to create the format and add to the map.
-    */
-   private void addMessageFormat (
-         final Map<LogLineFormat.LogLineType, LogLineFormat> msgFormats,
-         final LogLineFormat.LogLineType type)
+         final Loggable loggable)
    {
-      final LogLineFormat format = LogLineFormatFactory.create(type);
-      msgFormats.put(type, format);
+      writer.appendMessageLine(sb, determineType(loggable), record, loggable);
+      writer.appendParameterLines(sb, record, loggable);
    }
 
    /**
@@ -315,125 +316,33 @@ public class LogFormatter
    }
 
   /**
-   * Appends a nesting level to the StringBuffer. This is performed if the
+   * Appends a nesting level to the StringBuilder. This is performed if the
    * current Loggable carries a cause, which might be a Loggable itself.
    * In case the cause is a Loggable, the tracking id sequence is extended with
    * its tracking id and the symbol name is logged here. If the cause is not a
    * Loggable, its name and message are logged.
    *
-   * @param sb The StringBuffer where to append the nesting level.
+   * @param sb The StringBuilder where to append the nesting level.
+   * @param writer The LogLineWriter holding the sequence of tracking ids.
    * @param record The LogRecord currently formatted.
    * @param cause The Throwable causing the nesting level.
-   * @param trackingIdSequence The list collecting the sequence of tracking ids.
    */
    private void appendNestingLevel (
-         final StringBuffer sb,
+         final StringBuilder sb,
+         final LogLineWriter writer,
          final LogRecord record,
-         final Throwable cause,
-         final List<String> trackingIdSequence)
+         final Throwable cause)
    {
-      final Loggable loggable;
       if (cause instanceof Loggable)
       {
-         loggable = (Loggable) cause;
-      }
-      else
-      {
-         loggable = null;
-      }
-      final LogLineFormat.LogLineType type = LogLineFormat.NESTED_MESSAGE;
-      final LogLineFormat format = getMessageFormat(type);
-      if (loggable == null)
-      {
-         format.format(sb, record, null, trackingIdSequence, null, cause);
-      }
-      else
-      {
-         addTrackingNumber(trackingIdSequence, loggable);
-         format.format(sb, record, loggable, trackingIdSequence, null,
+         final Loggable loggable = (Loggable) cause;
+         writer.addTrackingId(loggable.getTrackingNumber());
+         writer.appendNestedLine(sb, record, loggable,
                loggable.getLogMessageInfo().getSymbol());
       }
-   }
-
-   /**
-    * Initialises the list holding the sequence of tracking ids. Creates a new
-    * list and fills it with the first tracking id, which is taken from the
-    * supplied loggable. If this is null, the sequence number of the supplied
-    * log record is taken.
-    *
-    * @param record The log record to format. Must not be null.
-    * @param loggable The loggable being encapsulated by <code>record</code>,
-    * might be null.
-    *
-    * @return List with first tracking id.
-    */
-   private List<String> initialiseTrackingIds (
-         final LogRecord record,
-         final Loggable loggable)
-   {
-      final List<String> rc = new ArrayList<String>();
-
-      if (loggable != null)
-      {
-         addTrackingNumber(rc, loggable);
-      }
-      else
-      {
-         addTrackingNumber(rc, record);
-      }
-      return rc;
-   }
-
-   /**
-    * Adds the record's sequence number as new tracking id to the sequence of
-    * tracking ids, if it is not already included as last element.
-    *
-    * @param trackingIds The list storing the sequence of tracking ids.
-    * @param record The record for which to add the sequence number.
-    */
-   private void addTrackingNumber (
-         final List<String> trackingIds,
-         final LogRecord record)
-   {
-      addTrackingNumber(trackingIds,
-            Integer.toHexString((int) record.getSequenceNumber()));
-   }
-
-   /**
-    * Adds the loggable's tracking number as new tracking id to the sequence of
-    * tracking ids, if it is not already included as last element.
-    *
-    * @param trackingIds The list storing the sequence of tracking ids.
-    * @param loggable The Loggable for which to add the tracking number.
-    */
-   private void addTrackingNumber (
-         final List<String> trackingIds,
-         final Loggable loggable)
-   {
-      addTrackingNumber(trackingIds, loggable.getTrackingNumber());
-   }
-
-   /**
-    * Adds the new tracking number as new tracking id to the sequence of
-    * tracking ids, if it is not already included as last element.
-    *
-    * @param trackingIds The list storing the sequence of tracking ids.
-    * @param newId The number to add to the sequence.
-    */
-   private void addTrackingNumber (
-         final List<String> trackingIds,
-         final String newId)
-   {
-      if (! trackingIds.isEmpty())
-      {
-         if (! trackingIds.get(trackingIds.size() - 1).equals(newId))
-         {
-            trackingIds.add(newId);
-         }
-      }
       else
       {
-         trackingIds.add(newId);
+         writer.appendNestedLine(sb, record, null, cause);
       }
    }
 
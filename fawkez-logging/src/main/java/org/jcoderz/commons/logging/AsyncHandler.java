@@ -0,0 +1,598 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.Loggable;
+
+
+/**
+ * This log handler decouples the formatting and writing of log records from
+ * the logging thread. Published records are put into a bounded, lock-free
+ * ring buffer and are handed over to a target handler by a dedicated consumer
+ * thread. The expensive work, e.g. the multi line formatting of the
+ * {@link org.jcoderz.commons.LogFormatter}, is thereby done outside of the
+ * request threads.
+ * The following configuration can be provided in the logging properties
+ * file:<br>
+ *
+ * <code>org.jcoderz.commons.logging.AsyncHandler.target:</code><br>
+ *    Name of the class extending java.util.logging.Handler to which the
+ *    records are delegated. The target handler is configured by its own
+ *    properties. Defaults to java.util.logging.ConsoleHandler.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.AsyncHandler.capacity:</code><br>
+ *    Number of records the ring buffer can hold, rounded up to the next power
+ *    of two. Defaults to 8192.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.AsyncHandler.policy:</code><br>
+ *    What to do if the ring buffer is full. One of <code>block</code>
+ *    (the logging thread waits for free space), <code>drop-below-level</code>
+ *    (records below the drop level are discarded, all others wait) or
+ *    <code>drop-oldest</code> (the oldest buffered record is discarded).
+ *    Defaults to <code>block</code>.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.AsyncHandler.droplevel:</code><br>
+ *    The level for the policy <code>drop-below-level</code>. Defaults to
+ *    WARNING.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.AsyncHandler.level:</code><br>
+ *    The level of this handler. Defaults to ALL.
+ *
+ */
+public class AsyncHandler
+      extends Handler
+{
+   /**
+    * Defines how to handle a record if the ring buffer is full.
+    */
+   public enum OverflowPolicy
+   {
+      /** Waits until the consumer has freed some space. */
+      BLOCK,
+      /** Discards records below the drop level, waits for all others. */
+      DROP_BELOW_LEVEL,
+      /** Discards the oldest buffered record. */
+      DROP_OLDEST
+   }
+
+   /** The default capacity of the ring buffer. */
+   public static final int DEFAULT_CAPACITY = 8192;
+
+   private static final String CLASSNAME = AsyncHandler.class.getName();
+
+   private static final String TARGET_PROPERTY = CLASSNAME + "." + "target";
+   private static final String CAPACITY_PROPERTY
+         = CLASSNAME + "." + "capacity";
+   private static final String POLICY_PROPERTY = CLASSNAME + "." + "policy";
+   private static final String DROP_LEVEL_PROPERTY
+         = CLASSNAME + "." + "droplevel";
+   private static final String LEVEL_PROPERTY = CLASSNAME + "." + "level";
+
+   /** Time the consumer sleeps if there is nothing to do. */
+   private static final long CONSUMER_PARK_NANOS
+         = TimeUnit.MILLISECONDS.toNanos(10);
+   /** Time a blocked producer or flushing thread waits before retrying. */
+   private static final long PRODUCER_PARK_NANOS
+         = TimeUnit.MICROSECONDS.toNanos(100);
+   /** Time to wait for the consumer to drain the buffer on close. */
+   private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+   private final Handler mTarget;
+   private final BoundedRingBuffer<Entry> mBuffer;
+   private final OverflowPolicy mPolicy;
+   private final int mDropLevel;
+   private final Thread mConsumer;
+
+   /** Number of records put into the buffer. */
+   private final AtomicLong mAccepted = new AtomicLong();
+   /** Number of accepted records delivered to the target or evicted. */
+   private final AtomicLong mProcessed = new AtomicLong();
+   /** Number of records discarded on publish. */
+   private final AtomicLong mDropped = new AtomicLong();
+   /** Number of buffered records discarded to make room for newer ones. */
+   private final AtomicLong mEvicted = new AtomicLong();
+
+   private volatile boolean mConsumerWaiting = false;
+   private volatile boolean mClosed = false;
+
+   private final BoundedRingBuffer.OverflowListener<Entry> mOverflow
+         = new BoundedRingBuffer.OverflowListener<Entry>()
+         {
+            /** {@inheritDoc} */
+            public void evicted (final Entry entry)
+            {
+               mEvicted.incrementAndGet();
+               mProcessed.incrementAndGet();
+            }
+
+            /** {@inheritDoc} */
+            public boolean awaitSpace ()
+            {
+               final boolean rc = ! mClosed && mConsumer.isAlive();
+               if (rc)
+               {
+                  LockSupport.unpark(mConsumer);
+                  LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+               }
+               return rc;
+            }
+         };
+
+   /**
+    * A buffered record together with the name of the logging thread, which is
+    * not part of the LogRecord.
+    */
+   private static final class Entry
+   {
+      private final LogRecord mRecord;
+      private final String mThreadName;
+
+      private Entry (LogRecord record, String threadName)
+      {
+         mRecord = record;
+         mThreadName = threadName;
+      }
+   }
+
+   /**
+    * Drains the ring buffer and delegates the records to the target handler.
+    */
+   private final class Consumer
+         implements Runnable
+   {
+      /** {@inheritDoc} */
+      public void run ()
+      {
+         while (! mClosed || ! mBuffer.isEmpty())
+         {
+            final Entry entry = mBuffer.poll();
+            if (entry == null)
+            {
+               mConsumerWaiting = true;
+               if (mBuffer.isEmpty() && ! mClosed)
+               {
+                  LockSupport.parkNanos(CONSUMER_PARK_NANOS);
+               }
+               mConsumerWaiting = false;
+            }
+            else
+            {
+               deliver(entry);
+               mProcessed.incrementAndGet();
+            }
+         }
+      }
+   }
+
+   /**
+    * Creates a new instance of this and configures it from the properties of
+    * the LogManager.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the configuration is invalid or the
+    * target handler could not be created.
+    */
+   public AsyncHandler ()
+         throws SecurityException,
+         InstantiationException
+   {
+      this(createTarget(), getCapacity(), getPolicy(), getDropLevel());
+      final String level = LogManager.getLogManager().getProperty(
+            LEVEL_PROPERTY);
+      if (level != null && level.length() != 0)
+      {
+         setLevel(parseLevel(level, LEVEL_PROPERTY));
+      }
+   }
+
+   /**
+    * Creates a new instance of this delegating to the given handler.
+    *
+    * @param target The handler formatting and writing the records.
+    * @param capacity The minimum number of records the buffer can hold.
+    * @param policy The policy applied if the buffer is full.
+    * @param dropLevel Records below this level are discarded if the buffer
+    *       is full and the policy is {@link OverflowPolicy#DROP_BELOW_LEVEL}.
+    */
+   public AsyncHandler (
+         final Handler target,
+         final int capacity,
+         final OverflowPolicy policy,
+         final Level dropLevel)
+   {
+      super();
+      if (target == null || policy == null || dropLevel == null)
+      {
+         throw new NullPointerException(
+               "Target, policy and drop level must not be null.");
+      }
+      mTarget = target;
+      mBuffer = new BoundedRingBuffer<Entry>(capacity);
+      mPolicy = policy;
+      mDropLevel = dropLevel.intValue();
+      mConsumer = new Thread(new Consumer(), "AsyncHandler-" + target.getClass()
+            .getName());
+      mConsumer.setDaemon(true);
+      mConsumer.start();
+   }
+
+   /** {@inheritDoc} */
+   public void publish (final LogRecord record)
+   {
+      if (! mClosed && isLoggable(record))
+      {
+         // The caller is inferred lazily by the LogRecord from the current
+         // stack, so this must happen in the logging thread.
+         record.getSourceClassName();
+         final Entry entry;
+         if (getLoggable(record) == null)
+         {
+            entry = new Entry(record, Thread.currentThread().getName());
+         }
+         else
+         {
+            entry = new Entry(record, null);
+         }
+         if (enqueue(entry))
+         {
+            if (mConsumerWaiting)
+            {
+               LockSupport.unpark(mConsumer);
+            }
+         }
+         else
+         {
+            mDropped.incrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Waits until all records published so far are delegated to the target
+    * handler and flushes the target handler.
+    */
+   public void flush ()
+   {
+      final long accepted = mAccepted.get();
+      if (Thread.currentThread() != mConsumer)
+      {
+         while (mProcessed.get() < accepted && mConsumer.isAlive())
+         {
+            LockSupport.unpark(mConsumer);
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+         }
+      }
+      mTarget.flush();
+   }
+
+   /**
+    * Stops accepting new records, waits until the buffered records are
+    * delegated to the target handler and closes the target handler.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    */
+   public void close ()
+         throws SecurityException
+   {
+      LogManager.getLogManager().checkAccess();
+      mClosed = true;
+      LockSupport.unpark(mConsumer);
+      try
+      {
+         mConsumer.join(CLOSE_TIMEOUT_MILLIS);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         reportError("Interrupted while draining the log buffer", ex,
+               ErrorManager.CLOSE_FAILURE);
+      }
+      mTarget.close();
+   }
+
+   /**
+    * Returns the handler the records are delegated to.
+    *
+    * @return the target handler.
+    */
+   public Handler getTarget ()
+   {
+      return mTarget;
+   }
+
+   /**
+    * Returns the overflow policy of this.
+    *
+    * @return the overflow policy.
+    */
+   public OverflowPolicy getOverflowPolicy ()
+   {
+      return mPolicy;
+   }
+
+   /**
+    * Returns the number of records currently waiting in the buffer.
+    *
+    * @return the number of buffered records.
+    */
+   public int getBufferedCount ()
+   {
+      return mBuffer.size();
+   }
+
+   /**
+    * Returns the number of records which were discarded on publish, because
+    * the buffer was full or the handler already closed while publishing.
+    *
+    * @return the number of dropped records.
+    */
+   public long getDroppedCount ()
+   {
+      return mDropped.get();
+   }
+
+   /**
+    * Returns the number of buffered records which were discarded to make
+    * room for newer ones by the policy {@link OverflowPolicy#DROP_OLDEST}.
+    *
+    * @return the number of evicted records.
+    */
+   public long getEvictedCount ()
+   {
+      return mEvicted.get();
+   }
+
+   private boolean enqueue (final Entry entry)
+   {
+      final boolean rc = mBuffer.offer(entry, mPolicy,
+            entry.mRecord.getLevel().intValue() < mDropLevel, mOverflow);
+      if (rc)
+      {
+         mAccepted.incrementAndGet();
+      }
+      return rc;
+   }
+
+   private void deliver (final Entry entry)
+   {
+      final Thread consumer = Thread.currentThread();
+      final String consumerName = consumer.getName();
+      try
+      {
+         // Formatters take the thread name of plain records from the
+         // current thread, so present the name of the logging thread.
+         if (entry.mThreadName != null)
+         {
+            consumer.setName(entry.mThreadName);
+         }
+         mTarget.publish(entry.mRecord);
+      }
+      catch (Exception ex)
+      {
+         reportError("Error delegating a log record", ex,
+               ErrorManager.WRITE_FAILURE);
+      }
+      finally
+      {
+         if (entry.mThreadName != null)
+         {
+            consumer.setName(consumerName);
+         }
+      }
+   }
+
+   private static Loggable getLoggable (final LogRecord record)
+   {
+      Loggable rc = null;
+      final Object[] params = record.getParameters();
+      if (params != null && params.length > 0
+            && params[0] instanceof Loggable)
+      {
+         rc = (Loggable) params[0];
+      }
+      return rc;
+   }
+
+   private static Handler createTarget ()
+         throws InstantiationException
+   {
+      return createTarget(TARGET_PROPERTY);
+   }
+
+   /**
+    * Creates the handler configured with the given property.
+    *
+    * @param property The name of the property holding the class name of
+    *       the handler.
+    * @return the configured handler, a ConsoleHandler if none is
+    *       configured.
+    * @throws InstantiationException If the handler could not be created.
+    */
+   static Handler createTarget (String property)
+         throws InstantiationException
+   {
+      final String targetClass = LogManager.getLogManager().getProperty(
+            property);
+      final Handler rc;
+      if (targetClass == null || targetClass.length() == 0)
+      {
+         rc = new ConsoleHandler();
+      }
+      else
+      {
+         try
+         {
+            rc = AccessController.doPrivileged(
+                  new PrivilegedExceptionAction<Handler>()
+                  {
+                     public Handler run ()
+                           throws InstantiationException,
+                           IllegalAccessException,
+                           ClassNotFoundException
+                     {
+                        return (Handler) Class.forName(targetClass)
+                              .newInstance();
+                     }
+                  }
+            );
+         }
+         catch (PrivilegedActionException e)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Could not install the target Handler: " + targetClass);
+            iex.initCause(e);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private static int getCapacity ()
+         throws InstantiationException
+   {
+      final String capacity = LogManager.getLogManager().getProperty(
+            CAPACITY_PROPERTY);
+      int rc = DEFAULT_CAPACITY;
+      if (capacity != null && capacity.length() != 0)
+      {
+         try
+         {
+            rc = Integer.parseInt(capacity.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid capacity configured with property "
+                  + CAPACITY_PROPERTY + ": " + capacity);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private static OverflowPolicy getPolicy ()
+         throws InstantiationException
+   {
+      final String policy = LogManager.getLogManager().getProperty(
+            POLICY_PROPERTY);
+      OverflowPolicy rc = OverflowPolicy.BLOCK;
+      if (policy != null && policy.length() != 0)
+      {
+         rc = parsePolicy(policy, POLICY_PROPERTY);
+      }
+      return rc;
+   }
+
+   /**
+    * Parses an overflow policy given as <code>block</code>,
+    * <code>drop-below-level</code> or <code>drop-oldest</code>.
+    *
+    * @param policy The configured policy.
+    * @param property The name of the property the policy was read from.
+    * @return the overflow policy.
+    * @throws InstantiationException If the policy is unknown.
+    */
+   static OverflowPolicy parsePolicy (String policy, String property)
+         throws InstantiationException
+   {
+      final OverflowPolicy rc;
+      try
+      {
+         rc = OverflowPolicy.valueOf(
+               policy.trim().toUpperCase().replace('-', '_'));
+      }
+      catch (IllegalArgumentException ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Invalid overflow policy configured with property "
+               + property + ": " + policy);
+         iex.initCause(ex);
+         throw iex;
+      }
+      return rc;
+   }
+
+   private static Level getDropLevel ()
+         throws InstantiationException
+   {
+      final String level = LogManager.getLogManager().getProperty(
+            DROP_LEVEL_PROPERTY);
+      Level rc = Level.WARNING;
+      if (level != null && level.length() != 0)
+      {
+         rc = parseLevel(level, DROP_LEVEL_PROPERTY);
+      }
+      return rc;
+   }
+
+   /**
+    * Parses a level configured in the logging properties.
+    *
+    * @param level The configured level.
+    * @param property The name of the property the level was read from.
+    * @return the level.
+    * @throws InstantiationException If the level is invalid.
+    */
+   static Level parseLevel (String level, String property)
+         throws InstantiationException
+   {
+      final Level rc;
+      try
+      {
+         rc = Level.parse(level.trim());
+      }
+      catch (IllegalArgumentException ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Invalid level configured with property " + property + ": "
+               + level);
+         iex.initCause(ex);
+         throw iex;
+      }
+      return rc;
+   }
+}
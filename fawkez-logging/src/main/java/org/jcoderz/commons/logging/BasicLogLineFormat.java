@@ -92,7 +92,7 @@ public abstract class BasicLogLineFormat
    private static final String LOGLINE_FORMAT_PATTERN
          = "{0} {1} {2} {3} {4} {5} {6} {7} {8}";
 
-   private static final String NO_MSG_SYMBOL = "TRACEMSG";
+   static final String NO_MSG_SYMBOL = "TRACEMSG";
 
    /**
     * Creates a new instance of this and initializes the message format.
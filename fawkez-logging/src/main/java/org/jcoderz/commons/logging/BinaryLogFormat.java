@@ -0,0 +1,222 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * Constants of the binary log file format written by the
+ * {@link BinaryLogHandler} and read by the {@link BinaryLogReader}.
+ * <p>
+ * A binary log file is a sequence of segments. Each segment starts with the
+ * {@link #MAGIC} and the {@link #VERSION} or, if a handler appends to an
+ * existing file, with a {@link #SEGMENT_MARK}. A segment has its own string
+ * table and timestamp base, so it can be decoded without the preceding
+ * segments. Each record is prefixed by its length as variable length
+ * integer and holds the items of one log record, i.e. the log record and
+ * its nested loggables and exceptions, followed by the stack trace.
+ * <p>
+ * Strings, which are likely to repeat like symbol ids, node ids or thread
+ * names, are put into the string table of the segment when written the first
+ * time and are referred to by their index afterwards. Timestamps are written
+ * as difference to the previous timestamp of the segment.
+ *
+ */
+final class BinaryLogFormat
+{
+   /** The first bytes of a binary log file. */
+   static final byte[] MAGIC = {'F', 'W', 'B', 'L'};
+
+   /** The version of the format. */
+   static final int VERSION = 1;
+
+   /** Number of bytes of magic and version. */
+   static final int HEADER_SIZE = 8;
+
+   /** A record length of 0 marks the start of a new segment. */
+   static final int SEGMENT_MARK = 0;
+
+   /** String code for a null string. */
+   static final int STRING_NULL = 0;
+   /** String code for a string, which is not put into the string table. */
+   static final int STRING_LITERAL = 1;
+   /** String code for a string, which is added to the string table. */
+   static final int STRING_NEW = 2;
+   /** String codes from this on refer to the string table. */
+   static final int STRING_REFERENCE = 3;
+
+   /** Maximum number of strings in the string table of a segment. */
+   static final int MAX_STRINGS = 1 << 16;
+
+   private static final int VARINT_BITS = 7;
+   private static final int VARINT_MASK = 0x7f;
+   private static final int VARINT_MORE = 0x80;
+   private static final int MAX_VARINT_BYTES = 5;
+   private static final int SCAN_BUFFER_SIZE = 8192;
+
+   private BinaryLogFormat ()
+   {
+      // Constants only
+   }
+
+   /**
+    * Checks whether the supplied file starts with the magic of a binary log
+    * file.
+    *
+    * @param file The file to check.
+    * @return true if the file is a binary log file; false, if not or if it
+    *       cannot be read.
+    */
+   static boolean isBinaryLogFile (final File file)
+   {
+      boolean rc = false;
+      InputStream in = null;
+      try
+      {
+         in = new FileInputStream(file);
+         final byte[] magic = new byte[MAGIC.length];
+         int read = 0;
+         int n = 0;
+         while (read < magic.length && n >= 0)
+         {
+            n = in.read(magic, read, magic.length - read);
+            read += Math.max(n, 0);
+         }
+         rc = read == magic.length;
+         for (int i = 0; i < magic.length && rc; i++)
+         {
+            rc = magic[i] == MAGIC[i];
+         }
+      }
+      catch (IOException ex)
+      {
+         rc = false;
+      }
+      finally
+      {
+         IoUtil.close(in);
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the length of the supplied binary log file up to the end of its
+    * last complete record. A process writing the file might have died while
+    * writing a record, a segment appended after such a partial record could
+    * not be read. The length of a file, which is not a binary log file or
+    * whose record lengths are invalid, is returned unchanged.
+    *
+    * @param file The binary log file.
+    * @return the length of the complete records of the file, 0 if even the
+    *       header is incomplete.
+    * @throws IOException if reading the file fails.
+    */
+   static long getCompleteLength (final File file)
+         throws IOException
+   {
+      final long size = file.length();
+      long rc = 0;
+      if (size >= HEADER_SIZE && isBinaryLogFile(file))
+      {
+         final InputStream in = new BufferedInputStream(
+               new FileInputStream(file), SCAN_BUFFER_SIZE);
+         try
+         {
+            skip(in, HEADER_SIZE);
+            rc = HEADER_SIZE;
+            boolean done = false;
+            while (! done)
+            {
+               int length = 0;
+               int prefixLength = 0;
+               int b = VARINT_MORE;
+               while ((b & VARINT_MORE) != 0 && b >= 0
+                     && prefixLength < MAX_VARINT_BYTES)
+               {
+                  b = in.read();
+                  length |= (b & VARINT_MASK) << (prefixLength * VARINT_BITS);
+                  prefixLength++;
+               }
+               if (b >= 0 && ((b & VARINT_MORE) != 0 || length < 0))
+               {
+                  // not a partial record, leave the file as it is
+                  rc = size;
+                  done = true;
+               }
+               else if (b < 0 || rc + prefixLength + length > size)
+               {
+                  // the record is incomplete
+                  done = true;
+               }
+               else
+               {
+                  skip(in, length);
+                  rc += prefixLength + length;
+                  done = rc == size;
+               }
+            }
+         }
+         finally
+         {
+            IoUtil.close(in);
+         }
+      }
+      else if (size >= HEADER_SIZE)
+      {
+         rc = size;
+      }
+      return rc;
+   }
+
+   private static void skip (final InputStream in, final long count)
+         throws IOException
+   {
+      long remaining = count;
+      while (remaining > 0)
+      {
+         final long skipped = in.skip(remaining);
+         if (skipped <= 0)
+         {
+            throw new IOException("Unexpected end of file");
+         }
+         remaining -= skipped;
+      }
+   }
+}
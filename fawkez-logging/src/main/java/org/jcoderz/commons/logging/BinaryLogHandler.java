@@ -0,0 +1,253 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * This log handler writes log records into a file in the compact binary
+ * format described by {@link BinaryLogFormat}. Compared to the text format
+ * of the {@link org.jcoderz.commons.LogFormatter} repeated strings like
+ * symbols, node ids and thread names are written only once per file and the
+ * records are read back without parsing text. Binary log files are displayed
+ * by the {@link LogViewer} like text log files. When appending to a file, a
+ * partial record left by a process which died while writing it is removed.
+ * The following configuration can be provided in the logging properties
+ * file:<br>
+ *
+ * <code>org.jcoderz.commons.logging.BinaryLogHandler.file:</code><br>
+ *    Name of the file to write to. Defaults to log.bin.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.BinaryLogHandler.append:</code><br>
+ *    Whether to append to an existing file. Defaults to true.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.BinaryLogHandler.level:</code><br>
+ *    The level of this handler. Defaults to ALL.
+ *
+ */
+public class BinaryLogHandler
+      extends Handler
+{
+   /** The default name of the log file. */
+   public static final String DEFAULT_FILE = "log.bin";
+
+   private static final String CLASSNAME = BinaryLogHandler.class.getName();
+
+   private static final String FILE_PROPERTY = CLASSNAME + "." + "file";
+   private static final String APPEND_PROPERTY = CLASSNAME + "." + "append";
+   private static final String LEVEL_PROPERTY = CLASSNAME + "." + "level";
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private final File mFile;
+   private final BinaryLogWriter mWriter = new BinaryLogWriter();
+   private OutputStream mOut;
+
+   /**
+    * Set if writing a record failed, so the string table of the file might
+    * not match the one of the writer anymore.
+    */
+   private boolean mStartSegment = false;
+
+   /**
+    * Creates a new instance of this and configures it from the properties of
+    * the LogManager.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the configuration is invalid or the
+    * file cannot be opened.
+    */
+   public BinaryLogHandler ()
+         throws SecurityException,
+         InstantiationException
+   {
+      this(new File(getProperty(FILE_PROPERTY, DEFAULT_FILE)),
+            Boolean.valueOf(getProperty(APPEND_PROPERTY, "true"))
+                  .booleanValue());
+      final String level = LogManager.getLogManager().getProperty(
+            LEVEL_PROPERTY);
+      if (level != null && level.length() != 0)
+      {
+         setLevel(AsyncHandler.parseLevel(level, LEVEL_PROPERTY));
+      }
+   }
+
+   /**
+    * Creates a new instance of this writing to the given file.
+    *
+    * @param file The file to write to.
+    * @param append Whether to append to an existing file.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the file cannot be opened.
+    */
+   public BinaryLogHandler (final File file, final boolean append)
+         throws SecurityException,
+         InstantiationException
+   {
+      super();
+      LogManager.getLogManager().checkAccess();
+      mFile = file;
+      try
+      {
+         final long length = append
+               ? BinaryLogFormat.getCompleteLength(file) : 0;
+         final FileOutputStream out = new FileOutputStream(file, append);
+         mOut = new BufferedOutputStream(out, BUFFER_SIZE);
+         if (length < file.length())
+         {
+            // the segment mark must follow a complete record
+            out.getChannel().truncate(length);
+         }
+         final boolean newFile = length == 0;
+         if (newFile)
+         {
+            mWriter.writeHeader(mOut);
+         }
+         else
+         {
+            mWriter.writeSegmentMark(mOut);
+         }
+         mOut.flush();
+      }
+      catch (IOException ex)
+      {
+         IoUtil.close(mOut);
+         final InstantiationException iex = new InstantiationException(
+               "Cannot open the binary log file " + file);
+         iex.initCause(ex);
+         throw iex;
+      }
+   }
+
+   /** {@inheritDoc} */
+   public synchronized void publish (final LogRecord record)
+   {
+      if (mOut != null && isLoggable(record))
+      {
+         try
+         {
+            if (mStartSegment)
+            {
+               mWriter.writeSegmentMark(mOut);
+               mStartSegment = false;
+            }
+            mWriter.write(mOut, record);
+            mOut.flush();
+         }
+         catch (Exception ex)
+         {
+            mStartSegment = true;
+            reportError("Error writing a log record to " + mFile, ex,
+                  ErrorManager.WRITE_FAILURE);
+         }
+      }
+   }
+
+   /** {@inheritDoc} */
+   public synchronized void flush ()
+   {
+      if (mOut != null)
+      {
+         try
+         {
+            mOut.flush();
+         }
+         catch (IOException ex)
+         {
+            reportError("Error flushing " + mFile, ex,
+                  ErrorManager.FLUSH_FAILURE);
+         }
+      }
+   }
+
+   /**
+    * Flushes and closes the file.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    */
+   public synchronized void close ()
+         throws SecurityException
+   {
+      LogManager.getLogManager().checkAccess();
+      if (mOut != null)
+      {
+         try
+         {
+            mOut.close();
+         }
+         catch (IOException ex)
+         {
+            reportError("Error closing " + mFile, ex,
+                  ErrorManager.CLOSE_FAILURE);
+         }
+         mOut = null;
+      }
+   }
+
+   /**
+    * Returns the file this writes to.
+    *
+    * @return the log file.
+    */
+   public File getFile ()
+   {
+      return mFile;
+   }
+
+   private static String getProperty (String property, String defaultValue)
+   {
+      final String value = LogManager.getLogManager().getProperty(property);
+      final String rc;
+      if (value == null || value.trim().length() == 0)
+      {
+         rc = defaultValue;
+      }
+      else
+      {
+         rc = value.trim();
+      }
+      return rc;
+   }
+}
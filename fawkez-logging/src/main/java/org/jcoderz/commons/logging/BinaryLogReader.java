@@ -0,0 +1,588 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.jcoderz.commons.BusinessImpact;
+import org.jcoderz.commons.Category;
+import org.jcoderz.commons.types.Date;
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * A LogReader reading log files written by the {@link BinaryLogHandler}.
+ * The records are decoded directly into LogFileEntry instances, without
+ * parsing text lines, and contain the same information a LogReader reads
+ * from the text format, so they are displayed by the same printers.
+ * <p>
+ * A record is only decoded when it has been completely written, so this can
+ * be used for following a file, which is still written.
+ *
+ */
+public class BinaryLogReader
+      extends LogReader
+{
+   private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+   private static final int VARINT_BITS = 7;
+   private static final int VARINT_MASK = 0x7f;
+   private static final int VARINT_MORE = 0x80;
+   private static final int MAX_VARINT_BYTES = 5;
+   private static final int BYTE_MASK = 0xff;
+   private static final int ONE_BYTE_CHAR_LIMIT = 0x80;
+   private static final int THREE_BYTE_PREFIX = 0xe0;
+   private static final int FOLLOW_BYTE_MASK = 0x3f;
+   private static final int TWO_BYTE_MASK = 0x1f;
+   private static final int THREE_BYTE_MASK = 0x0f;
+   private static final int FOLLOW_BYTE_BITS = 6;
+
+   private static final String MORE_PREFIX = "...";
+   private static final String MORE_SUFFIX = " more";
+
+   private final File mFile;
+   private final FileInputStream mStream;
+   private final FileChannel mChannel;
+   private final List<Filter> mFilters = new ArrayList<Filter>();
+
+   /** The string table of the current segment. */
+   private final List<String> mStrings = new ArrayList<String>();
+   /** The levels parsed from the level names of the string table. */
+   private final Map<String, Level> mLevels = new HashMap<String, Level>();
+
+   /** Holds the unread bytes of the file, always in read mode. */
+   private ByteBuffer mBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+   private char[] mChars = new char[INITIAL_BUFFER_SIZE];
+   private boolean mHeaderRead = false;
+   private long mLastTimestamp = 0;
+   private int mRecordEnd = 0;
+
+   /**
+    * Creates a new BinaryLogReader for reading from the supplied file.
+    *
+    * @param fileName The name of the file to read.
+    *
+    * @throws InstantiationException in case there is an error opening the file
+    * for reading.
+    */
+   BinaryLogReader (final String fileName)
+         throws InstantiationException
+   {
+      super();
+      try
+      {
+         mFile = new File(fileName);
+         mStream = new FileInputStream(mFile);
+         mChannel = mStream.getChannel();
+      }
+      catch (Exception ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Cannot install BinaryLogReader for file '" + fileName + "'.");
+         iex.initCause(ex);
+         throw iex;
+      }
+      mBuffer.flip();
+   }
+
+   /** {@inheritDoc} */
+   void addFilter (final Filter filter)
+   {
+      mFilters.add(filter);
+   }
+
+   /**
+    * Gets the next LogFileEntry from the log file, which passes all installed
+    * filters. If end of file is reached before an entry has been found
+    * matching all criteria, this returns null.
+    * Each LogFileEntry instance being returned by this should be released if
+    * it is not needed anymore.
+    *
+    * @return the next LogFileEntry passing all filters or null if no such
+    * available.
+    * @throws LoggingException if an error occurs reading the file.
+    */
+   LogFileEntry readLogFileEntry ()
+         throws LoggingException
+   {
+      LogFileEntry rc = null;
+      while (rc == null && nextRecord())
+      {
+         final LogFileEntry entry = LogFileEntry.getLogFileEntry();
+         try
+         {
+            readRecord(entry);
+            if (passesFilters(entry))
+            {
+               getInterner().intern(entry);
+               rc = entry;
+            }
+         }
+         catch (RuntimeException ex)
+         {
+            /* in case of exception the record is discarded */
+            System.err.println("Got an exception when decoding the record"
+                  + " ending at " + mRecordEnd + " of the buffer");
+            System.err.println(ex);
+            ex.printStackTrace();
+         }
+         finally
+         {
+            if (rc != entry)
+            {
+               entry.release();
+            }
+            mBuffer.position(mRecordEnd);
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Checks whether more data is to read from the log file.
+    *
+    * @return true if the log file contains data not already read by this;
+    * false, else.
+    */
+   boolean available ()
+   {
+      return fill(1);
+   }
+
+   /**
+    * Closes this and the underlying file.
+    */
+   void close ()
+   {
+      IoUtil.close(mChannel);
+      IoUtil.close(mStream);
+   }
+
+   /**
+    * Reads the file header and segment marks until the buffer holds a
+    * complete record.
+    *
+    * @return true if a complete record can be decoded; false if end of file
+    * is reached before.
+    */
+   private boolean nextRecord ()
+   {
+      boolean rc = false;
+      boolean done = false;
+      while (! done)
+      {
+         if (! mHeaderRead)
+         {
+            done = ! fill(BinaryLogFormat.HEADER_SIZE);
+            if (! done)
+            {
+               readHeader();
+            }
+         }
+         else
+         {
+            int length = peekLength();
+            while (length < 0 && mBuffer.remaining() < MAX_VARINT_BYTES
+                  && fill(mBuffer.remaining() + 1))
+            {
+               length = peekLength();
+            }
+            if (length < 0)
+            {
+               if (mBuffer.remaining() >= MAX_VARINT_BYTES)
+               {
+                  throw new LoggingException("Invalid record length in "
+                        + mFile);
+               }
+               done = true;
+            }
+            else if (length == BinaryLogFormat.SEGMENT_MARK)
+            {
+               readVarInt();
+               startSegment();
+            }
+            else
+            {
+               final int prefixLength = getVarIntLength(length);
+               done = true;
+               if (fill(prefixLength + length))
+               {
+                  mBuffer.position(mBuffer.position() + prefixLength);
+                  mRecordEnd = mBuffer.position() + length;
+                  rc = true;
+               }
+            }
+         }
+      }
+      return rc;
+   }
+
+   private void readHeader ()
+   {
+      for (int i = 0; i < BinaryLogFormat.MAGIC.length; i++)
+      {
+         if (mBuffer.get() != BinaryLogFormat.MAGIC[i])
+         {
+            throw new LoggingException("Not a binary log file: " + mFile);
+         }
+      }
+      final int version = mBuffer.getInt();
+      if (version != BinaryLogFormat.VERSION)
+      {
+         throw new LoggingException("Unsupported version " + version
+               + " of binary log file " + mFile);
+      }
+      mHeaderRead = true;
+      startSegment();
+   }
+
+   private void startSegment ()
+   {
+      mStrings.clear();
+      mLevels.clear();
+      mLastTimestamp = 0;
+   }
+
+   private void readRecord (final LogFileEntry root)
+   {
+      readItem(root);
+      while (readBoolean())
+      {
+         readItem(root.addNestedEntry());
+      }
+      boolean first = true;
+      while (readBoolean())
+      {
+         readThrowable(root, first);
+         first = false;
+      }
+   }
+
+   private void readItem (final LogFileEntry item)
+   {
+      item.setType(readString());
+      final String level = readString();
+      if (level != null)
+      {
+         item.setLoggerLevel(toLevel(level));
+      }
+      if (readBoolean())
+      {
+         mLastTimestamp += readSignedVarLong();
+         item.setTimestamp(Date.fromLong(mLastTimestamp));
+      }
+      item.setThreadId(readVarLong());
+      final int businessImpact = readVarInt();
+      if (businessImpact != 0)
+      {
+         item.setBusinessImpact(BusinessImpact.fromInt(businessImpact - 1));
+      }
+      final int category = readVarInt();
+      if (category != 0)
+      {
+         item.setCategory(Category.fromInt(category - 1));
+      }
+      item.setNodeId(readString());
+      item.setInstanceId(readString());
+      item.setTrackingNumber(readString());
+      item.setSymbol(readString());
+      item.setSymbolId(readString());
+      final String message = readString();
+      if (message != null)
+      {
+         item.setMessage(message);
+      }
+      item.setSourceClass(readString());
+      item.setSourceMethod(readString());
+      item.setSolution(readString());
+      item.setThreadName(readString());
+      for (int i = readVarInt(); i > 0; i--)
+      {
+         final String name = readString();
+         final int count = readVarInt();
+         if (count > 0)
+         {
+            final List<String> values = new ArrayList<String>(count - 1);
+            for (int j = 1; j < count; j++)
+            {
+               values.add(readString());
+            }
+            item.addToParameters(name, values);
+         }
+      }
+   }
+
+   /**
+    * Reads one throwable of the stack trace and adds the same elements a
+    * LogReader gets from the stack trace lines of the text format.
+    */
+   private void readThrowable (final LogFileEntry root, final boolean first)
+   {
+      final String thrown = readString();
+      final String line = first
+            ? thrown : StackTraceFormat.CAUSED_BY_CLAUSE + thrown;
+      root.addStackTraceLine(new StackTraceInfo(
+            CharBuffer.wrap(line), CharBuffer.wrap(thrown), ! first));
+      for (int i = readVarInt(); i > 0; i--)
+      {
+         final String className = readString();
+         final String methodName = readString();
+         final String fileName = readString();
+         final int lineNumber = (int) readSignedVarLong();
+         final StackTraceElement element = new StackTraceElement(
+               className, methodName, fileName, lineNumber);
+         root.addStackTraceLine(new StackTraceInfo(
+               CharBuffer.wrap(StackTraceFormat.AT_CLAUSE + element),
+               CharBuffer.wrap(className), CharBuffer.wrap(methodName),
+               (fileName != null && lineNumber >= 0) ? lineNumber : -1));
+      }
+      final int framesInCommon = readVarInt();
+      if (framesInCommon != 0)
+      {
+         root.addStackTraceLine(new StackTraceInfo(CharBuffer.wrap(
+               MORE_PREFIX + framesInCommon + MORE_SUFFIX), framesInCommon));
+      }
+   }
+
+   private Level toLevel (final String name)
+   {
+      Level rc = mLevels.get(name);
+      if (rc == null)
+      {
+         rc = Level.parse(name);
+         mLevels.put(name, rc);
+      }
+      return rc;
+   }
+
+   private boolean passesFilters (final LogFileEntry entry)
+   {
+      boolean rc = entry.getType() != null;
+      for (final Iterator<Filter> iter = mFilters.iterator();
+            iter.hasNext() && rc; )
+      {
+         rc = iter.next().isPassable(entry);
+      }
+      return rc;
+   }
+
+   private String readString ()
+   {
+      final int code = readVarInt();
+      final String rc;
+      if (code == BinaryLogFormat.STRING_NULL)
+      {
+         rc = null;
+      }
+      else if (code == BinaryLogFormat.STRING_LITERAL)
+      {
+         rc = readChars();
+      }
+      else if (code == BinaryLogFormat.STRING_NEW)
+      {
+         rc = readChars();
+         mStrings.add(rc);
+      }
+      else
+      {
+         rc = mStrings.get(code - BinaryLogFormat.STRING_REFERENCE);
+      }
+      return rc;
+   }
+
+   /** Reads chars written by {@link BinaryLogWriter}. */
+   private String readChars ()
+   {
+      final int len = readVarInt();
+      if (mChars.length < len)
+      {
+         mChars = new char[Math.max(len, mChars.length * 2)];
+      }
+      final char[] chars = mChars;
+      final ByteBuffer buffer = mBuffer;
+      for (int i = 0; i < len; i++)
+      {
+         final int b = buffer.get() & BYTE_MASK;
+         if (b < ONE_BYTE_CHAR_LIMIT)
+         {
+            chars[i] = (char) b;
+         }
+         else if (b < THREE_BYTE_PREFIX)
+         {
+            chars[i] = (char) (((b & TWO_BYTE_MASK) << FOLLOW_BYTE_BITS)
+                  | (buffer.get() & FOLLOW_BYTE_MASK));
+         }
+         else
+         {
+            final int b2 = buffer.get() & FOLLOW_BYTE_MASK;
+            final int b3 = buffer.get() & FOLLOW_BYTE_MASK;
+            chars[i] = (char) (((b & THREE_BYTE_MASK)
+                  << (2 * FOLLOW_BYTE_BITS)) | (b2 << FOLLOW_BYTE_BITS) | b3);
+         }
+      }
+      return new String(chars, 0, len);
+   }
+
+   private boolean readBoolean ()
+   {
+      return mBuffer.get() != 0;
+   }
+
+   private int readVarInt ()
+   {
+      int rc = 0;
+      int shift = 0;
+      int b;
+      do
+      {
+         b = mBuffer.get();
+         rc |= (b & VARINT_MASK) << shift;
+         shift += VARINT_BITS;
+      }
+      while ((b & VARINT_MORE) != 0);
+      return rc;
+   }
+
+   private long readVarLong ()
+   {
+      long rc = 0;
+      int shift = 0;
+      int b;
+      do
+      {
+         b = mBuffer.get();
+         rc |= (long) (b & VARINT_MASK) << shift;
+         shift += VARINT_BITS;
+      }
+      while ((b & VARINT_MORE) != 0);
+      return rc;
+   }
+
+   private long readSignedVarLong ()
+   {
+      final long v = readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   /**
+    * Decodes the record length at the current position without consuming it.
+    *
+    * @return the length or -1 if the buffer does not hold the complete
+    *       length.
+    */
+   private int peekLength ()
+   {
+      int rc = -1;
+      int value = 0;
+      final int start = mBuffer.position();
+      for (int i = 0; rc < 0 && i < MAX_VARINT_BYTES
+            && start + i < mBuffer.limit(); i++)
+      {
+         final int b = mBuffer.get(start + i);
+         value |= (b & VARINT_MASK) << (i * VARINT_BITS);
+         if ((b & VARINT_MORE) == 0)
+         {
+            rc = value;
+         }
+      }
+      return rc;
+   }
+
+   private static int getVarIntLength (final int value)
+   {
+      int rc = 1;
+      int v = value;
+      while ((v & ~VARINT_MASK) != 0)
+      {
+         v >>>= VARINT_BITS;
+         rc++;
+      }
+      return rc;
+   }
+
+   /**
+    * Makes sure the buffer holds at least the given number of unread bytes,
+    * reading from the file if necessary.
+    *
+    * @param bytes The number of bytes required.
+    * @return true if the buffer holds the bytes; false if the end of file has
+    *       been reached before.
+    */
+   private boolean fill (final int bytes)
+   {
+      if (mBuffer.remaining() < bytes)
+      {
+         final ByteBuffer target;
+         if (mBuffer.capacity() < bytes)
+         {
+            target = ByteBuffer.allocate(
+                  Math.max(bytes, mBuffer.capacity() * 2));
+            target.put(mBuffer);
+         }
+         else
+         {
+            mBuffer.compact();
+            target = mBuffer;
+         }
+         try
+         {
+            int read = 0;
+            while (target.position() < bytes && read >= 0)
+            {
+               read = mChannel.read(target);
+            }
+         }
+         catch (IOException ex)
+         {
+            throw new LoggingException("Error reading from " + mFile, ex);
+         }
+         finally
+         {
+            target.flip();
+            mBuffer = target;
+         }
+      }
+      return mBuffer.remaining() >= bytes;
+   }
+}
@@ -0,0 +1,439 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.util.StringUtil;
+
+
+/**
+ * Encodes log records into the format described by {@link BinaryLogFormat}.
+ * The information written for a log record is the one of the
+ * {@link LogElement} of the record plus the stack trace, which is written
+ * under the same conditions as by the {@link LogFormatter}. Where the text
+ * format of the LogFormatter differs from the LogElement, the text format is
+ * followed, so both are read back with the same content.
+ * <p>
+ * Each record is encoded into a buffer held by this and is written with a
+ * single call to the output stream. Instances of this are not thread safe and
+ * hold the state of the current segment, so an instance must be used for one
+ * output stream only.
+ *
+ */
+final class BinaryLogWriter
+{
+   private static final Logger STACK_TRACE_LOGGER
+         = Logger.getLogger(LogFormatter.MSG_LOGGER_STACK_TRACE);
+
+   /** Initial capacity of the record buffer. */
+   private static final int INITIAL_CAPACITY = 1024;
+   /** Buffers grown beyond this capacity are not kept for reuse. */
+   private static final int MAX_CAPACITY = 64 * 1024;
+
+   private static final int VARINT_BITS = 7;
+   private static final int VARINT_MASK = 0x7f;
+   private static final int VARINT_MORE = 0x80;
+   private static final int MAX_VARINT_BYTES = 5;
+   private static final int MAX_VARLONG_BYTES = 10;
+   private static final int MAX_CHAR_BYTES = 3;
+   private static final int ONE_BYTE_CHAR_MAX = 0x7f;
+   private static final int TWO_BYTE_CHAR_MAX = 0x7ff;
+   private static final int TWO_BYTE_PREFIX = 0xc0;
+   private static final int THREE_BYTE_PREFIX = 0xe0;
+   private static final int FOLLOW_BYTE_PREFIX = 0x80;
+   private static final int FOLLOW_BYTE_MASK = 0x3f;
+   private static final int FOLLOW_BYTE_BITS = 6;
+   private static final int BYTE_MASK = 0xff;
+   private static final int BITS_PER_BYTE = 8;
+
+   /** The string table of the current segment. */
+   private final Map<String, Integer> mStrings
+         = new HashMap<String, Integer>();
+
+   /** Scratch space for the record length. */
+   private final byte[] mPrefix = new byte[MAX_VARINT_BYTES];
+
+   private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+   private int mLength = 0;
+   private long mLastTimestamp = 0;
+
+   /**
+    * Writes the header of a new file and starts a new segment.
+    *
+    * @param out The stream to write to.
+    * @throws IOException if writing fails.
+    */
+   void writeHeader (final OutputStream out)
+         throws IOException
+   {
+      out.write(BinaryLogFormat.MAGIC);
+      for (int i = BinaryLogFormat.HEADER_SIZE
+            - BinaryLogFormat.MAGIC.length - 1; i >= 0; i--)
+      {
+         out.write((BinaryLogFormat.VERSION >>> (i * BITS_PER_BYTE))
+               & BYTE_MASK);
+      }
+      startSegment();
+   }
+
+   /**
+    * Writes a segment mark and starts a new segment. This is used when
+    * appending to an existing file and after an error, which might have left
+    * the string table of the reader out of sync.
+    *
+    * @param out The stream to write to.
+    * @throws IOException if writing fails.
+    */
+   void writeSegmentMark (final OutputStream out)
+         throws IOException
+   {
+      out.write(BinaryLogFormat.SEGMENT_MARK);
+      startSegment();
+   }
+
+   /**
+    * Encodes the supplied log record and writes it to the stream.
+    *
+    * @param out The stream to write to.
+    * @param record The log record to write.
+    * @throws IOException if writing fails.
+    */
+   void write (final OutputStream out, final LogRecord record)
+         throws IOException
+   {
+      mLength = 0;
+      final Loggable loggable = getLoggable(record);
+      // the throwables corresponding to the nested items
+      Throwable cause = (loggable == null)
+            ? record.getThrown() : loggable.getCause();
+      LogItem item = new LogElement(record);
+      writeItem(item, item.getMessage());
+      item = item.getNestedItem();
+      while (item != null)
+      {
+         writeBoolean(true);
+         // the nested line of a plain throwable holds the throwable itself
+         writeItem(item, (cause == null || cause instanceof Loggable)
+               ? item.getMessage() : cause.toString());
+         cause = (cause == null) ? null : cause.getCause();
+         item = item.getNestedItem();
+      }
+      writeBoolean(false);
+      writeStackTrace(record, loggable);
+
+      int prefixLength = 0;
+      int length = mLength;
+      while (length > VARINT_MASK)
+      {
+         mPrefix[prefixLength++]
+               = (byte) ((length & VARINT_MASK) | VARINT_MORE);
+         length >>>= VARINT_BITS;
+      }
+      mPrefix[prefixLength++] = (byte) length;
+      out.write(mPrefix, 0, prefixLength);
+      out.write(mBuffer, 0, mLength);
+
+      if (mBuffer.length > MAX_CAPACITY)
+      {
+         mBuffer = new byte[INITIAL_CAPACITY];
+      }
+   }
+
+   private void startSegment ()
+   {
+      mStrings.clear();
+      mLastTimestamp = 0;
+   }
+
+   private void writeItem (final LogItem item, final String message)
+   {
+      writeString(item.getType(), true);
+      writeString((item.getLoggerLevel() == null)
+            ? null : item.getLoggerLevel().getName(), true);
+      if (item.getTimestamp() == null)
+      {
+         writeBoolean(false);
+      }
+      else
+      {
+         writeBoolean(true);
+         final long timestamp = item.getTimestamp().getTime();
+         writeSignedVarLong(timestamp - mLastTimestamp);
+         mLastTimestamp = timestamp;
+      }
+      writeVarLong(item.getThreadId());
+      writeVarInt((item.getBusinessImpact() == null)
+            ? 0 : item.getBusinessImpact().toInt() + 1);
+      writeVarInt((item.getCategory() == null)
+            ? 0 : item.getCategory().toInt() + 1);
+      writeString(item.getNodeId(), true);
+      writeString(item.getInstanceId(), true);
+      writeString(item.getTrackingNumber(), false);
+      writeString(emptyToNull(item.getSymbol()), true);
+      writeString(item.getSymbolId(), true);
+      writeString(message, false);
+      writeString(item.getSourceClass(), true);
+      writeString(item.getSourceMethod(), true);
+      writeString(emptyToNull(item.getSolution()), true);
+      writeString(item.getThreadName(), true);
+      writeParameters(item);
+   }
+
+   private void writeParameters (final LogItem item)
+   {
+      writeVarInt(item.getParameterNames().size());
+      for (final Iterator<String> iter = item.getParameterNames().iterator();
+            iter.hasNext(); )
+      {
+         final String name = iter.next();
+         writeString(name, true);
+         final List<?> values = item.getParameterValues(name);
+         if (values == null)
+         {
+            writeVarInt(0);
+         }
+         else
+         {
+            writeVarInt(values.size() + 1);
+            for (final Iterator<?> valueIter = values.iterator();
+                  valueIter.hasNext(); )
+            {
+               final Object value = valueIter.next();
+               writeString((value == null) ? null : String.valueOf(value),
+                     false);
+            }
+         }
+      }
+   }
+
+   /**
+    * Writes the chain of throwables carried by the record. Frames in common
+    * with the enclosing throwable are only counted, as in the text format.
+    */
+   private void writeStackTrace (
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      Throwable thrown = null;
+      if (! (loggable instanceof LogEvent)
+            || STACK_TRACE_LOGGER.isLoggable(record.getLevel()))
+      {
+         if (loggable == null)
+         {
+            thrown = record.getThrown();
+         }
+         else if (loggable instanceof Throwable)
+         {
+            thrown = (Throwable) loggable;
+         }
+         else
+         {
+            thrown = loggable.getCause();
+         }
+      }
+      Throwable outerTrace = null;
+      while (thrown != null)
+      {
+         writeBoolean(true);
+         writeString(thrown.toString(), false);
+         final StackTraceElement[] trace = thrown.getStackTrace();
+         int uniqueFrames = trace.length - 1;
+         if (outerTrace != null)
+         {
+            final StackTraceElement[] causedTrace = outerTrace.getStackTrace();
+            int n = causedTrace.length - 1;
+            while (uniqueFrames >= 0 && n >= 0
+                  && trace[uniqueFrames].equals(causedTrace[n]))
+            {
+               uniqueFrames--;
+               n--;
+            }
+         }
+         writeVarInt(uniqueFrames + 1);
+         for (int i = 0; i <= uniqueFrames; i++)
+         {
+            writeString(trace[i].getClassName(), true);
+            writeString(trace[i].getMethodName(), true);
+            writeString(trace[i].getFileName(), true);
+            writeSignedVarLong(trace[i].getLineNumber());
+         }
+         writeVarInt(trace.length - 1 - uniqueFrames);
+         outerTrace = thrown;
+         thrown = thrown.getCause();
+      }
+      writeBoolean(false);
+   }
+
+   private void writeString (final String s, final boolean intern)
+   {
+      if (s == null)
+      {
+         writeVarInt(BinaryLogFormat.STRING_NULL);
+      }
+      else
+      {
+         final Integer index = intern ? mStrings.get(s) : null;
+         if (index != null)
+         {
+            writeVarInt(BinaryLogFormat.STRING_REFERENCE + index.intValue());
+         }
+         else
+         {
+            if (intern && mStrings.size() < BinaryLogFormat.MAX_STRINGS)
+            {
+               mStrings.put(s, Integer.valueOf(mStrings.size()));
+               writeVarInt(BinaryLogFormat.STRING_NEW);
+            }
+            else
+            {
+               writeVarInt(BinaryLogFormat.STRING_LITERAL);
+            }
+            writeChars(s);
+         }
+      }
+   }
+
+   /**
+    * Writes the number of chars followed by the chars, each encoded with one
+    * to three bytes as done by {@link java.io.DataOutput#writeUTF(String)}.
+    */
+   private void writeChars (final String s)
+   {
+      final int len = s.length();
+      writeVarInt(len);
+      ensureCapacity(len * MAX_CHAR_BYTES);
+      final byte[] buffer = mBuffer;
+      int pos = mLength;
+      for (int i = 0; i < len; i++)
+      {
+         final char c = s.charAt(i);
+         if (c <= ONE_BYTE_CHAR_MAX)
+         {
+            buffer[pos++] = (byte) c;
+         }
+         else if (c <= TWO_BYTE_CHAR_MAX)
+         {
+            buffer[pos++]
+                  = (byte) (TWO_BYTE_PREFIX | (c >> FOLLOW_BYTE_BITS));
+            buffer[pos++]
+                  = (byte) (FOLLOW_BYTE_PREFIX | (c & FOLLOW_BYTE_MASK));
+         }
+         else
+         {
+            buffer[pos++] = (byte) (THREE_BYTE_PREFIX
+                  | (c >> (2 * FOLLOW_BYTE_BITS)));
+            buffer[pos++] = (byte) (FOLLOW_BYTE_PREFIX
+                  | ((c >> FOLLOW_BYTE_BITS) & FOLLOW_BYTE_MASK));
+            buffer[pos++]
+                  = (byte) (FOLLOW_BYTE_PREFIX | (c & FOLLOW_BYTE_MASK));
+         }
+      }
+      mLength = pos;
+   }
+
+   private void writeBoolean (final boolean value)
+   {
+      ensureCapacity(1);
+      mBuffer[mLength++] = (byte) (value ? 1 : 0);
+   }
+
+   private void writeVarInt (final int value)
+   {
+      ensureCapacity(MAX_VARINT_BYTES);
+      int v = value;
+      while ((v & ~VARINT_MASK) != 0)
+      {
+         mBuffer[mLength++] = (byte) ((v & VARINT_MASK) | VARINT_MORE);
+         v >>>= VARINT_BITS;
+      }
+      mBuffer[mLength++] = (byte) v;
+   }
+
+   private void writeVarLong (final long value)
+   {
+      ensureCapacity(MAX_VARLONG_BYTES);
+      long v = value;
+      while ((v & ~VARINT_MASK) != 0)
+      {
+         mBuffer[mLength++] = (byte) ((v & VARINT_MASK) | VARINT_MORE);
+         v >>>= VARINT_BITS;
+      }
+      mBuffer[mLength++] = (byte) v;
+   }
+
+   /** Writes a value, which might be negative, in zig-zag encoding. */
+   private void writeSignedVarLong (final long value)
+   {
+      writeVarLong((value << 1) ^ (value >> (Long.SIZE - 1)));
+   }
+
+   private void ensureCapacity (final int additional)
+   {
+      if (mLength + additional > mBuffer.length)
+      {
+         final byte[] buffer = new byte[Math.max(
+               mBuffer.length * 2, mLength + additional)];
+         System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+         mBuffer = buffer;
+      }
+   }
+
+   /** Empty symbols and solutions are omitted by the text format. */
+   private static String emptyToNull (final String s)
+   {
+      return StringUtil.isEmptyOrNull(s) ? null : s;
+   }
+
+   private static Loggable getLoggable (final LogRecord record)
+   {
+      Loggable rc = null;
+      final Object[] params = record.getParameters();
+      if (params != null && params.length > 0
+            && params[0] instanceof Loggable)
+      {
+         rc = (Loggable) params[0];
+      }
+      return rc;
+   }
+}
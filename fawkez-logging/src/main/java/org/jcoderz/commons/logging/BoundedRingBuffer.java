@@ -0,0 +1,275 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A bounded, lock-free ring buffer which might be used by several producer and
+ * consumer threads concurrently.
+ * Each slot carries a sequence number which tells whether the slot is free
+ * for the producer at a given position or contains an element for the
+ * consumer at a given position. Producers and consumers claim positions by
+ * compare and set of the tail resp. the head counter, so neither offering nor
+ * polling ever blocks.
+ * The capacity is rounded up to the next power of two.
+ *
+ * @param <T> The type of the elements stored in the buffer.
+ */
+final class BoundedRingBuffer<T>
+{
+   /** The largest capacity supported, must be a power of two. */
+   private static final int MAX_CAPACITY = 1 << 30;
+
+   private final int mMask;
+   private final AtomicReferenceArray<T> mElements;
+   private final AtomicLongArray mSequences;
+   /** The position of the next element to poll. */
+   private final AtomicLong mHead = new AtomicLong();
+   /** The position of the next element to offer. */
+   private final AtomicLong mTail = new AtomicLong();
+
+   /**
+    * Is notified by
+    * {@link BoundedRingBuffer#offer(Object, AsyncHandler.OverflowPolicy,
+    * boolean, OverflowListener)} if the buffer is full.
+    *
+    * @param <E> The type of the elements stored in the buffer.
+    */
+   interface OverflowListener<E>
+   {
+      /**
+       * Called for each buffered element discarded to make room for a newer
+       * one by the policy {@link AsyncHandler.OverflowPolicy#DROP_OLDEST}.
+       *
+       * @param element The discarded element.
+       */
+      void evicted (E element);
+
+      /**
+       * Called by a producer waiting for free space, should wait a short
+       * while before returning.
+       *
+       * @return true to retry the offer; false to give up waiting, e.g.
+       *       because the consumers are gone.
+       */
+      boolean awaitSpace ();
+   }
+
+   /**
+    * Creates a new empty ring buffer.
+    *
+    * @param capacity The minimum number of elements this must be able to
+    *       hold, will be rounded up to the next power of two.
+    */
+   BoundedRingBuffer (final int capacity)
+   {
+      if (capacity <= 0 || capacity > MAX_CAPACITY)
+      {
+         throw new IllegalArgumentException(
+               "Capacity must be in range [1.." + MAX_CAPACITY + "]: "
+               + capacity);
+      }
+      int size = 1;
+      while (size < capacity)
+      {
+         size <<= 1;
+      }
+      mMask = size - 1;
+      mElements = new AtomicReferenceArray<T>(size);
+      mSequences = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++)
+      {
+         mSequences.set(i, i);
+      }
+   }
+
+   /**
+    * Appends the element to the tail of this if there is space left.
+    *
+    * @param element The element to append, must not be null.
+    * @return true if the element has been appended; false if this is full.
+    */
+   boolean offer (final T element)
+   {
+      if (element == null)
+      {
+         throw new NullPointerException("Element must not be null.");
+      }
+      boolean rc = false;
+      boolean retry = true;
+      while (retry)
+      {
+         final long pos = mTail.get();
+         final int index = (int) (pos & mMask);
+         final long diff = mSequences.get(index) - pos;
+         if (diff == 0)
+         {
+            if (mTail.compareAndSet(pos, pos + 1))
+            {
+               mElements.set(index, element);
+               mSequences.set(index, pos + 1);
+               rc = true;
+               retry = false;
+            }
+         }
+         else if (diff < 0)
+         {
+            // the slot still holds the element of the previous round
+            retry = false;
+         }
+         // else another producer claimed the position, retry
+      }
+      return rc;
+   }
+
+   /**
+    * Appends the element to the tail of this, applying the overflow policy
+    * if this is full. The policy {@link AsyncHandler.OverflowPolicy#BLOCK}
+    * waits for free space until the listener gives up,
+    * {@link AsyncHandler.OverflowPolicy#DROP_BELOW_LEVEL} does so only for
+    * elements which are not droppable and
+    * {@link AsyncHandler.OverflowPolicy#DROP_OLDEST} discards the elements
+    * at the head of this until the element could be appended.
+    *
+    * @param element The element to append, must not be null.
+    * @param policy The policy to apply if this is full.
+    * @param droppable Whether the element is below the drop level of the
+    *       policy {@link AsyncHandler.OverflowPolicy#DROP_BELOW_LEVEL}.
+    * @param listener Notified about evicted elements and while waiting.
+    * @return true if the element has been appended; false if it has been
+    *       dropped.
+    */
+   boolean offer (
+         final T element,
+         final AsyncHandler.OverflowPolicy policy,
+         final boolean droppable,
+         final OverflowListener<? super T> listener)
+   {
+      boolean rc = offer(element);
+      if (! rc)
+      {
+         if (policy == AsyncHandler.OverflowPolicy.DROP_OLDEST)
+         {
+            while (! rc)
+            {
+               final T evicted = poll();
+               if (evicted != null)
+               {
+                  listener.evicted(evicted);
+               }
+               rc = offer(element);
+            }
+         }
+         else if (policy == AsyncHandler.OverflowPolicy.BLOCK || ! droppable)
+         {
+            while (! rc && listener.awaitSpace())
+            {
+               rc = offer(element);
+            }
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Removes the element at the head of this.
+    *
+    * @return the head element, or null if this is empty.
+    */
+   T poll ()
+   {
+      T rc = null;
+      boolean retry = true;
+      while (retry)
+      {
+         final long pos = mHead.get();
+         final int index = (int) (pos & mMask);
+         final long diff = mSequences.get(index) - (pos + 1);
+         if (diff == 0)
+         {
+            if (mHead.compareAndSet(pos, pos + 1))
+            {
+               rc = mElements.get(index);
+               mElements.set(index, null);
+               mSequences.set(index, pos + mMask + 1);
+               retry = false;
+            }
+         }
+         else if (diff < 0)
+         {
+            // the slot has not been filled yet
+            retry = false;
+         }
+         // else another consumer claimed the position, retry
+      }
+      return rc;
+   }
+
+   /**
+    * Returns the number of elements currently stored. This is a snapshot
+    * only, the value might already be outdated when returned.
+    *
+    * @return the number of elements currently stored.
+    */
+   int size ()
+   {
+      final long head = mHead.get();
+      final long tail = mTail.get();
+      final long rc = tail - head;
+      return (int) Math.max(0, Math.min(rc, capacity()));
+   }
+
+   /**
+    * Returns whether this contains no elements.
+    *
+    * @return true if this is empty.
+    */
+   boolean isEmpty ()
+   {
+      return size() == 0;
+   }
+
+   /**
+    * Returns the number of elements this is able to hold.
+    *
+    * @return the capacity of this.
+    */
+   int capacity ()
+   {
+      return mMask + 1;
+   }
+}
@@ -0,0 +1,303 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+
+/**
+ * The columnar export format written by the {@link ColumnarPrinter} and read
+ * by the {@link ColumnarLogReader}.
+ * <p>
+ * A file starts with the {@link #MAGIC} and the {@link #VERSION}, followed
+ * by blocks of up to a configurable number of rows. Each log item, i.e. each
+ * entry and each of its nested items, is one row. A block starts with the
+ * number of its rows as variable length integer; a block of zero rows ends
+ * the file. The number of rows is followed by one chunk per {@link Column}
+ * in the order of the columns. A chunk consists of
+ * </p>
+ * <ul>
+ * <li>the encoding, {@link #PLAIN} or {@link #DICTIONARY},</li>
+ * <li>a flag whether statistics follow and the minimum and maximum value of
+ *    the chunk, nulls not taken into account,</li>
+ * <li>the length of the compressed data and the data compressed with
+ *    deflate.</li>
+ * </ul>
+ * <p>
+ * Long values are written as difference to the minimum of the chunk. A
+ * dictionary encoded chunk holds the distinct strings of the chunk followed
+ * by the index of the string of each row, plain encoded chunks hold the
+ * strings themselves. Index and length are incremented by one, zero denotes
+ * null. Lists of strings are written as their length followed by the
+ * elements. Integers are written as variable length integers with seven
+ * bits per byte, strings as UTF-8 prefixed by their length.
+ * </p>
+ * <p>
+ * Statistics and the compressed length allow skipping chunks and blocks,
+ * which cannot contain a value searched for, without decompressing them.
+ * </p>
+ *
+ */
+public final class ColumnarLogFormat
+{
+   /** The columns of the format and their order within a block. */
+   public enum Column
+   {
+      /** The timestamp in milliseconds since the epoch. */
+      TIMESTAMP(Type.LONG),
+      /** The nesting depth of the item, 0 for a log entry. */
+      DEPTH(Type.LONG),
+      /** The node id. */
+      NODE_ID(Type.STRING),
+      /** The instance id. */
+      INSTANCE_ID(Type.STRING),
+      /** The thread id. */
+      THREAD_ID(Type.LONG),
+      /** The thread name. */
+      THREAD_NAME(Type.STRING),
+      /** The name of the log level. */
+      LEVEL(Type.STRING),
+      /** The symbol id. */
+      SYMBOL_ID(Type.STRING),
+      /** The business impact. */
+      BUSINESS_IMPACT(Type.STRING),
+      /** The category. */
+      CATEGORY(Type.STRING),
+      /** The tracking number. */
+      TRACKING_NUMBER(Type.STRING),
+      /** The message. */
+      MESSAGE(Type.STRING),
+      /** The parameters as alternating names and values. */
+      PARAMETERS(Type.STRING_LIST);
+
+      private final Type mType;
+
+      private Column (Type type)
+      {
+         mType = type;
+      }
+
+      /**
+       * Returns the type of the values of this column.
+       *
+       * @return the type of this column.
+       */
+      public Type getType ()
+      {
+         return mType;
+      }
+   }
+
+   /** The types of the column values. */
+   public enum Type
+   {
+      /** A long value, never null. */
+      LONG,
+      /** A string, might be null. */
+      STRING,
+      /** A list of strings, might be empty. */
+      STRING_LIST
+   }
+
+   /** The first bytes of a columnar file. */
+   static final byte[] MAGIC = {'F', 'W', 'C', 'L'};
+
+   /** The version of the format. */
+   static final int VERSION = 1;
+
+   /** The values are written as they are. */
+   static final int PLAIN = 0;
+   /** The values are written as index into a dictionary. */
+   static final int DICTIONARY = 1;
+
+   /** The encoding of strings. */
+   static final String CHARSET = "UTF-8";
+
+   private static final int VARINT_BITS = 7;
+   private static final int VARINT_MASK = 0x7f;
+   private static final int VARINT_MORE = 0x80;
+   private static final int MAX_VARLONG_SHIFT = 63;
+
+   private ColumnarLogFormat ()
+   {
+      // no instances
+   }
+
+   /**
+    * Writes a long value as variable length integer.
+    *
+    * @param out The buffer to write to.
+    * @param value The value to write.
+    */
+   static void writeLong (final ByteArrayOutputStream out, final long value)
+   {
+      long rest = value;
+      while ((rest & ~VARINT_MASK) != 0)
+      {
+         out.write((int) ((rest & VARINT_MASK) | VARINT_MORE));
+         rest >>>= VARINT_BITS;
+      }
+      out.write((int) rest);
+   }
+
+   /**
+    * Writes a string as UTF-8 prefixed by its length plus one, or 0 for
+    * null.
+    *
+    * @param out The buffer to write to.
+    * @param s The string to write, might be null.
+    */
+   static void writeString (final ByteArrayOutputStream out, final String s)
+   {
+      if (s == null)
+      {
+         writeLong(out, 0);
+      }
+      else
+      {
+         final byte[] bytes = toBytes(s);
+         writeLong(out, bytes.length + 1);
+         out.write(bytes, 0, bytes.length);
+      }
+   }
+
+   /**
+    * Reads a variable length integer.
+    *
+    * @param in The stream to read from.
+    * @return the value read.
+    * @throws IOException if reading fails.
+    */
+   static long readLong (final InputStream in)
+         throws IOException
+   {
+      long rc = 0;
+      int shift = 0;
+      int b;
+      do
+      {
+         b = in.read();
+         if (b < 0)
+         {
+            throw new EOFException("Unexpected end of the columnar file");
+         }
+         if (shift > MAX_VARLONG_SHIFT)
+         {
+            throw new IOException("Malformed variable length integer");
+         }
+         rc |= ((long) (b & VARINT_MASK)) << shift;
+         shift += VARINT_BITS;
+      }
+      while ((b & VARINT_MORE) != 0);
+      return rc;
+   }
+
+   /**
+    * Reads a variable length integer, which must be a non negative int.
+    *
+    * @param in The stream to read from.
+    * @return the value read.
+    * @throws IOException if reading fails or the value is out of range.
+    */
+   static int readInt (final InputStream in)
+         throws IOException
+   {
+      final long rc = readLong(in);
+      if (rc < 0 || rc > Integer.MAX_VALUE)
+      {
+         throw new IOException("Invalid length " + rc);
+      }
+      return (int) rc;
+   }
+
+   /**
+    * Reads a string written by {@link #writeString(ByteArrayOutputStream,
+    * String)}.
+    *
+    * @param in The stream to read from.
+    * @return the string read, might be null.
+    * @throws IOException if reading fails.
+    */
+   static String readString (final InputStream in)
+         throws IOException
+   {
+      final int length = readInt(in);
+      String rc = null;
+      if (length > 0)
+      {
+         final byte[] bytes = new byte[length - 1];
+         readFully(in, bytes);
+         rc = new String(bytes, CHARSET);
+      }
+      return rc;
+   }
+
+   /**
+    * Fills the supplied array from the stream.
+    *
+    * @param in The stream to read from.
+    * @param bytes The array to fill.
+    * @throws IOException if reading fails or the stream ends.
+    */
+   static void readFully (final InputStream in, final byte[] bytes)
+         throws IOException
+   {
+      int read = 0;
+      while (read < bytes.length)
+      {
+         final int n = in.read(bytes, read, bytes.length - read);
+         if (n < 0)
+         {
+            throw new EOFException("Unexpected end of the columnar file");
+         }
+         read += n;
+      }
+   }
+
+   private static byte[] toBytes (final String s)
+   {
+      try
+      {
+         return s.getBytes(CHARSET);
+      }
+      catch (UnsupportedEncodingException ex)
+      {
+         throw new LoggingException("Encoding " + CHARSET + " not supported",
+               ex);
+      }
+   }
+}
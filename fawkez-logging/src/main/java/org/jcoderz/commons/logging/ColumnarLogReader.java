@@ -0,0 +1,327 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.jcoderz.commons.logging.ColumnarLogFormat.Column;
+import org.jcoderz.commons.logging.ColumnarLogFormat.Type;
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * Reads files written by the {@link ColumnarPrinter} block by block.
+ * <p>
+ * Reading a block reads the statistics and the compressed data of all its
+ * columns, but a column is only decompressed and decoded when its values
+ * are requested. A scan for a value therefore checks the statistics by
+ * {@link #mayContain(Column, String)} first and decodes only the columns
+ * needed from the blocks which may contain the value.
+ * </p>
+ * <p>
+ * Instances of this are not thread safe.
+ * </p>
+ *
+ */
+public final class ColumnarLogReader
+{
+   private static final Column[] COLUMNS = Column.values();
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final InputStream mIn;
+   private final Inflater mInflater = new Inflater();
+   private final int[] mEncodings = new int[COLUMNS.length];
+   private final Object[] mMinimums = new Object[COLUMNS.length];
+   private final Object[] mMaximums = new Object[COLUMNS.length];
+   private final byte[][] mChunks = new byte[COLUMNS.length][];
+   private int mRows = 0;
+   private boolean mEndOfFile = false;
+
+   /**
+    * Creates a new reader for the supplied stream and reads the header.
+    *
+    * @param in The stream to read from.
+    * @throws IOException if reading fails or the stream does not start with
+    *       the header of a columnar file.
+    */
+   public ColumnarLogReader (final InputStream in)
+         throws IOException
+   {
+      mIn = new BufferedInputStream(in, BUFFER_SIZE);
+      final byte[] magic = new byte[ColumnarLogFormat.MAGIC.length];
+      ColumnarLogFormat.readFully(mIn, magic);
+      for (int i = 0; i < magic.length; i++)
+      {
+         if (magic[i] != ColumnarLogFormat.MAGIC[i])
+         {
+            throw new IOException("Not a columnar log file");
+         }
+      }
+      final long version = ColumnarLogFormat.readLong(mIn);
+      if (version != ColumnarLogFormat.VERSION)
+      {
+         throw new IOException("Unsupported version " + version);
+      }
+   }
+
+   /**
+    * Reads the next block.
+    *
+    * @return true if a block has been read, false if the end of the file has
+    *       been reached.
+    * @throws IOException if reading fails.
+    */
+   public boolean nextBlock ()
+         throws IOException
+   {
+      if (! mEndOfFile)
+      {
+         mRows = ColumnarLogFormat.readInt(mIn);
+         mEndOfFile = mRows == 0;
+         for (int i = 0; i < COLUMNS.length && ! mEndOfFile; i++)
+         {
+            readChunk(i);
+         }
+      }
+      return ! mEndOfFile;
+   }
+
+   /**
+    * Returns the number of rows of the current block.
+    *
+    * @return the number of rows.
+    */
+   public int getRowCount ()
+   {
+      return mRows;
+   }
+
+   /**
+    * Returns the minimum value of a column within the current block.
+    *
+    * @param column The column.
+    * @return a Long or String, null if there are no statistics for the
+    *       column or all its values are null.
+    */
+   public Object getMinimum (final Column column)
+   {
+      return mMinimums[column.ordinal()];
+   }
+
+   /**
+    * Returns the maximum value of a column within the current block.
+    *
+    * @param column The column.
+    * @return a Long or String, null if there are no statistics for the
+    *       column or all its values are null.
+    */
+   public Object getMaximum (final Column column)
+   {
+      return mMaximums[column.ordinal()];
+   }
+
+   /**
+    * Checks by the statistics whether a string column of the current block
+    * might contain the supplied value.
+    *
+    * @param column The string column.
+    * @param value The value searched for.
+    * @return false if the block does not contain the value, true if it
+    *       might.
+    */
+   public boolean mayContain (final Column column, final String value)
+   {
+      checkType(column, Type.STRING);
+      final String min = (String) getMinimum(column);
+      final String max = (String) getMaximum(column);
+      return (value == null) || (min != null
+            && value.compareTo(min) >= 0 && value.compareTo(max) <= 0);
+   }
+
+   /**
+    * Decodes the values of a long column of the current block.
+    *
+    * @param column The long column.
+    * @return the values, one per row.
+    * @throws IOException if decoding fails.
+    */
+   public long[] getLongs (final Column column)
+         throws IOException
+   {
+      checkType(column, Type.LONG);
+      final InputStream in = inflate(column);
+      final long min = ((Long) getMinimum(column)).longValue();
+      final long[] rc = new long[mRows];
+      for (int i = 0; i < mRows; i++)
+      {
+         rc[i] = min + ColumnarLogFormat.readLong(in);
+      }
+      return rc;
+   }
+
+   /**
+    * Decodes the values of a string column of the current block.
+    *
+    * @param column The string column.
+    * @return the values, one per row, null for missing values.
+    * @throws IOException if decoding fails.
+    */
+   public String[] getStrings (final Column column)
+         throws IOException
+   {
+      checkType(column, Type.STRING);
+      final InputStream in = inflate(column);
+      final String[] dictionary = readDictionary(column, in);
+      final String[] rc = new String[mRows];
+      for (int i = 0; i < mRows; i++)
+      {
+         rc[i] = readValue(in, dictionary);
+      }
+      return rc;
+   }
+
+   /**
+    * Decodes the values of a string list column of the current block.
+    *
+    * @param column The string list column.
+    * @return the lists, one per row.
+    * @throws IOException if decoding fails.
+    */
+   public List<List<String>> getStringLists (final Column column)
+         throws IOException
+   {
+      checkType(column, Type.STRING_LIST);
+      final InputStream in = inflate(column);
+      final String[] dictionary = readDictionary(column, in);
+      final List<List<String>> rc = new ArrayList<List<String>>(mRows);
+      for (int i = 0; i < mRows; i++)
+      {
+         final int size = ColumnarLogFormat.readInt(in);
+         final List<String> values = new ArrayList<String>(size);
+         for (int j = 0; j < size; j++)
+         {
+            values.add(readValue(in, dictionary));
+         }
+         rc.add(values);
+      }
+      return rc;
+   }
+
+   /**
+    * Closes the underlying stream.
+    */
+   public void close ()
+   {
+      mInflater.end();
+      IoUtil.close(mIn);
+   }
+
+   private void readChunk (final int column)
+         throws IOException
+   {
+      mEncodings[column] = ColumnarLogFormat.readInt(mIn);
+      mMinimums[column] = null;
+      mMaximums[column] = null;
+      if (ColumnarLogFormat.readInt(mIn) != 0)
+      {
+         if (COLUMNS[column].getType() == Type.LONG)
+         {
+            mMinimums[column] = new Long(ColumnarLogFormat.readLong(mIn));
+            mMaximums[column] = new Long(ColumnarLogFormat.readLong(mIn));
+         }
+         else
+         {
+            mMinimums[column] = ColumnarLogFormat.readString(mIn);
+            mMaximums[column] = ColumnarLogFormat.readString(mIn);
+         }
+      }
+      mChunks[column] = new byte[ColumnarLogFormat.readInt(mIn)];
+      ColumnarLogFormat.readFully(mIn, mChunks[column]);
+   }
+
+   private InputStream inflate (final Column column)
+   {
+      mInflater.reset();
+      return new BufferedInputStream(new InflaterInputStream(
+            new ByteArrayInputStream(mChunks[column.ordinal()]), mInflater));
+   }
+
+   private String[] readDictionary (final Column column, final InputStream in)
+         throws IOException
+   {
+      String[] rc = null;
+      if (mEncodings[column.ordinal()] == ColumnarLogFormat.DICTIONARY)
+      {
+         rc = new String[ColumnarLogFormat.readInt(in)];
+         for (int i = 0; i < rc.length; i++)
+         {
+            rc[i] = ColumnarLogFormat.readString(in);
+         }
+      }
+      return rc;
+   }
+
+   private static String readValue (
+         final InputStream in,
+         final String[] dictionary)
+         throws IOException
+   {
+      final String rc;
+      if (dictionary == null)
+      {
+         rc = ColumnarLogFormat.readString(in);
+      }
+      else
+      {
+         final int index = ColumnarLogFormat.readInt(in);
+         rc = (index == 0) ? null : dictionary[index - 1];
+      }
+      return rc;
+   }
+
+   private static void checkType (final Column column, final Type type)
+   {
+      if (column.getType() != type)
+      {
+         throw new IllegalArgumentException("Column " + column
+               + " is not of type " + type);
+      }
+   }
+}
@@ -0,0 +1,451 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.jcoderz.commons.logging.ColumnarLogFormat.Column;
+import org.jcoderz.commons.logging.ColumnarLogFormat.Type;
+
+
+/**
+ * This printer exports the log items into the compressed, columnar format
+ * described by {@link ColumnarLogFormat}, which is meant to be loaded by
+ * analysis tools or scanned by the {@link ColumnarLogReader}.
+ * <p>
+ * The values of up to {@link #DEFAULT_BLOCK_SIZE} items are collected per
+ * column and written as one block, so the memory used does not depend on
+ * the number of items exported. The data is written to the output stream
+ * supplied to the constructor, the PrintWriter passed to
+ * {@link #print(PrintWriter, LogItem)} is not used. {@link #finish()} must
+ * be called after the last item to write the last block and to close the
+ * stream. The display options are not taken into account, all columns are
+ * written for every item and its nested items.
+ * </p>
+ *
+ */
+public final class ColumnarPrinter
+      extends LogPrinter
+{
+   /** The default maximum number of rows per block. */
+   public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+   private static final Column[] COLUMNS = Column.values();
+
+   private final OutputStream mOut;
+   private final int mBlockSize;
+   private final long[][] mLongs = new long[COLUMNS.length][];
+   private final String[][] mStrings = new String[COLUMNS.length][];
+   private final List<List<String>> mLists = new ArrayList<List<String>>();
+   private final Map<String, Integer> mDictionary
+         = new HashMap<String, Integer>();
+   private final List<String> mDictionaryValues = new ArrayList<String>();
+   private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream();
+   private final ByteArrayOutputStream mChunk = new ByteArrayOutputStream();
+   private final ByteArrayOutputStream mCompressed
+         = new ByteArrayOutputStream();
+   private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+   private int mRows = 0;
+   private boolean mFinished = false;
+
+   /**
+    * Creates a new ColumnarPrinter writing blocks of up to
+    * {@link #DEFAULT_BLOCK_SIZE} rows to the supplied stream.
+    *
+    * @param out The stream to write to.
+    * @throws IOException if writing the header fails.
+    */
+   public ColumnarPrinter (final OutputStream out)
+         throws IOException
+   {
+      this(out, DEFAULT_BLOCK_SIZE);
+   }
+
+   /**
+    * Creates a new ColumnarPrinter writing to the supplied stream.
+    *
+    * @param out The stream to write to.
+    * @param blockSize The maximum number of rows per block.
+    * @throws IOException if writing the header fails.
+    */
+   public ColumnarPrinter (final OutputStream out, final int blockSize)
+         throws IOException
+   {
+      if (blockSize < 1)
+      {
+         throw new IllegalArgumentException("Invalid block size "
+               + blockSize);
+      }
+      mOut = out;
+      mBlockSize = blockSize;
+      for (int i = 0; i < COLUMNS.length; i++)
+      {
+         if (COLUMNS[i].getType() == Type.LONG)
+         {
+            mLongs[i] = new long[blockSize];
+         }
+         else if (COLUMNS[i].getType() == Type.STRING)
+         {
+            mStrings[i] = new String[blockSize];
+         }
+      }
+      for (int i = 0; i < blockSize; i++)
+      {
+         mLists.add(new ArrayList<String>());
+      }
+      mOut.write(ColumnarLogFormat.MAGIC);
+      mBlock.reset();
+      ColumnarLogFormat.writeLong(mBlock, ColumnarLogFormat.VERSION);
+      mBlock.writeTo(mOut);
+   }
+
+   /**
+    * Adds the supplied item and its nested items to the current block. The
+    * block is written, if it is full.
+    *
+    * @param printer Not used.
+    * @param entry The item to export.
+    * @throws LoggingException if writing a block fails or this has been
+    *       finished already.
+    */
+   public void print (final PrintWriter printer, final LogItem entry)
+         throws LoggingException
+   {
+      if (mFinished)
+      {
+         throw new LoggingException("The columnar export has been finished.");
+      }
+      int depth = 0;
+      for (LogItem item = entry; item != null; item = item.getNestedItem())
+      {
+         addRow(item, depth++);
+         if (mRows == mBlockSize)
+         {
+            writeBlock();
+         }
+      }
+   }
+
+   /**
+    * Writes the last block, the end of the file and closes the stream.
+    *
+    * @throws LoggingException if writing fails.
+    */
+   public void finish ()
+         throws LoggingException
+   {
+      if (! mFinished)
+      {
+         mFinished = true;
+         try
+         {
+            if (mRows > 0)
+            {
+               writeBlock();
+            }
+            mBlock.reset();
+            ColumnarLogFormat.writeLong(mBlock, 0);
+            mBlock.writeTo(mOut);
+            mOut.close();
+         }
+         catch (IOException ex)
+         {
+            throw new LoggingException("Error finishing the columnar export",
+                  ex);
+         }
+         finally
+         {
+            mDeflater.end();
+         }
+      }
+   }
+
+   /**
+    * Gets the timestamp of the item. Nested items might not carry an own
+    * timestamp, these get the one of the nearest parent.
+    */
+   private static long getTimestamp (final LogItem entry)
+   {
+      LogItem item = entry;
+      while (item.getTimestamp() == null && item.getParentItem() != null)
+      {
+         item = item.getParentItem();
+      }
+      return (item.getTimestamp() == null) ? 0 : item.getTimestamp().getTime();
+   }
+
+   private void addRow (final LogItem item, final int depth)
+   {
+      final int row = mRows++;
+      mLongs[Column.TIMESTAMP.ordinal()][row] = getTimestamp(item);
+      mLongs[Column.DEPTH.ordinal()][row] = depth;
+      mStrings[Column.NODE_ID.ordinal()][row] = item.getNodeId();
+      mStrings[Column.INSTANCE_ID.ordinal()][row] = item.getInstanceId();
+      mLongs[Column.THREAD_ID.ordinal()][row] = item.getThreadId();
+      mStrings[Column.THREAD_NAME.ordinal()][row] = item.getThreadName();
+      mStrings[Column.LEVEL.ordinal()][row] = (item.getLoggerLevel() == null)
+            ? null : item.getLoggerLevel().getName();
+      mStrings[Column.SYMBOL_ID.ordinal()][row] = item.getSymbolId();
+      mStrings[Column.BUSINESS_IMPACT.ordinal()][row]
+            = (item.getBusinessImpact() == null)
+                  ? null : item.getBusinessImpact().toString();
+      mStrings[Column.CATEGORY.ordinal()][row] = (item.getCategory() == null)
+            ? null : item.getCategory().toString();
+      mStrings[Column.TRACKING_NUMBER.ordinal()][row]
+            = item.getTrackingNumber();
+      mStrings[Column.MESSAGE.ordinal()][row] = item.getMessage();
+      final List<String> parameters = mLists.get(row);
+      parameters.clear();
+      for (final Iterator<String> names = item.getParameterNames().iterator();
+            names.hasNext(); )
+      {
+         final String name = names.next();
+         for (final Iterator<?> values
+               = item.getParameterValues(name).iterator(); values.hasNext(); )
+         {
+            parameters.add(name);
+            parameters.add(String.valueOf(values.next()));
+         }
+      }
+   }
+
+   private void writeBlock ()
+         throws LoggingException
+   {
+      try
+      {
+         mBlock.reset();
+         ColumnarLogFormat.writeLong(mBlock, mRows);
+         for (int i = 0; i < COLUMNS.length; i++)
+         {
+            if (COLUMNS[i].getType() == Type.LONG)
+            {
+               writeLongChunk(mLongs[i]);
+            }
+            else if (COLUMNS[i].getType() == Type.STRING)
+            {
+               writeStringChunk(mStrings[i]);
+            }
+            else
+            {
+               writeListChunk();
+            }
+         }
+         mBlock.writeTo(mOut);
+      }
+      catch (IOException ex)
+      {
+         throw new LoggingException("Error writing a block of "
+               + mRows + " rows", ex);
+      }
+      for (int i = 0; i < COLUMNS.length; i++)
+      {
+         if (mStrings[i] != null)
+         {
+            Arrays.fill(mStrings[i], 0, mRows, null);
+         }
+      }
+      mRows = 0;
+   }
+
+   private void writeLongChunk (final long[] values)
+         throws IOException
+   {
+      long min = values[0];
+      long max = values[0];
+      for (int i = 1; i < mRows; i++)
+      {
+         min = Math.min(min, values[i]);
+         max = Math.max(max, values[i]);
+      }
+      mChunk.reset();
+      for (int i = 0; i < mRows; i++)
+      {
+         ColumnarLogFormat.writeLong(mChunk, values[i] - min);
+      }
+      ColumnarLogFormat.writeLong(mBlock, ColumnarLogFormat.PLAIN);
+      ColumnarLogFormat.writeLong(mBlock, 1);
+      ColumnarLogFormat.writeLong(mBlock, min);
+      ColumnarLogFormat.writeLong(mBlock, max);
+      writeCompressedChunk();
+   }
+
+   private void writeStringChunk (final String[] values)
+         throws IOException
+   {
+      String min = null;
+      String max = null;
+      mDictionary.clear();
+      mDictionaryValues.clear();
+      for (int i = 0; i < mRows; i++)
+      {
+         final String value = values[i];
+         if (value != null)
+         {
+            if (min == null || value.compareTo(min) < 0)
+            {
+               min = value;
+            }
+            if (max == null || value.compareTo(max) > 0)
+            {
+               max = value;
+            }
+            addToDictionary(value);
+         }
+      }
+      final boolean dictionary = useDictionary(mRows);
+      mChunk.reset();
+      writeDictionary(dictionary);
+      for (int i = 0; i < mRows; i++)
+      {
+         writeValue(values[i], dictionary);
+      }
+      ColumnarLogFormat.writeLong(mBlock, dictionary
+            ? ColumnarLogFormat.DICTIONARY : ColumnarLogFormat.PLAIN);
+      if (min == null)
+      {
+         ColumnarLogFormat.writeLong(mBlock, 0);
+      }
+      else
+      {
+         ColumnarLogFormat.writeLong(mBlock, 1);
+         ColumnarLogFormat.writeString(mBlock, min);
+         ColumnarLogFormat.writeString(mBlock, max);
+      }
+      writeCompressedChunk();
+   }
+
+   private void writeListChunk ()
+         throws IOException
+   {
+      mDictionary.clear();
+      mDictionaryValues.clear();
+      int count = 0;
+      for (int i = 0; i < mRows; i++)
+      {
+         final List<String> values = mLists.get(i);
+         for (int j = 0; j < values.size(); j++)
+         {
+            addToDictionary(values.get(j));
+         }
+         count += values.size();
+      }
+      final boolean dictionary = useDictionary(count);
+      mChunk.reset();
+      writeDictionary(dictionary);
+      for (int i = 0; i < mRows; i++)
+      {
+         final List<String> values = mLists.get(i);
+         ColumnarLogFormat.writeLong(mChunk, values.size());
+         for (int j = 0; j < values.size(); j++)
+         {
+            writeValue(values.get(j), dictionary);
+         }
+      }
+      ColumnarLogFormat.writeLong(mBlock, dictionary
+            ? ColumnarLogFormat.DICTIONARY : ColumnarLogFormat.PLAIN);
+      ColumnarLogFormat.writeLong(mBlock, 0);
+      writeCompressedChunk();
+   }
+
+   private void addToDictionary (final String value)
+   {
+      if (! mDictionary.containsKey(value))
+      {
+         mDictionary.put(value, new Integer(mDictionaryValues.size()));
+         mDictionaryValues.add(value);
+      }
+   }
+
+   /**
+    * A dictionary pays off if the values repeat, i.e. there are at most half
+    * as many distinct values as values.
+    */
+   private boolean useDictionary (final int count)
+   {
+      return mDictionaryValues.size() * 2 <= count;
+   }
+
+   private void writeDictionary (final boolean dictionary)
+   {
+      if (dictionary)
+      {
+         ColumnarLogFormat.writeLong(mChunk, mDictionaryValues.size());
+         for (int i = 0; i < mDictionaryValues.size(); i++)
+         {
+            ColumnarLogFormat.writeString(mChunk, mDictionaryValues.get(i));
+         }
+      }
+   }
+
+   private void writeValue (final String value, final boolean dictionary)
+   {
+      if (! dictionary)
+      {
+         ColumnarLogFormat.writeString(mChunk, value);
+      }
+      else if (value == null)
+      {
+         ColumnarLogFormat.writeLong(mChunk, 0);
+      }
+      else
+      {
+         ColumnarLogFormat.writeLong(mChunk,
+               mDictionary.get(value).intValue() + 1);
+      }
+   }
+
+   private void writeCompressedChunk ()
+         throws IOException
+   {
+      mCompressed.reset();
+      mDeflater.reset();
+      final DeflaterOutputStream out
+            = new DeflaterOutputStream(mCompressed, mDeflater);
+      mChunk.writeTo(out);
+      out.finish();
+      ColumnarLogFormat.writeLong(mBlock, mCompressed.size());
+      mCompressed.writeTo(mBlock);
+   }
+}
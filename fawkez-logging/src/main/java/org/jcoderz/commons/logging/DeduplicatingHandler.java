@@ -0,0 +1,635 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.Loggable;
+
+
+/**
+ * This log handler limits the rate of repeated log messages before they
+ * are handed over to a target handler. Repeats are identified by the id
+ * of the log message info of the loggable and the class of its cause.
+ * Each such key has a token bucket: a record passes if a token is left,
+ * otherwise it is suppressed and counted. The number of suppressed
+ * records is reported in one summary record in front of the next record
+ * of the key that passes. Summaries of keys that do not pass again are
+ * reported with the next record of any key once the summary interval has
+ * elapsed, and for all keys on flush and close.
+ * Records that do not carry a loggable always pass.
+ * The following configuration can be provided in the logging properties
+ * file:<br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.target:</code><br>
+ *    Name of the class extending java.util.logging.Handler to which the
+ *    records are delegated. The target handler is configured by its own
+ *    properties. Defaults to java.util.logging.ConsoleHandler.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.rate:</code><br>
+ *    Number of records per second that pass for each key in the long run.
+ *    Defaults to 1.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.burst:</code><br>
+ *    Number of records of a key that pass in a row before the rate
+ *    applies. Defaults to 10.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.limits:</code><br>
+ *    Rates for single log messages as a list of <code>id=rate</code>, the
+ *    id given decimal or hexadecimal with a leading <code>0x</code> as for
+ *    the {@link MessageIdFilter}. A rate of 0 suppresses all records of
+ *    the message after the burst.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.interval:</code><br>
+ *    Number of seconds after which pending summaries are reported at the
+ *    latest, given a record of any key is published. Defaults to 60.
+ *    <br><br>
+ *
+ * <code>org.jcoderz.commons.logging.DeduplicatingHandler.level:</code><br>
+ *    The level of this handler. Defaults to ALL.
+ *
+ */
+public class DeduplicatingHandler
+      extends Handler
+{
+   /** The default number of records per second and key. */
+   public static final double DEFAULT_RATE = 1;
+
+   /** The default number of records of a key that pass in a row. */
+   public static final int DEFAULT_BURST = 10;
+
+   /** The default number of seconds between pending summaries. */
+   public static final double DEFAULT_INTERVAL = 60;
+
+   private static final String CLASSNAME
+         = DeduplicatingHandler.class.getName();
+
+   private static final String TARGET_PROPERTY = CLASSNAME + "." + "target";
+   private static final String RATE_PROPERTY = CLASSNAME + "." + "rate";
+   private static final String BURST_PROPERTY = CLASSNAME + "." + "burst";
+   private static final String LIMITS_PROPERTY = CLASSNAME + "." + "limits";
+   private static final String INTERVAL_PROPERTY
+         = CLASSNAME + "." + "interval";
+   private static final String LEVEL_PROPERTY = CLASSNAME + "." + "level";
+
+   private static final String HEX_PREFIX = "0x";
+   private static final int HEX_NUMBER_BASE = 16;
+   private static final double MILLIS_PER_SECOND = 1000;
+
+   private final Handler mTarget;
+   private final double mRate;
+   private final int mBurst;
+   private final Map<Integer, Double> mLimits;
+   private final long mInterval;
+   private final ConcurrentMap<Key, Bucket> mBuckets
+         = new ConcurrentHashMap<Key, Bucket>();
+
+   /** Number of records handed over to the target. */
+   private final AtomicLong mPassed = new AtomicLong();
+   /** Number of suppressed records. */
+   private final AtomicLong mSuppressed = new AtomicLong();
+   /** Time of the record after which pending summaries are published. */
+   private final AtomicLong mNextSummaries = new AtomicLong();
+
+   private volatile boolean mClosed = false;
+
+   /**
+    * Identifies repeated log messages.
+    */
+   private static final class Key
+   {
+      private final int mId;
+      private final String mCause;
+
+      private Key (int id, String cause)
+      {
+         mId = id;
+         mCause = cause;
+      }
+
+      /** {@inheritDoc} */
+      public boolean equals (Object obj)
+      {
+         boolean rc = false;
+         if (obj instanceof Key)
+         {
+            final Key other = (Key) obj;
+            rc = mId == other.mId && (mCause == null
+                  ? other.mCause == null : mCause.equals(other.mCause));
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public int hashCode ()
+      {
+         return mId ^ (mCause == null ? 0 : mCause.hashCode());
+      }
+   }
+
+   /**
+    * The token bucket of a key and the records suppressed since the last
+    * summary.
+    */
+   private final class Bucket
+   {
+      private final double mTokensPerMilli;
+      private double mTokens;
+      private long mLastRefill;
+      private int mSuppressedCount = 0;
+      private long mFirstSuppressed;
+      private LogRecord mLastSuppressed;
+
+      private Bucket (double rate, long now)
+      {
+         mTokensPerMilli = rate / MILLIS_PER_SECOND;
+         mTokens = mBurst;
+         mLastRefill = now;
+      }
+
+      /**
+       * Takes a token for the record.
+       * @return the summary of the suppressed records to publish before
+       *       the record, the record itself if there is no summary, or
+       *       null if the record is suppressed.
+       */
+      private synchronized LogRecord take (LogRecord record, Key key)
+      {
+         final long now = record.getMillis();
+         if (now > mLastRefill)
+         {
+            mTokens = Math.min(mBurst,
+                  mTokens + (now - mLastRefill) * mTokensPerMilli);
+            mLastRefill = now;
+         }
+         LogRecord rc = null;
+         if (mTokens >= 1)
+         {
+            mTokens -= 1;
+            rc = mSuppressedCount == 0 ? record : summary(key);
+         }
+         else
+         {
+            if (mSuppressedCount == 0)
+            {
+               mFirstSuppressed = now;
+            }
+            mSuppressedCount++;
+            mLastSuppressed = record;
+         }
+         return rc;
+      }
+
+      /**
+       * Returns the summary of the suppressed records and resets the
+       * count.
+       * @return the summary record or null if nothing was suppressed.
+       */
+      private synchronized LogRecord summary (Key key)
+      {
+         LogRecord rc = null;
+         if (mSuppressedCount > 0)
+         {
+            rc = new LogRecord(mLastSuppressed.getLevel(),
+                  "Suppressed " + mSuppressedCount
+                  + " repetitions of log message "
+                  + describe(key, mLastSuppressed) + " since "
+                  + new Date(mFirstSuppressed) + ".");
+            rc.setLoggerName(mLastSuppressed.getLoggerName());
+            rc.setSourceClassName(mLastSuppressed.getSourceClassName());
+            rc.setSourceMethodName(mLastSuppressed.getSourceMethodName());
+            rc.setThreadID(mLastSuppressed.getThreadID());
+            mSuppressedCount = 0;
+            mLastSuppressed = null;
+         }
+         return rc;
+      }
+   }
+
+   /**
+    * Creates a new instance of this and configures it by the logging
+    * properties.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the configuration is invalid or the
+    * target handler could not be created.
+    */
+   public DeduplicatingHandler ()
+         throws SecurityException,
+         InstantiationException
+   {
+      this(AsyncHandler.createTarget(TARGET_PROPERTY), getRate(),
+            getBurst(), getLimits(), getInterval());
+      final String level = LogManager.getLogManager().getProperty(
+            LEVEL_PROPERTY);
+      if (level != null && level.length() != 0)
+      {
+         setLevel(AsyncHandler.parseLevel(level, LEVEL_PROPERTY));
+      }
+   }
+
+   /**
+    * Creates a new instance of this delegating to the given handler.
+    *
+    * @param target The handler formatting and writing the records.
+    * @param rate The number of records per second that pass for each key.
+    * @param burst The number of records of a key that pass in a row.
+    * @param limits Rates for single log messages, mapping the id of the
+    *       log message info to the rate; might be null.
+    */
+   public DeduplicatingHandler (
+         final Handler target,
+         final double rate,
+         final int burst,
+         final Map<Integer, Double> limits)
+   {
+      this(target, rate, burst, limits, DEFAULT_INTERVAL);
+   }
+
+   /**
+    * Creates a new instance of this delegating to the given handler.
+    *
+    * @param target The handler formatting and writing the records.
+    * @param rate The number of records per second that pass for each key.
+    * @param burst The number of records of a key that pass in a row.
+    * @param limits Rates for single log messages, mapping the id of the
+    *       log message info to the rate; might be null.
+    * @param interval The number of seconds after which pending summaries
+    *       are published with the next record of any key.
+    */
+   public DeduplicatingHandler (
+         final Handler target,
+         final double rate,
+         final int burst,
+         final Map<Integer, Double> limits,
+         final double interval)
+   {
+      super();
+      if (target == null)
+      {
+         throw new NullPointerException("Target must not be null.");
+      }
+      if (rate < 0 || burst < 1 || interval < 0)
+      {
+         throw new IllegalArgumentException("Invalid rate " + rate
+               + ", burst " + burst + " or interval " + interval + ".");
+      }
+      mTarget = target;
+      mRate = rate;
+      mBurst = burst;
+      mLimits = limits == null ? Collections.<Integer, Double>emptyMap()
+            : new HashMap<Integer, Double>(limits);
+      mInterval = (long) (interval * MILLIS_PER_SECOND);
+   }
+
+   /** {@inheritDoc} */
+   public void publish (final LogRecord record)
+   {
+      if (! mClosed && isLoggable(record))
+      {
+         publishPendingSummaries(record.getMillis());
+         final Loggable loggable = getLoggable(record);
+         if (loggable == null)
+         {
+            deliver(record);
+         }
+         else
+         {
+            final Key key = new Key(loggable.getLogMessageInfo().toInt(),
+                  loggable.getCause() == null
+                     ? null : loggable.getCause().getClass().getName());
+            final LogRecord first = getBucket(key, record).take(record, key);
+            if (first == null)
+            {
+               mSuppressed.incrementAndGet();
+            }
+            else
+            {
+               if (first != record)
+               {
+                  deliver(first);
+               }
+               deliver(record);
+            }
+         }
+      }
+   }
+
+   /**
+    * Publishes the summaries of all suppressed records and flushes the
+    * target handler.
+    */
+   public void flush ()
+   {
+      publishSummaries();
+      mTarget.flush();
+   }
+
+   /**
+    * Stops accepting new records, publishes the summaries of all
+    * suppressed records and closes the target handler.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    */
+   public void close ()
+         throws SecurityException
+   {
+      LogManager.getLogManager().checkAccess();
+      mClosed = true;
+      flush();
+      mTarget.close();
+   }
+
+   /**
+    * Returns the handler the records are delegated to.
+    * @return the target handler.
+    */
+   public Handler getTarget ()
+   {
+      return mTarget;
+   }
+
+   /**
+    * Returns the number of records handed over to the target handler,
+    * including summaries.
+    * @return the number of records handed over to the target handler.
+    */
+   public long getPassedCount ()
+   {
+      return mPassed.get();
+   }
+
+   /**
+    * Returns the number of records suppressed so far.
+    * @return the number of records suppressed so far.
+    */
+   public long getSuppressedCount ()
+   {
+      return mSuppressed.get();
+   }
+
+   private Bucket getBucket (final Key key, final LogRecord record)
+   {
+      Bucket rc = mBuckets.get(key);
+      if (rc == null)
+      {
+         final Double limit = mLimits.get(new Integer(key.mId));
+         rc = new Bucket(limit == null ? mRate : limit.doubleValue(),
+               record.getMillis());
+         final Bucket other = mBuckets.putIfAbsent(key, rc);
+         if (other != null)
+         {
+            rc = other;
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Publishes the summaries of all keys if the interval has elapsed
+    * since the last time. Only one of concurrent callers does so.
+    * @param now The time of the record being published.
+    */
+   private void publishPendingSummaries (final long now)
+   {
+      final long next = mNextSummaries.get();
+      if (now >= next && mNextSummaries.compareAndSet(next, now + mInterval))
+      {
+         publishSummaries();
+      }
+   }
+
+   private void publishSummaries ()
+   {
+      final Iterator<Map.Entry<Key, Bucket>> i
+            = mBuckets.entrySet().iterator();
+      while (i.hasNext())
+      {
+         final Map.Entry<Key, Bucket> entry = i.next();
+         final LogRecord summary = entry.getValue().summary(entry.getKey());
+         if (summary != null)
+         {
+            deliver(summary);
+         }
+      }
+   }
+
+   private void deliver (final LogRecord record)
+   {
+      try
+      {
+         mTarget.publish(record);
+         mPassed.incrementAndGet();
+      }
+      catch (Exception ex)
+      {
+         reportError("Error delegating a log record", ex,
+               ErrorManager.WRITE_FAILURE);
+      }
+   }
+
+   private static String describe (final Key key, final LogRecord record)
+   {
+      final Loggable loggable = getLoggable(record);
+      final StringBuilder sb = new StringBuilder();
+      if (loggable != null)
+      {
+         sb.append(loggable.getLogMessageInfo().getSymbol()).append(' ');
+      }
+      sb.append("0x").append(Integer.toHexString(key.mId));
+      if (key.mCause != null)
+      {
+         sb.append(" caused by ").append(key.mCause);
+      }
+      return sb.toString();
+   }
+
+   private static Loggable getLoggable (final LogRecord record)
+   {
+      Loggable rc = null;
+      final Object[] params = record.getParameters();
+      if (params != null && params.length > 0
+            && params[0] instanceof Loggable)
+      {
+         rc = (Loggable) params[0];
+      }
+      return rc;
+   }
+
+   private static double getRate ()
+         throws InstantiationException
+   {
+      final String rate = LogManager.getLogManager().getProperty(
+            RATE_PROPERTY);
+      double rc = DEFAULT_RATE;
+      if (rate != null && rate.length() != 0)
+      {
+         rc = parseRate(rate, RATE_PROPERTY);
+      }
+      return rc;
+   }
+
+   private static double getInterval ()
+         throws InstantiationException
+   {
+      final String interval = LogManager.getLogManager().getProperty(
+            INTERVAL_PROPERTY);
+      double rc = DEFAULT_INTERVAL;
+      if (interval != null && interval.length() != 0)
+      {
+         try
+         {
+            rc = Double.parseDouble(interval.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid interval configured with property "
+                  + INTERVAL_PROPERTY + ": " + interval);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private static int getBurst ()
+         throws InstantiationException
+   {
+      final String burst = LogManager.getLogManager().getProperty(
+            BURST_PROPERTY);
+      int rc = DEFAULT_BURST;
+      if (burst != null && burst.length() != 0)
+      {
+         try
+         {
+            rc = Integer.parseInt(burst.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid burst configured with property "
+                  + BURST_PROPERTY + ": " + burst);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private static Map<Integer, Double> getLimits ()
+         throws InstantiationException
+   {
+      final String limits = LogManager.getLogManager().getProperty(
+            LIMITS_PROPERTY);
+      final Map<Integer, Double> rc = new HashMap<Integer, Double>();
+      if (limits != null && limits.length() != 0)
+      {
+         final StringTokenizer tokenizer
+               = new StringTokenizer(limits, " ,\t");
+         while (tokenizer.hasMoreTokens())
+         {
+            final String limit = tokenizer.nextToken();
+            final int pos = limit.indexOf('=');
+            if (pos <= 0)
+            {
+               throw new InstantiationException(
+                     "Invalid limit configured with property "
+                     + LIMITS_PROPERTY + ": " + limit);
+            }
+            rc.put(parseId(limit.substring(0, pos)),
+                  new Double(parseRate(limit.substring(pos + 1),
+                     LIMITS_PROPERTY)));
+         }
+      }
+      return rc;
+   }
+
+   private static Integer parseId (final String id)
+         throws InstantiationException
+   {
+      final Integer rc;
+      try
+      {
+         if (id.startsWith(HEX_PREFIX))
+         {
+            rc = new Integer((int) Long.parseLong(
+                  id.substring(HEX_PREFIX.length()), HEX_NUMBER_BASE));
+         }
+         else
+         {
+            rc = Integer.valueOf(id);
+         }
+      }
+      catch (NumberFormatException ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Invalid message id configured with property "
+               + LIMITS_PROPERTY + ": " + id);
+         iex.initCause(ex);
+         throw iex;
+      }
+      return rc;
+   }
+
+   private static double parseRate (final String rate, final String property)
+         throws InstantiationException
+   {
+      final double rc;
+      try
+      {
+         rc = Double.parseDouble(rate.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Invalid rate configured with property " + property + ": "
+               + rate);
+         iex.initCause(ex);
+         throw iex;
+      }
+      return rc;
+   }
+}
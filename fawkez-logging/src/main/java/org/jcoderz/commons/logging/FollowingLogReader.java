@@ -0,0 +1,268 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * A LogReader following a log file which is still being written, like
+ * <code>tail -F</code>.
+ * <p>
+ * The file is read through a FileChannel. Only complete lines are passed to
+ * the parser, a partially written line is kept until its line end has been
+ * written. If no new data is found, the file is checked for having been
+ * replaced: if the file has become shorter than the position read so far
+ * (truncation, or rotation to a new smaller file) or longer than the file
+ * open (rotation), the file is opened again and read from its start. The
+ * file open is always read up to its end before, so no entries written
+ * right before a rotation are missed. If the file does not exist, it is
+ * opened as soon as it is created.
+ * </p>
+ * <p>
+ * All data available is read in chunks of up to
+ * {@link #READ_BUFFER_SIZE} bytes, so bursts are parsed in batches and no
+ * system call is needed while idle other than checking the file size.
+ * </p>
+ *
+ */
+final class FollowingLogReader
+      extends LogReader
+{
+   /** The maximum number of bytes read at once. */
+   static final int READ_BUFFER_SIZE = 64 * 1024;
+
+   private final Follower mFollower;
+
+   /**
+    * Reads the complete lines appended to a file.
+    */
+   private static final class Follower
+         extends Reader
+   {
+      private final File mFile;
+      private final ByteBuffer mBytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      private final CharsetDecoder mDecoder = Charset.defaultCharset()
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      private CharBuffer mChars = CharBuffer.allocate(0);
+      private FileInputStream mStream;
+      private FileChannel mChannel;
+      /** The offset of the first byte not yet passed as line. */
+      private long mPosition;
+      private int mReopenCount;
+
+      private Follower (File file)
+      {
+         mFile = file;
+      }
+
+      /** {@inheritDoc} */
+      public int read (char[] cbuf, int off, int len)
+            throws IOException
+      {
+         int rc = -1;
+         if (mChars.hasRemaining() || poll())
+         {
+            rc = Math.min(len, mChars.remaining());
+            mChars.get(cbuf, off, rc);
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public boolean ready ()
+            throws IOException
+      {
+         return mChars.hasRemaining() || poll();
+      }
+
+      /** {@inheritDoc} */
+      public void close ()
+      {
+         closeFile();
+      }
+
+      /**
+       * Decodes the complete lines appended to the file since the last call.
+       *
+       * @return true if new lines are available.
+       * @throws IOException if reading the file fails.
+       */
+      private boolean poll ()
+            throws IOException
+      {
+         boolean rc = false;
+         if (mChannel == null)
+         {
+            open();
+         }
+         if (mChannel != null)
+         {
+            rc = readLines();
+            if (! rc && isReplaced())
+            {
+               closeFile();
+               open();
+               mReopenCount++;
+               rc = mChannel != null && readLines();
+            }
+         }
+         return rc;
+      }
+
+      private boolean readLines ()
+            throws IOException
+      {
+         mChannel.read(mBytes);
+         int end = mBytes.position();
+         while (end > 0 && mBytes.get(end - 1) != '\n')
+         {
+            end--;
+         }
+         if (end == 0 && ! mBytes.hasRemaining())
+         {
+            // a line longer than the buffer is passed in parts
+            end = mBytes.position();
+         }
+         boolean rc = false;
+         if (end > 0)
+         {
+            final int limit = mBytes.position();
+            mBytes.flip();
+            mBytes.limit(end);
+            mChars = mDecoder.decode(mBytes);
+            mBytes.limit(limit);
+            mBytes.compact();
+            mPosition += end;
+            rc = mChars.hasRemaining();
+         }
+         return rc;
+      }
+
+      /**
+       * Checks whether the file has been truncated or replaced by another
+       * file. The length of the file is read before the size of the file
+       * open, so a file growing meanwhile is not taken for another one.
+       *
+       * @return true if the file must be opened again.
+       * @throws IOException if the size of the file open cannot be read.
+       */
+      private boolean isReplaced ()
+            throws IOException
+      {
+         final boolean exists = mFile.exists();
+         final long length = mFile.length();
+         final long size = mChannel.size();
+         return exists
+               && (length < mPosition + mBytes.position() || length > size);
+      }
+
+      private void open ()
+      {
+         try
+         {
+            mStream = new FileInputStream(mFile);
+            mChannel = mStream.getChannel();
+         }
+         catch (FileNotFoundException ex)
+         {
+            // wait for the file to be created
+            mStream = null;
+            mChannel = null;
+         }
+         mPosition = 0;
+         mBytes.clear();
+      }
+
+      private void closeFile ()
+      {
+         IoUtil.close(mChannel);
+         IoUtil.close(mStream);
+         mChannel = null;
+         mStream = null;
+      }
+   }
+
+   /**
+    * Creates a new FollowingLogReader for the supplied file. The file is
+    * read from its start and need not exist yet.
+    *
+    * @param fileName The name of the file to follow.
+    */
+   FollowingLogReader (final String fileName)
+   {
+      this(new Follower(new File(fileName)));
+   }
+
+   private FollowingLogReader (final Follower follower)
+   {
+      super(follower);
+      mFollower = follower;
+   }
+
+   /**
+    * Returns the offset within the current file up to which complete lines
+    * have been read.
+    *
+    * @return the offset of the first byte not yet read.
+    */
+   long getPosition ()
+   {
+      return mFollower.mPosition;
+   }
+
+   /**
+    * Returns how often the file has been found replaced or truncated and was
+    * opened again.
+    *
+    * @return the number of times the file was opened again.
+    */
+   int getReopenCount ()
+   {
+      return mFollower.mReopenCount;
+   }
+}
@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * A LogReader which uses a {@link LogIndex} to read only the entries of a log
+ * file, which might pass the installed filters.
+ * <p>
+ * Filters depending only on values stored in the index, i.e. instances of
+ * {@link PeriodFilter}, {@link LevelFilter} and {@link ThreadIdFilter}, are
+ * evaluated against the index records first. Only the entries passing these
+ * are read from the log file, seeking directly to them if they do not follow
+ * the entry read before. All filters are applied again to the entries read.
+ * </p>
+ * Entries appended to the log file after the last update of the index are
+ * not read.
+ *
+ */
+public class IndexedLogReader
+      extends LogReader
+{
+   private final LogIndex mIndex;
+   private final List<Filter> mFilters = new ArrayList<Filter>();
+   private final List<Filter> mIndexFilters = new ArrayList<Filter>();
+   private final LogFileEntry mIndexItem = new LogFileEntry();
+
+   /** The number of the index entry to check next. */
+   private int mNextEntry = 0;
+   /** The number of the index entry read last from the log file. */
+   private int mLastReadEntry = -1;
+
+   /**
+    * Creates a new IndexedLogReader for reading the supplied file using the
+    * supplied index. The index must be up to date.
+    *
+    * @param fileName The name of the file to read.
+    * @param index The index of the file.
+    *
+    * @throws InstantiationException in case there is an error opening the file
+    * for reading.
+    */
+   IndexedLogReader (final String fileName, final LogIndex index)
+         throws InstantiationException
+   {
+      super(fileName);
+      mIndex = index;
+   }
+
+   /**
+    * Checks whether the supplied filter can be evaluated against the values
+    * stored in a {@link LogIndex}.
+    *
+    * @param filter The filter to check.
+    * @return true if the filter only depends on indexed values.
+    */
+   static boolean isIndexable (final Filter filter)
+   {
+      return filter instanceof PeriodFilter
+            || filter instanceof LevelFilter
+            || filter instanceof ThreadIdFilter;
+   }
+
+   /** {@inheritDoc} */
+   void addFilter (final Filter filter)
+   {
+      mFilters.add(filter);
+      if (isIndexable(filter))
+      {
+         mIndexFilters.add(filter);
+      }
+   }
+
+   /**
+    * Gets the next LogFileEntry from the log file, which passes all installed
+    * filters. If the end of the index is reached before an entry has been found
+    * matching all criteria, this returns null.
+    * Each LogFileEntry instance being returned by this should be released if it
+    * is not needed anymore.
+    *
+    * @return the next LogFileEntry passing all filters or null if no such
+    * available.
+    * @throws LoggingException if an error occurs.
+    */
+   LogFileEntry readLogFileEntry ()
+         throws LoggingException
+   {
+      LogFileEntry rc = null;
+      int entry = findNextEntry();
+      while (rc == null && entry >= 0)
+      {
+         if (entry != mLastReadEntry + 1)
+         {
+            seek(mIndex.getOffset(entry));
+         }
+         // the super class has no filters installed
+         rc = super.readLogFileEntry();
+         mLastReadEntry = entry;
+         if (rc != null && ! passes(mFilters, rc))
+         {
+            rc.release();
+            rc = null;
+         }
+         if (rc == null)
+         {
+            entry = findNextEntry();
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Checks whether more entries might be read.
+    *
+    * @return true if there are index entries not already checked by this;
+    * false, else.
+    */
+   boolean available ()
+   {
+      return mNextEntry < mIndex.getNumberOfEntries();
+   }
+
+   /**
+    * Finds the next index entry passing the indexable filters.
+    *
+    * @return the number of the next index entry passing the filters or -1 if
+    * there is no such entry.
+    */
+   private int findNextEntry ()
+   {
+      int rc = -1;
+      final int numberOfEntries = mIndex.getNumberOfEntries();
+      while (rc < 0 && mNextEntry < numberOfEntries)
+      {
+         final int entry = mNextEntry++;
+         mIndex.fill(entry, mIndexItem);
+         if (passes(mIndexFilters, mIndexItem))
+         {
+            rc = entry;
+         }
+      }
+      return rc;
+   }
+
+   private static boolean passes (
+         final List<Filter> filters,
+         final LogItem item)
+   {
+      boolean rc = true;
+      for (final Iterator<Filter> iter = filters.iterator();
+            iter.hasNext() && rc; )
+      {
+         rc = iter.next().isPassable(item);
+      }
+      return rc;
+   }
+}
@@ -40,10 +40,15 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ErrorManager;
 import java.util.logging.Filter;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
@@ -60,6 +65,7 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import org.jcoderz.commons.LoggableImpl;
+import org.jcoderz.commons.logging.AsyncHandler.OverflowPolicy;
 
 
 /**
@@ -82,7 +88,37 @@ import org.jcoderz.commons.LoggableImpl;
  *    A comma or space separated list of message symbol ids for those
  *    messages, which are loggable for the default filter. The ids have either
  *    to be specified as integer values with base 10, or by prefixing with 0x as
- *    hex values.
+ *    hex values.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.senders:</code><br>
+ *    Number of sender threads. If this is 0, which is the default, each
+ *    record is sent synchronously within the logging thread using a non
+ *    transacted session of that thread. Otherwise the formatted records are
+ *    put into a bounded queue and are sent by the given number of threads,
+ *    each using one transacted session, which is committed in batches.
+ *    <br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.batchsize:</code><br>
+ *    Number of messages a sender thread sends within one transaction.
+ *    Defaults to 100.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.batchtime:</code><br>
+ *    Maximum time in milliseconds a sent message stays uncommitted. Defaults
+ *    to 500.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.capacity:</code><br>
+ *    Number of records the queue of the sender threads can hold, rounded up
+ *    to the next power of two. Defaults to 8192.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.policy:</code><br>
+ *    What to do if the queue is full, see
+ *    {@link AsyncHandler.OverflowPolicy}. One of <code>block</code>,
+ *    <code>drop-below-level</code> or <code>drop-oldest</code>. Defaults to
+ *    <code>block</code>.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.JmsHandler.droplevel:</code><br>
+ *    The level for the policy <code>drop-below-level</code>. Defaults to
+ *    WARNING.
  *
  */
 public class JmsHandler
@@ -100,10 +136,36 @@ public class JmsHandler
          = CLASSNAME + "." + "filter";
    private static final String JMS_FORMATTER_PROPERTY
          = CLASSNAME + "." + "formatter";
+   private static final String SENDERS_PROPERTY = CLASSNAME + "." + "senders";
+   private static final String BATCH_SIZE_PROPERTY
+         = CLASSNAME + "." + "batchsize";
+   private static final String BATCH_TIME_PROPERTY
+         = CLASSNAME + "." + "batchtime";
+   private static final String CAPACITY_PROPERTY
+         = CLASSNAME + "." + "capacity";
+   private static final String POLICY_PROPERTY = CLASSNAME + "." + "policy";
+   private static final String DROP_LEVEL_PROPERTY
+         = CLASSNAME + "." + "droplevel";
+
+   private static final int DEFAULT_BATCH_SIZE = 100;
+   private static final long DEFAULT_BATCH_TIME_MILLIS = 500;
+
+   /** Time a sender sleeps if there is nothing to do. */
+   private static final long SENDER_PARK_NANOS
+         = TimeUnit.MILLISECONDS.toNanos(10);
+   /** Time a blocked producer or flushing thread waits before retrying. */
+   private static final long PRODUCER_PARK_NANOS
+         = TimeUnit.MICROSECONDS.toNanos(100);
+   /** Time a sender waits before it retries to create a session. */
+   private static final long RECONNECT_DELAY_NANOS
+         = TimeUnit.SECONDS.toNanos(1);
+   /** Time to wait for the senders on flush and on close. */
+   private static final long DRAIN_TIMEOUT_MILLIS = 10000;
 
    /**
-    * The created sessions to not behave transactional, i.e. do not put a tx
-    * boundary around sending several messages.
+    * The sessions of the logging threads do not behave transactional, i.e.
+    * do not put a tx boundary around sending several messages. The sessions
+    * of the sender threads commit in batches.
     */
    private static final boolean SESSION_TRANSACTION_MODE = false;
 
@@ -143,29 +205,276 @@ public class JmsHandler
    private String mFactoryName;
    private String mQueueName;
 
+   private int mSenderCount = 0;
+   private int mBatchSize = DEFAULT_BATCH_SIZE;
+   private long mBatchTimeMillis = DEFAULT_BATCH_TIME_MILLIS;
+   private int mCapacity = AsyncHandler.DEFAULT_CAPACITY;
+   private OverflowPolicy mPolicy = OverflowPolicy.BLOCK;
+   private int mDropLevel = Level.WARNING.intValue();
+
+   /** The queue of the sender threads, null if sending synchronously. */
+   private BoundedRingBuffer<Entry> mBuffer = null;
+   private Thread[] mSenderThreads = new Thread[0];
+
+   /** Number of records put into the queue. */
+   private final AtomicLong mAccepted = new AtomicLong();
+   /** Number of accepted records committed, failed or evicted. */
+   private final AtomicLong mProcessed = new AtomicLong();
+   /** Number of messages sent, and committed if sent by a sender thread. */
+   private final AtomicLong mSent = new AtomicLong();
+   /** Number of messages which could not be sent or committed. */
+   private final AtomicLong mFailed = new AtomicLong();
+   /** Number of records discarded on publish. */
+   private final AtomicLong mDropped = new AtomicLong();
+   /** Number of queued records discarded to make room for newer ones. */
+   private final AtomicLong mEvicted = new AtomicLong();
+   /** Number of transactions committed by the sender threads. */
+   private final AtomicLong mCommits = new AtomicLong();
+   /** Number of threads waiting in {@link #flush()}. */
+   private final AtomicInteger mFlushing = new AtomicInteger();
+
+   private volatile boolean mClosed = false;
+
+   private final BoundedRingBuffer.OverflowListener<Entry> mOverflow
+         = new BoundedRingBuffer.OverflowListener<Entry>()
+         {
+            /** {@inheritDoc} */
+            public void evicted (final Entry entry)
+            {
+               mEvicted.incrementAndGet();
+               mProcessed.incrementAndGet();
+            }
+
+            /** {@inheritDoc} */
+            public boolean awaitSpace ()
+            {
+               final boolean rc = ! mClosed && isSenderAlive();
+               if (rc)
+               {
+                  LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+               }
+               return rc;
+            }
+         };
+
+   /**
+    * A formatted record waiting for a sender thread.
+    */
+   private static final class Entry
+   {
+      private final String mText;
+      private final int mLevel;
+
+      private Entry (String text, int level)
+      {
+         mText = text;
+         mLevel = level;
+      }
+   }
+
+   /**
+    * Sends the queued records using one transacted session, which is
+    * committed after {@link #mBatchSize} messages or after
+    * {@link #mBatchTimeMillis}. The session is created within this thread
+    * and is recreated after an error.
+    */
+   private final class Sender
+         implements Runnable
+   {
+      private QueueSession mSession = null;
+      private QueueSender mSender = null;
+      /** Number of messages sent within the current transaction. */
+      private int mPending = 0;
+      /** Time the first message of the current transaction was sent. */
+      private long mBatchStart = 0;
+
+      /** {@inheritDoc} */
+      public void run ()
+      {
+         boolean running = true;
+         while (running)
+         {
+            if (mSession == null && ! openSession())
+            {
+               if (mClosed)
+               {
+                  running = false;
+               }
+               else
+               {
+                  LockSupport.parkNanos(RECONNECT_DELAY_NANOS);
+               }
+            }
+            else
+            {
+               final Entry entry = mBuffer.poll();
+               if (entry != null)
+               {
+                  send(entry.mText);
+               }
+               else if (mClosed)
+               {
+                  running = false;
+               }
+               else if (mPending == 0 || mFlushing.get() == 0)
+               {
+                  idle();
+               }
+               if (mPending > 0 && (mPending >= mBatchSize
+                     || System.currentTimeMillis() - mBatchStart
+                        >= mBatchTimeMillis
+                     || (entry == null && mFlushing.get() > 0)))
+               {
+                  commit();
+               }
+            }
+         }
+         commit();
+         closeSession();
+      }
+
+      private void idle ()
+      {
+         long nanos = SENDER_PARK_NANOS;
+         if (mPending > 0)
+         {
+            nanos = Math.min(nanos, TimeUnit.MILLISECONDS.toNanos(
+                  mBatchStart + mBatchTimeMillis - System.currentTimeMillis()));
+         }
+         if (nanos > 0)
+         {
+            LockSupport.parkNanos(nanos);
+         }
+      }
+
+      private boolean openSession ()
+      {
+         boolean rc = false;
+         try
+         {
+            mSession = mJmsConnection.createQueueSession(
+                  true, Session.SESSION_TRANSACTED);
+            mSender = mSession.createSender(mJmsQueue);
+            rc = true;
+         }
+         catch (JMSException ex)
+         {
+            reportError("Error creating a transacted jms session", ex,
+                  ErrorManager.OPEN_FAILURE);
+            closeSession();
+         }
+         return rc;
+      }
+
+      private void send (final String text)
+      {
+         try
+         {
+            final TextMessage msg = mSession.createTextMessage();
+            msg.setText(text);
+            mSender.send(msg);
+            if (mPending == 0)
+            {
+               mBatchStart = System.currentTimeMillis();
+            }
+            mPending++;
+         }
+         catch (JMSException ex)
+         {
+            reportError("Error publishing a log record", ex,
+                  ErrorManager.WRITE_FAILURE);
+            mFailed.incrementAndGet();
+            mProcessed.incrementAndGet();
+            rollback();
+         }
+      }
+
+      private void commit ()
+      {
+         if (mPending > 0)
+         {
+            try
+            {
+               mSession.commit();
+               mSent.addAndGet(mPending);
+               mCommits.incrementAndGet();
+            }
+            catch (JMSException ex)
+            {
+               reportError("Error committing " + mPending + " log records",
+                     ex, ErrorManager.WRITE_FAILURE);
+               mFailed.addAndGet(mPending);
+               closeSession();
+            }
+            mProcessed.addAndGet(mPending);
+            mPending = 0;
+         }
+      }
+
+      private void rollback ()
+      {
+         if (mPending > 0)
+         {
+            try
+            {
+               mSession.rollback();
+            }
+            catch (JMSException ex)
+            {
+               reportError("Error rolling back " + mPending + " log records",
+                     ex, ErrorManager.WRITE_FAILURE);
+            }
+            mFailed.addAndGet(mPending);
+            mProcessed.addAndGet(mPending);
+            mPending = 0;
+         }
+         // The session might be broken, get a new one for the next record.
+         closeSession();
+      }
+
+      private void closeSession ()
+      {
+         if (mSession != null)
+         {
+            try
+            {
+               mSession.close();
+            }
+            catch (Exception ex)
+            {
+               reportError("Error closing jms session: " + mSession,
+                     ex, ErrorManager.CLOSE_FAILURE);
+            }
+         }
+         mSession = null;
+         mSender = null;
+      }
+   }
+
    /**
     * This is the formatter to be used for formatting log records before they
     * are put onto the jms queue.
     * It formats the log record into a xml message using the
-    * {@link XmlPrinter}. The stack trace of messages and exceptions is
+    * {@link StaxXmlPrinter}, which writes the elements directly without
+    * pooled jaxb objects. The stack trace of messages and exceptions is
     * neglected.
     *
     */
    private static final class DefaultFormatter
          extends Formatter
    {
-      /** A PrintWriter is used by the XmlPrinter. */
+      /** A PrintWriter is used by the StaxXmlPrinter. */
       private final ThreadLocal<PrintWriter> mPrintWriters = new ThreadLocal<PrintWriter>();
       /** A CharWriter is used by the PrintWriter. */
       private final ThreadLocal<CharArrayWriter> mCharWriters = new ThreadLocal<CharArrayWriter>();
 
-      private final XmlPrinter mXmlPrinter;
+      private final StaxXmlPrinter mXmlPrinter;
       private final DisplayOptions mDisplayOptions;
 
       private DefaultFormatter ()
             throws InstantiationException
       {
-         mXmlPrinter = new XmlPrinter();
+         mXmlPrinter = new StaxXmlPrinter();
          mDisplayOptions = new DisplayOptions();
          mDisplayOptions.displayMessageStackTrace(false);
          mDisplayOptions.displayStackTrace(false);
@@ -233,14 +542,74 @@ public class JmsHandler
       mManager.checkAccess();
       configure();
       connect();
+      startSenders();
    }
 
-   /** {@inheritDoc} */
+   /**
+    * Creates a new instance of this sending to the given queue by means of
+    * sender threads. Filter and formatter are not set.
+    *
+    * @param connection The connection to the jms provider.
+    * @param queue The queue receiving the log messages.
+    * @param senders The number of sender threads.
+    * @param capacity The minimum number of records the queue can hold.
+    * @param policy The policy applied if the queue is full.
+    * @param dropLevel Records below this level are discarded if the queue
+    *       is full and the policy is {@link OverflowPolicy#DROP_BELOW_LEVEL}.
+    * @param batchSize The number of messages sent within one transaction.
+    * @param batchTimeMillis The maximum time a message stays uncommitted.
+    */
+   JmsHandler (
+         final QueueConnection connection,
+         final Queue queue,
+         final int senders,
+         final int capacity,
+         final OverflowPolicy policy,
+         final Level dropLevel,
+         final int batchSize,
+         final long batchTimeMillis)
+   {
+      super();
+      mJmsConnection = connection;
+      mJmsQueue = queue;
+      mSenderCount = senders;
+      mCapacity = capacity;
+      mPolicy = policy;
+      mDropLevel = dropLevel.intValue();
+      mBatchSize = batchSize;
+      mBatchTimeMillis = batchTimeMillis;
+      startSenders();
+   }
+
+   /**
+    * Stops accepting new records, waits until the sender threads have sent
+    * and committed the queued records and closes all sessions and the
+    * connection.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    */
    public void close ()
          throws SecurityException
    {
       mManager.checkAccess();
-      setFormatter(null);
+      mClosed = true;
+      final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+      for (int i = 0; i < mSenderThreads.length; i++)
+      {
+         LockSupport.unpark(mSenderThreads[i]);
+         try
+         {
+            mSenderThreads[i].join(
+                  Math.max(1, deadline - System.currentTimeMillis()));
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+            reportError("Interrupted while draining the jms queue", ex,
+                  ErrorManager.CLOSE_FAILURE);
+            break;
+         }
+      }
       setFilter(null);
       synchronized (mAllSessions)
       {
@@ -273,21 +642,126 @@ public class JmsHandler
       }
    }
 
-   /** {@inheritDoc} */
+   /**
+    * Waits until the sender threads have sent and committed all records
+    * published so far. Does nothing if the records are sent synchronously.
+    */
    public void flush ()
    {
-      // nop
+      if (mBuffer != null && ! isSenderThread())
+      {
+         final long accepted = mAccepted.get();
+         final long deadline
+               = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+         mFlushing.incrementAndGet();
+         try
+         {
+            while (mProcessed.get() < accepted && isSenderAlive()
+                  && System.currentTimeMillis() < deadline)
+            {
+               for (int i = 0; i < mSenderThreads.length; i++)
+               {
+                  LockSupport.unpark(mSenderThreads[i]);
+               }
+               LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            }
+         }
+         finally
+         {
+            mFlushing.decrementAndGet();
+         }
+      }
    }
 
    /** {@inheritDoc} */
    public void publish (final LogRecord record)
    {
-      if (getFilter().isLoggable(record))
+      if (! mClosed && getFilter().isLoggable(record))
       {
-         sendRecord(record);
+         if (mBuffer == null)
+         {
+            sendRecord(record);
+         }
+         else
+         {
+            queueRecord(record);
+         }
       }
    }
 
+   /**
+    * Returns the number of records currently waiting for a sender thread.
+    *
+    * @return the number of queued records.
+    */
+   public int getQueuedCount ()
+   {
+      final int rc;
+      if (mBuffer == null)
+      {
+         rc = 0;
+      }
+      else
+      {
+         rc = mBuffer.size();
+      }
+      return rc;
+   }
+
+   /**
+    * Returns the number of messages sent successfully. Messages sent by the
+    * sender threads are counted as soon as their transaction is committed.
+    *
+    * @return the number of sent messages.
+    */
+   public long getSentCount ()
+   {
+      return mSent.get();
+   }
+
+   /**
+    * Returns the number of messages which could not be sent or whose
+    * transaction could not be committed.
+    *
+    * @return the number of failed messages.
+    */
+   public long getFailedCount ()
+   {
+      return mFailed.get();
+   }
+
+   /**
+    * Returns the number of records which were discarded on publish, because
+    * the queue was full.
+    *
+    * @return the number of dropped records.
+    */
+   public long getDroppedCount ()
+   {
+      return mDropped.get();
+   }
+
+   /**
+    * Returns the number of queued records which were discarded to make
+    * room for newer ones by the policy {@link OverflowPolicy#DROP_OLDEST}.
+    *
+    * @return the number of evicted records.
+    */
+   public long getEvictedCount ()
+   {
+      return mEvicted.get();
+   }
+
+   /**
+    * Returns the number of transactions committed by the sender threads.
+    *
+    * @return the number of committed transactions.
+    */
+   public long getCommitCount ()
+   {
+      return mCommits.get();
+   }
+
    private void configure ()
          throws NamingException,
          SecurityException,
@@ -299,6 +773,7 @@ public class JmsHandler
       configureResources();
       configureFilter();
       configureFormatter();
+      configureSenders();
    }
 
    private void configureJndiContext ()
@@ -411,6 +886,87 @@ public class JmsHandler
       mQueueName = queue;
    }
 
+   private void configureSenders ()
+         throws InstantiationException
+   {
+      mSenderCount = getIntProperty(SENDERS_PROPERTY, 0);
+      mBatchSize = getIntProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+      mBatchTimeMillis = getIntProperty(
+            BATCH_TIME_PROPERTY, (int) DEFAULT_BATCH_TIME_MILLIS);
+      mCapacity = getIntProperty(
+            CAPACITY_PROPERTY, AsyncHandler.DEFAULT_CAPACITY);
+      final String policy = mManager.getProperty(POLICY_PROPERTY);
+      if (policy != null && policy.length() != 0)
+      {
+         mPolicy = AsyncHandler.parsePolicy(policy, POLICY_PROPERTY);
+      }
+      final String level = mManager.getProperty(DROP_LEVEL_PROPERTY);
+      if (level != null && level.length() != 0)
+      {
+         mDropLevel = AsyncHandler.parseLevel(level, DROP_LEVEL_PROPERTY)
+               .intValue();
+      }
+   }
+
+   private int getIntProperty (String property, int defaultValue)
+         throws InstantiationException
+   {
+      final String value = mManager.getProperty(property);
+      int rc = defaultValue;
+      if (value != null && value.length() != 0)
+      {
+         try
+         {
+            rc = Integer.parseInt(value.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid number configured with property " + property
+                  + ": " + value);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private void startSenders ()
+   {
+      if (mSenderCount > 0)
+      {
+         mBuffer = new BoundedRingBuffer<Entry>(mCapacity);
+         mSenderThreads = new Thread[mSenderCount];
+         for (int i = 0; i < mSenderThreads.length; i++)
+         {
+            mSenderThreads[i] = new Thread(new Sender(), "JmsHandler-" + i);
+            mSenderThreads[i].setDaemon(true);
+            mSenderThreads[i].start();
+         }
+      }
+   }
+
+   private boolean isSenderThread ()
+   {
+      final Thread current = Thread.currentThread();
+      boolean rc = false;
+      for (int i = 0; i < mSenderThreads.length && ! rc; i++)
+      {
+         rc = mSenderThreads[i] == current;
+      }
+      return rc;
+   }
+
+   private boolean isSenderAlive ()
+   {
+      boolean rc = false;
+      for (int i = 0; i < mSenderThreads.length && ! rc; i++)
+      {
+         rc = mSenderThreads[i].isAlive();
+      }
+      return rc;
+   }
+
    /**
     * Creates a connection to the jms provider and performs a lookup for the
     * queue, which will receive the log messages.
@@ -515,18 +1071,24 @@ public class JmsHandler
       return sender;
    }
 
-   private void sendRecord (final LogRecord record)
+   private String format (final LogRecord record)
    {
-      String text = null;
+      String rc = null;
       try
       {
-         text = getFormatter().format(record);
+         rc = getFormatter().format(record);
       }
       catch (Exception ex)
       {
          reportError("Error formatting the log record",
                ex, ErrorManager.FORMAT_FAILURE);
       }
+      return rc;
+   }
+
+   private void sendRecord (final LogRecord record)
+   {
+      final String text = format(record);
       if (text != null)
       {
          try
@@ -534,12 +1096,36 @@ public class JmsHandler
             final TextMessage msg = getSession().createTextMessage();
             msg.setText(text);
             getSender().send(msg);
+            mSent.incrementAndGet();
          }
          catch (JMSException ex)
          {
+            mFailed.incrementAndGet();
             reportError("Error publishing a log record", ex,
                   ErrorManager.WRITE_FAILURE);
          }
       }
    }
+
+   /**
+    * Formats the record within the logging thread and puts it into the queue
+    * of the sender threads, applying the overflow policy if it is full.
+    */
+   private void queueRecord (final LogRecord record)
+   {
+      final String text = format(record);
+      if (text != null)
+      {
+         final Entry entry = new Entry(text, record.getLevel().intValue());
+         if (mBuffer.offer(entry, mPolicy, entry.mLevel < mDropLevel,
+               mOverflow))
+         {
+            mAccepted.incrementAndGet();
+         }
+         else
+         {
+            mDropped.incrementAndGet();
+         }
+      }
+   }
 }
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ * Shares the values of the log file entries read by a {@link LogReader}.
+ * <p>
+ * The node id, instance id, thread name, symbol, symbol id, type and source
+ * of the entries of a log file take only a few hundred distinct values, but
+ * each parsed entry holds its own copies of them. This replaces them by the
+ * copy kept in a bounded table, the least recently used value is dropped if
+ * there are too many. Identical stack trace lines are replaced by the first
+ * instance still in use, which is only weakly referenced by this.
+ * </p>
+ * <p>
+ * The readers of a {@link MergingLogReader} share one instance, so this is
+ * thread safe.
+ * </p>
+ *
+ */
+final class LogEntryInterner
+{
+   /** Maximum number of distinct field values kept. */
+   static final int MAX_VALUES = 4096;
+
+   private final Map<String, String> mValues
+         = new LinkedHashMap<String, String>(MAX_VALUES / 2, 0.75f, true)
+         {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry (
+                  Map.Entry<String, String> eldest)
+            {
+               return size() > MAX_VALUES;
+            }
+         };
+
+   private final Map<StackTraceInfo, WeakReference<StackTraceInfo>> mFrames
+         = new WeakHashMap<StackTraceInfo, WeakReference<StackTraceInfo>>();
+
+   /**
+    * Replaces the field values and stack trace lines of the supplied entry
+    * and its nested entries by the shared instances.
+    *
+    * @param entry The entry to process.
+    */
+   void intern (final LogFileEntry entry)
+   {
+      LogItem item = entry;
+      while (item != null)
+      {
+         internFields(item);
+         for (final ListIterator<StackTraceInfo> iter
+               = item.getStackTraceLines().listIterator(); iter.hasNext(); )
+         {
+            iter.set(intern(iter.next()));
+         }
+         item = item.getNestedItem();
+      }
+   }
+
+   /**
+    * Gets the shared instance of the supplied value.
+    *
+    * @param value The value to share, might be null.
+    * @return the shared instance equal to <code>value</code>, null if
+    *       <code>value</code> is null.
+    */
+   synchronized String intern (final String value)
+   {
+      String rc = value;
+      if (value != null)
+      {
+         rc = mValues.get(value);
+         if (rc == null)
+         {
+            mValues.put(value, value);
+            rc = value;
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the shared instance of the supplied stack trace line.
+    *
+    * @param info The stack trace line to share.
+    * @return the shared stack trace line equal to <code>info</code>.
+    */
+   synchronized StackTraceInfo intern (final StackTraceInfo info)
+   {
+      final WeakReference<StackTraceInfo> ref = mFrames.get(info);
+      StackTraceInfo rc = (ref == null) ? null : ref.get();
+      if (rc == null)
+      {
+         mFrames.put(info, new WeakReference<StackTraceInfo>(info));
+         rc = info;
+      }
+      return rc;
+   }
+
+   private void internFields (final LogItem item)
+   {
+      item.setNodeId(intern(item.getNodeId()));
+      item.setInstanceId(intern(item.getInstanceId()));
+      item.setThreadName(intern(item.getThreadName()));
+      item.setSymbol(intern(item.getSymbol()));
+      item.setSymbolId(intern(item.getSymbolId()));
+      item.setType(intern(item.getType()));
+      item.setSourceClass(intern(item.getSourceClass()));
+      item.setSourceMethod(intern(item.getSourceMethod()));
+   }
+}
@@ -0,0 +1,435 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * Iterates over the entries of a log file for programmatic analysis of log
+ * files.
+ * <p>
+ * Large files can be processed in parallel. Before the iteration has been
+ * started, {@link #trySplit()} hands the first half of the remaining part of
+ * the file to a new iterator. The file is split right before a line starting
+ * a new log entry, the same way as the chunks of a {@link MappedLogReader},
+ * so the parts can be iterated by different threads independently of each
+ * other. Files compressed with gzip are not split.
+ * </p>
+ * <p>
+ * The entries returned are not recycled and stay valid after the iteration.
+ * The entries of all parts share their field values, see
+ * {@link LogEntryInterner}. Each iterator holds its part of the file open
+ * from the first call of {@link #hasNext()} until all entries have been read
+ * or it is closed.
+ * </p>
+ *
+ */
+public final class LogEntryIterator
+      implements Iterator<LogItem>, Closeable
+{
+   /** The default minimum number of bytes of a part split off, 64 KByte. */
+   static final int DEFAULT_MIN_SPLIT_SIZE = 64 * 1024;
+
+   private final File mFile;
+   private final boolean mCompressed;
+   private final int mMinSplitSize;
+   private final LogEntryInterner mInterner;
+   /** Shares the scan of the file for stack trace definitions. */
+   private final StackTraceDefinitions mStackTraceDefinitions;
+   private final List<Filter> mFilters;
+
+   /** The part of the file read by this, not used if compressed. */
+   private long mStart;
+   private final long mEnd;
+
+   private LogReader mReader = null;
+   private LogItem mNext = null;
+   private boolean mStarted = false;
+   private boolean mClosed = false;
+
+   private LogEntryIterator (
+         final File file,
+         final boolean compressed,
+         final int minSplitSize,
+         final LogEntryInterner interner,
+         final StackTraceDefinitions definitions,
+         final List<Filter> filters,
+         final long start,
+         final long end)
+   {
+      mFile = file;
+      mCompressed = compressed;
+      mMinSplitSize = minSplitSize;
+      mInterner = interner;
+      mStackTraceDefinitions = definitions;
+      mFilters = filters;
+      mStart = start;
+      mEnd = end;
+   }
+
+   /**
+    * Creates a new iterator over all entries of the supplied log file.
+    *
+    * @param fileName The name of the log file to read.
+    * @return a new iterator over the entries of the file.
+    *
+    * @throws InstantiationException in case the file cannot be read.
+    */
+   public static LogEntryIterator open (final String fileName)
+         throws InstantiationException
+   {
+      return open(fileName, DEFAULT_MIN_SPLIT_SIZE);
+   }
+
+   /**
+    * Creates a new iterator over all entries of the supplied log file.
+    *
+    * @param fileName The name of the log file to read.
+    * @param minSplitSize The minimum number of bytes of a part split off.
+    * @return a new iterator over the entries of the file.
+    *
+    * @throws InstantiationException in case the file cannot be read.
+    */
+   static LogEntryIterator open (final String fileName, final int minSplitSize)
+         throws InstantiationException
+   {
+      if (minSplitSize < 1)
+      {
+         throw new IllegalArgumentException(
+               "Invalid minimum split size " + minSplitSize);
+      }
+      final File file = new File(fileName);
+      if (! file.isFile() || ! file.canRead())
+      {
+         throw new InstantiationException(
+               "Cannot read the log file '" + fileName + "'.");
+      }
+      return new LogEntryIterator(file, LogReader.isCompressedLogFile(file),
+            minSplitSize, new LogEntryInterner(),
+            new StackTraceDefinitions(file), new ArrayList<Filter>(), 0,
+            file.length());
+   }
+
+   /**
+    * Installs a filter, only the entries passing all filters are returned.
+    * The filter is shared with all parts split off later, so it must be
+    * thread safe if these are iterated in parallel.
+    *
+    * @param filter The filter to add.
+    *
+    * @throws IllegalStateException if the iteration has already been
+    *       started.
+    */
+   public void addFilter (final Filter filter)
+   {
+      checkNotStarted();
+      mFilters.add(filter);
+   }
+
+   /**
+    * Splits off the first half of the part of the file not yet read by this
+    * into a new iterator, which is returned. This keeps the second half.
+    *
+    * @return the iterator over the first half of the part of this, null if
+    *       the part cannot be split, e.g. because it is too small, the file
+    *       is compressed or the iteration has been started.
+    *
+    * @throws LoggingException if an error occurs searching the split
+    *       position.
+    */
+   public LogEntryIterator trySplit ()
+         throws LoggingException
+   {
+      LogEntryIterator rc = null;
+      if (! mStarted && ! mCompressed && mEnd - mStart >= 2L * mMinSplitSize)
+      {
+         final long split = findEntryStart(mStart + (mEnd - mStart) / 2);
+         if (split < mEnd)
+         {
+            rc = new LogEntryIterator(mFile, mCompressed, mMinSplitSize,
+                  mInterner, mStackTraceDefinitions, mFilters, mStart, split);
+            mStart = split;
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Returns the number of bytes of the log file, which have been assigned
+    * to this but not split off.
+    *
+    * @return the size of the part of the file read by this, in bytes.
+    */
+   public long estimateSize ()
+   {
+      return mEnd - mStart;
+   }
+
+   /**
+    * Checks whether another entry passing all filters is available.
+    *
+    * @return true if {@link #next()} returns another entry; false, else.
+    *
+    * @throws LoggingException if an error occurs reading the log file.
+    */
+   public boolean hasNext ()
+         throws LoggingException
+   {
+      if (mNext == null && ! mClosed)
+      {
+         if (! mStarted)
+         {
+            mStarted = true;
+            mReader = openReader();
+         }
+         final LogFileEntry entry = mReader.readLogFileEntry();
+         if (entry == null)
+         {
+            close();
+         }
+         else
+         {
+            mNext = entry;
+         }
+      }
+      return mNext != null;
+   }
+
+   /**
+    * Returns the next entry passing all filters.
+    *
+    * @return the next entry.
+    *
+    * @throws NoSuchElementException if there are no more entries.
+    * @throws LoggingException if an error occurs reading the log file.
+    */
+   public LogItem next ()
+         throws LoggingException
+   {
+      if (! hasNext())
+      {
+         throw new NoSuchElementException("No more entries in "
+               + mFile + " up to position " + mEnd);
+      }
+      final LogItem rc = mNext;
+      mNext = null;
+      return rc;
+   }
+
+   /**
+    * Removing entries is not supported.
+    *
+    * @throws UnsupportedOperationException always.
+    */
+   public void remove ()
+   {
+      throw new UnsupportedOperationException(
+            "Cannot remove an entry from the log file " + mFile);
+   }
+
+   /**
+    * Closes this and its part of the log file. The iterators split off are
+    * not affected.
+    */
+   public void close ()
+   {
+      mStarted = true;
+      mClosed = true;
+      mNext = null;
+      if (mReader != null)
+      {
+         mReader.close();
+         mReader = null;
+      }
+   }
+
+   private void checkNotStarted ()
+   {
+      if (mStarted)
+      {
+         throw new IllegalStateException(
+               "The iteration over " + mFile + " has already been started.");
+      }
+   }
+
+   private long findEntryStart (final long from)
+   {
+      final RandomAccessFile file;
+      try
+      {
+         file = new RandomAccessFile(mFile, "r");
+      }
+      catch (IOException ex)
+      {
+         throw new LoggingException("Cannot open the log file " + mFile, ex);
+      }
+      try
+      {
+         return MappedLogReader.findEntryStart(
+               file.getChannel(), mEnd, from);
+      }
+      catch (IOException ex)
+      {
+         throw new LoggingException("Error while searching an entry start of "
+               + mFile + " after position " + from, ex);
+      }
+      finally
+      {
+         IoUtil.close(file);
+      }
+   }
+
+   private LogReader openReader ()
+   {
+      final LogReader rc;
+      try
+      {
+         if (mCompressed)
+         {
+            rc = new LogReader(mFile.getPath());
+         }
+         else
+         {
+            final FileInputStream in = new FileInputStream(mFile);
+            try
+            {
+               in.getChannel().position(mStart);
+            }
+            catch (IOException ex)
+            {
+               IoUtil.close(in);
+               throw ex;
+            }
+            rc = new LogReader(new InputStreamReader(
+                  new RangeInputStream(in, mEnd - mStart)));
+         }
+      }
+      catch (Exception ex)
+      {
+         throw new LoggingException("Cannot read the log file " + mFile
+               + " from position " + mStart, ex);
+      }
+      rc.setInterner(mInterner);
+      rc.setStackTraceDefinitions(
+            new StackTraceDefinitions(mStackTraceDefinitions));
+      for (final Iterator<Filter> iter = mFilters.iterator();
+            iter.hasNext(); )
+      {
+         rc.addFilter(iter.next());
+      }
+      return rc;
+   }
+
+   /**
+    * Reads not more than a given number of bytes from a stream.
+    */
+   private static final class RangeInputStream
+         extends FilterInputStream
+   {
+      private long mRemaining;
+
+      private RangeInputStream (final InputStream in, final long length)
+      {
+         super(in);
+         mRemaining = length;
+      }
+
+      /** {@inheritDoc} */
+      public int read ()
+            throws IOException
+      {
+         int rc = -1;
+         if (mRemaining > 0)
+         {
+            rc = super.read();
+            if (rc >= 0)
+            {
+               mRemaining--;
+            }
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public int read (final byte[] b, final int off, final int len)
+            throws IOException
+      {
+         int rc = -1;
+         if (mRemaining > 0)
+         {
+            rc = super.read(b, off, (int) Math.min(len, mRemaining));
+            if (rc > 0)
+            {
+               mRemaining -= rc;
+            }
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public long skip (final long n)
+            throws IOException
+      {
+         final long rc = super.skip(Math.min(n, mRemaining));
+         mRemaining -= rc;
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public int available ()
+            throws IOException
+      {
+         return (int) Math.min(super.available(), mRemaining);
+      }
+
+      /** {@inheritDoc} */
+      public boolean markSupported ()
+      {
+         return false;
+      }
+   }
+}
@@ -33,13 +33,11 @@
 package org.jcoderz.commons.logging;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.pool.ObjectPool;
-import org.apache.commons.pool.PoolableObjectFactory;
-import org.apache.commons.pool.impl.StackObjectPool;
-
 
 /**
  * This class encapsulates the information of a log record being read from the
@@ -51,91 +49,47 @@ import org.apache.commons.pool.impl.StackObjectPool;
 public class LogFileEntry
       extends LogItem
 {
-   private static final ObjectPool POOL = new StackObjectPool();
+   /** Maximum number of released entries kept for reuse per thread. */
+   private static final int MAX_FREE_ENTRIES = 64;
+
+   /* Released entries are kept for reuse by the thread releasing them, so
+      recycling needs no synchronization between the threads reading log
+      files in parallel. */
+   private static final ThreadLocal<List<LogFileEntry>> FREE_ENTRIES
+         = new ThreadLocal<List<LogFileEntry>>()
+         {
+            protected List<LogFileEntry> initialValue ()
+            {
+               return new ArrayList<LogFileEntry>(MAX_FREE_ENTRIES);
+            }
+         };
 
    /* Sets the current entry level. Always the entry cursor of the root entry
       should be used .*/
    private LogFileEntry mEntryCursor;
    private LogFileEntry mRootEntry = null;
 
-   private final Map<LogLineFormat.LogLineType, LogLineFormat> mFormatMap = new HashMap<LogLineFormat.LogLineType, LogLineFormat>();
+   /* The formats are only used while parsing a line, so they are shared by
+      all entries parsed by the same thread. */
+   private static final ThreadLocal<Map<LogLineFormat.LogLineType, LogLineFormat>>
+         FORMAT_MAP = new ThreadLocal<Map<LogLineFormat.LogLineType, LogLineFormat>>()
+         {
+            protected Map<LogLineFormat.LogLineType, LogLineFormat> initialValue ()
+            {
+               return new HashMap<LogLineFormat.LogLineType, LogLineFormat>();
+            }
+         };
 
    // Flag whether this stack of log file entries has already encountered a
    // stack trace line. This is set for the root element.
    private boolean mMetStackTraceLine = false;
 
-   private final boolean mPooled;
-
-   private static final class LogFileEntryFactory
-         implements PoolableObjectFactory
-   {
-      /**
-       * Hide default constructor.
-       */
-      private LogFileEntryFactory ()
-      {
-         // nop
-      }
-
-      /** {@inheritDoc} */
-      public Object makeObject ()
-      {
-         return new LogFileEntry(true);
-      }
-
-      /** {@inheritDoc} */
-      public void destroyObject (Object arg0)
-      {
-         // nop
-      }
-
-      /** {@inheritDoc} */
-      public void activateObject (Object arg)
-      {
-         // nop
-      }
-
-      /**
-       * Passivates an instance of LogFileEntry before it is put back into the
-       * pool.
-       * This is indirectly called by entry.release(), so do not call
-       * entry.release() again, but release a nested entry.
-       *
-       * @param arg The LogFileEntry object to passivate.
-       *
-       * @see org.apache.commons.pool.PoolableObjectFactory#passivateObject(java.lang.Object)
-       */
-      public void passivateObject (final Object arg)
-      {
-         final LogFileEntry entry = (LogFileEntry) arg;
-         final LogFileEntry nested = (LogFileEntry) entry.getNestedItem();
-         entry.setNestedEntry(null);
-         entry.reset();
-         if (nested != null)
-         {
-            nested.release();
-         }
-      }
+   /** The stack traces of the log file read, set for the root element. */
+   private StackTraceDefinitions mStackTraceDefinitions = null;
 
-      /**
-       * Validates the LogFileEntry instance, there is nothing to check.
-       *
-       * @param arg The LogFileEntry instance to validate.
-       *
-       * @return true
-       *
-       * @see org.apache.commons.pool.PoolableObjectFactory#validateObject(java.lang.Object)
-       */
-      public boolean validateObject (Object arg)
-      {
-         return true;
-      }
-   }
-
-   static
-   {
-      POOL.setFactory(new LogFileEntryFactory());
-   }
+   private final boolean mPooled;
+   /** Flag whether this has been released and not been reused since. */
+   private boolean mFree = false;
 
    protected LogFileEntry ()
    {
@@ -145,7 +99,7 @@ public class LogFileEntry
    /**
     * Creates a new instance of this.
     *
-    * @param pooled Flag whether this instance is under pool control.
+    * @param pooled Flag whether this instance is recycled when released.
     */
    private LogFileEntry (final boolean pooled)
    {
@@ -159,20 +113,21 @@ public class LogFileEntry
     * be reset by calling {@linkplain #release()} when it is not needed anymore.
     *
     * @return instance of this. Might be newly created or reused.
-    *
-    * @throws LoggingException if an error occurs.
     */
    static LogFileEntry getLogFileEntry ()
    {
-      try
+      final List<LogFileEntry> free = FREE_ENTRIES.get();
+      final LogFileEntry rc;
+      if (free.isEmpty())
       {
-         return (LogFileEntry) POOL.borrowObject();
+         rc = new LogFileEntry(true);
       }
-      catch (Exception ex)
+      else
       {
-         throw new LoggingException(
-               "Error retrieving an instance of LogFileEntry", ex);
+         rc = free.remove(free.size() - 1);
+         rc.mFree = false;
       }
+      return rc;
    }
 
    /**
@@ -210,6 +165,28 @@ public class LogFileEntry
       return rc;
    }
 
+   /**
+    * Gets the stack traces defined in the log file this is read from, which
+    * resolve the references to them.
+    *
+    * @return the definitions of the root entry, might be null.
+    */
+   StackTraceDefinitions getStackTraceDefinitions ()
+   {
+      return mRootEntry.mStackTraceDefinitions;
+   }
+
+   /**
+    * Sets the stack traces defined in the log file this is read from. This
+    * is kept until this is released.
+    *
+    * @param definitions The definitions of the reader of the log file.
+    */
+   void setStackTraceDefinitions (final StackTraceDefinitions definitions)
+   {
+      mStackTraceDefinitions = definitions;
+   }
+
    /**
     * Adds a String containing the string representation of a stacktrace item
     * to the stacktrace stored by this. The stacktrace item could be a
@@ -237,6 +214,35 @@ public class LogFileEntry
       }
    }
 
+   /**
+    * Adds a new entry nested into the innermost entry of this stack of
+    * entries. This is used when building an entry from other sources than
+    * log lines.
+    *
+    * @return the new nested entry.
+    */
+   LogFileEntry addNestedEntry ()
+   {
+      final LogFileEntry entry = LogFileEntry.getLogFileEntry();
+      getCurrentEntry().setNestedEntry(entry);
+      setCurrentEntry(entry);
+      return entry;
+   }
+
+   /**
+    * Adds an element of the stack trace to the entry of this stack of entries
+    * it belongs to, exactly as if it had been read from a stack trace line.
+    * The stack trace of the outermost entry must be added first, 'caused-by'
+    * elements proceed to the next nested entry.
+    *
+    * @param stackTraceElement The element of the stack trace to add.
+    */
+   void addStackTraceLine (final StackTraceInfo stackTraceElement)
+   {
+      findEntry(LogLineFormat.STACKTRACE_MESSAGE).addToStackTrace(
+            stackTraceElement);
+   }
+
    private LogFileEntry findEntry (final LogLineFormat.LogLineType type)
    {
       LogFileEntry entry = null;
@@ -276,11 +282,13 @@ public class LogFileEntry
 
    private LogLineFormat getFormat (final LogLineFormat.LogLineType type)
    {
-      LogLineFormat rc = (LogLineFormat) mFormatMap.get(type);
+      final Map<LogLineFormat.LogLineType, LogLineFormat> formatMap
+            = FORMAT_MAP.get();
+      LogLineFormat rc = formatMap.get(type);
       if (rc == null)
       {
          rc = LogLineFormatFactory.create(type);
-         mFormatMap .put(type, rc);
+         formatMap.put(type, rc);
       }
       return rc;
    }
@@ -302,11 +310,11 @@ public class LogFileEntry
          final LogFileEntry entry = LogFileEntry.getLogFileEntry();
          setCurrentEntry(entry);
          setNestedEntry(entry);
-         getFormat(type).parse(sb, entry);
+         LogLineParser.parse(getFormat(type), type, sb, entry);
       }
       else
       {
-         getFormat(type).parse(sb, this);
+         LogLineParser.parse(getFormat(type), type, sb, this);
       }
    }
 
@@ -342,18 +350,17 @@ public class LogFileEntry
    void release ()
          throws LoggingException
    {
-      try
+      reset();
+      mStackTraceDefinitions = null;
+      if (mPooled && ! mFree)
       {
-         reset();
-         if (mPooled)
+         mFree = true;
+         final List<LogFileEntry> free = FREE_ENTRIES.get();
+         if (free.size() < MAX_FREE_ENTRIES)
          {
-            POOL.returnObject(this);
+            free.add(this);
          }
       }
-      catch (Exception ex)
-      {
-         throw new LoggingException("Error releasing this " + this, ex);
-      }
    }
 
    /**
@@ -0,0 +1,316 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * Scans a log file line by line starting at a line boundary and hands the
+ * lines of interest to {@link #handleLine(StringBuffer, long, long)}. These
+ * are the first lines of log entries and, if requested, the message lines of
+ * nested entries, i.e. message lines directly following a nested line. All
+ * other lines are skipped without being decoded.
+ * <p>
+ * The scanner keeps track of the position of the last complete line, so
+ * scanning a growing log file can be resumed later by creating a new scanner
+ * with the values of {@link #getResumePosition()},
+ * {@link #isAfterNestedLine()} and {@link #getEntryStart()}.
+ * </p>
+ * Note: This is not thread safe.
+ *
+ */
+abstract class LogFileScanner
+{
+   private static final int READ_BUFFER_SIZE = 64 * 1024;
+   private static final int INITIAL_LINE_SIZE = 256;
+
+   private final boolean mNestedMessages;
+   private final Charset mCharset = Charset.defaultCharset();
+   private final Map<LogLineFormat.LogLineType, LogLineFormat> mFormats
+         = new HashMap<LogLineFormat.LogLineType, LogLineFormat>();
+   private final LogFileEntry mEntry = new LogFileEntry();
+
+   private byte[] mLine = new byte[INITIAL_LINE_SIZE];
+   private int mLineLength = 0;
+   private long mLineStart;
+   private long mEntryStart;
+   private boolean mAtLineStart = true;
+   private boolean mCollecting = false;
+   private boolean mNestedLine = false;
+   // refers to the last complete line
+   private boolean mAfterNestedLine;
+
+   /**
+    * Creates a new scanner.
+    *
+    * @param position The position of the line from which to start scanning.
+    * @param afterNestedLine Whether the line before <code>position</code> is
+    * a nested line.
+    * @param entryStart The start of the entry containing the line at
+    * <code>position</code>.
+    * @param nestedMessages Whether the message lines of nested entries should
+    * be handled as well.
+    */
+   LogFileScanner (
+         final long position,
+         final boolean afterNestedLine,
+         final long entryStart,
+         final boolean nestedMessages)
+   {
+      mLineStart = position;
+      mAfterNestedLine = afterNestedLine;
+      mEntryStart = entryStart;
+      mNestedMessages = nestedMessages;
+   }
+
+   /**
+    * Computes a checksum of the first line of a log file. This is used to
+    * detect whether a log file has been replaced.
+    *
+    * @param log The channel of the log file.
+    * @return the CRC32 of the first line including the line feed.
+    * @throws IOException if reading the file fails.
+    */
+   static long getFirstLineChecksum (final FileChannel log)
+         throws IOException
+   {
+      final CRC32 rc = new CRC32();
+      final ByteBuffer buffer = ByteBuffer.allocate(INITIAL_LINE_SIZE);
+      long position = 0;
+      boolean endOfLine = false;
+      while (! endOfLine && log.read(buffer, position) > 0)
+      {
+         buffer.flip();
+         while (! endOfLine && buffer.hasRemaining())
+         {
+            final byte b = buffer.get();
+            endOfLine = b == '\n';
+            rc.update(b);
+            position++;
+         }
+         buffer.clear();
+      }
+      return rc.getValue();
+   }
+
+   /**
+    * Gets the position following the last complete line scanned.
+    *
+    * @return the position from which to resume scanning.
+    */
+   final long getResumePosition ()
+   {
+      return mLineStart;
+   }
+
+   /**
+    * Gets whether the last complete line scanned is a nested line.
+    *
+    * @return true if the last complete line is a nested line.
+    */
+   final boolean isAfterNestedLine ()
+   {
+      return mAfterNestedLine;
+   }
+
+   /**
+    * Gets the start of the last entry found.
+    *
+    * @return the position of the first line of the last entry.
+    */
+   final long getEntryStart ()
+   {
+      return mEntryStart;
+   }
+
+   /**
+    * Scans the log file from the current position up to
+    * <code>logSize</code>.
+    *
+    * @param log The channel of the log file.
+    * @param logSize The number of bytes to scan the log file up to.
+    * @throws IOException if reading the log file or handling a line fails.
+    */
+   final void scan (final FileChannel log, final long logSize)
+         throws IOException
+   {
+      final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      final byte[] bytes = buffer.array();
+      long position = mLineStart;
+      int read = 0;
+      while (position < logSize && read >= 0)
+      {
+         buffer.clear();
+         if (logSize - position < buffer.capacity())
+         {
+            buffer.limit((int) (logSize - position));
+         }
+         read = log.read(buffer, position);
+         for (int i = 0; i < read; i++)
+         {
+            scan(bytes[i], position + i);
+         }
+         position += Math.max(read, 0);
+      }
+   }
+
+   /**
+    * Scans the data read from a stream up to its end, e.g. the decompressed
+    * content of a compressed log file. The stream must start at the current
+    * position.
+    *
+    * @param in The stream to read.
+    * @throws IOException if reading the stream or handling a line fails.
+    */
+   final void scan (final InputStream in)
+         throws IOException
+   {
+      final byte[] bytes = new byte[READ_BUFFER_SIZE];
+      long position = mLineStart;
+      int read = in.read(bytes);
+      while (read >= 0)
+      {
+         for (int i = 0; i < read; i++)
+         {
+            scan(bytes[i], position + i);
+         }
+         position += read;
+         read = in.read(bytes);
+      }
+   }
+
+   /**
+    * Handles a line of interest.
+    *
+    * @param line The line without the line terminator.
+    * @param lineStart The position of the line.
+    * @param entryStart The position of the first line of the entry containing
+    * the line. Is equal to <code>lineStart</code> for the first line of an
+    * entry.
+    * @throws IOException if handling the line fails.
+    */
+   abstract void handleLine (
+         final StringBuffer line,
+         final long lineStart,
+         final long entryStart)
+         throws IOException;
+
+   /**
+    * Parses a line with the format of its type.
+    *
+    * @param line The line to parse.
+    * @return the entry holding the values of the line, which is reused by
+    * subsequent calls; or null if the line cannot be parsed.
+    */
+   final LogFileEntry parse (final StringBuffer line)
+   {
+      LogFileEntry rc = null;
+      try
+      {
+         mEntry.reset();
+         final LogLineFormat.LogLineType type
+               = LogLineFormat.getLogLineType(line.charAt(0));
+         LogLineParser.parse(getFormat(type), type, line, mEntry);
+         rc = mEntry;
+      }
+      catch (ParseException ex)
+      {
+         // such an entry is discarded by the LogReader as well
+         System.err.println("Cannot parse line at " + mLineStart + ": " + ex);
+      }
+      return rc;
+   }
+
+   private void scan (final byte b, final long position)
+         throws IOException
+   {
+      if (mAtLineStart)
+      {
+         mAtLineStart = false;
+         final boolean messageLine = LogLineFormat.isEntryStart(b);
+         if (messageLine && ! mAfterNestedLine)
+         {
+            mEntryStart = mLineStart;
+         }
+         mCollecting = messageLine && (! mAfterNestedLine || mNestedMessages);
+         mNestedLine = b == LogLineFormat.NESTED_MESSAGE.getTypeSpecifier();
+         mLineLength = 0;
+      }
+      if (b == '\n')
+      {
+         if (mCollecting)
+         {
+            int length = mLineLength;
+            if (length > 0 && mLine[length - 1] == '\r')
+            {
+               length--;
+            }
+            handleLine(new StringBuffer(mCharset.decode(
+                  ByteBuffer.wrap(mLine, 0, length))), mLineStart, mEntryStart);
+         }
+         mAtLineStart = true;
+         mAfterNestedLine = mNestedLine;
+         mLineStart = position + 1;
+      }
+      else if (mCollecting)
+      {
+         if (mLineLength == mLine.length)
+         {
+            final byte[] line = new byte[mLine.length * 2];
+            System.arraycopy(mLine, 0, line, 0, mLineLength);
+            mLine = line;
+         }
+         mLine[mLineLength++] = b;
+      }
+   }
+
+   private LogLineFormat getFormat (final LogLineFormat.LogLineType type)
+   {
+      LogLineFormat rc = mFormats.get(type);
+      if (rc == null)
+      {
+         rc = LogLineFormatFactory.create(type);
+         mFormats.put(type, rc);
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,422 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.jcoderz.commons.types.Date;
+
+
+/**
+ * A compact sidecar index of a log file. It stores one fixed size record per
+ * log entry with the byte offset of the entry, its timestamp, thread id,
+ * level, symbol id and tracking number. These values are taken from the
+ * first line of each entry, all other lines of an entry are skipped when
+ * building the index.
+ * <p>
+ * The index is kept in a file next to the log file, named like the log file
+ * with the suffix {@link #INDEX_SUFFIX}. {@link #update()} appends the entries
+ * written to the log file since the last update. If the log file has been
+ * truncated or replaced, which is detected by a checksum of its first line,
+ * the index is rebuilt. The index file is locked while it is updated, so
+ * several processes can share it.
+ * </p>
+ * <p>
+ * The index file starts with a header:
+ * <pre>
+ *   int   magic number
+ *   int   version
+ *   long  position in the log file up to which the index is complete
+ *   int   flag whether the last indexed line was a nested line
+ *   long  CRC32 of the first line of the log file
+ *   int   number of records
+ * </pre>
+ * followed by the records. Records beyond the number in the header have been
+ * written by an update which did not complete, they are dropped by the next
+ * update.
+ * <pre>
+ *   long  offset of the entry in the log file
+ *   long  timestamp in milliseconds
+ *   long  thread id
+ *   int   level
+ *   int   symbol id, 0 for trace lines
+ *   int   tracking number
+ * </pre>
+ * </p>
+ * Note: This is not thread safe.
+ *
+ */
+public final class LogIndex
+{
+   /** The suffix appended to the log file name for the index file. */
+   public static final String INDEX_SUFFIX = ".idx";
+
+   /** The size in bytes of one index record. */
+   static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4 + 4;
+
+   /** Symbol id stored for entries without a message symbol. */
+   static final int NO_SYMBOL_ID = 0;
+
+   /** "FWIX" */
+   private static final int MAGIC = 0x46574958;
+   private static final int VERSION = 2;
+   private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + 4;
+   private static final int RESUME_POSITION_OFFSET = 8;
+   private static final int STATE_SIZE = HEADER_SIZE - RESUME_POSITION_OFFSET;
+
+   private static final int OFFSET_FIELD = 0;
+   private static final int TIMESTAMP_FIELD = 8;
+   private static final int THREADID_FIELD = 16;
+   private static final int LEVEL_FIELD = 24;
+   private static final int SYMBOLID_FIELD = 28;
+   private static final int TRACKINGID_FIELD = 32;
+
+   private static final int HEX_RADIX = 16;
+   private static final int RECORD_BUFFER_SIZE = 1024 * RECORD_SIZE;
+
+   private final File mLogFile;
+   private final File mIndexFile;
+   private final Map<Integer, Level> mLevels = new HashMap<Integer, Level>();
+
+   private MappedByteBuffer mRecords = null;
+   private int mNumberOfEntries = 0;
+
+   /**
+    * Creates a new index for the supplied log file. The index file is not
+    * read or written before {@link #update()} is called.
+    *
+    * @param logFile The log file to index.
+    */
+   public LogIndex (final File logFile)
+   {
+      mLogFile = logFile;
+      mIndexFile = new File(logFile.getPath() + INDEX_SUFFIX);
+   }
+
+   /**
+    * Gets the index file.
+    *
+    * @return the index file.
+    */
+   public File getIndexFile ()
+   {
+      return mIndexFile;
+   }
+
+   /**
+    * Brings the index up to date with the log file. Entries appended to the
+    * log file since the last update are added to the index, the index is
+    * rebuilt if the log file has been truncated or replaced.
+    * The last line of the log file is only indexed if it is complete.
+    *
+    * @throws IOException if reading the log file or writing the index fails.
+    */
+   public void update ()
+         throws IOException
+   {
+      final RandomAccessFile log = new RandomAccessFile(mLogFile, "r");
+      try
+      {
+         final RandomAccessFile index = new RandomAccessFile(mIndexFile, "rw");
+         try
+         {
+            final FileLock lock = index.getChannel().lock();
+            try
+            {
+               mNumberOfEntries = update(log.getChannel(), index);
+            }
+            finally
+            {
+               lock.release();
+            }
+            mRecords = index.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                  HEADER_SIZE, (long) mNumberOfEntries * RECORD_SIZE);
+         }
+         finally
+         {
+            index.close();
+         }
+      }
+      finally
+      {
+         log.close();
+      }
+   }
+
+   /**
+    * Gets the number of entries in the index as of the last update.
+    *
+    * @return the number of indexed log entries.
+    */
+   public int getNumberOfEntries ()
+   {
+      return mNumberOfEntries;
+   }
+
+   /**
+    * Gets the offset of an entry within the log file.
+    *
+    * @param entry The number of the entry within the index.
+    * @return the byte offset of the entry within the log file.
+    */
+   public long getOffset (final int entry)
+   {
+      return mRecords.getLong(entry * RECORD_SIZE + OFFSET_FIELD);
+   }
+
+   /**
+    * Gets the tracking number of an entry.
+    *
+    * @param entry The number of the entry within the index.
+    * @return the tracking number of the entry.
+    */
+   public int getTrackingNumber (final int entry)
+   {
+      return mRecords.getInt(entry * RECORD_SIZE + TRACKINGID_FIELD);
+   }
+
+   /**
+    * Sets the indexed values of an entry, timestamp, level, thread id, symbol
+    * id and tracking number, in the supplied item. This allows filters to be
+    * applied to an entry without reading it from the log file.
+    *
+    * @param entry The number of the entry within the index.
+    * @param item The item to fill.
+    */
+   public void fill (final int entry, final LogItem item)
+   {
+      final int base = entry * RECORD_SIZE;
+      item.setTimestamp(Date.fromLong(
+            mRecords.getLong(base + TIMESTAMP_FIELD)));
+      item.setThreadId(mRecords.getLong(base + THREADID_FIELD));
+      item.setLoggerLevel(getLevel(mRecords.getInt(base + LEVEL_FIELD)));
+      final int symbolId = mRecords.getInt(base + SYMBOLID_FIELD);
+      item.setSymbolId((symbolId == NO_SYMBOL_ID)
+            ? BasicLogLineFormat.NO_MSG_SYMBOL
+            : Integer.toHexString(symbolId));
+      item.setTrackingNumber(toTrackingNumber(
+            mRecords.getInt(base + TRACKINGID_FIELD)));
+   }
+
+   /**
+    * Converts a tracking number stored in the index into the string
+    * representation used by a parsed {@link LogFileEntry}. The log line
+    * pads the tracking number with zeros which are stripped when parsing,
+    * so the tracking number 0 is represented by an empty string.
+    *
+    * @param trackingNumber The tracking number as stored in the index.
+    * @return the tracking number as hex string.
+    */
+   static String toTrackingNumber (final int trackingNumber)
+   {
+      return (trackingNumber == 0) ? "" : Integer.toHexString(trackingNumber);
+   }
+
+   /**
+    * Converts the string representation of a tracking number into the value
+    * stored in the index.
+    *
+    * @param trackingNumber The tracking number as hex string, an empty
+    *       string being the tracking number 0.
+    * @return the tracking number as int.
+    * @throws NumberFormatException if the string is not a hex number.
+    */
+   static int fromTrackingNumber (final String trackingNumber)
+         throws NumberFormatException
+   {
+      final String number = trackingNumber.trim();
+      return (number.length() == 0)
+            ? 0 : (int) Long.parseLong(number, HEX_RADIX);
+   }
+
+   /**
+    * Updates the index and returns the number of records it contains. The
+    * records are appended first, the header is written last, so the number
+    * of records and the position in the log file only change together.
+    */
+   private int update (final FileChannel log, final RandomAccessFile index)
+         throws IOException
+   {
+      final long logSize = log.size();
+      long position = 0;
+      boolean afterNestedLine = false;
+      int records = 0;
+      if (index.length() >= HEADER_SIZE)
+      {
+         index.seek(0);
+         final int magic = index.readInt();
+         final int version = index.readInt();
+         final long resumePosition = index.readLong();
+         final boolean nested = index.readInt() != 0;
+         final long fingerprint = index.readLong();
+         final int numberOfRecords = index.readInt();
+         if (magic == MAGIC && version == VERSION
+               && resumePosition <= logSize
+               && numberOfRecords >= 0
+               && index.length()
+                  >= HEADER_SIZE + (long) numberOfRecords * RECORD_SIZE
+               && (resumePosition == 0
+                  || fingerprint == LogFileScanner.getFirstLineChecksum(log)))
+         {
+            position = resumePosition;
+            afterNestedLine = nested;
+            records = numberOfRecords;
+         }
+      }
+      if (position == 0)
+      {
+         // new, outdated or invalid index
+         index.setLength(0);
+         index.write(new byte[HEADER_SIZE]);
+         index.seek(0);
+         index.writeInt(MAGIC);
+         index.writeInt(VERSION);
+         records = 0;
+      }
+      // drop records of a previous update which did not complete
+      index.setLength(HEADER_SIZE + (long) records * RECORD_SIZE);
+      if (position < logSize)
+      {
+         index.seek(index.length());
+         final Scanner scanner
+               = new Scanner(index, position, afterNestedLine);
+         scanner.scan(log, logSize);
+         scanner.flushRecords();
+         records = (int) ((index.length() - HEADER_SIZE) / RECORD_SIZE);
+         final ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+         state.putLong(scanner.getResumePosition());
+         state.putInt(scanner.isAfterNestedLine() ? 1 : 0);
+         state.putLong(LogFileScanner.getFirstLineChecksum(log));
+         state.putInt(records);
+         state.flip();
+         index.getChannel().write(state, RESUME_POSITION_OFFSET);
+      }
+      return records;
+   }
+
+   private Level getLevel (final int value)
+   {
+      final Integer key = new Integer(value);
+      Level rc = mLevels.get(key);
+      if (rc == null)
+      {
+         rc = Level.parse(String.valueOf(value));
+         mLevels.put(key, rc);
+      }
+      return rc;
+   }
+
+   /**
+    * Appends a record for the first line of each entry to the index.
+    */
+   private final class Scanner
+         extends LogFileScanner
+   {
+      private final RandomAccessFile mIndex;
+      private final ByteBuffer mRecordBuffer
+            = ByteBuffer.allocate(RECORD_BUFFER_SIZE);
+
+      private Scanner (
+            final RandomAccessFile index,
+            final long position,
+            final boolean afterNestedLine)
+      {
+         super(position, afterNestedLine, position, false);
+         mIndex = index;
+      }
+
+      void flushRecords ()
+            throws IOException
+      {
+         mIndex.write(mRecordBuffer.array(), 0, mRecordBuffer.position());
+         mRecordBuffer.clear();
+      }
+
+      /** {@inheritDoc} */
+      void handleLine (
+            final StringBuffer line,
+            final long lineStart,
+            final long entryStart)
+            throws IOException
+      {
+         final LogFileEntry entry = parse(line);
+         if (entry != null)
+         {
+            try
+            {
+               final int symbolId = toSymbolId(entry.getSymbolId());
+               final int trackingNumber = (entry.getTrackingNumber() == null)
+                     ? 0 : fromTrackingNumber(entry.getTrackingNumber());
+               if (! mRecordBuffer.hasRemaining())
+               {
+                  flushRecords();
+               }
+               mRecordBuffer.putLong(lineStart);
+               mRecordBuffer.putLong((entry.getTimestamp() == null)
+                     ? 0 : entry.getTimestamp().getTime());
+               mRecordBuffer.putLong(entry.getThreadId());
+               mRecordBuffer.putInt((entry.getLoggerLevel() == null)
+                     ? Level.OFF.intValue()
+                     : entry.getLoggerLevel().intValue());
+               mRecordBuffer.putInt(symbolId);
+               mRecordBuffer.putInt(trackingNumber);
+            }
+            catch (NumberFormatException ex)
+            {
+               System.err.println("Cannot index line at " + lineStart + ": "
+                     + ex);
+            }
+         }
+      }
+
+      private int toSymbolId (final String symbolId)
+      {
+         int rc = NO_SYMBOL_ID;
+         if (symbolId != null
+               && ! BasicLogLineFormat.NO_MSG_SYMBOL.equals(symbolId.trim()))
+         {
+            rc = (int) Long.parseLong(symbolId.trim(), HEX_RADIX);
+         }
+         return rc;
+      }
+   }
+}
@@ -562,6 +562,9 @@ public abstract class LogItem
       mSymbol = null;
       mSymbolId = null;
       mMessage = null;
+      mMessageBuffer = null;
+      mThreadId = 0;
+      mThreadName = null;
       mSourceClass = null;
       mSourceMethod = null;
       mSolution = null;
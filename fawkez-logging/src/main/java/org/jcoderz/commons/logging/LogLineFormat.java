@@ -88,14 +88,18 @@ public abstract class LogLineFormat
 
 
    /* length of fixed length fields */
-   private static final int NODEID_LENGTH = 15;
-   private static final int INSTANCEID_LENGTH = 10;
-   private static final int THREADID_LENGTH = 5;
-   private static final int LOGGERLEVEL_LENGTH = 8;
-   private static final int TRACKINGID_LENGTH = 8;
-   private static final int SYMBOL_LENGTH = 8;
-   private static final int BUSINESS_IMPACT_LENGTH = 9;
-   private static final int CATEGORY_LENGTH = 9;
+   static final int NODEID_LENGTH = 15;
+   static final int INSTANCEID_LENGTH = 10;
+   static final int THREADID_LENGTH = 5;
+   static final int LOGGERLEVEL_LENGTH = 8;
+   static final int TRACKINGID_LENGTH = 8;
+   static final int SYMBOL_LENGTH = 8;
+   static final int BUSINESS_IMPACT_LENGTH = 9;
+   static final int CATEGORY_LENGTH = 9;
+
+   /* separator and padding of the tracking id sequence */
+   static final String TRACKINGID_SEPARATOR = ">-";
+   static final char TRACKINGID_PADDING = '0';
 
    private static final int NUMBER_OF_SOURCE_ELEMENTS = 2;
 
@@ -235,6 +239,25 @@ public abstract class LogLineFormat
       return rc;
    }
 
+   /**
+    * Checks whether a line starting with the supplied character is the first
+    * line of a log entry, provided it does not directly follow a line of type
+    * {@link #NESTED_MESSAGE}. Such a line belongs to the nested entry.
+    *
+    * @param firstChar The first character or byte of a log line.
+    *
+    * @return true if the line is of type {@link #TRACE_MESSAGE},
+    * {@link #EXCEPTION_MESSAGE}, {@link #LOG_MESSAGE} or
+    * {@link #ERROR_MESSAGE}.
+    */
+   static boolean isEntryStart (final int firstChar)
+   {
+      return firstChar == TRACE_MESSAGE.getTypeSpecifier()
+            || firstChar == EXCEPTION_MESSAGE.getTypeSpecifier()
+            || firstChar == LOG_MESSAGE.getTypeSpecifier()
+            || firstChar == ERROR_MESSAGE.getTypeSpecifier();
+   }
+
 
    /**
     * Sets the contributing formats for the encapsulated MessageFormat.
@@ -405,8 +428,8 @@ public abstract class LogLineFormat
    protected static final Format getTrackingNumberFormat ()
    {
       return new CollectionFormat(new FixLengthFormat(
-            TRACKINGID_LENGTH, FixLengthFormat.LEFT_PADDING, '0'),
-            null, null, ">-");
+            TRACKINGID_LENGTH, FixLengthFormat.LEFT_PADDING,
+            TRACKINGID_PADDING), null, null, TRACKINGID_SEPARATOR);
    }
 
    /**
@@ -421,6 +444,20 @@ public abstract class LogLineFormat
     * name as second parameter.
     */
    protected final String [] getLogSource (final String source)
+   {
+      return splitLogSource(source);
+   }
+
+   /**
+    * Splits the supplied log source as it is done by
+    * {@linkplain #getLogSource(String)}.
+    *
+    * @param source the log source in format classname.methodname
+    *
+    * @return String array with source class name as first and source method
+    * name as second parameter.
+    */
+   static String [] splitLogSource (final String source)
    {
       int afterMethodName = source.lastIndexOf('(');
       // if the loggable has not yet filled stack trace the source does not
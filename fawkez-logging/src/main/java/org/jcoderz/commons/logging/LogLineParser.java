@@ -0,0 +1,647 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.jcoderz.commons.BusinessImpact;
+import org.jcoderz.commons.types.Date;
+
+
+
+/**
+ * Parses the log lines written by the {@link LogLineFormat}s in a single
+ * pass. The fields of the fixed column layout are taken directly from their
+ * positions within the line and set at the {@link LogFileEntry}, without
+ * the MessageFormat and the nested field formats used by
+ * {@link LogLineFormat#parse(StringBuffer, LogFileEntry)}.
+ * <p>
+ * A line which does not match the layout exactly, is left untouched and
+ * parsed by its LogLineFormat, which also reports the error if the line
+ * is malformed. So both ways of parsing yield the same result.
+ * </p>
+ *
+ */
+final class LogLineParser
+{
+   /** Length of a timestamp as written by the {@link TimestampFormat}. */
+   private static final int TIMESTAMP_LENGTH
+         = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
+   private static final String CAUSED_BY = " Caused by: ";
+   private static final String PARAMETER_SEPARATOR = ": \t";
+
+   private static final char LIST_BEGIN = '[';
+   private static final char LIST_END = ']';
+   private static final char LIST_SEPARATOR = ',';
+   private static final char PADDING = ' ';
+
+   private static final int DAYS_PER_YEAR = 365;
+   private static final int DAYS_0000_03_01_TO_1970 = 719468;
+   private static final int FIRST_GREGORIAN_YEAR = 1583;
+   private static final int[] DAYS_OF_MONTH
+         = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+   private static final Level[] LEVELS = {Level.SEVERE, Level.WARNING,
+         Level.INFO, Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST,
+         Level.ALL, Level.OFF};
+
+   private LogLineParser ()
+   {
+      // no instances
+   }
+
+   /**
+    * Parses the supplied log line and sets the data at the supplied entry.
+    *
+    * @param format The LogLineFormat for the type of the line. It is used
+    *       for lines not matching the expected layout and keeps the state
+    *       required for stack trace lines.
+    * @param type The type of the line.
+    * @param line The log line to parse.
+    * @param entry The LogFileEntry which gets the data being parsed.
+    *
+    * @throws ParseException if an error occurs parsing the log line.
+    */
+   static void parse (
+         final LogLineFormat format,
+         final LogLineFormat.LogLineType type,
+         final StringBuffer line,
+         final LogFileEntry entry)
+         throws ParseException
+   {
+      if (! parseDirect(format, type, line, entry))
+      {
+         format.parse(line, entry);
+      }
+   }
+
+   /**
+    * Parses the supplied log line without the LogLineFormat if it matches
+    * the expected layout.
+    *
+    * @param format The LogLineFormat for the type of the line, only used
+    *       for stack trace lines.
+    * @param type The type of the line.
+    * @param line The log line to parse.
+    * @param entry The LogFileEntry which gets the data being parsed.
+    *
+    * @return true if the line has been parsed; false if it is left to the
+    *       LogLineFormat and <code>entry</code> is unchanged.
+    *
+    * @throws ParseException if an error occurs setting the parsed data.
+    */
+   static boolean parseDirect (
+         final LogLineFormat format,
+         final LogLineFormat.LogLineType type,
+         final CharSequence line,
+         final LogFileEntry entry)
+         throws ParseException
+   {
+      boolean rc;
+      try
+      {
+         if (type == LogLineFormat.STACKTRACE_MESSAGE)
+         {
+            rc = parseStackTraceLine((StackTraceFormat) format, line, entry);
+         }
+         else if (type == LogLineFormat.PARAMETER_LINE)
+         {
+            rc = parseParameterLine(line, entry);
+         }
+         else if (type == LogLineFormat.NESTED_MESSAGE)
+         {
+            rc = parseNestedLine(line, entry);
+         }
+         else
+         {
+            rc = parseBasicLine(type, line, entry);
+         }
+      }
+      catch (ParseException pex)
+      {
+         // just rethrow
+         throw pex;
+      }
+      catch (RuntimeException ex)
+      {
+         final ParseException pex = new ParseException(
+               "Got an error parsing " + line, 0);
+         pex.initCause(ex);
+         throw pex;
+      }
+      return rc;
+   }
+
+   /**
+    * Parses the main line of an entry with one of the types
+    * {@link LogLineFormat#TRACE_MESSAGE},
+    * {@link LogLineFormat#EXCEPTION_MESSAGE},
+    * {@link LogLineFormat#LOG_MESSAGE} or
+    * {@link LogLineFormat#ERROR_MESSAGE}.
+    */
+   private static boolean parseBasicLine (
+         final LogLineFormat.LogLineType type,
+         final CharSequence line,
+         final LogFileEntry entry)
+   {
+      final int len = line.length();
+      int pos = 2;
+      final long timestamp = parseTimestamp(line, pos);
+      pos += TIMESTAMP_LENGTH;
+      final int nodeIdPos = pos + 1;
+      final int instanceIdPos = nodeIdPos + LogLineFormat.NODEID_LENGTH + 1;
+      final int threadIdPos
+            = instanceIdPos + LogLineFormat.INSTANCEID_LENGTH + 1;
+      final int levelPos = threadIdPos + LogLineFormat.THREADID_LENGTH + 1;
+      final int symbolPos = levelPos + LogLineFormat.LOGGERLEVEL_LENGTH + 1;
+      final int impactPos = symbolPos + LogLineFormat.SYMBOL_LENGTH + 1;
+      final int threadNamePos
+            = impactPos + LogLineFormat.BUSINESS_IMPACT_LENGTH + 1;
+      final int trackingPos
+            = threadNamePos + LogLineFormat.CATEGORY_LENGTH + 1;
+      boolean rc = timestamp != Long.MIN_VALUE
+            && len > trackingPos
+            && line.charAt(1) == ' '
+            && line.charAt(nodeIdPos - 1) == ' '
+            && line.charAt(instanceIdPos - 1) == ' '
+            && line.charAt(threadIdPos - 1) == ' '
+            && line.charAt(levelPos - 1) == ' '
+            && line.charAt(symbolPos - 1) == ' '
+            && line.charAt(impactPos - 1) == ' '
+            && line.charAt(threadNamePos - 1) == ' '
+            && line.charAt(trackingPos - 1) == ' ';
+      final long threadId = rc
+            ? parseThreadId(line, threadIdPos) : Long.MIN_VALUE;
+      final int trackingEnd
+            = (threadId == Long.MIN_VALUE) ? -1 : skipTrackingIds(line,
+               trackingPos);
+      rc = trackingEnd >= 0 && trackingEnd < len
+            && line.charAt(trackingEnd) == ' ';
+      String sourceClass = null;
+      String sourceMethod = null;
+      int messagePos = trackingEnd + 1;
+      if (rc && (type == LogLineFormat.TRACE_MESSAGE
+            || type == LogLineFormat.EXCEPTION_MESSAGE))
+      {
+         final int sourceEnd = findSourceEnd(line, messagePos);
+         rc = sourceEnd > messagePos && sourceEnd < len
+               && line.charAt(sourceEnd) == ' ';
+         if (rc)
+         {
+            final String[] source = LogLineFormat.splitLogSource(
+                  line.subSequence(messagePos, sourceEnd).toString());
+            sourceClass = source[LogLineFormat.SOURCECLASS_INDEX];
+            sourceMethod = source[LogLineFormat.SOURCEMETHOD_INDEX];
+            messagePos = sourceEnd + 1;
+         }
+      }
+      rc = rc && isText(line, messagePos);
+
+      Level level = null;
+      BusinessImpact impact = null;
+      if (rc)
+      {
+         level = parseLevel(stripRight(line, levelPos,
+               LogLineFormat.LOGGERLEVEL_LENGTH));
+         impact = parseBusinessImpact(stripRight(line, impactPos,
+               LogLineFormat.BUSINESS_IMPACT_LENGTH));
+         rc = level != null && impact != null;
+      }
+      if (rc)
+      {
+         entry.setBusinessImpact(impact);
+         entry.setThreadName(stripRight(
+               line, threadNamePos, LogLineFormat.CATEGORY_LENGTH));
+         entry.setInstanceId(stripRight(
+               line, instanceIdPos, LogLineFormat.INSTANCEID_LENGTH));
+         entry.setLoggerLevel(level);
+         entry.setNodeId(stripLeft(
+               line, nodeIdPos, LogLineFormat.NODEID_LENGTH, PADDING));
+         entry.setThreadId(threadId);
+         entry.setSymbolId(stripRight(
+               line, symbolPos, LogLineFormat.SYMBOL_LENGTH));
+         entry.setTimestamp(Date.fromLong(timestamp));
+         entry.setTrackingNumber(stripLeft(line,
+               trackingEnd - LogLineFormat.TRACKINGID_LENGTH,
+               LogLineFormat.TRACKINGID_LENGTH,
+               LogLineFormat.TRACKINGID_PADDING));
+         entry.setMessage(line.subSequence(messagePos, len).toString());
+         if (sourceClass != null)
+         {
+            entry.setSourceClass(sourceClass);
+            entry.setSourceMethod(sourceMethod);
+         }
+      }
+      return rc;
+   }
+
+   private static boolean parseNestedLine (
+         final CharSequence line,
+         final LogFileEntry entry)
+   {
+      final int trackingEnd = skipContinuationPrefix(line);
+      final int messagePos = trackingEnd + CAUSED_BY.length();
+      final boolean rc = trackingEnd >= 0
+            && regionMatches(line, trackingEnd, CAUSED_BY)
+            && isText(line, messagePos);
+      if (rc)
+      {
+         entry.setMessage(
+               line.subSequence(messagePos, line.length()).toString());
+      }
+      return rc;
+   }
+
+   private static boolean parseParameterLine (
+         final CharSequence line,
+         final LogFileEntry entry)
+   {
+      final int len = line.length();
+      final int trackingEnd = skipContinuationPrefix(line);
+      final int namePos = trackingEnd + 1;
+      int nameEnd = namePos;
+      while (nameEnd < len && PARAMETER_SEPARATOR.indexOf(
+            line.charAt(nameEnd)) < 0)
+      {
+         nameEnd++;
+      }
+      final int valuesPos = nameEnd + PARAMETER_SEPARATOR.length();
+      boolean rc = trackingEnd >= 0
+            && line.charAt(trackingEnd) == ' '
+            && nameEnd > namePos
+            && valuesPos < len
+            && regionMatches(line, nameEnd, PARAMETER_SEPARATOR)
+            && line.charAt(valuesPos) == LIST_BEGIN;
+      final List<String> values = rc ? parseValues(line, valuesPos + 1)
+            : null;
+      rc = values != null;
+      if (rc)
+      {
+         ParameterLineFormat.addParameter(entry,
+               line.subSequence(namePos, nameEnd).toString(), values);
+      }
+      return rc;
+   }
+
+   private static boolean parseStackTraceLine (
+         final StackTraceFormat format,
+         final CharSequence line,
+         final LogFileEntry entry)
+         throws ParseException
+   {
+      final String text = getStackTraceText(line);
+      if (text != null)
+      {
+         format.parseText(text, entry);
+      }
+      return text != null;
+   }
+
+   /**
+    * Gets the text of a stack trace line, i.e. the part following the
+    * thread id and tracking number sequence.
+    *
+    * @param line The stack trace line.
+    * @return the text of the line or null if the line does not match the
+    *       expected layout.
+    */
+   static String getStackTraceText (final CharSequence line)
+   {
+      final int trackingEnd = skipContinuationPrefix(line);
+      String rc = null;
+      if (trackingEnd >= 0
+            && line.charAt(trackingEnd) == ' '
+            && isText(line, trackingEnd + 1))
+      {
+         rc = line.subSequence(trackingEnd + 1, line.length()).toString();
+      }
+      return rc;
+   }
+
+   /**
+    * Skips the type, thread id and tracking number sequence of a
+    * continuation line.
+    *
+    * @return the position following the tracking number sequence or -1 if
+    *       the line does not start as expected.
+    */
+   private static int skipContinuationPrefix (final CharSequence line)
+   {
+      final int trackingPos = 2 + LogLineFormat.THREADID_LENGTH + 1;
+      final int rc;
+      if (line.length() > trackingPos
+            && line.charAt(1) == ' ' && line.charAt(trackingPos - 1) == ' ')
+      {
+         rc = skipTrackingIds(line, trackingPos);
+      }
+      else
+      {
+         rc = -1;
+      }
+      return rc;
+   }
+
+   /**
+    * Skips the sequence of fixed length tracking numbers starting at the
+    * supplied position.
+    *
+    * @return the position following the sequence, which is always within
+    *       the line, or -1 if no complete sequence is found.
+    */
+   private static int skipTrackingIds (final CharSequence line, final int pos)
+   {
+      final int len = line.length();
+      final int sepLen = LogLineFormat.TRACKINGID_SEPARATOR.length();
+      int rc = pos + LogLineFormat.TRACKINGID_LENGTH;
+      while (rc + sepLen + LogLineFormat.TRACKINGID_LENGTH < len
+            && regionMatches(line, rc, LogLineFormat.TRACKINGID_SEPARATOR))
+      {
+         rc += sepLen + LogLineFormat.TRACKINGID_LENGTH;
+      }
+      return (rc < len) ? rc : -1;
+   }
+
+   /**
+    * Checks that the text up to the end of the line starting at the supplied
+    * position is not empty and contains no line break. Otherwise the text
+    * would be cut by the LogLineFormat.
+    */
+   private static boolean isText (final CharSequence line, final int pos)
+   {
+      final int len = line.length();
+      boolean rc = pos < len;
+      for (int i = pos; i < len && rc; i++)
+      {
+         rc = line.charAt(i) != '\r' && line.charAt(i) != '\n';
+      }
+      return rc;
+   }
+
+   /**
+    * Finds the end of the log source, which ends with a space or tab.
+    */
+   private static int findSourceEnd (final CharSequence line, final int pos)
+   {
+      final int len = line.length();
+      int rc = pos;
+      while (rc < len && line.charAt(rc) != ' ' && line.charAt(rc) != '\t')
+      {
+         rc++;
+      }
+      return rc;
+   }
+
+   /**
+    * Parses the values of a parameter list as written by the
+    * {@link CollectionFormat} with {@link StringEscapeFormat} elements. A
+    * separator or the list end is escaped by a preceding escape char.
+    *
+    * @return the list of values or null if the list end is missing.
+    */
+   private static List<String> parseValues (
+         final CharSequence line,
+         final int pos)
+   {
+      final int len = line.length();
+      List<String> rc = new ArrayList<String>();
+      final StringBuilder value = new StringBuilder();
+      boolean end = pos < len && line.charAt(pos) == LIST_END;
+      int i = pos;
+      while (! end && i < len)
+      {
+         final char c = line.charAt(i);
+         if (c == LIST_SEPARATOR || c == LIST_END)
+         {
+            final int last = value.length() - 1;
+            if (last >= 0 && i > pos
+                  && line.charAt(i - 1) == StringEscapeFormat.ESCAPE_CHAR)
+            {
+               value.setCharAt(last, c);
+            }
+            else
+            {
+               rc.add(value.toString());
+               value.setLength(0);
+               end = c == LIST_END;
+            }
+         }
+         else
+         {
+            value.append(c);
+         }
+         i++;
+      }
+      if (! end)
+      {
+         rc = null;
+      }
+      return rc;
+   }
+
+   /**
+    * Parses the timestamp written as <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code>
+    * in UTC starting at the supplied position.
+    *
+    * @return the time in milliseconds or <code>Long.MIN_VALUE</code> if
+    *       there is no valid timestamp at the position.
+    */
+   static long parseTimestamp (final CharSequence line, final int pos)
+   {
+      long rc = Long.MIN_VALUE;
+      if (line.length() >= pos + TIMESTAMP_LENGTH
+            && line.charAt(pos + 4) == '-' && line.charAt(pos + 7) == '-'
+            && line.charAt(pos + 10) == 'T' && line.charAt(pos + 13) == ':'
+            && line.charAt(pos + 16) == ':' && line.charAt(pos + 19) == '.'
+            && line.charAt(pos + 23) == 'Z')
+      {
+         final int year = parseNumber(line, pos, 4);
+         final int month = parseNumber(line, pos + 5, 2);
+         final int day = parseNumber(line, pos + 8, 2);
+         final int hour = parseNumber(line, pos + 11, 2);
+         final int minute = parseNumber(line, pos + 14, 2);
+         final int second = parseNumber(line, pos + 17, 2);
+         final int millis = parseNumber(line, pos + 20, 3);
+         final boolean leap = (year % 4 == 0)
+               && (year % 100 != 0 || year % 400 == 0);
+         // the julian calendar used before is not supported
+         if (year >= FIRST_GREGORIAN_YEAR && millis >= 0
+               && month >= 1 && month <= DAYS_OF_MONTH.length
+               && day >= 1 && day <= DAYS_OF_MONTH[month - 1]
+               && (month != 2 || day < DAYS_OF_MONTH[1] || leap)
+               && hour >= 0 && hour < 24
+               && minute >= 0 && minute < 60
+               && second >= 0 && second < 60)
+         {
+            // count the years from march on, so the leap day is the last
+            // day of a year
+            final int y = (month > 2) ? year : (year - 1);
+            final int m = (month > 2) ? (month - 3) : (month + 9);
+            final long days = (long) DAYS_PER_YEAR * y + y / 4 - y / 100
+                  + y / 400 + (153 * m + 2) / 5 + day - 1
+                  - DAYS_0000_03_01_TO_1970;
+            rc = (((days * 24 + hour) * 60 + minute) * 60 + second)
+                  * Date.MILLIS_PER_SECOND + millis;
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Parses an unsigned decimal number of fixed length.
+    *
+    * @return the number or -1 if a char is not a digit.
+    */
+   private static int parseNumber (
+         final CharSequence line,
+         final int pos,
+         final int length)
+   {
+      int rc = 0;
+      for (int i = pos; i < pos + length && rc >= 0; i++)
+      {
+         final char c = line.charAt(i);
+         rc = (c >= '0' && c <= '9') ? (rc * 10 + c - '0') : -1;
+      }
+      return rc;
+   }
+
+   /**
+    * Parses the left padded thread id.
+    *
+    * @return the thread id or <code>Long.MIN_VALUE</code> if there is no
+    *       valid number.
+    */
+   private static long parseThreadId (final CharSequence line, final int pos)
+   {
+      final int end = pos + LogLineFormat.THREADID_LENGTH;
+      int i = pos;
+      while (i < end && line.charAt(i) == PADDING)
+      {
+         i++;
+      }
+      long rc = (i < end) ? 0 : Long.MIN_VALUE;
+      for (; i < end && rc != Long.MIN_VALUE; i++)
+      {
+         final char c = line.charAt(i);
+         rc = (c >= '0' && c <= '9') ? (rc * 10 + c - '0') : Long.MIN_VALUE;
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the standard level with the supplied name without the lookup
+    * done by {@link Level#parse(String)}.
+    *
+    * @return the level or null if the name is not a standard level.
+    */
+   private static Level parseLevel (final String name)
+   {
+      Level rc = null;
+      for (int i = 0; i < LEVELS.length && rc == null; i++)
+      {
+         if (LEVELS[i].getName().equals(name))
+         {
+            rc = LEVELS[i];
+         }
+      }
+      return rc;
+   }
+
+   private static BusinessImpact parseBusinessImpact (final String name)
+   {
+      BusinessImpact rc = null;
+      for (int i = 0; i < BusinessImpact.VALUES.size() && rc == null; i++)
+      {
+         final BusinessImpact impact
+               = (BusinessImpact) BusinessImpact.VALUES.get(i);
+         if (impact.toString().equals(name))
+         {
+            rc = impact;
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the field of the supplied length without the padding at its end.
+    */
+   private static String stripRight (
+         final CharSequence line,
+         final int pos,
+         final int length)
+   {
+      int end = pos + length;
+      while (end > pos && line.charAt(end - 1) == PADDING)
+      {
+         end--;
+      }
+      return line.subSequence(pos, end).toString();
+   }
+
+   /**
+    * Gets the field of the supplied length without the padding at its
+    * start.
+    */
+   private static String stripLeft (
+         final CharSequence line,
+         final int pos,
+         final int length,
+         final char padding)
+   {
+      final int end = pos + length;
+      int start = pos;
+      while (start < end && line.charAt(start) == padding)
+      {
+         start++;
+      }
+      return line.subSequence(start, end).toString();
+   }
+
+   private static boolean regionMatches (
+         final CharSequence line,
+         final int pos,
+         final String text)
+   {
+      final int len = text.length();
+      boolean rc = pos + len <= line.length();
+      for (int i = 0; i < len && rc; i++)
+      {
+         rc = line.charAt(pos + i) == text.charAt(i);
+      }
+      return rc;
+   }
+}
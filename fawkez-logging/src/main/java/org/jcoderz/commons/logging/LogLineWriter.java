@@ -0,0 +1,922 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.BusinessImpact;
+import org.jcoderz.commons.LogMessageInfo;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.LoggableImpl;
+import org.jcoderz.commons.types.Date;
+import org.jcoderz.commons.util.Constants;
+import org.jcoderz.commons.util.StringUtil;
+
+
+/**
+ * This class writes the log lines of type T, F, M, E, N, S and P directly into
+ * a StringBuilder. The output is identical to the one of the formats created
+ * by the {@link LogLineFormatFactory}, so it can be parsed by these, but
+ * fields are written without a MessageFormat and without intermediate
+ * objects. Apart from the strings delivered by the logged objects, e.g. the
+ * message text, no garbage is produced per line.
+ * <p>
+ * The sequence of tracking ids written to each line is held by this and has
+ * to be started by {@link #startTrackingIds(LogRecord, Loggable)} for each
+ * log record.
+ * <p>
+ * Instances of this are not thread safe, each thread must use its own
+ * instance.
+ *
+ */
+public final class LogLineWriter
+{
+   private static final int PAD_LEFT = 0;
+   private static final int PAD_RIGHT = 1;
+   private static final int CUT_LEFT_PAD_RIGHT = 2;
+
+   private static final char PADDING = ' ';
+   private static final char SEPARATOR = ' ';
+   private static final String NULL = "null";
+   private static final String EMPTY_MSG = " ";
+   private static final String NESTED_CLAUSE
+         = " " + StackTraceFormat.CAUSED_BY_CLAUSE;
+   private static final String PARAMETER_NAME_SEPARATOR = ": \t";
+   private static final String MORE_PREFIX = "...";
+   private static final String MORE_SUFFIX = " more";
+
+   private static final char LIST_BEGIN = '[';
+   private static final char LIST_END = ']';
+   private static final char LIST_SEPARATOR = ',';
+   private static final String CHARS_TO_ESCAPE = ",]";
+
+   /** The last timestamp, which can be written without a DateFormat. */
+   private static final long MAX_FAST_TIMESTAMP = 253402300799999L;
+   private static final int DAYS_0000_TO_1970 = 719468;
+   private static final int DAYS_PER_ERA = 146097;
+   private static final int YEARS_PER_ERA = 400;
+   private static final int MILLIS_PER_SECOND = 1000;
+   private static final int SECONDS_PER_MINUTE = 60;
+   private static final int MINUTES_PER_HOUR = 60;
+   private static final int MILLIS_PER_HOUR
+         = MILLIS_PER_SECOND * SECONDS_PER_MINUTE * MINUTES_PER_HOUR;
+   private static final int MILLIS_PER_MINUTE
+         = MILLIS_PER_SECOND * SECONDS_PER_MINUTE;
+   private static final int YEAR_DIGITS = 4;
+   private static final int MILLIS_DIGITS = 3;
+   private static final int HEX_RADIX_BITS = 4;
+   private static final int HEX_MASK = 0xf;
+   private static final int DECIMAL_RADIX = 10;
+
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+   private static final int MAX_NUMBER_DIGITS = 20;
+   private static final int INITIAL_TRACKING_IDS = 4;
+   private static final int INITIAL_PARAMETER_NAMES = 16;
+
+   /** Scratch space for numbers, filled from the end. */
+   private final char[] mDigits = new char[MAX_NUMBER_DIGITS];
+
+   /** Scratch space for values, which must be processed before written. */
+   private final StringBuilder mScratch = new StringBuilder();
+
+   /**
+    * The current sequence of tracking ids. A null entry stands for the
+    * sequence number of the log record in {@link #mSequenceId}.
+    */
+   private String[] mTrackingIds = new String[INITIAL_TRACKING_IDS];
+   private int mTrackingIdCount = 0;
+   private int mSequenceId = 0;
+
+   /** Used for sorting the parameter names. */
+   private String[] mParameterNames = new String[INITIAL_PARAMETER_NAMES];
+
+   /**
+    * Starts a new sequence of tracking ids. The first id is the tracking
+    * number of the loggable or, if the loggable is null, the sequence number
+    * of the record.
+    *
+    * @param record The log record being formatted, must not be null.
+    * @param loggable The loggable carried by the record, might be null.
+    */
+   public void startTrackingIds (
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      mTrackingIdCount = 0;
+      if (loggable != null)
+      {
+         addTrackingId(loggable.getTrackingNumber());
+      }
+      else
+      {
+         mSequenceId = (int) record.getSequenceNumber();
+         addTrackingIdSlot(null);
+      }
+   }
+
+   /**
+    * Adds the id to the sequence of tracking ids, if it is not already the
+    * last element of the sequence.
+    *
+    * @param trackingId The tracking id to add.
+    */
+   public void addTrackingId (final String trackingId)
+   {
+      if (mTrackingIdCount == 0)
+      {
+         addTrackingIdSlot(trackingId);
+      }
+      else
+      {
+         final String last = mTrackingIds[mTrackingIdCount - 1];
+         final boolean isLast;
+         if (last == null)
+         {
+            isLast = trackingId != null
+                  && equalsDigits(trackingId, toHex(mSequenceId));
+         }
+         else
+         {
+            isLast = last.equals(trackingId);
+         }
+         if (! isLast)
+         {
+            addTrackingIdSlot(trackingId);
+         }
+      }
+   }
+
+   /**
+    * Writes the log line of a LogRecord not carrying a Loggable. This is a
+    * line of type T or, if the record carries a Throwable, of type F.
+    *
+    * @param sb The StringBuilder where to append the line.
+    * @param record The LogRecord to write.
+    */
+   public void appendTraceLine (
+         final StringBuilder sb,
+         final LogRecord record)
+   {
+      final LogLineFormat.LogLineType type;
+      if (record.getThrown() != null)
+      {
+         type = LogLineFormat.EXCEPTION_MESSAGE;
+      }
+      else
+      {
+         type = LogLineFormat.TRACE_MESSAGE;
+      }
+      appendBasicFields(sb, type, record, null);
+      sb.append(SEPARATOR);
+      appendLogSource(sb, record.getSourceClassName(),
+            record.getSourceMethodName());
+      sb.append(SEPARATOR);
+      final String text;
+      if (record.getParameters() == null)
+      {
+         text = record.getMessage();
+      }
+      else
+      {
+         text = TraceLineFormat.formatMessage(
+               record.getMessage(), record.getParameters());
+      }
+      appendMessageText(sb, text);
+      sb.append(Constants.LINE_SEPARATOR);
+   }
+
+   /**
+    * Writes the log line of a Loggable. This is a line of type M or E.
+    *
+    * @param sb The StringBuilder where to append the line.
+    * @param type The line type, either {@link LogLineFormat#LOG_MESSAGE} or
+    *       {@link LogLineFormat#ERROR_MESSAGE}.
+    * @param record The LogRecord being written.
+    * @param loggable The Loggable to write.
+    */
+   public void appendMessageLine (
+         final StringBuilder sb,
+         final LogLineFormat.LogLineType type,
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      appendBasicFields(sb, type, record, loggable);
+      sb.append(SEPARATOR);
+      appendMessageText(sb, loggable.getMessage());
+      sb.append(Constants.LINE_SEPARATOR);
+   }
+
+   /**
+    * Writes the parameter lines of type P for a Loggable. The symbol,
+    * solution and log location are written first followed by all other
+    * parameters not being internal ones, sorted by name.
+    *
+    * @param sb The StringBuilder where to append the lines.
+    * @param record The LogRecord being written.
+    * @param loggable The Loggable whose parameters to write.
+    */
+   public void appendParameterLines (
+         final StringBuilder sb,
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      final LogMessageInfo info = loggable.getLogMessageInfo();
+      final String symbol = info.getSymbol();
+      if (! StringUtil.isEmptyOrNull(symbol))
+      {
+         startValues();
+         appendEscaped(mScratch, symbol);
+         appendParameterLine(sb, record, loggable,
+               ParameterLineFormat.SYMBOL_TAG, endValues());
+      }
+      final String solution = info.getSolution();
+      if (! StringUtil.isEmptyOrNull(solution))
+      {
+         startValues();
+         appendEscaped(mScratch, solution);
+         appendParameterLine(sb, record, loggable,
+               ParameterLineFormat.SOLUTION_TAG, endValues());
+      }
+      // log location
+      final String sourceClass = record.getSourceClassName();
+      final String sourceMethod = record.getSourceMethodName();
+      if (! ("".equals(sourceClass) && "".equals(sourceMethod)))
+      {
+         startValues();
+         appendEscaped(mScratch, String.valueOf(sourceClass));
+         mScratch.append('.');
+         appendEscaped(mScratch, String.valueOf(sourceMethod));
+         appendParameterLine(sb, record, loggable,
+               ParameterLineFormat.SOURCE_TAG, endValues());
+      }
+
+      final int count = sortParameterNames(loggable.getParameterNames());
+      for (int i = 0; i < count; i++)
+      {
+         final String name = mParameterNames[i];
+         mParameterNames[i] = null;
+         if (! name.startsWith(LogItem.INTERNAL_PARAMETER_PREFIX))
+         {
+            final List<?> values = loggable.getParameter(name);
+            CharSequence formatted = null;
+            if (values != null)
+            {
+               startValues();
+               final int size = values.size();
+               for (int j = 0; j < size; j++)
+               {
+                  if (j > 0)
+                  {
+                     mScratch.append(LIST_SEPARATOR);
+                  }
+                  appendEscaped(mScratch, String.valueOf(values.get(j)));
+               }
+               formatted = endValues();
+            }
+            appendParameterLine(sb, record, loggable, name, formatted);
+         }
+      }
+   }
+
+   /**
+    * Writes the line of type N introducing a nested cause.
+    *
+    * @param sb The StringBuilder where to append the line.
+    * @param record The LogRecord being written.
+    * @param loggable The nested Loggable, might be null if the cause is not a
+    *       Loggable.
+    * @param cause The cause to write, this is the symbol for a nested
+    *       Loggable or the Throwable itself otherwise.
+    */
+   public void appendNestedLine (
+         final StringBuilder sb,
+         final LogRecord record,
+         final Loggable loggable,
+         final Object cause)
+   {
+      appendContinuationFields(sb, LogLineFormat.NESTED_MESSAGE, record,
+            loggable);
+      sb.append(NESTED_CLAUSE);
+      appendCollapsed(sb, cause.toString());
+      sb.append(Constants.LINE_SEPARATOR);
+   }
+
+   /**
+    * Writes the lines of type S for the stack trace of one Throwable. Frames
+    * in common with the enclosing trace are summarized by a single line.
+    *
+    * @param sb The StringBuilder where to append the lines.
+    * @param record The LogRecord being written.
+    * @param loggable The Loggable carried by the record, might be null.
+    * @param thrown The Throwable whose stack trace to write.
+    * @param outerTrace The enclosing Throwable of <code>thrown</code>, null
+    *       if <code>thrown</code> is the top level Throwable.
+    */
+   public void appendStackTraceLines (
+         final StringBuilder sb,
+         final LogRecord record,
+         final Loggable loggable,
+         final Throwable thrown,
+         final Throwable outerTrace)
+   {
+      appendStackTraceLines(sb, record, loggable, thrown, outerTrace, null);
+   }
+
+   /**
+    * Writes the lines of type S for the stack trace of one Throwable. Frames
+    * in common with the enclosing trace are summarized by a single line.
+    * If <code>fingerprints</code> is given, the frames are preceded by a line
+    * with their fingerprint the first time they are written, later they are
+    * replaced by a single line referencing the fingerprint.
+    *
+    * @param sb The StringBuilder where to append the lines.
+    * @param record The LogRecord being written.
+    * @param loggable The Loggable carried by the record, might be null.
+    * @param thrown The Throwable whose stack trace to write.
+    * @param outerTrace The enclosing Throwable of <code>thrown</code>, null
+    *       if <code>thrown</code> is the top level Throwable.
+    * @param fingerprints The fingerprints of the stack traces already
+    *       written, null to write all stack traces in full.
+    */
+   public void appendStackTraceLines (
+         final StringBuilder sb,
+         final LogRecord record,
+         final Loggable loggable,
+         final Throwable thrown,
+         final Throwable outerTrace,
+         final StackTraceFingerprints fingerprints)
+   {
+      appendContinuationFields(sb, LogLineFormat.STACKTRACE_MESSAGE, record,
+            loggable);
+      sb.append(SEPARATOR);
+      if (outerTrace != null)
+      {
+         sb.append(StackTraceFormat.CAUSED_BY_CLAUSE);
+      }
+      sb.append(thrown.toString());
+      sb.append(Constants.LINE_SEPARATOR);
+
+      // Compute number of frames in common between this and caused
+      final StackTraceElement[] trace = thrown.getStackTrace();
+      int uniqueFrames = trace.length - 1;
+      int framesInCommon = 0;
+      if (outerTrace != null)
+      {
+         final StackTraceElement[] causedTrace = outerTrace.getStackTrace();
+         int n = causedTrace.length - 1;
+         while (uniqueFrames >= 0 && n >= 0
+               && trace[uniqueFrames].equals(causedTrace[n]))
+         {
+            uniqueFrames--;
+            n--;
+         }
+         framesInCommon = trace.length - 1 - uniqueFrames;
+      }
+      boolean writeFrames = true;
+      if (fingerprints != null && trace.length > 0)
+      {
+         final long fingerprint = StackTraceFingerprints.fingerprint(
+               trace, uniqueFrames + 1, framesInCommon);
+         writeFrames = ! fingerprints.contains(fingerprint);
+         // without fingerprint if the set is full
+         if (! writeFrames || fingerprints.add(fingerprint))
+         {
+            appendContinuationFields(sb, LogLineFormat.STACKTRACE_MESSAGE,
+                  record, loggable);
+            sb.append(SEPARATOR);
+            sb.append(writeFrames ? StackTraceFormat.FINGERPRINT_CLAUSE
+                  : StackTraceFormat.REFERENCE_CLAUSE);
+            sb.append(StackTraceFingerprints.toString(fingerprint));
+            sb.append(Constants.LINE_SEPARATOR);
+         }
+      }
+      if (writeFrames)
+      {
+         for (int i = 0; i <= uniqueFrames; ++i)
+         {
+            appendContinuationFields(sb, LogLineFormat.STACKTRACE_MESSAGE,
+                  record, loggable);
+            sb.append(SEPARATOR);
+            sb.append(StackTraceFormat.AT_CLAUSE);
+            sb.append(trace[i].toString());
+            sb.append(Constants.LINE_SEPARATOR);
+         }
+         if (framesInCommon != 0)
+         {
+            appendContinuationFields(sb, LogLineFormat.STACKTRACE_MESSAGE,
+                  record, loggable);
+            sb.append(SEPARATOR);
+            sb.append(MORE_PREFIX);
+            sb.append(framesInCommon);
+            sb.append(MORE_SUFFIX);
+            sb.append(Constants.LINE_SEPARATOR);
+         }
+      }
+   }
+
+   /**
+    * Appends the text with each run of whitespace characters other than the
+    * blank replaced by a single blank and trailing runs removed. This is
+    * what the {@link WhitespaceFormat} does.
+    *
+    * @param sb The StringBuilder where to append the text.
+    * @param text The text to append.
+    */
+   static void appendCollapsed (final StringBuilder sb, final CharSequence text)
+   {
+      final int len = text.length();
+      boolean inWhitespace = false;
+      for (int i = 0; i < len; i++)
+      {
+         final char c = text.charAt(i);
+         if (c != WhitespaceFormat.PRESERVED_CHAR && Character.isWhitespace(c))
+         {
+            inWhitespace = true;
+         }
+         else
+         {
+            if (inWhitespace)
+            {
+               sb.append(WhitespaceFormat.PRESERVED_CHAR);
+               inWhitespace = false;
+            }
+            sb.append(c);
+         }
+      }
+   }
+
+   private void appendBasicFields (
+         final StringBuilder sb,
+         final LogLineFormat.LogLineType type,
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      sb.append(type.getTypeSpecifier());
+      sb.append(SEPARATOR);
+      final String level = record.getLevel().getName();
+      if (loggable != null)
+      {
+         final LogMessageInfo info = loggable.getLogMessageInfo();
+         appendTimestamp(sb, loggable.getEventTime());
+         sb.append(SEPARATOR);
+         appendFixed(sb, loggable.getNodeId(), LogLineFormat.NODEID_LENGTH,
+               PAD_LEFT, PADDING);
+         sb.append(SEPARATOR);
+         appendFixed(sb, loggable.getInstanceId(),
+               LogLineFormat.INSTANCEID_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         appendThreadId(sb, loggable.getThreadId());
+         sb.append(SEPARATOR);
+         appendFixed(sb, level, LogLineFormat.LOGGERLEVEL_LENGTH, PAD_RIGHT,
+               PADDING);
+         sb.append(SEPARATOR);
+         final int start = toHex(info.toInt());
+         appendFixed(sb, mDigits, start, mDigits.length,
+               LogLineFormat.SYMBOL_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         appendFixed(sb, info.getBusinessImpact().toString(),
+               LogLineFormat.BUSINESS_IMPACT_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         String threadName;
+         try
+         {
+            threadName = loggable.getThreadName();
+         }
+         catch (AbstractMethodError ex)
+         {
+            // We have a old loggable that does not support
+            // thread name jet.
+            threadName = Thread.currentThread().getName();
+         }
+         appendFixed(sb, threadName, LogLineFormat.CATEGORY_LENGTH,
+               CUT_LEFT_PAD_RIGHT, PADDING);
+      }
+      else
+      {
+         appendTimestamp(sb, record.getMillis());
+         sb.append(SEPARATOR);
+         appendFixed(sb, LoggableImpl.NODE_ID, LogLineFormat.NODEID_LENGTH,
+               PAD_LEFT, PADDING);
+         sb.append(SEPARATOR);
+         appendFixed(sb, LoggableImpl.INSTANCE_ID,
+               LogLineFormat.INSTANCEID_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         appendThreadId(sb, record.getThreadID());
+         sb.append(SEPARATOR);
+         appendFixed(sb, level, LogLineFormat.LOGGERLEVEL_LENGTH, PAD_RIGHT,
+               PADDING);
+         sb.append(SEPARATOR);
+         appendFixed(sb, BasicLogLineFormat.NO_MSG_SYMBOL,
+               LogLineFormat.SYMBOL_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         appendFixed(sb, BusinessImpact.NONE.toString(),
+               LogLineFormat.BUSINESS_IMPACT_LENGTH, PAD_RIGHT, PADDING);
+         sb.append(SEPARATOR);
+         // Take care this one might be wrong!
+         appendFixed(sb, Thread.currentThread().getName(),
+               LogLineFormat.CATEGORY_LENGTH, CUT_LEFT_PAD_RIGHT, PADDING);
+      }
+      sb.append(SEPARATOR);
+      appendTrackingIds(sb);
+   }
+
+   private void appendContinuationFields (
+         final StringBuilder sb,
+         final LogLineFormat.LogLineType type,
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      sb.append(type.getTypeSpecifier());
+      sb.append(SEPARATOR);
+      if (loggable != null)
+      {
+         appendThreadId(sb, loggable.getThreadId());
+      }
+      else
+      {
+         appendThreadId(sb, record.getThreadID());
+      }
+      sb.append(SEPARATOR);
+      appendTrackingIds(sb);
+   }
+
+   /**
+    * Writes a parameter line.
+    *
+    * @param values The formatted value list, null to write the
+    *       parameter without values.
+    */
+   private void appendParameterLine (
+         final StringBuilder sb,
+         final LogRecord record,
+         final Loggable loggable,
+         final String name,
+         final CharSequence values)
+   {
+      appendContinuationFields(sb, LogLineFormat.PARAMETER_LINE, record,
+            loggable);
+      sb.append(SEPARATOR);
+      sb.append(name);
+      sb.append(PARAMETER_NAME_SEPARATOR);
+      if (values == null)
+      {
+         sb.append(NULL);
+      }
+      else
+      {
+         appendCollapsed(sb, values);
+      }
+      sb.append(Constants.LINE_SEPARATOR);
+   }
+
+   private void startValues ()
+   {
+      mScratch.setLength(0);
+      mScratch.append(LIST_BEGIN);
+   }
+
+   private CharSequence endValues ()
+   {
+      mScratch.append(LIST_END);
+      return mScratch;
+   }
+
+   private void appendMessageText (final StringBuilder sb, final String text)
+   {
+      if (text == null || text.length() <= 0)
+      {
+         sb.append(EMPTY_MSG);
+      }
+      else
+      {
+         appendCollapsed(sb, text);
+      }
+   }
+
+   private void appendLogSource (
+         final StringBuilder sb,
+         final String clazz,
+         final String method)
+   {
+      if (clazz != null)
+      {
+         sb.append(clazz);
+      }
+      sb.append('.');
+      if (method != null)
+      {
+         sb.append(method);
+         if (method.length() != 0 && method.indexOf('(') < 0)
+         {
+            sb.append("()");
+         }
+      }
+   }
+
+   private void appendTrackingIds (final StringBuilder sb)
+   {
+      for (int i = 0; i < mTrackingIdCount; i++)
+      {
+         if (i > 0)
+         {
+            sb.append(LogLineFormat.TRACKINGID_SEPARATOR);
+         }
+         final String id = mTrackingIds[i];
+         if (id == null)
+         {
+            final int start = toHex(mSequenceId);
+            appendFixed(sb, mDigits, start, mDigits.length,
+                  LogLineFormat.TRACKINGID_LENGTH, PAD_LEFT,
+                  LogLineFormat.TRACKINGID_PADDING);
+         }
+         else
+         {
+            appendFixed(sb, id, LogLineFormat.TRACKINGID_LENGTH, PAD_LEFT,
+                  LogLineFormat.TRACKINGID_PADDING);
+         }
+      }
+   }
+
+   private void appendThreadId (final StringBuilder sb, final long threadId)
+   {
+      int pos = mDigits.length;
+      long value = threadId;
+      final boolean negative = value < 0;
+      do
+      {
+         final int digit = (int) (value % DECIMAL_RADIX);
+         mDigits[--pos] = (char) ('0' + (negative ? -digit : digit));
+         value /= DECIMAL_RADIX;
+      }
+      while (value != 0);
+      if (negative)
+      {
+         mDigits[--pos] = '-';
+      }
+      appendFixed(sb, mDigits, pos, mDigits.length,
+            LogLineFormat.THREADID_LENGTH, PAD_LEFT, PADDING);
+   }
+
+   /**
+    * Appends the timestamp as the {@link Date#toString()} does. Timestamps
+    * between 1970 and 9999 are calculated directly, all others are delegated
+    * to the Date.
+    */
+   private void appendTimestamp (final StringBuilder sb, final long millis)
+   {
+      if (millis < 0 || millis > MAX_FAST_TIMESTAMP)
+      {
+         sb.append(new Date(millis).toString());
+      }
+      else
+      {
+         final int millisOfDay = (int) (millis % Date.MILLIS_PER_DAY);
+         // days to civil date, see http://howardhinnant.github.io/date_algorithms.html
+         final int z = (int) (millis / Date.MILLIS_PER_DAY) + DAYS_0000_TO_1970;
+         final int era = z / DAYS_PER_ERA;
+         final int doe = z - era * DAYS_PER_ERA;
+         final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+         final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+         final int mp = (5 * doy + 2) / 153;
+         final int day = doy - (153 * mp + 2) / 5 + 1;
+         final int month = mp < 10 ? mp + 3 : mp - 9;
+         final int year = yoe + era * YEARS_PER_ERA + (month <= 2 ? 1 : 0);
+
+         appendDigits(sb, year, YEAR_DIGITS);
+         sb.append('-');
+         appendDigits(sb, month, 2);
+         sb.append('-');
+         appendDigits(sb, day, 2);
+         sb.append('T');
+         appendDigits(sb, millisOfDay / MILLIS_PER_HOUR, 2);
+         sb.append(':');
+         appendDigits(sb, millisOfDay / MILLIS_PER_MINUTE % MINUTES_PER_HOUR, 2);
+         sb.append(':');
+         appendDigits(sb,
+               millisOfDay / MILLIS_PER_SECOND % SECONDS_PER_MINUTE, 2);
+         sb.append('.');
+         appendDigits(sb, millisOfDay % MILLIS_PER_SECOND, MILLIS_DIGITS);
+         sb.append('Z');
+      }
+   }
+
+   private int sortParameterNames (final Set<?> names)
+   {
+      final int count = names.size();
+      if (mParameterNames.length < count)
+      {
+         mParameterNames = new String[count];
+      }
+      int i = 0;
+      for (final Iterator<?> iter = names.iterator(); iter.hasNext(); )
+      {
+         final String name = (String) iter.next();
+         // insertion sort, parameter lists are short
+         int j = i;
+         while (j > 0 && mParameterNames[j - 1].compareTo(name) > 0)
+         {
+            mParameterNames[j] = mParameterNames[j - 1];
+            j--;
+         }
+         mParameterNames[j] = name;
+         i++;
+      }
+      return count;
+   }
+
+   private void addTrackingIdSlot (final String trackingId)
+   {
+      if (mTrackingIdCount == mTrackingIds.length)
+      {
+         final String[] ids = new String[mTrackingIds.length * 2];
+         System.arraycopy(mTrackingIds, 0, ids, 0, mTrackingIdCount);
+         mTrackingIds = ids;
+      }
+      mTrackingIds[mTrackingIdCount++] = trackingId;
+   }
+
+   /**
+    * Writes the value as unsigned hex number into the digits scratch space.
+    *
+    * @return the index of the first digit, the last digit is at the end of
+    *       the scratch space.
+    */
+   private int toHex (final int value)
+   {
+      int pos = mDigits.length;
+      int v = value;
+      do
+      {
+         mDigits[--pos] = HEX_DIGITS[v & HEX_MASK];
+         v >>>= HEX_RADIX_BITS;
+      }
+      while (v != 0);
+      return pos;
+   }
+
+   private boolean equalsDigits (final String s, final int start)
+   {
+      boolean rc = s.length() == mDigits.length - start;
+      for (int i = 0; rc && i < s.length(); i++)
+      {
+         rc = s.charAt(i) == mDigits[start + i];
+      }
+      return rc;
+   }
+
+   private static void appendDigits (
+         final StringBuilder sb,
+         final int value,
+         final int digits)
+   {
+      int divisor = 1;
+      for (int i = 1; i < digits; i++)
+      {
+         divisor *= DECIMAL_RADIX;
+      }
+      int v = value;
+      while (divisor > 0)
+      {
+         sb.append((char) ('0' + v / divisor));
+         v %= divisor;
+         divisor /= DECIMAL_RADIX;
+      }
+   }
+
+   private static void appendEscaped (
+         final StringBuilder sb,
+         final String value)
+   {
+      final int len = value.length();
+      for (int i = 0; i < len; i++)
+      {
+         final char c = value.charAt(i);
+         if (CHARS_TO_ESCAPE.indexOf(c) >= 0)
+         {
+            sb.append(StringEscapeFormat.ESCAPE_CHAR);
+         }
+         sb.append(c);
+      }
+   }
+
+   /**
+    * Appends the value fixed to the given length as the
+    * {@link FixLengthFormat} does. A null value is written as "null"
+    * without padding as the MessageFormat does.
+    */
+   private static void appendFixed (
+         final StringBuilder sb,
+         final String value,
+         final int length,
+         final int padding,
+         final char paddingChar)
+   {
+      if (value == null)
+      {
+         sb.append(NULL);
+      }
+      else
+      {
+         final int len = value.length();
+         if (len > length && padding == CUT_LEFT_PAD_RIGHT)
+         {
+            sb.append(value, len - length, len);
+         }
+         else if (len > length)
+         {
+            sb.append(value, 0, length);
+         }
+         else
+         {
+            if (padding == PAD_LEFT)
+            {
+               appendPadding(sb, length - len, paddingChar);
+               sb.append(value);
+            }
+            else
+            {
+               sb.append(value);
+               appendPadding(sb, length - len, paddingChar);
+            }
+         }
+      }
+   }
+
+   private static void appendFixed (
+         final StringBuilder sb,
+         final char[] value,
+         final int start,
+         final int end,
+         final int length,
+         final int padding,
+         final char paddingChar)
+   {
+      final int len = end - start;
+      if (len > length && padding == CUT_LEFT_PAD_RIGHT)
+      {
+         sb.append(value, end - length, length);
+      }
+      else if (len > length)
+      {
+         sb.append(value, start, length);
+      }
+      else
+      {
+         if (padding == PAD_LEFT)
+         {
+            appendPadding(sb, length - len, paddingChar);
+            sb.append(value, start, len);
+         }
+         else
+         {
+            sb.append(value, start, len);
+            appendPadding(sb, length - len, paddingChar);
+         }
+      }
+   }
+
+   private static void appendPadding (
+         final StringBuilder sb,
+         final int count,
+         final char paddingChar)
+   {
+      for (int i = 0; i < count; i++)
+      {
+         sb.append(paddingChar);
+      }
+   }
+}
@@ -81,6 +81,15 @@ public abstract class LogPrinter
     */
    public abstract void print (PrintWriter printer, LogItem entry);
 
+   /**
+    * Called after the last entry has been printed. Printers writing a
+    * footer or buffering output write it here. Does nothing by default.
+    */
+   public void finish ()
+   {
+      // nop
+   }
+
    /**
     * Gets information whether the stack trace of the supplied log file entry
     * should be displayed.
@@ -34,24 +34,45 @@ package org.jcoderz.commons.logging;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.jcoderz.commons.util.IoUtil;
 
 /**
  * This implements a reader reading from log files. It can be used for reading
  * the next entry from the log file, which matches the filter criteria or
  * skipping a number of log file entries.
+ * Files compressed with gzip, like the segments rotated by the
+ * {@link RotatingFileHandler}, are read transparently. Seeking within them
+ * skips the decompressed content, from the position read so far if seeking
+ * forward, else from the start of the file.
  *
  */
 public class LogReader
 {
+   private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+   /** The first two bytes of a gzip file. */
+   private static final int[] GZIP_MAGIC = {0x1f, 0x8b};
+
    private final List<StringBuffer> mBufferedLines = new ArrayList<StringBuffer>();
-   private final BufferedReader mReader;
+   private final FileInputStream mStream;
+   private BufferedReader mReader;
    private final File mFile;
    private final List<Filter> mFilters = new ArrayList<Filter>();
+   private final boolean mCompressed;
+   /** The decompressed content of a compressed file, null else. */
+   private CountingInputStream mDecompressed = null;
+   private LogEntryInterner mInterner = new LogEntryInterner();
+   private StackTraceDefinitions mStackTraceDefinitions;
 
    /**
     * Creates a new LogReader for reading from the supplied file.
@@ -67,7 +88,19 @@ public class LogReader
       try
       {
          mFile = new File(fileName);
-         mReader = new BufferedReader(new FileReader(mFile));
+         mStackTraceDefinitions = new StackTraceDefinitions(mFile);
+         mCompressed = isCompressedLogFile(mFile);
+         mStream = new FileInputStream(mFile);
+         if (mCompressed)
+         {
+            mDecompressed = new CountingInputStream(
+                  new GZIPInputStream(mStream, GZIP_BUFFER_SIZE));
+            mReader = new BufferedReader(new InputStreamReader(mDecompressed));
+         }
+         else
+         {
+            mReader = new BufferedReader(new InputStreamReader(mStream));
+         }
       }
       catch (Exception ex)
       {
@@ -79,6 +112,110 @@ public class LogReader
 
    }
 
+   /**
+    * Creates a new LogReader for reading the log lines supplied by
+    * <code>reader</code>. This is used for parsing parts of a log file, which
+    * have already been read into memory.
+    *
+    * @param reader The reader supplying the log lines.
+    */
+   LogReader (final Reader reader)
+   {
+      mFile = null;
+      mStream = null;
+      mCompressed = false;
+      mReader = new BufferedReader(reader);
+      mStackTraceDefinitions = new StackTraceDefinitions();
+   }
+
+   /**
+    * Creates a new LogReader without an underlying character stream.
+    * Subclasses using this must override {@linkplain #readLogFileEntry()} and
+    * {@linkplain #available()}.
+    */
+   LogReader ()
+   {
+      mFile = null;
+      mStream = null;
+      mCompressed = false;
+      mReader = null;
+      mStackTraceDefinitions = new StackTraceDefinitions();
+   }
+
+   /**
+    * Checks whether the supplied file is compressed with gzip.
+    *
+    * @param file The file to check.
+    * @return true if the file starts with the gzip magic number.
+    */
+   static boolean isCompressedLogFile (final File file)
+   {
+      boolean rc = false;
+      InputStream in = null;
+      try
+      {
+         in = new FileInputStream(file);
+         rc = true;
+         for (int i = 0; i < GZIP_MAGIC.length && rc; i++)
+         {
+            rc = in.read() == GZIP_MAGIC[i];
+         }
+      }
+      catch (IOException ex)
+      {
+         rc = false;
+      }
+      finally
+      {
+         IoUtil.close(in);
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the table of shared values of the entries read by this.
+    *
+    * @return the interner of this.
+    */
+   LogEntryInterner getInterner ()
+   {
+      return mInterner;
+   }
+
+   /**
+    * Sets the table of shared values of the entries read by this, so that
+    * several readers can share the values of their entries.
+    *
+    * @param interner The interner to use.
+    */
+   void setInterner (final LogEntryInterner interner)
+   {
+      mInterner = interner;
+   }
+
+   /**
+    * Gets the stack traces defined in the log file read by this.
+    *
+    * @return the stack trace definitions of this.
+    */
+   StackTraceDefinitions getStackTraceDefinitions ()
+   {
+      return mStackTraceDefinitions;
+   }
+
+   /**
+    * Sets the stack traces defined in the log file read by this. Readers of
+    * parts of a file get definitions sharing the scan of the whole file, see
+    * {@link StackTraceDefinitions#StackTraceDefinitions(
+    * StackTraceDefinitions)}.
+    *
+    * @param definitions The stack trace definitions to use.
+    */
+   void setStackTraceDefinitions (final StackTraceDefinitions definitions)
+   {
+      mStackTraceDefinitions = definitions;
+   }
+
    /**
     * Installs a new filter for filtering log file entries.
     *
@@ -94,7 +231,8 @@ public class LogReader
     * filters. If end of file is reached before an entry has been found matching
     * all criteria, this returns null.
     * Each LogFileEntry instance being returned by this should be released if it
-    * is not needed anymore.
+    * is not needed anymore. Its values are shared with the entries read
+    * before, see {@link LogEntryInterner}.
     *
     * @return the next LogFileEnbtry passing all filters or null if no such
     * available.
@@ -105,12 +243,13 @@ public class LogReader
    {
       LogFileEntry rc = null;
       final LogFileEntry currentEntry = LogFileEntry.getLogFileEntry();
+      currentEntry.setStackTraceDefinitions(mStackTraceDefinitions);
       int numBufferedLines = mBufferedLines.size();
       int bufferedLine = 0;
       boolean readBuffered;
       boolean consumedLine = false;
 
-      while (((bufferedLine < numBufferedLines) || available()) && (rc == null))
+      while (((bufferedLine < numBufferedLines) || ready()) && (rc == null))
       {
          final StringBuffer currentLine;
          if (bufferedLine < numBufferedLines)
@@ -170,28 +309,46 @@ public class LogReader
             }
          }
       }
-      if ((rc == null) && consumedLine && passesFilters(currentEntry))
+      if ((rc == null) && consumedLine)
       {
-         rc = currentEntry;
+         // the last entry is complete as far as available, so its lines
+         // are not read again whether it passes or not
+         if (passesFilters(currentEntry))
+         {
+            rc = currentEntry;
+         }
          mBufferedLines.clear();
       }
       if (rc != currentEntry)
       {
          currentEntry.release();
       }
+      else
+      {
+         rc.setStackTraceDefinitions(null);
+         mInterner.intern(rc);
+      }
       return rc;
    }
 
    /**
     * Checks whether more data is to read from the log file.
     *
-    * @return true if the log file contains data not already read by this;
+    * @return true if the log file contains data not already read by this,
+    * including a line already read, which starts the next entry;
     * false, else.
-    *
-    * TODO: Add some more criteria, e.g. modification time to detect log file
-    * switches etc.
     */
    boolean available ()
+   {
+      return ! mBufferedLines.isEmpty() || ready();
+   }
+
+   /**
+    * Checks whether the underlying reader has more data to read.
+    *
+    * @return true if the reader is ready to be read.
+    */
+   private boolean ready ()
    {
       boolean rc = false;
 
@@ -208,6 +365,71 @@ public class LogReader
       return rc;
    }
 
+   /**
+    * Sets the position in the log file from which the next entry is read.
+    * The position must be the start of a line.
+    *
+    * @param position The byte offset within the log file, within the
+    * decompressed content for a compressed file.
+    *
+    * @throws LoggingException if this does not read from a file or setting
+    * the position fails.
+    */
+   void seek (final long position)
+         throws LoggingException
+   {
+      if (mStream == null)
+      {
+         throw new LoggingException("Cannot seek, not reading from a file.");
+      }
+      try
+      {
+         if (mCompressed)
+         {
+            seekDecompressed(position);
+            mReader = new BufferedReader(new InputStreamReader(mDecompressed));
+         }
+         else
+         {
+            mStream.getChannel().position(position);
+            mReader = new BufferedReader(new InputStreamReader(mStream));
+         }
+      }
+      catch (IOException ex)
+      {
+         throw new LoggingException("Cannot seek to position " + position
+               + " of file " + mFile, ex);
+      }
+      mBufferedLines.clear();
+   }
+
+   /**
+    * Skips the decompressed content up to the supplied position. The data
+    * read ahead by the current reader is lost, so the file is decompressed
+    * again from its start if the position has been passed already.
+    */
+   private void seekDecompressed (final long position)
+         throws IOException
+   {
+      if (position < mDecompressed.getCount())
+      {
+         mStream.getChannel().position(0);
+         mDecompressed = new CountingInputStream(
+               new GZIPInputStream(mStream, GZIP_BUFFER_SIZE));
+      }
+      long remaining = position - mDecompressed.getCount();
+      while (remaining > 0)
+      {
+         final long skipped = mDecompressed.skip(remaining);
+         if (skipped <= 0)
+         {
+            throw new IOException("Position " + position
+                  + " is beyond the end of the file.");
+         }
+         remaining -= skipped;
+      }
+   }
+
    /**
     * Checks whether the LogFileEntry passes all filters. An implicit filter is
     * that the type of the entry has been successfully parsed.
@@ -252,6 +474,9 @@ public class LogReader
       return rc;
    }
 
+   /**
+    * Closes this and the underlying file.
+    */
    void close ()
    {
       if (mReader != null)
@@ -267,4 +492,62 @@ public class LogReader
          }
       }
    }
+
+   /**
+    * Counts the bytes read from a stream.
+    */
+   private static final class CountingInputStream
+         extends FilterInputStream
+   {
+      private long mCount = 0;
+
+      private CountingInputStream (final InputStream in)
+      {
+         super(in);
+      }
+
+      private long getCount ()
+      {
+         return mCount;
+      }
+
+      /** {@inheritDoc} */
+      public int read ()
+            throws IOException
+      {
+         final int rc = super.read();
+         if (rc >= 0)
+         {
+            mCount++;
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public int read (final byte[] b, final int off, final int len)
+            throws IOException
+      {
+         final int rc = super.read(b, off, len);
+         if (rc > 0)
+         {
+            mCount += rc;
+         }
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public long skip (final long n)
+            throws IOException
+      {
+         final long rc = super.skip(n);
+         mCount += rc;
+         return rc;
+      }
+
+      /** {@inheritDoc} */
+      public boolean markSupported ()
+      {
+         return false;
+      }
+   }
 }
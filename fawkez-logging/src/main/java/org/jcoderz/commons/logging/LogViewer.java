@@ -35,12 +35,16 @@ package org.jcoderz.commons.logging;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
@@ -74,8 +78,10 @@ public final class LogViewer
    private static final String DEFAULT_DIR = "." + File.separator + "log";
    private static final String DEFAULT_FILE = "log.out";
 
-   /** Time interval [ms] used for polling the log file for new data. */
-   private static final int LOGFILE_POLL_INTERVAL = 100;
+   /** Minimum time interval [ms] used for polling the log file. */
+   private static final long MIN_POLL_INTERVAL = 10;
+   /** Maximum time interval [ms] the polling backs off to while idle. */
+   private static final long MAX_POLL_INTERVAL = 1000;
 
    private static final String [] EMPTY_STRINGS = new String[0];
 
@@ -104,14 +110,16 @@ public final class LogViewer
     */
    @SuppressWarnings("static-access")
    private static final Option LOGFILE_OPTION = OptionBuilder.hasArg()
-         .withArgName("logfile").withDescription(
-         "open file <logfile> instead of log.out")
+         .withArgName("logfile,...").withDescription(
+         "open file <logfile> instead of log.out; several files and "
+         + "wildcards (*, ?) are merged ordered by time")
          .withValueSeparator().withLongOpt("logFile").create("F");
 
    @SuppressWarnings("static-access")
    private static final Option LOGDIR_OPTION = OptionBuilder.hasArg()
-         .withArgName("logdir").withDescription(
-         "find log files within <logdir> instead of ./log")
+         .withArgName("logdir,...").withDescription(
+         "find log files within <logdir> instead of ./log; several "
+         + "directories and wildcards (*, ?) are supported")
          .withValueSeparator().withLongOpt("logDir").create("D");
 
 //   @SuppressWarnings("static-access")
@@ -135,6 +143,24 @@ public final class LogViewer
    private static final Option BATCH_OPTION = new Option("b", "batch", false,
          "batch mode, terminate if end of log file reached.");
 
+   @SuppressWarnings("static-access")
+   private static final Option PARALLEL_OPTION = OptionBuilder
+         .hasOptionalArg().withArgName("threads").withDescription(
+         "batch mode only, memory map the log file and parse it with "
+         + "<threads> threads [default: number of processors]")
+         .withLongOpt("parallel").create("p");
+
+   @SuppressWarnings("static-access")
+   private static final Option TRACKING_OPTION = OptionBuilder.hasArg()
+         .withArgName("number").withDescription(
+         "display all entries containing tracking number <number> from the "
+         + "log file and its rotated files, terminate when done")
+         .withLongOpt("tracking").create("tn");
+
+   private static final Option NOINDEX_OPTION = new Option("noindex",
+         "batch mode only, do not create or use an index file next to the log "
+         + "file for the -d, -L and -T filters.");
+
    @SuppressWarnings("static-access")
    private static final Option OUTFILE_OPTION = OptionBuilder.hasArg()
          .withArgName("file").withDescription("send output to file")
@@ -149,6 +175,10 @@ public final class LogViewer
    private static final Option XML_OPTION
          = new Option("xml", "output in xml format.");
 
+   private static final Option COLUMNAR_OPTION
+         = new Option("columnar", "batch mode only, export in a compressed "
+               + "columnar format into the file given by -o.");
+
    @SuppressWarnings("static-access")
    private static final Option STACKTRACE_OPTION = OptionBuilder.hasArgs()
          .withArgName("{0|1|2}").withDescription("display stack trace details; "
@@ -248,6 +278,8 @@ public final class LogViewer
    private LogPrinter mDisplay;
 
    private LogReader mLogReader;
+   /** The number of threads parsing a log file in parallel. */
+   private int mParallelThreads;
 
    private LogViewer ()
    {
@@ -276,6 +308,11 @@ public final class LogViewer
             logConsole.init();
             logConsole.run();
          }
+         catch (ParseException ex)
+         {
+            System.err.println(ex.getMessage());
+            logConsole.printUsage();
+         }
          catch (Exception ex)
          {
             Throwable th = ex;
@@ -302,7 +339,10 @@ public final class LogViewer
    {
       initDisplayOptions();
       initDisplayFilters();
-      setInput();
+      if (! mCommandLine.hasOption(TRACKING_OPTION.getOpt()))
+      {
+         setInput();
+      }
       setOutput();
       installDisplay();
    }
@@ -580,28 +620,299 @@ public final class LogViewer
          throw new LoggingException("Undefined log directory.");
       }
 
-      final String fileName = logDir + File.separator
-            + mCommandLine.getOptionValue(
-                  LOGFILE_OPTION.getOpt(), DEFAULT_FILE);
+      final String logFile = mCommandLine.getOptionValue(
+            LOGFILE_OPTION.getOpt(), DEFAULT_FILE);
+      final List<String> fileNames = expandFileNames(logDir, logFile);
+      if (fileNames.isEmpty())
+      {
+         throw new LoggingException("No log file " + logFile
+               + " found within " + logDir);
+      }
 
+      final LogReader logReader;
+      if (fileNames.size() == 1)
+      {
+         logReader = createLogReader(fileNames.get(0),
+               mCommandLine.hasOption(BATCH_OPTION.getOpt()));
+      }
+      else
+      {
+         final List<LogReader> readers = new ArrayList<LogReader>();
+         try
+         {
+            for (final Iterator<String> iter = fileNames.iterator();
+                  iter.hasNext(); )
+            {
+               readers.add(createLogReader(iter.next(), true));
+            }
+         }
+         catch (LoggingException ex)
+         {
+            for (final Iterator<LogReader> iter = readers.iterator();
+                  iter.hasNext(); )
+            {
+               iter.next().close();
+            }
+            throw ex;
+         }
+         logReader = new MergingLogReader(readers);
+      }
+      setFilters(logReader);
+      mLogReader = logReader;
+   }
+
+   /**
+    * Creates the LogReader suiting the supplied log file and the command
+    * line options.
+    *
+    * @param fileName The name of the log file.
+    * @param batch Whether the file is read in batch mode.
+    * @return a new LogReader without filters.
+    * @throws LoggingException if the log file cannot be opened.
+    */
+   private LogReader createLogReader (
+         final String fileName,
+         final boolean batch)
+         throws LoggingException
+   {
       final LogReader logReader;
       try
       {
-         logReader = new LogReader(fileName);
-         setFilters(logReader);
-         mLogReader = logReader;
+         final boolean binary
+               = BinaryLogFormat.isBinaryLogFile(new File(fileName));
+         // compressed files are read sequentially only
+         final boolean sequential = binary
+               || LogReader.isCompressedLogFile(new File(fileName));
+         LogIndex index = null;
+         if (batch && ! sequential
+               && ! mCommandLine.hasOption(NOINDEX_OPTION.getOpt())
+               && hasIndexableFilter())
+         {
+            index = updateIndex(fileName);
+         }
+         if (binary)
+         {
+            logReader = new BinaryLogReader(fileName);
+         }
+         else if (index != null)
+         {
+            logReader = new IndexedLogReader(fileName, index);
+         }
+         else if (batch && ! sequential
+               && mCommandLine.hasOption(PARALLEL_OPTION.getOpt()))
+         {
+            logReader = new MappedLogReader(fileName, mParallelThreads,
+                  MappedLogReader.DEFAULT_CHUNK_SIZE);
+         }
+         else if (! batch && ! sequential)
+         {
+            logReader = new FollowingLogReader(fileName);
+         }
+         else
+         {
+            logReader = new LogReader(fileName);
+         }
       }
       catch (InstantiationException ex)
       {
          throw new LoggingException("Error instantiating a LogReader for file "
                + fileName, ex);
       }
+      return logReader;
+   }
+
+   /**
+    * Gets the names of the log files for the supplied comma separated lists
+    * of directories and file names. Directory and file names might contain
+    * the wildcards <code>*</code> and <code>?</code>, which do not match
+    * the file separator. Names without wildcards are returned as they are,
+    * names with wildcards are replaced by the existing files matching,
+    * sorted by name.
+    *
+    * @param dirs Comma separated list of directories.
+    * @param files Comma separated list of file names.
+    * @return the log files, each directory combined with each file name.
+    */
+   static List<String> expandFileNames (String dirs, String files)
+   {
+      final List<String> rc = new ArrayList<String>();
+      final StringTokenizer dirTokens = new StringTokenizer(dirs, ",");
+      while (dirTokens.hasMoreTokens())
+      {
+         final String dir = dirTokens.nextToken().trim();
+         final StringTokenizer fileTokens = new StringTokenizer(files, ",");
+         while (fileTokens.hasMoreTokens())
+         {
+            final String path = dir + File.separator
+                  + fileTokens.nextToken().trim();
+            if (path.indexOf('*') < 0 && path.indexOf('?') < 0)
+            {
+               rc.add(path);
+            }
+            else
+            {
+               expandWildcards(null, path.split(
+                     Pattern.quote(File.separator)), 0, rc);
+            }
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Finds the entries containing a tracking number within the log files
+    * for the supplied lists of directories and file names and their rotated
+    * files. Each file is searched once, even if it is found for several
+    * names.
+    *
+    * @param dirs Comma separated list of directories, see
+    *       {@link #expandFileNames(String, String)}.
+    * @param files Comma separated list of file names.
+    * @param trackingNumber The tracking number as hex string.
+    * @return the locations of the entries found.
+    * @throws IOException if reading a log file or an index fails.
+    * @throws LoggingException if no log file is found.
+    */
+   static List<TrackingNumberLookup.Location> findTrackingNumber (
+         String dirs,
+         String files,
+         String trackingNumber)
+         throws IOException
+   {
+      final List<String> fileNames = expandFileNames(dirs, files);
+      if (fileNames.isEmpty())
+      {
+         throw new LoggingException("No log file " + files
+               + " found within " + dirs);
+      }
+      final List<TrackingNumberLookup.Location> rc
+            = new ArrayList<TrackingNumberLookup.Location>();
+      final Set<File> searched = new HashSet<File>();
+      for (final Iterator<String> iter = fileNames.iterator(); iter.hasNext(); )
+      {
+         final File file = new File(iter.next());
+         final TrackingNumberLookup lookup = new TrackingNumberLookup(
+               file.getParentFile(), file.getName());
+         final List<File> logFiles = lookup.getLogFiles();
+         logFiles.removeAll(searched);
+         if (! logFiles.isEmpty())
+         {
+            searched.addAll(logFiles);
+            final List<TrackingNumberLookup.Location> locations
+                  = lookup.find(trackingNumber);
+            for (final Iterator<TrackingNumberLookup.Location> i
+                  = locations.iterator(); i.hasNext(); )
+            {
+               final TrackingNumberLookup.Location location = i.next();
+               if (logFiles.contains(location.getFile()))
+               {
+                  rc.add(location);
+               }
+            }
+         }
+      }
+      return rc;
+   }
+
+   private static void expandWildcards (
+         final File parent,
+         final String[] names,
+         final int index,
+         final List<String> result)
+   {
+      final String name = names[index];
+      final boolean last = index == names.length - 1;
+      if (name.indexOf('*') < 0 && name.indexOf('?') < 0)
+      {
+         final File file;
+         if (parent == null)
+         {
+            // the empty name before the leading separator of absolute paths
+            file = new File(name.length() == 0 ? File.separator : name);
+         }
+         else
+         {
+            file = new File(parent, name);
+         }
+         if (! last)
+         {
+            expandWildcards(file, names, index + 1, result);
+         }
+         else if (file.isFile())
+         {
+            result.add(file.getPath());
+         }
+      }
+      else
+      {
+         final Pattern pattern = Pattern.compile(
+               Pattern.quote(name).replace("*", "\\E.*\\Q")
+                     .replace("?", "\\E.\\Q"));
+         final File[] children = ((parent == null) ? new File(".") : parent)
+               .listFiles();
+         if (children != null)
+         {
+            Arrays.sort(children);
+            for (int i = 0; i < children.length; i++)
+            {
+               final File child = (parent == null)
+                     ? new File(children[i].getName()) : children[i];
+               if (pattern.matcher(child.getName()).matches()
+                     && (last ? child.isFile() : child.isDirectory()))
+               {
+                  if (last)
+                  {
+                     result.add(child.getPath());
+                  }
+                  else
+                  {
+                     expandWildcards(child, names, index + 1, result);
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   private boolean hasIndexableFilter ()
+   {
+      boolean rc = false;
+      for (final Iterator<Filter> iter = mFilters.iterator();
+            iter.hasNext() && ! rc; )
+      {
+         rc = IndexedLogReader.isIndexable(iter.next());
+      }
+      return rc;
+   }
+
+   /**
+    * Creates or updates the index of the supplied log file.
+    *
+    * @param fileName The name of the log file.
+    * @return the updated index, or null if the index cannot be used.
+    */
+   private LogIndex updateIndex (final String fileName)
+   {
+      LogIndex rc = new LogIndex(new File(fileName));
+      try
+      {
+         rc.update();
+      }
+      catch (IOException ex)
+      {
+         System.err.println("Cannot use the index file " + rc.getIndexFile()
+               + ", reading the complete log file: " + ex);
+         rc = null;
+      }
+      return rc;
    }
 
    private void setOutput ()
          throws LoggingException
    {
-      if (mCommandLine.hasOption(OUTFILE_OPTION.getOpt()))
+      // the columnar export writes the output file itself
+      if (mCommandLine.hasOption(OUTFILE_OPTION.getOpt())
+            && ! mCommandLine.hasOption(COLUMNAR_OPTION.getOpt()))
       {
          final String fileName = mCommandLine.getOptionValue(
                OUTFILE_OPTION.getOpt());
@@ -627,6 +938,10 @@ public final class LogViewer
     */
    private void close ()
    {
+      if (mDisplay != null)
+      {
+         mDisplay.finish();
+      }
       if (mOut != null)
       {
          mOut.flush();
@@ -649,7 +964,12 @@ public final class LogViewer
    {
       try
       {
-         if (mCommandLine.hasOption(BATCH_OPTION.getOpt()))
+         if (mCommandLine.hasOption(TRACKING_OPTION.getOpt()))
+         {
+            runTrackingMode();
+         }
+         else if (mCommandLine.hasOption(BATCH_OPTION.getOpt())
+               || mLogReader instanceof MergingLogReader)
          {
             runBatchMode();
          }
@@ -666,10 +986,50 @@ public final class LogViewer
    }
 
    /**
-    * Runs the live mode.
+    * Prints all entries of the log file and its rotated files containing the
+    * tracking number given on the command line.
+    *
+    * @throws IOException if reading a log file or its index fails.
+    * @throws InstantiationException if a log file cannot be opened.
+    */
+   private void runTrackingMode ()
+         throws IOException, InstantiationException
+   {
+      final List<TrackingNumberLookup.Location> locations = findTrackingNumber(
+            mCommandLine.getOptionValue(LOGDIR_OPTION.getOpt(), DEFAULT_DIR),
+            mCommandLine.getOptionValue(LOGFILE_OPTION.getOpt(), DEFAULT_FILE),
+            mCommandLine.getOptionValue(TRACKING_OPTION.getOpt()));
+      for (final Iterator<TrackingNumberLookup.Location> iter
+            = locations.iterator(); iter.hasNext(); )
+      {
+         final LogReader logReader = iter.next().createReader();
+         try
+         {
+            setFilters(logReader);
+            LogFileEntry logRecord = logReader.readLogFileEntry();
+            while ((logRecord != null) && (mDisplay != null))
+            {
+               mDisplay.print(mOut, logRecord);
+               logRecord.release();
+               logRecord = logReader.readLogFileEntry();
+            }
+         }
+         finally
+         {
+            logReader.close();
+         }
+      }
+      mOut.flush();
+   }
+
+   /**
+    * Runs the live mode. New data is read without delay as long as it is
+    * available, while idle the polling interval backs off up to
+    * {@link #MAX_POLL_INTERVAL}.
     */
    private void runLiveMode ()
    {
+      long pollInterval = MIN_POLL_INTERVAL;
       while (true)
       {
          LogFileEntry logRecord = null;
@@ -687,15 +1047,19 @@ public final class LogViewer
             }
             while (logRecord != null);
             mOut.flush();
+            pollInterval = MIN_POLL_INTERVAL;
          }
-
-         try
-         {
-            Thread.sleep(LOGFILE_POLL_INTERVAL);
-         }
-         catch (InterruptedException e)
+         else
          {
-            // ignore
+            try
+            {
+               Thread.sleep(pollInterval);
+            }
+            catch (InterruptedException e)
+            {
+               // ignore
+            }
+            pollInterval = Math.min(2 * pollInterval, MAX_POLL_INTERVAL);
          }
       }
    }
@@ -728,8 +1092,12 @@ public final class LogViewer
       mOptions.addOption(LOGDIR_OPTION);
 //      mOptions.addOption(LINES_OPTION);
       mOptions.addOption(BATCH_OPTION);
+      mOptions.addOption(PARALLEL_OPTION);
+      mOptions.addOption(NOINDEX_OPTION);
+      mOptions.addOption(TRACKING_OPTION);
       mOptions.addOption(OUTFILE_OPTION);
       mOptions.addOption(XML_OPTION);
+      mOptions.addOption(COLUMNAR_OPTION);
       mOptions.addOption(STACKTRACE_OPTION);
       mOptions.addOption(DATE_OPTION);
       mOptions.addOption(TIME_OPTION);
@@ -744,12 +1112,84 @@ public final class LogViewer
          throws ParseException
    {
       mCommandLine = new GnuParser().parse(mOptions, args, true);
+      mParallelThreads = parseParallelThreads();
+   }
+
+   /**
+    * Gets the number of threads given with the parallel option.
+    *
+    * @return the number of threads, the number of processors if none is
+    *       given.
+    * @throws ParseException if the number of threads is not a positive
+    *       number.
+    */
+   private int parseParallelThreads ()
+         throws ParseException
+   {
+      int rc = Runtime.getRuntime().availableProcessors();
+      final String threads = mCommandLine.getOptionValue(
+            PARALLEL_OPTION.getOpt());
+      if (threads != null)
+      {
+         try
+         {
+            rc = Integer.parseInt(threads.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            rc = 0;
+         }
+         if (rc < 1)
+         {
+            throw new ParseException("Invalid number of threads '" + threads
+                  + "' for option -" + PARALLEL_OPTION.getOpt()
+                  + ", a positive number is expected.");
+         }
+      }
+      return rc;
+   }
+
+   private LogPrinter createColumnarPrinter ()
+         throws LoggingException
+   {
+      if (! mCommandLine.hasOption(OUTFILE_OPTION.getOpt()))
+      {
+         throw new LoggingException(
+               "The columnar export requires an output file.");
+      }
+      // the export is completed only at the end of the log, which the
+      // live mode never reaches
+      if (! mCommandLine.hasOption(BATCH_OPTION.getOpt())
+            && ! mCommandLine.hasOption(TRACKING_OPTION.getOpt())
+            && ! (mLogReader instanceof MergingLogReader))
+      {
+         throw new LoggingException(
+               "The columnar export requires the batch mode (-"
+               + BATCH_OPTION.getOpt() + ").");
+      }
+      final String fileName = mCommandLine.getOptionValue(
+            OUTFILE_OPTION.getOpt());
+      final LogPrinter rc;
+      try
+      {
+         rc = new ColumnarPrinter(new FileOutputStream(fileName));
+      }
+      catch (IOException ex)
+      {
+         throw new LoggingException(
+               "Could not open the output file " + fileName, ex);
+      }
+      return rc;
    }
 
    private void installDisplay ()
          throws LoggingException
    {
-      if (mCommandLine.hasOption(XML_OPTION.getOpt()))
+      if (mCommandLine.hasOption(COLUMNAR_OPTION.getOpt()))
+      {
+         mDisplay = createColumnarPrinter();
+      }
+      else if (mCommandLine.hasOption(XML_OPTION.getOpt()))
       {
          try
          {
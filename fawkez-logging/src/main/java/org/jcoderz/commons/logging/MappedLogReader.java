@@ -0,0 +1,437 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A LogReader reading a complete log file by memory mapping it and parsing
+ * chunks of it in parallel.
+ * <p>
+ * The file is split into chunks of about {@link #DEFAULT_CHUNK_SIZE} bytes.
+ * Each chunk ends right before a line starting a new log entry, i.e. a line
+ * starting with one of the type specifiers of
+ * {@link LogLineFormat#TRACE_MESSAGE}, {@link LogLineFormat#EXCEPTION_MESSAGE},
+ * {@link LogLineFormat#LOG_MESSAGE} or {@link LogLineFormat#ERROR_MESSAGE},
+ * which does not follow a {@link LogLineFormat#NESTED_MESSAGE} line, so that
+ * every chunk can be parsed independently of its neighbours. Chunks are
+ * parsed by a fixed pool of worker threads, the entries are returned by
+ * {@link #readLogFileEntry()} in the order they appear in the file.
+ * </p>
+ * <p>
+ * Only the data available when opening the file is read, so this is meant for
+ * batch processing. At most two chunks per worker thread are parsed ahead of
+ * the consumer to bound the memory being used.
+ * </p>
+ *
+ */
+public class MappedLogReader
+      extends LogReader
+{
+   /** The default size of the chunks parsed in parallel, 1 MByte. */
+   static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+   /** Size of the windows being mapped when searching for an entry start. */
+   private static final int SCAN_WINDOW_SIZE = 64 * 1024;
+
+   private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+   private final List<Filter> mFilters = new ArrayList<Filter>();
+   private final LinkedList<Future<List<LogFileEntry>>> mPendingChunks
+         = new LinkedList<Future<List<LogFileEntry>>>();
+   private final RandomAccessFile mFile;
+   private final FileChannel mChannel;
+   private final Charset mCharset;
+   private final long mSize;
+   private final int mChunkSize;
+   private final int mMaxPendingChunks;
+   private final ExecutorService mExecutor;
+
+   private List<LogFileEntry> mCurrentChunk = null;
+   private int mCurrentIndex = 0;
+   private long mNextChunkStart = 0;
+
+   /**
+    * Creates a new MappedLogReader for reading the supplied file, using one
+    * worker thread per available processor.
+    *
+    * @param fileName The name of the file to read.
+    *
+    * @throws InstantiationException in case there is an error opening the file
+    * for reading.
+    */
+   MappedLogReader (final String fileName)
+         throws InstantiationException
+   {
+      this(fileName, Runtime.getRuntime().availableProcessors(),
+            DEFAULT_CHUNK_SIZE);
+   }
+
+   /**
+    * Creates a new MappedLogReader for reading the supplied file.
+    *
+    * @param fileName The name of the file to read.
+    * @param threads The number of worker threads parsing chunks.
+    * @param chunkSize The minimum number of bytes per chunk.
+    *
+    * @throws InstantiationException in case there is an error opening the file
+    * for reading.
+    */
+   MappedLogReader (
+         final String fileName,
+         final int threads,
+         final int chunkSize)
+         throws InstantiationException
+   {
+      super();
+      if (threads < 1 || chunkSize < 1)
+      {
+         throw new IllegalArgumentException("Invalid number of threads "
+               + threads + " or chunk size " + chunkSize);
+      }
+      try
+      {
+         mFile = new RandomAccessFile(new File(fileName), "r");
+         setStackTraceDefinitions(
+               new StackTraceDefinitions(new File(fileName)));
+         mChannel = mFile.getChannel();
+         mSize = mChannel.size();
+      }
+      catch (Exception ex)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Cannot install MappedLogReader for file '" + fileName + "'.");
+         iex.initCause(ex);
+         throw iex;
+      }
+      // same as the FileReader used by the sequential LogReader
+      mCharset = Charset.defaultCharset();
+      mChunkSize = chunkSize;
+      mMaxPendingChunks = 2 * threads;
+      mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+         {
+            public Thread newThread (final Runnable r)
+            {
+               final Thread result = new Thread(r, "MappedLogReader-"
+                     + THREAD_COUNTER.incrementAndGet());
+               result.setDaemon(true);
+               return result;
+            }
+         });
+   }
+
+   /** {@inheritDoc} */
+   void addFilter (final Filter filter)
+   {
+      mFilters.add(filter);
+   }
+
+   /**
+    * Gets the next LogFileEntry from the log file, which passes all installed
+    * filters. If end of file is reached before an entry has been found matching
+    * all criteria, this returns null.
+    * Each LogFileEntry instance being returned by this should be released if it
+    * is not needed anymore.
+    *
+    * @return the next LogFileEntry passing all filters or null if no such
+    * available.
+    * @throws LoggingException if an error occurs.
+    */
+   LogFileEntry readLogFileEntry ()
+         throws LoggingException
+   {
+      LogFileEntry rc = null;
+      submitChunks();
+      while (rc == null
+            && (hasBufferedEntry() || ! mPendingChunks.isEmpty()))
+      {
+         if (hasBufferedEntry())
+         {
+            rc = mCurrentChunk.set(mCurrentIndex++, null);
+         }
+         else
+         {
+            mCurrentChunk = awaitChunk(mPendingChunks.removeFirst());
+            mCurrentIndex = 0;
+            submitChunks();
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Checks whether more entries are to read from the log file.
+    *
+    * @return true if the log file contains data not already read by this;
+    * false, else.
+    */
+   boolean available ()
+   {
+      return hasBufferedEntry() || ! mPendingChunks.isEmpty()
+            || mNextChunkStart < mSize;
+   }
+
+   /**
+    * Closes this, stops the worker threads and releases all entries which have
+    * been parsed but not yet read.
+    */
+   void close ()
+   {
+      mExecutor.shutdownNow();
+      releaseBufferedEntries();
+      while (! mPendingChunks.isEmpty())
+      {
+         final Future<List<LogFileEntry>> chunk
+               = mPendingChunks.removeFirst();
+         if (! chunk.cancel(true))
+         {
+            try
+            {
+               mCurrentChunk = chunk.get();
+               mCurrentIndex = 0;
+               releaseBufferedEntries();
+            }
+            catch (Exception ex)
+            {
+               // the chunk is dropped anyway
+            }
+         }
+      }
+      try
+      {
+         mFile.close();
+      }
+      catch (IOException iex)
+      {
+         System.err.println("Error closing this:" + iex);
+         iex.printStackTrace();
+      }
+   }
+
+   private boolean hasBufferedEntry ()
+   {
+      return mCurrentChunk != null && mCurrentIndex < mCurrentChunk.size();
+   }
+
+   private void releaseBufferedEntries ()
+   {
+      while (hasBufferedEntry())
+      {
+         final LogFileEntry entry = mCurrentChunk.set(mCurrentIndex++, null);
+         entry.release();
+      }
+      mCurrentChunk = null;
+   }
+
+   /**
+    * Fills the pipeline of chunks being parsed until either the maximum
+    * number of pending chunks or the end of the file is reached.
+    */
+   private void submitChunks ()
+   {
+      while (mPendingChunks.size() < mMaxPendingChunks
+            && mNextChunkStart < mSize)
+      {
+         final long start = mNextChunkStart;
+         final long end;
+         try
+         {
+            end = findEntryStart(mChannel, mSize, start + mChunkSize);
+         }
+         catch (IOException ex)
+         {
+            throw new LoggingException("Error while searching the end of the "
+                  + "chunk starting at " + start, ex);
+         }
+         mNextChunkStart = end;
+         mPendingChunks.addLast(
+               mExecutor.submit(new ChunkParser(start, end - start)));
+      }
+   }
+
+   private List<LogFileEntry> awaitChunk (
+         final Future<List<LogFileEntry>> chunk)
+   {
+      final List<LogFileEntry> rc;
+      try
+      {
+         rc = chunk.get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new LoggingException(
+               "Interrupted while waiting for a parsed chunk", ex);
+      }
+      catch (ExecutionException ex)
+      {
+         throw new LoggingException(
+               "Error parsing a chunk of the log file", ex.getCause());
+      }
+      return rc;
+   }
+
+   /**
+    * Finds the position of the first line starting a new log entry at or
+    * after the supplied position. A message line directly following a nested
+    * line belongs to the nested entry and does not start a new entry. Since
+    * the type of the line containing <code>from</code> is unknown, the first
+    * line start found is never taken as entry start.
+    *
+    * @param channel The channel of the log file.
+    * @param size The size of the log file.
+    * @param from The position from which to search.
+    * @return The position of the start of the next log entry, or the file
+    * size if there is no more entry.
+    * @throws IOException if mapping the file fails.
+    */
+   static long findEntryStart (
+         final FileChannel channel,
+         final long size,
+         final long from)
+         throws IOException
+   {
+      long rc = size;
+      boolean afterNestedLine = true;
+      // the line feed terminating the previous line is part of the search
+      long position = from - 1;
+      while (rc == size && position < size - 1)
+      {
+         final int length = (int) Math.min(SCAN_WINDOW_SIZE, size - position);
+         final ByteBuffer window = channel.map(
+               FileChannel.MapMode.READ_ONLY, position, length);
+         for (int i = 0; i < length - 1 && rc == size; i++)
+         {
+            if (window.get(i) == '\n')
+            {
+               final byte lineType = window.get(i + 1);
+               if (! afterNestedLine
+                     && LogLineFormat.isEntryStart(lineType))
+               {
+                  rc = position + i + 1;
+               }
+               afterNestedLine = lineType
+                     == LogLineFormat.NESTED_MESSAGE.getTypeSpecifier();
+            }
+         }
+         position += length - 1;
+      }
+      return rc;
+   }
+
+   /**
+    * Parses one chunk of the log file into a list of log file entries passing
+    * the filters.
+    */
+   private final class ChunkParser
+         implements Callable<List<LogFileEntry>>
+   {
+      private final long mStart;
+      private final long mLength;
+
+      private ChunkParser (final long start, final long length)
+      {
+         mStart = start;
+         mLength = length;
+      }
+
+      /** {@inheritDoc} */
+      public List<LogFileEntry> call ()
+            throws IOException
+      {
+         final List<LogFileEntry> rc = new ArrayList<LogFileEntry>();
+         final LogReader reader = new LogReader(decode());
+         reader.setInterner(getInterner());
+         reader.setStackTraceDefinitions(
+               new StackTraceDefinitions(getStackTraceDefinitions()));
+         for (final Iterator<Filter> iter = mFilters.iterator();
+               iter.hasNext(); )
+         {
+            reader.addFilter(iter.next());
+         }
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            rc.add(entry);
+            entry = reader.readLogFileEntry();
+         }
+         return rc;
+      }
+
+      private CharArrayReader decode ()
+            throws IOException
+      {
+         final ByteBuffer bytes = mChannel.map(
+               FileChannel.MapMode.READ_ONLY, mStart, mLength);
+         final CharsetDecoder decoder = mCharset.newDecoder()
+               .onMalformedInput(CodingErrorAction.REPLACE)
+               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+         final CharBuffer chars;
+         try
+         {
+            chars = decoder.decode(bytes);
+         }
+         catch (CharacterCodingException ex)
+         {
+            // cannot happen when replacing malformed input
+            final IOException iex = new IOException(
+                  "Cannot decode chunk at " + mStart);
+            iex.initCause(ex);
+            throw iex;
+         }
+         return new CharArrayReader(chars.array(),
+               chars.arrayOffset() + chars.position(), chars.remaining());
+      }
+   }
+}
@@ -0,0 +1,360 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jcoderz.commons.types.Date;
+
+
+/**
+ * A LogReader merging the entries of several log files ordered by their
+ * timestamp, e.g. the log files of all nodes of a cluster.
+ * <p>
+ * Each log file is read by its own LogReader in its own thread, which parses
+ * up to {@link #DEFAULT_PREFETCH} entries ahead into a bounded queue. The
+ * next entry of each file is kept in a priority queue holding at most one
+ * entry per file, from which the oldest entry is returned. Entries having
+ * the same timestamp are returned in the order of the readers supplied.
+ * Since the entries of each file are expected to be ordered by time, the
+ * result is ordered by time as well.
+ * </p>
+ * <p>
+ * Filters are installed in all readers, so entries are filtered
+ * concurrently. Only the data available when reading is merged, so this is
+ * meant for batch processing.
+ * </p>
+ *
+ */
+public class MergingLogReader
+      extends LogReader
+{
+   /** The default number of entries parsed ahead per file. */
+   static final int DEFAULT_PREFETCH = 256;
+
+   private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+   /** Put into the queue of a file after its last entry. */
+   private static final Object END_OF_FILE = new Object();
+
+   private final List<Source> mSources = new ArrayList<Source>();
+   private final PriorityQueue<Source> mHeads;
+   private boolean mStarted = false;
+
+   /**
+    * Orders the sources by the timestamp of their current entry.
+    */
+   private static final class TimestampComparator
+         implements Comparator<Source>
+   {
+      /** {@inheritDoc} */
+      public int compare (final Source a, final Source b)
+      {
+         final Date timeA = a.mEntry.getTimestamp();
+         final Date timeB = b.mEntry.getTimestamp();
+         int rc;
+         if (timeA == null || timeB == null)
+         {
+            rc = (timeA == null ? 0 : 1) - (timeB == null ? 0 : 1);
+         }
+         else
+         {
+            rc = timeA.compareTo(timeB);
+         }
+         if (rc == 0)
+         {
+            rc = a.mIndex - b.mIndex;
+         }
+         return rc;
+      }
+   }
+
+   /**
+    * One of the merged log files, the entries are read by a thread of its
+    * own.
+    */
+   private static final class Source
+         implements Runnable
+   {
+      private final LogReader mReader;
+      private final int mIndex;
+      private final BlockingQueue<Object> mQueue;
+      private final Thread mThread;
+      /** The next entry of this to be returned. */
+      private LogFileEntry mEntry;
+      private volatile boolean mClosed = false;
+
+      private Source (LogReader reader, int index, int prefetch)
+      {
+         mReader = reader;
+         mIndex = index;
+         mQueue = new ArrayBlockingQueue<Object>(prefetch);
+         mThread = new Thread(this, "MergingLogReader-"
+               + THREAD_COUNTER.incrementAndGet());
+         mThread.setDaemon(true);
+      }
+
+      /** {@inheritDoc} */
+      public void run ()
+      {
+         Object result = END_OF_FILE;
+         try
+         {
+            LogFileEntry entry = mReader.readLogFileEntry();
+            while (entry != null && ! mClosed)
+            {
+               mQueue.put(entry);
+               entry = mReader.readLogFileEntry();
+            }
+            if (entry != null)
+            {
+               entry.release();
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            // closed
+         }
+         catch (RuntimeException ex)
+         {
+            result = ex;
+         }
+         finally
+         {
+            mReader.close();
+         }
+         try
+         {
+            if (! mClosed)
+            {
+               mQueue.put(result);
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            // closed
+         }
+      }
+
+      /**
+       * Takes the next entry from the queue and stores it as the current
+       * entry.
+       *
+       * @return true if there is a next entry, false if the end of the file
+       *       has been reached.
+       * @throws LoggingException if the reader failed.
+       */
+      private boolean next ()
+            throws LoggingException
+      {
+         final Object next;
+         try
+         {
+            next = mQueue.take();
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+            throw new LoggingException(
+                  "Interrupted while waiting for a log entry", ex);
+         }
+         if (next instanceof RuntimeException)
+         {
+            mEntry = null;
+            throw new LoggingException("Error reading a log file",
+                  (RuntimeException) next);
+         }
+         mEntry = (next == END_OF_FILE) ? null : (LogFileEntry) next;
+         return mEntry != null;
+      }
+
+      private void close ()
+      {
+         mClosed = true;
+         mThread.interrupt();
+         if (mEntry != null)
+         {
+            mEntry.release();
+            mEntry = null;
+         }
+         for (Object next = mQueue.poll(); next != null;
+               next = mQueue.poll())
+         {
+            if (next instanceof LogFileEntry)
+            {
+               ((LogFileEntry) next).release();
+            }
+         }
+      }
+   }
+
+   /**
+    * Creates a new MergingLogReader merging the entries read by the supplied
+    * readers.
+    *
+    * @param readers The readers of the log files to merge.
+    */
+   MergingLogReader (final List<LogReader> readers)
+   {
+      this(readers, DEFAULT_PREFETCH);
+   }
+
+   /**
+    * Creates a new MergingLogReader merging the entries read by the supplied
+    * readers.
+    *
+    * @param readers The readers of the log files to merge.
+    * @param prefetch The maximum number of entries parsed ahead per reader.
+    */
+   MergingLogReader (final List<LogReader> readers, final int prefetch)
+   {
+      super();
+      if (readers.isEmpty() || prefetch < 1)
+      {
+         throw new IllegalArgumentException("Invalid number of readers "
+               + readers.size() + " or prefetch " + prefetch);
+      }
+      for (final Iterator<LogReader> iter = readers.iterator();
+            iter.hasNext(); )
+      {
+         final LogReader reader = iter.next();
+         reader.setInterner(getInterner());
+         mSources.add(new Source(reader, mSources.size(), prefetch));
+      }
+      mHeads = new PriorityQueue<Source>(mSources.size(),
+            new TimestampComparator());
+   }
+
+   /** {@inheritDoc} */
+   void addFilter (final Filter filter)
+   {
+      for (final Iterator<Source> iter = mSources.iterator();
+            iter.hasNext(); )
+      {
+         iter.next().mReader.addFilter(filter);
+      }
+   }
+
+   /**
+    * Gets the oldest of the next entries of all log files, which passes all
+    * installed filters. If the end of all files is reached, this returns null.
+    * Each LogFileEntry instance being returned by this should be released if it
+    * is not needed anymore.
+    *
+    * @return the next LogFileEntry passing all filters or null if no such
+    * available.
+    * @throws LoggingException if an error occurs.
+    */
+   LogFileEntry readLogFileEntry ()
+         throws LoggingException
+   {
+      start();
+      LogFileEntry rc = null;
+      final Source source = mHeads.poll();
+      if (source != null)
+      {
+         rc = source.mEntry;
+         source.mEntry = null;
+         if (source.next())
+         {
+            mHeads.add(source);
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Checks whether more entries are to read from the log files.
+    *
+    * @return true if not all log files have been read completely; false,
+    * else.
+    */
+   boolean available ()
+   {
+      return ! mStarted || ! mHeads.isEmpty();
+   }
+
+   /**
+    * Closes this, stops the reading threads and releases all entries which
+    * have been parsed but not yet read.
+    */
+   void close ()
+   {
+      mHeads.clear();
+      for (final Iterator<Source> iter = mSources.iterator();
+            iter.hasNext(); )
+      {
+         final Source source = iter.next();
+         if (mStarted)
+         {
+            source.close();
+         }
+         else
+         {
+            source.mReader.close();
+         }
+      }
+   }
+
+   /**
+    * Starts the reading threads and takes the first entry of each log file.
+    */
+   private void start ()
+   {
+      if (! mStarted)
+      {
+         mStarted = true;
+         for (final Iterator<Source> iter = mSources.iterator();
+               iter.hasNext(); )
+         {
+            iter.next().mThread.start();
+         }
+         for (final Iterator<Source> iter = mSources.iterator();
+               iter.hasNext(); )
+         {
+            final Source source = iter.next();
+            if (source.next())
+            {
+               mHeads.add(source);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,116 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * A LogReader reading only the entries starting at a given list of offsets
+ * of a log file, e.g. the offsets found by a {@link TrackingNumberLookup}.
+ *
+ */
+public class OffsetLogReader
+      extends LogReader
+{
+   private final long[] mOffsets;
+   private final List<Filter> mFilters = new ArrayList<Filter>();
+   private int mNextOffset = 0;
+
+   /**
+    * Creates a new OffsetLogReader for reading the entries at the supplied
+    * offsets of a file.
+    *
+    * @param fileName The name of the file to read.
+    * @param offsets The offsets of the entries to read in ascending order.
+    *
+    * @throws InstantiationException in case there is an error opening the file
+    * for reading.
+    */
+   OffsetLogReader (final String fileName, final long[] offsets)
+         throws InstantiationException
+   {
+      super(fileName);
+      mOffsets = (long[]) offsets.clone();
+   }
+
+   /** {@inheritDoc} */
+   void addFilter (final Filter filter)
+   {
+      mFilters.add(filter);
+   }
+
+   /**
+    * Gets the next LogFileEntry at one of the offsets, which passes all
+    * installed filters.
+    * Each LogFileEntry instance being returned by this should be released if it
+    * is not needed anymore.
+    *
+    * @return the next LogFileEntry passing all filters or null if no such
+    * available.
+    * @throws LoggingException if an error occurs.
+    */
+   LogFileEntry readLogFileEntry ()
+         throws LoggingException
+   {
+      LogFileEntry rc = null;
+      while (rc == null && mNextOffset < mOffsets.length)
+      {
+         seek(mOffsets[mNextOffset++]);
+         // the super class has no filters installed
+         rc = super.readLogFileEntry();
+         for (final Iterator<Filter> iter = mFilters.iterator();
+               iter.hasNext() && rc != null; )
+         {
+            if (! iter.next().isPassable(rc))
+            {
+               rc.release();
+               rc = null;
+            }
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Checks whether more entries might be read.
+    *
+    * @return true if not all offsets have been read; false, else.
+    */
+   boolean available ()
+   {
+      return mNextOffset < mOffsets.length;
+   }
+}
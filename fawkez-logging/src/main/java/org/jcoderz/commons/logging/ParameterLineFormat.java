@@ -68,17 +68,17 @@ public class ParameterLineFormat
 
    /** The symbol name of a LogMessageInfo will be logged as parameter value
     * for a parameter with this name. */
-   private static final String SYMBOL_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
+   static final String SYMBOL_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
          + "SYMBOL_";
 
    /** The location where a Loggable is logged will be logged as parameter value
     * for a parameter with this name. */
-   private static final String SOURCE_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
+   static final String SOURCE_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
          + "LOGGED_AT_";
 
    /** The possible solution for an error will be logged as parameter value
     * for a parameter with this name. */
-   private static final String SOLUTION_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
+   static final String SOLUTION_TAG = LogItem.INTERNAL_PARAMETER_PREFIX
          + "SOLUTION_";
 
    /**
@@ -198,27 +198,7 @@ public class ParameterLineFormat
       try
       {
          basicParse(sb, entry);
-         if (getParameterName().equals(SOURCE_TAG))
-         {
-            final String[] source
-                  = getLogSource((String) getParameterValues().get(0));
-            entry.setSourceClass(source[SOURCECLASS_INDEX]);
-            entry.setSourceMethod(source[SOURCEMETHOD_INDEX]);
-         }
-         else if (getParameterName().equals(SOLUTION_TAG)
-               && (getParameterValues() != null)
-               && ! getParameterValues().isEmpty())
-         {
-            entry.setSolution((String) getParameterValues().get(0));
-         }
-         else if (getParameterName().equals(SYMBOL_TAG))
-         {
-            entry.setSymbol((String) getParameterValues().get(0));
-         }
-         else
-         {
-            entry.addToParameters(getParameterName(), getParameterValues());
-         }
+         addParameter(entry, getParameterName(), getParameterValues());
       }
       catch (ParseException pex)
       {
@@ -234,6 +214,41 @@ public class ParameterLineFormat
       }
    }
 
+   /**
+    * Sets a parsed parameter at the supplied entry. The internal parameters
+    * set the symbol, solution and source of the entry, all others are added
+    * to its parameters.
+    *
+    * @param entry The LogFileEntry which gets the parameter.
+    * @param name The name of the parameter.
+    * @param values The list of parameter values.
+    */
+   static void addParameter (
+         final LogFileEntry entry,
+         final String name,
+         final List<?> values)
+   {
+      if (name.equals(SOURCE_TAG))
+      {
+         final String[] source = splitLogSource((String) values.get(0));
+         entry.setSourceClass(source[SOURCECLASS_INDEX]);
+         entry.setSourceMethod(source[SOURCEMETHOD_INDEX]);
+      }
+      else if (name.equals(SOLUTION_TAG)
+            && (values != null) && ! values.isEmpty())
+      {
+         entry.setSolution((String) values.get(0));
+      }
+      else if (name.equals(SYMBOL_TAG))
+      {
+         entry.setSymbol((String) values.get(0));
+      }
+      else
+      {
+         entry.addToParameters(name, values);
+      }
+   }
+
    private void appendParameters (
          final StringBuffer sb,
          final LogRecord record,
@@ -0,0 +1,863 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * This log handler writes formatted log records into a file and rotates the
+ * file by size and time.
+ * <p>
+ * The records are encoded into a large direct buffer, which is written to
+ * the file channel if it is full, if a record of at least the flush level is
+ * written, on {@link #flush()} and periodically by a background thread, so
+ * records are not held back on a quiet system. On rotation the current
+ * file, e.g. <code>log.out</code>, is renamed to a segment named like
+ * <code>log.out.20061231-235959-999</code> (the UTC time of the rotation)
+ * and a new file is started. Renaming is the only file operation done by the
+ * logging thread, the segments are compressed with gzip and the segments
+ * exceeding the configured count are deleted by the background thread. The
+ * {@link LogViewer} reads compressed segments like plain log files. The
+ * index files the LogViewer creates next to a segment are deleted together
+ * with the segment.
+ * </p>
+ * The following configuration can be provided in the logging properties
+ * file:<br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.file:</code><br>
+ *    Name of the file to write to. Defaults to log/log.out.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.append:</code><br>
+ *    Whether to append to an existing file. If false, an existing file is
+ *    rotated. Defaults to true.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.limit:</code><br>
+ *    The size in bytes after which the file is rotated, 0 for no limit.
+ *    Defaults to 10 MiB.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.interval:</code><br>
+ *    The time in minutes after which the file is rotated, 0 for no time based
+ *    rotation. The file is rotated at multiples of the interval since the
+ *    epoch, so an interval of 1440 rotates at midnight UTC.
+ *    Defaults to 0.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.count:</code><br>
+ *    The number of rotated segments to keep, 0 to keep all.
+ *    Defaults to 10.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.compress:</code><br>
+ *    Whether to compress rotated segments with gzip. Defaults to true.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.buffersize:</code><br>
+ *    The size of the write buffer in bytes. Defaults to 256 KiB.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.flushlevel:</code><br>
+ *    Records of this level or above are written to the file immediately.
+ *    Defaults to WARNING.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.flushinterval:
+ * </code><br>
+ *    The time in seconds after which buffered records are written to the
+ *    file, 0 to write them only if the buffer is full or a record of the
+ *    flush level is written. Defaults to 5.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.formatter:</code><br>
+ *    Name of class extending java.util.logging.Formatter used for
+ *    formatting the records. Defaults to org.jcoderz.commons.LogFormatter.
+ *    <br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.encoding:</code><br>
+ *    The character encoding of the file. Defaults to the platform
+ *    encoding.<br><br>
+ *
+ * <code>org.jcoderz.commons.logging.RotatingFileHandler.level:</code><br>
+ *    The level of this handler. Defaults to ALL.
+ *
+ */
+public class RotatingFileHandler
+      extends Handler
+{
+   /** The default name of the log file. */
+   public static final String DEFAULT_FILE = "log" + File.separator
+         + "log.out";
+   /** The suffix of compressed segments. */
+   public static final String COMPRESSED_SUFFIX = ".gz";
+   /** The default size after which the file is rotated. */
+   public static final long DEFAULT_LIMIT = 10L * 1024 * 1024;
+   /** The default number of rotated segments to keep. */
+   public static final int DEFAULT_COUNT = 10;
+   /** The default size of the write buffer. */
+   public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+   /** The default time in seconds after which buffered records are written. */
+   public static final long DEFAULT_FLUSH_INTERVAL = 5;
+
+   private static final String CLASSNAME
+         = RotatingFileHandler.class.getName();
+
+   private static final String FILE_PROPERTY = CLASSNAME + "." + "file";
+   private static final String APPEND_PROPERTY = CLASSNAME + "." + "append";
+   private static final String LIMIT_PROPERTY = CLASSNAME + "." + "limit";
+   private static final String INTERVAL_PROPERTY
+         = CLASSNAME + "." + "interval";
+   private static final String COUNT_PROPERTY = CLASSNAME + "." + "count";
+   private static final String COMPRESS_PROPERTY
+         = CLASSNAME + "." + "compress";
+   private static final String BUFFER_SIZE_PROPERTY
+         = CLASSNAME + "." + "buffersize";
+   private static final String FLUSH_LEVEL_PROPERTY
+         = CLASSNAME + "." + "flushlevel";
+   private static final String FLUSH_INTERVAL_PROPERTY
+         = CLASSNAME + "." + "flushinterval";
+   private static final String FORMATTER_PROPERTY
+         = CLASSNAME + "." + "formatter";
+   private static final String ENCODING_PROPERTY
+         = CLASSNAME + "." + "encoding";
+   private static final String LEVEL_PROPERTY = CLASSNAME + "." + "level";
+
+   private static final String SEGMENT_DATE_PATTERN = "yyyyMMdd-HHmmss-SSS";
+   /** Matches the part of a segment name following the file name. */
+   static final Pattern SEGMENT_SUFFIX = Pattern.compile(
+         "\\.\\d{8}-\\d{6}-\\d{3}(-\\d+)?(\\.gz)?");
+   /** Time to wait for pending compressions on close. */
+   private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+   private static final int COMPRESS_BUFFER_SIZE = 64 * 1024;
+
+   private final File mFile;
+   private final long mLimit;
+   private final long mInterval;
+   private final int mCount;
+   private final boolean mCompress;
+   private final ByteBuffer mBuffer;
+   private final ScheduledExecutorService mArchiver;
+   private final SimpleDateFormat mSegmentFormat
+         = new SimpleDateFormat(SEGMENT_DATE_PATTERN);
+
+   private CharsetEncoder mEncoder;
+   private int mFlushLevel = Level.WARNING.intValue();
+   private FileChannel mChannel;
+   /** Number of bytes written to the channel of the current file. */
+   private long mWritten;
+   /** Number of records written to the current file. */
+   private int mRecords;
+   private boolean mHeadWritten;
+   private long mNextRotation;
+
+   /**
+    * Compresses a rotated segment and deletes the segments exceeding the
+    * configured count.
+    */
+   private final class Archiver
+         implements Runnable
+   {
+      private final File mSegment;
+
+      private Archiver (File segment)
+      {
+         mSegment = segment;
+      }
+
+      /** {@inheritDoc} */
+      public void run ()
+      {
+         if (mCompress)
+         {
+            compress(mSegment);
+         }
+         deleteOldSegments();
+      }
+   }
+
+   /**
+    * Creates a new instance of this and configures it from the properties of
+    * the LogManager.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the configuration is invalid or the
+    * file cannot be opened.
+    */
+   public RotatingFileHandler ()
+         throws SecurityException,
+         InstantiationException
+   {
+      this(new File(getProperty(FILE_PROPERTY, DEFAULT_FILE)),
+            Boolean.valueOf(getProperty(APPEND_PROPERTY, "true"))
+                  .booleanValue(),
+            getLong(LIMIT_PROPERTY, DEFAULT_LIMIT),
+            TimeUnit.MINUTES.toMillis(getLong(INTERVAL_PROPERTY, 0)),
+            (int) getLong(COUNT_PROPERTY, DEFAULT_COUNT),
+            Boolean.valueOf(getProperty(COMPRESS_PROPERTY, "true"))
+                  .booleanValue(),
+            (int) getLong(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE),
+            TimeUnit.SECONDS.toMillis(
+                  getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL)));
+      final LogManager manager = LogManager.getLogManager();
+      final String level = manager.getProperty(LEVEL_PROPERTY);
+      if (level != null && level.length() != 0)
+      {
+         setLevel(AsyncHandler.parseLevel(level, LEVEL_PROPERTY));
+      }
+      final String flushLevel = manager.getProperty(FLUSH_LEVEL_PROPERTY);
+      if (flushLevel != null && flushLevel.length() != 0)
+      {
+         setFlushLevel(
+               AsyncHandler.parseLevel(flushLevel, FLUSH_LEVEL_PROPERTY));
+      }
+      final String formatter = manager.getProperty(FORMATTER_PROPERTY);
+      if (formatter != null && formatter.length() != 0)
+      {
+         setFormatter(createFormatter(formatter));
+      }
+      final String encoding = manager.getProperty(ENCODING_PROPERTY);
+      if (encoding != null && encoding.length() != 0)
+      {
+         try
+         {
+            setEncoding(encoding.trim());
+         }
+         catch (UnsupportedEncodingException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid encoding configured with property "
+                  + ENCODING_PROPERTY + ": " + encoding);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+   }
+
+   /**
+    * Creates a new instance of this writing to the given file. The records
+    * are formatted by the {@link LogFormatter}, buffered records are written
+    * after {@link #DEFAULT_FLUSH_INTERVAL} seconds.
+    *
+    * @param file The file to write to.
+    * @param append Whether to append to an existing file, otherwise an
+    *       existing file is rotated.
+    * @param limit The size in bytes after which the file is rotated, 0 for
+    *       no limit.
+    * @param intervalMillis The time after which the file is rotated, 0 for
+    *       no time based rotation.
+    * @param count The number of rotated segments to keep, 0 to keep all.
+    * @param compress Whether to compress the rotated segments.
+    * @param bufferSize The size of the write buffer in bytes.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the file cannot be opened.
+    */
+   public RotatingFileHandler (
+         final File file,
+         final boolean append,
+         final long limit,
+         final long intervalMillis,
+         final int count,
+         final boolean compress,
+         final int bufferSize)
+         throws SecurityException,
+         InstantiationException
+   {
+      this(file, append, limit, intervalMillis, count, compress, bufferSize,
+            TimeUnit.SECONDS.toMillis(DEFAULT_FLUSH_INTERVAL));
+   }
+
+   /**
+    * Creates a new instance of this writing to the given file. The records
+    * are formatted by the {@link LogFormatter}.
+    *
+    * @param file The file to write to.
+    * @param append Whether to append to an existing file, otherwise an
+    *       existing file is rotated.
+    * @param limit The size in bytes after which the file is rotated, 0 for
+    *       no limit.
+    * @param intervalMillis The time after which the file is rotated, 0 for
+    *       no time based rotation.
+    * @param count The number of rotated segments to keep, 0 to keep all.
+    * @param compress Whether to compress the rotated segments.
+    * @param bufferSize The size of the write buffer in bytes.
+    * @param flushIntervalMillis The time after which buffered records are
+    *       written to the file, 0 for no periodic flush.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws InstantiationException If the file cannot be opened.
+    */
+   public RotatingFileHandler (
+         final File file,
+         final boolean append,
+         final long limit,
+         final long intervalMillis,
+         final int count,
+         final boolean compress,
+         final int bufferSize,
+         final long flushIntervalMillis)
+         throws SecurityException,
+         InstantiationException
+   {
+      super();
+      LogManager.getLogManager().checkAccess();
+      mFile = file.getAbsoluteFile();
+      mLimit = limit;
+      mInterval = intervalMillis;
+      mCount = count;
+      mCompress = compress;
+      mBuffer = ByteBuffer.allocateDirect(bufferSize);
+      mSegmentFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      mEncoder = createEncoder(null);
+      setFormatter(new LogFormatter());
+      mArchiver = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory()
+            {
+               public Thread newThread (final Runnable r)
+               {
+                  final Thread result = new Thread(r, "RotatingFileHandler-"
+                        + mFile.getName());
+                  result.setDaemon(true);
+                  return result;
+               }
+            });
+      try
+      {
+         mFile.getParentFile().mkdirs();
+         if (! append && mFile.length() > 0)
+         {
+            archive();
+         }
+         open();
+      }
+      catch (IOException ex)
+      {
+         mArchiver.shutdown();
+         final InstantiationException iex = new InstantiationException(
+               "Cannot open the log file " + mFile);
+         iex.initCause(ex);
+         throw iex;
+      }
+      if (flushIntervalMillis > 0)
+      {
+         // periodic tasks are cancelled when the archiver is shut down
+         mArchiver.scheduleWithFixedDelay(new Runnable()
+            {
+               /** {@inheritDoc} */
+               public void run ()
+               {
+                  flush();
+               }
+            }, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /** {@inheritDoc} */
+   public synchronized void publish (final LogRecord record)
+   {
+      if (mChannel != null && isLoggable(record))
+      {
+         try
+         {
+            if (mRecords > 0 && System.currentTimeMillis() >= mNextRotation)
+            {
+               rotateFile();
+            }
+            // the head must be formatted before the record, it might reset
+            // state of the formatter
+            if (! mHeadWritten)
+            {
+               write(getFormatter().getHead(this));
+               mHeadWritten = true;
+            }
+            write(getFormatter().format(record));
+            mRecords++;
+            if (record.getLevel().intValue() >= mFlushLevel)
+            {
+               drain();
+            }
+            if (mLimit > 0 && getSize() >= mLimit)
+            {
+               rotateFile();
+            }
+         }
+         catch (Exception ex)
+         {
+            reportError("Error writing a log record to " + mFile, ex,
+                  ErrorManager.WRITE_FAILURE);
+         }
+      }
+   }
+
+   /**
+    * Writes the buffered records to the file.
+    */
+   public synchronized void flush ()
+   {
+      if (mChannel != null)
+      {
+         try
+         {
+            drain();
+         }
+         catch (IOException ex)
+         {
+            reportError("Error flushing " + mFile, ex,
+                  ErrorManager.FLUSH_FAILURE);
+         }
+      }
+   }
+
+   /**
+    * Closes the file and waits until the pending segments are compressed.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    */
+   public synchronized void close ()
+         throws SecurityException
+   {
+      LogManager.getLogManager().checkAccess();
+      if (mChannel != null)
+      {
+         try
+         {
+            closeFile();
+         }
+         catch (IOException ex)
+         {
+            reportError("Error closing " + mFile, ex,
+                  ErrorManager.CLOSE_FAILURE);
+         }
+      }
+      mArchiver.shutdown();
+      try
+      {
+         mArchiver.awaitTermination(
+               CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         reportError("Interrupted while compressing log files", ex,
+               ErrorManager.CLOSE_FAILURE);
+      }
+   }
+
+   /**
+    * Rotates the file, even if neither the size limit nor the time limit
+    * is reached.
+    */
+   public synchronized void rotate ()
+   {
+      if (mChannel != null)
+      {
+         try
+         {
+            rotateFile();
+         }
+         catch (IOException ex)
+         {
+            reportError("Error rotating " + mFile, ex,
+                  ErrorManager.GENERIC_FAILURE);
+         }
+      }
+   }
+
+   /**
+    * Sets the character encoding of the file.
+    *
+    * @param encoding The name of the character encoding, null for the
+    *       platform encoding.
+    *
+    * @throws SecurityException If no permission to do the tasks.
+    * @throws UnsupportedEncodingException If the encoding is not supported.
+    */
+   public synchronized void setEncoding (final String encoding)
+         throws SecurityException,
+         UnsupportedEncodingException
+   {
+      super.setEncoding(encoding);
+      mEncoder = createEncoder(encoding);
+   }
+
+   /**
+    * Sets the level at or above which records are written to the file
+    * immediately.
+    *
+    * @param level The flush level.
+    */
+   public synchronized void setFlushLevel (final Level level)
+   {
+      mFlushLevel = level.intValue();
+   }
+
+   /**
+    * Returns the file this writes to.
+    *
+    * @return the log file.
+    */
+   public File getFile ()
+   {
+      return mFile;
+   }
+
+   /**
+    * Returns the rotated segments of the log file, the oldest first.
+    *
+    * @return the rotated segments, compressed or not.
+    */
+   public File[] getSegments ()
+   {
+      final String prefix = mFile.getName();
+      File[] rc = mFile.getParentFile().listFiles(new FileFilter()
+         {
+            public boolean accept (final File file)
+            {
+               final String name = file.getName();
+               return file.isFile() && name.startsWith(prefix)
+                     && SEGMENT_SUFFIX.matcher(
+                           name.substring(prefix.length())).matches();
+            }
+         });
+      if (rc == null)
+      {
+         rc = new File[0];
+      }
+      Arrays.sort(rc);
+      return rc;
+   }
+
+   private long getSize ()
+   {
+      return mWritten + mBuffer.position();
+   }
+
+   private void open ()
+         throws IOException
+   {
+      final FileOutputStream out = new FileOutputStream(mFile, true);
+      mChannel = out.getChannel();
+      mWritten = mChannel.size();
+      mRecords = 0;
+      mHeadWritten = false;
+      if (mInterval > 0)
+      {
+         final long now = System.currentTimeMillis();
+         mNextRotation = (now / mInterval + 1) * mInterval;
+      }
+      else
+      {
+         mNextRotation = Long.MAX_VALUE;
+      }
+   }
+
+   private void rotateFile ()
+         throws IOException
+   {
+      try
+      {
+         closeFile();
+         archive();
+      }
+      finally
+      {
+         open();
+      }
+   }
+
+   private void closeFile ()
+         throws IOException
+   {
+      try
+      {
+         if (mHeadWritten)
+         {
+            write(getFormatter().getTail(this));
+         }
+         drain();
+      }
+      finally
+      {
+         final FileChannel channel = mChannel;
+         mChannel = null;
+         channel.close();
+      }
+   }
+
+   /**
+    * Renames the closed file to a new segment and hands the segment over to
+    * the background thread.
+    */
+   private void archive ()
+   {
+      final String base = mFile.getPath() + "."
+            + mSegmentFormat.format(new Date());
+      File segment = new File(base);
+      for (int i = 1; segment.exists()
+            || new File(segment.getPath() + COMPRESSED_SUFFIX).exists(); i++)
+      {
+         segment = new File(base + "-" + i);
+      }
+      if (mFile.renameTo(segment))
+      {
+         mArchiver.execute(new Archiver(segment));
+      }
+      else
+      {
+         reportError("Cannot rename " + mFile + " to " + segment
+               + ", continue writing to " + mFile, null,
+               ErrorManager.GENERIC_FAILURE);
+      }
+   }
+
+   private void write (final String text)
+         throws IOException
+   {
+      final CharBuffer in = CharBuffer.wrap(text);
+      mEncoder.reset();
+      CoderResult result = mEncoder.encode(in, mBuffer, true);
+      while (! result.isUnderflow())
+      {
+         if (result.isOverflow())
+         {
+            drain();
+         }
+         else
+         {
+            result.throwException();
+         }
+         result = mEncoder.encode(in, mBuffer, true);
+      }
+      result = mEncoder.flush(mBuffer);
+      while (result.isOverflow())
+      {
+         drain();
+         result = mEncoder.flush(mBuffer);
+      }
+   }
+
+   private void drain ()
+         throws IOException
+   {
+      mBuffer.flip();
+      try
+      {
+         while (mBuffer.hasRemaining())
+         {
+            mWritten += mChannel.write(mBuffer);
+         }
+      }
+      finally
+      {
+         mBuffer.clear();
+      }
+   }
+
+   private void compress (final File segment)
+   {
+      final File target = new File(segment.getPath() + COMPRESSED_SUFFIX);
+      // hidden while incomplete, so it is not taken for a segment
+      final File tmp = new File(segment.getParentFile(),
+            "." + target.getName());
+      InputStream in = null;
+      OutputStream out = null;
+      boolean compressed = false;
+      try
+      {
+         in = new FileInputStream(segment);
+         out = new GZIPOutputStream(
+               new FileOutputStream(tmp), COMPRESS_BUFFER_SIZE);
+         IoUtil.copy(in, out);
+         out.close();
+         out = null;
+         compressed = true;
+      }
+      catch (IOException ex)
+      {
+         reportError("Cannot compress " + segment, ex,
+               ErrorManager.GENERIC_FAILURE);
+      }
+      finally
+      {
+         IoUtil.close(in);
+         IoUtil.close(out);
+      }
+      if (compressed && tmp.renameTo(target))
+      {
+         // keeps the order of the segments by modification time
+         target.setLastModified(segment.lastModified());
+         segment.delete();
+         deleteIndexes(segment);
+      }
+      else
+      {
+         tmp.delete();
+      }
+   }
+
+   private void deleteOldSegments ()
+   {
+      if (mCount > 0)
+      {
+         final File[] segments = getSegments();
+         for (int i = 0; i < segments.length - mCount; i++)
+         {
+            if (segments[i].delete())
+            {
+               deleteIndexes(segments[i]);
+            }
+            else
+            {
+               reportError("Cannot delete " + segments[i], null,
+                     ErrorManager.GENERIC_FAILURE);
+            }
+         }
+      }
+   }
+
+   /**
+    * Deletes the index files of a deleted segment, if any.
+    */
+   private static void deleteIndexes (final File segment)
+   {
+      new File(segment.getPath() + LogIndex.INDEX_SUFFIX).delete();
+      new File(segment.getPath() + TrackingIndex.INDEX_SUFFIX).delete();
+   }
+
+   private static CharsetEncoder createEncoder (String encoding)
+   {
+      final Charset charset = (encoding == null)
+            ? Charset.defaultCharset() : Charset.forName(encoding);
+      return charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+   }
+
+   private static Formatter createFormatter (final String formatter)
+         throws InstantiationException
+   {
+      final Formatter rc;
+      try
+      {
+         rc = AccessController.doPrivileged(
+               new PrivilegedExceptionAction<Formatter>()
+               {
+                  public Formatter run ()
+                        throws InstantiationException,
+                        IllegalAccessException,
+                        ClassNotFoundException
+                  {
+                     return (Formatter) Class.forName(formatter.trim())
+                           .newInstance();
+                  }
+               }
+         );
+      }
+      catch (PrivilegedActionException e)
+      {
+         final InstantiationException iex = new InstantiationException(
+               "Could not install the Formatter: " + formatter);
+         iex.initCause(e);
+         throw iex;
+      }
+      return rc;
+   }
+
+   private static long getLong (String property, long defaultValue)
+         throws InstantiationException
+   {
+      final String value = getProperty(property, null);
+      long rc = defaultValue;
+      if (value != null)
+      {
+         try
+         {
+            rc = Long.parseLong(value);
+         }
+         catch (NumberFormatException ex)
+         {
+            final InstantiationException iex = new InstantiationException(
+                  "Invalid number configured with property "
+                  + property + ": " + value);
+            iex.initCause(ex);
+            throw iex;
+         }
+      }
+      return rc;
+   }
+
+   private static String getProperty (String property, String defaultValue)
+   {
+      final String value = LogManager.getLogManager().getProperty(property);
+      final String rc;
+      if (value == null || value.trim().length() == 0)
+      {
+         rc = defaultValue;
+      }
+      else
+      {
+         rc = value.trim();
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,309 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.jcoderz.commons.util.IoUtil;
+
+
+/**
+ * Keeps the stack traces defined with a fingerprint in a log file, so that
+ * references to them can be resolved, see {@link StackTraceFingerprints}.
+ * <p>
+ * Each {@link LogReader} has its own instance, which keeps the traces read
+ * by it. A reference to a trace not read by it, because the reader does not
+ * start at the beginning of the file, is resolved by scanning the file for
+ * the definition. The readers of one file share this scan, see
+ * {@link #StackTraceDefinitions(StackTraceDefinitions)}, so the file is
+ * scanned at most once up to the last definition looked up.
+ * </p>
+ * <p>
+ * The writer of a log file keeps a bounded number of fingerprints, so the
+ * number of traces kept per file is bounded as well.
+ * </p>
+ *
+ */
+final class StackTraceDefinitions
+{
+   private final Map<String, List<StackTraceInfo>> mTraces
+         = new HashMap<String, List<StackTraceInfo>>();
+   /** The scan of the log file, null if not reading from a file. */
+   private final FileScan mFileScan;
+
+   /** The frame lines of the trace currently read with a fingerprint. */
+   private List<StackTraceInfo> mCurrentTrace = null;
+
+   /**
+    * Creates a new instance for a reader that does not read from a file,
+    * only the traces read before can be resolved.
+    */
+   StackTraceDefinitions ()
+   {
+      mFileScan = null;
+   }
+
+   /**
+    * Creates a new instance for a reader of the supplied file.
+    *
+    * @param file The log file read.
+    */
+   StackTraceDefinitions (final File file)
+   {
+      mFileScan = new FileScan(file);
+   }
+
+   /**
+    * Creates a new instance for another reader of the file of
+    * <code>other</code>, which shares the scan of the file.
+    *
+    * @param other The definitions of another reader of the same file.
+    */
+   StackTraceDefinitions (final StackTraceDefinitions other)
+   {
+      mFileScan = other.mFileScan;
+   }
+
+   /**
+    * Starts a trace defined with the supplied fingerprint, the following
+    * frame lines are added by {@link #addFrame(StackTraceInfo)}.
+    *
+    * @param fingerprint The fingerprint as written to the log file.
+    */
+   void startTrace (final String fingerprint)
+   {
+      mCurrentTrace = new ArrayList<StackTraceInfo>();
+      mTraces.put(fingerprint, mCurrentTrace);
+   }
+
+   /**
+    * Adds a stack trace line read to the trace started last, if any. A line
+    * other than a frame line ends the trace.
+    *
+    * @param info The stack trace line read.
+    */
+   void addFrame (final StackTraceInfo info)
+   {
+      if (mCurrentTrace != null)
+      {
+         if (info.isLocationLine() || info.isMoreLine())
+         {
+            mCurrentTrace.add(info);
+         }
+         else
+         {
+            mCurrentTrace = null;
+         }
+      }
+   }
+
+   /**
+    * Ends the trace started last, if any.
+    */
+   void endTrace ()
+   {
+      mCurrentTrace = null;
+   }
+
+   /**
+    * Gets the frame lines of the trace with the supplied fingerprint.
+    *
+    * @param fingerprint The fingerprint as written to the log file.
+    * @return the frame lines of the trace or null if it is not defined
+    *       before.
+    */
+   List<StackTraceInfo> get (final String fingerprint)
+   {
+      List<StackTraceInfo> rc = mTraces.get(fingerprint);
+      if (rc == null && mFileScan != null)
+      {
+         rc = mFileScan.find(fingerprint);
+         if (rc != null)
+         {
+            mTraces.put(fingerprint, rc);
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Scans a log file for the traces defined with a fingerprint. Only
+    * complete lines are scanned, so the file may still be written.
+    */
+   private static final class FileScan
+   {
+      private static final int BUFFER_SIZE = 64 * 1024;
+
+      private final File mFile;
+      private final Map<String, List<StackTraceInfo>> mTraces
+            = new HashMap<String, List<StackTraceInfo>>();
+      /** The number of bytes of the complete lines scanned. */
+      private long mScanned = 0;
+      private String mCurrentFingerprint = null;
+      private List<StackTraceInfo> mCurrentTrace = null;
+
+      private FileScan (final File file)
+      {
+         mFile = file;
+      }
+
+      /**
+       * Gets the frame lines of the trace with the supplied fingerprint,
+       * scanning the file further if it is not defined in the part scanned.
+       *
+       * @param fingerprint The fingerprint as written to the log file.
+       * @return the frame lines of the trace or null if the file does not
+       *       define it.
+       */
+      private synchronized List<StackTraceInfo> find (
+            final String fingerprint)
+      {
+         List<StackTraceInfo> rc = mTraces.get(fingerprint);
+         if (rc == null)
+         {
+            try
+            {
+               scan(fingerprint);
+            }
+            catch (IOException ex)
+            {
+               System.err.println("Cannot scan " + mFile
+                     + " for the stack trace #" + fingerprint + ": " + ex);
+            }
+            rc = mTraces.get(fingerprint);
+         }
+         return rc;
+      }
+
+      private void scan (final String fingerprint)
+            throws IOException
+      {
+         InputStream in = new FileInputStream(mFile);
+         try
+         {
+            if (LogReader.isCompressedLogFile(mFile))
+            {
+               in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            in = new BufferedInputStream(in, BUFFER_SIZE);
+            skip(in, mScanned);
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b = in.read();
+            while (b >= 0 && ! mTraces.containsKey(fingerprint))
+            {
+               if (b == '\n')
+               {
+                  mScanned += line.size() + 1;
+                  handleLine(line.toString());
+                  line.reset();
+               }
+               else
+               {
+                  line.write(b);
+               }
+               b = in.read();
+            }
+         }
+         finally
+         {
+            IoUtil.close(in);
+         }
+      }
+
+      private void handleLine (final String line)
+      {
+         final String text = (line.length() > 0 && line.charAt(0)
+               == LogLineFormat.STACKTRACE_MESSAGE.getTypeSpecifier())
+               ? LogLineParser.getStackTraceText(line) : null;
+         StackTraceInfo info = null;
+         if (text != null && mCurrentTrace != null)
+         {
+            try
+            {
+               info = StackTraceElementParser.parse(CharBuffer.wrap(text));
+            }
+            catch (ParseException ex)
+            {
+               // not a frame line, which ends the trace
+            }
+         }
+         if (info != null && (info.isLocationLine() || info.isMoreLine()))
+         {
+            mCurrentTrace.add(info);
+         }
+         else
+         {
+            if (mCurrentTrace != null)
+            {
+               mTraces.put(mCurrentFingerprint, mCurrentTrace);
+               mCurrentTrace = null;
+            }
+            if (text != null
+                  && text.startsWith(StackTraceFormat.FINGERPRINT_CLAUSE))
+            {
+               mCurrentFingerprint = text.substring(
+                     StackTraceFormat.FINGERPRINT_CLAUSE.length());
+               mCurrentTrace = new ArrayList<StackTraceInfo>();
+            }
+         }
+      }
+
+      private static void skip (final InputStream in, final long bytes)
+            throws IOException
+      {
+         long remaining = bytes;
+         while (remaining > 0)
+         {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0)
+            {
+               throw new IOException("Unexpected end of file, "
+                     + remaining + " bytes not skipped.");
+            }
+            remaining -= skipped;
+         }
+      }
+   }
+}
@@ -34,8 +34,6 @@ package org.jcoderz.commons.logging;
 
 import java.nio.CharBuffer;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This helper class is used to parse a CharBuffer containing data of one
@@ -47,35 +45,17 @@ import java.util.regex.Pattern;
  * <li><code>...</code> nn <code>more</code>
  * <li><code>exception message</code>
  * </ul>
+ * The line is scanned once from its start, the kind of line is decided by
+ * its first word. Whitespace is what <code>\s</code> matches within a
+ * regular expression.
  *
  */
 public final class StackTraceElementParser
 {
-   private static final Pattern FULL_LOCATION_PATTERN = Pattern.compile(
-         "^\\s*at\\s+[^\\s\\.]([^\\s\\(]+\\.)*[^\\s\\(]+\\(.*\\)\\s*$");
-   private static final Pattern LOCATION_PATTERN = Pattern.compile(
-         "^\\s*at\\s+");
-   private static final Pattern CLASS_PATTERN = Pattern.compile(
-         "([^\\s\\(]+\\.)*");
-   private static final Pattern METHOD_PATTERN = Pattern.compile(
-         "[^\\s\\(]+\\s*\\(");
-   private static final Pattern LINE_PATTERN = Pattern.compile(
-         "[^\\d\\)]+");
-
-   private static final Pattern FULL_CAUSE_PATTERN = Pattern.compile(
-         "^\\s*Caused by\\:\\s*.*$");
-   private static final Pattern CAUSE_PATTERN = Pattern.compile(
-         "^\\s*Caused by\\:\\s*");
-
-   private static final Pattern FULL_MORE_PATTERN = Pattern.compile(
-         "^\\s*\\.+\\s*\\d+\\s+more\\s*$");
-   private static final Pattern MORE_PATTERN = Pattern.compile(
-         "^\\s*\\.+\\s*");
-
-   private static final Pattern FULL_EXCEPTION_TEXT_PATTERN = Pattern.compile(
-         "^\\s*.*$");
-   private static final Pattern EXCEPTION_TEXT_PATTERN = Pattern.compile(
-         "^\\s*");
+   private static final String AT = "at";
+   private static final String CAUSED_BY = "Caused by:";
+   private static final String MORE = "more";
+   private static final int RADIX = 10;
 
    /**
     * Hide the default constructor.
@@ -99,183 +79,238 @@ public final class StackTraceElementParser
    public static StackTraceInfo parse (final CharBuffer buffer)
          throws ParseException
    {
+      final int start = skipWhitespace(buffer, 0);
       StackTraceInfo rc = null;
-      StackTraceInfo stInfo = null;
-
-      if ((stInfo = parseLocation(buffer)) != null)
-      {
-         rc = stInfo;
-      }
-      else if ((stInfo = parseCause(buffer)) != null)
+      if (startsWith(buffer, start, AT))
       {
-         rc = stInfo;
+         rc = parseLocation(buffer, start + AT.length());
       }
-      else if ((stInfo = parseMore(buffer)) != null)
+      else if (startsWith(buffer, start, CAUSED_BY))
       {
-         rc = stInfo;
+         rc = parseCause(buffer, start + CAUSED_BY.length());
       }
-      else if ((stInfo = parseMore(buffer)) != null)
+      else if (start < buffer.length() && buffer.charAt(start) == '.')
       {
-         rc = stInfo;
+         rc = parseMore(buffer, start);
       }
-      else if ((stInfo = parseExceptionText(buffer)) != null)
+      if (rc == null)
       {
-         rc = stInfo;
-      }
-      else
-      {
-         throw new ParseException(
-               "Buffer does not match any of the defined patterns: "
-               + buffer, buffer.position());
+         if (containsLineTerminator(buffer, start, buffer.length()))
+         {
+            throw new ParseException(
+                  "Buffer does not match any of the defined patterns: "
+                  + buffer, buffer.position());
+         }
+         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(),
+               slice(buffer, start, buffer.length()), false);
       }
       return rc;
    }
 
-   private static StackTraceInfo parseLocation (final CharBuffer buffer)
+   /**
+    * Parses an <code>at class.method(source)</code> line. The line number
+    * is taken from the digits following the last colon of the source.
+    *
+    * @param buffer The buffer with the line.
+    * @param afterAt The position following the leading 'at'.
+    *
+    * @return the StackTraceInfo of the location or null if the line is no
+    *       location line.
+    * @throws ParseException if the class or method name is missing.
+    */
+   private static StackTraceInfo parseLocation (
+         final CharBuffer buffer,
+         final int afterAt)
          throws ParseException
    {
-      StackTraceInfo rc = null;
-
-      Matcher matcher = FULL_LOCATION_PATTERN.matcher(buffer);
-
-      if (matcher.matches())
+      final int len = buffer.length();
+      final int nameStart = skipWhitespace(buffer, afterAt);
+      // the name ends at the opening bracket of the source
+      int open = nameStart;
+      while (open < len && ! isWhitespace(buffer.charAt(open))
+            && buffer.charAt(open) != '(')
+      {
+         open++;
+      }
+      int close = len;
+      while (close > 0 && isWhitespace(buffer.charAt(close - 1)))
       {
-         final int savePos = buffer.position();
+         close--;
+      }
+      close--;
 
-         matcher = LOCATION_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
+      StackTraceInfo rc = null;
+      if (nameStart > afterAt && open > nameStart + 1 && open < close
+            && buffer.charAt(nameStart) != '.'
+            && buffer.charAt(open) == '(' && buffer.charAt(close) == ')'
+            && ! containsLineTerminator(buffer, open + 1, close))
+      {
+         int dot = open - 1;
+         while (dot > nameStart && buffer.charAt(dot) != '.')
          {
-            throw new ParseException("Cannot parse correctly: " + buffer,
-                  buffer.position());
+            dot--;
          }
-         int pos = matcher.end();
-         buffer.position(buffer.position() + pos);
-         matcher = CLASS_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
+         final int methodStart = (dot > nameStart) ? (dot + 1) : nameStart;
+         if (methodStart == open)
          {
             throw new ParseException("Cannot parse correctly: " + buffer,
-                  buffer.position());
+                  buffer.position() + methodStart);
          }
-         pos = matcher.end();
-         final CharBuffer classname = buffer.asReadOnlyBuffer();
-         classname.limit(classname.position() + pos - 1);
+         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(),
+               slice(buffer, nameStart, Math.max(nameStart, methodStart - 1)),
+               slice(buffer, methodStart, open),
+               parseLineNumber(buffer, open + 1, close));
+      }
+      return rc;
+   }
 
-         buffer.position(buffer.position() + pos);
-         matcher = METHOD_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
-         {
-            throw new ParseException("Cannot parse correctly: " + buffer,
-                  buffer.position());
-         }
-         pos = matcher.end();
-         final CharBuffer methodname = buffer.asReadOnlyBuffer();
-         methodname.limit(methodname.position() + pos - 1);
-         int line = -1;
-         matcher = LINE_PATTERN.matcher(buffer);
-         // this time there need not to be a match
-         if (matcher.lookingAt())
+   /**
+    * Gets the line number from the source of a location, which is
+    * <code>file:line</code> if the line is known.
+    *
+    * @return the line number or -1 if not available.
+    */
+   private static int parseLineNumber (
+         final CharBuffer buffer,
+         final int start,
+         final int end)
+   {
+      int colon = end - 1;
+      while (colon >= start && buffer.charAt(colon) != ':')
+      {
+         colon--;
+      }
+      int rc = -1;
+      if (colon >= start && colon + 1 < end)
+      {
+         rc = 0;
+         for (int i = colon + 1; i < end && rc >= 0; i++)
          {
-            pos = matcher.end();
-            buffer.position(buffer.position() + pos);
-            boolean digit = false;
-            int i = 0;
-            while (Character.isDigit(buffer.charAt(i)))
-            {
-               ++i;
-               digit = true;
-            }
-            if (digit)
-            {
-               line = Integer.parseInt(buffer.subSequence(0, i).toString());
-            }
+            final int digit = Character.digit(buffer.charAt(i), RADIX);
+            rc = (digit < 0 || rc > (Integer.MAX_VALUE - digit) / RADIX)
+                  ? -1 : (rc * RADIX + digit);
          }
-         buffer.position(savePos);
-         rc = new StackTraceInfo(
-               buffer.asReadOnlyBuffer(), classname, methodname, line);
       }
       return rc;
    }
 
-   private static StackTraceInfo parseCause (final CharBuffer buffer)
-         throws ParseException
+   /**
+    * Parses a <code>Caused by: message</code> line.
+    *
+    * @return the StackTraceInfo of the cause or null if the message is
+    *       invalid.
+    */
+   private static StackTraceInfo parseCause (
+         final CharBuffer buffer,
+         final int afterCause)
    {
+      final int start = skipWhitespace(buffer, afterCause);
       StackTraceInfo rc = null;
-      Matcher matcher = FULL_CAUSE_PATTERN.matcher(buffer);
-      if (matcher.matches())
+      if (! containsLineTerminator(buffer, start, buffer.length()))
       {
-         final int savePos = buffer.position();
-         matcher = CAUSE_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
-         {
-            throw new ParseException("Cannot parse a caused-by correctly: "
-                  + buffer, buffer.position());
-         }
-         final int pos = matcher.end();
-         buffer.position(buffer.position() + pos);
-         final CharBuffer cause = buffer.asReadOnlyBuffer();
-         buffer.position(savePos);
-         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(), cause, true);
+         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(),
+               slice(buffer, start, buffer.length()), true);
       }
       return rc;
    }
 
-   private static StackTraceInfo parseExceptionText (final CharBuffer buffer)
-         throws ParseException
+   /**
+    * Parses a <code>...nnn more</code> line.
+    *
+    * @return the StackTraceInfo of the line or null if the line is no more
+    *       line.
+    */
+   private static StackTraceInfo parseMore (
+         final CharBuffer buffer,
+         final int start)
    {
+      final int len = buffer.length();
+      int pos = start;
+      while (pos < len && buffer.charAt(pos) == '.')
+      {
+         pos++;
+      }
+      pos = skipWhitespace(buffer, pos);
+      final int digits = pos;
+      while (pos < len
+            && buffer.charAt(pos) >= '0' && buffer.charAt(pos) <= '9')
+      {
+         pos++;
+      }
+      final int digitsEnd = pos;
+      pos = skipWhitespace(buffer, pos);
       StackTraceInfo rc = null;
-      Matcher matcher = FULL_EXCEPTION_TEXT_PATTERN.matcher(buffer);
-      if (matcher.matches())
+      if (digitsEnd > digits && pos > digitsEnd
+            && startsWith(buffer, pos, MORE)
+            && skipWhitespace(buffer, pos + MORE.length()) == len)
       {
-         final int savePos = buffer.position();
-         matcher = EXCEPTION_TEXT_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
-         {
-            throw new ParseException(
-                  "Cannot parse an exception text correctly: " + buffer,
-                  buffer.position());
-         }
-         final int pos = matcher.end();
-         buffer.position(buffer.position() + pos);
-         final CharBuffer exceptionText = buffer.asReadOnlyBuffer();
-         buffer.position(savePos);
-         rc = new StackTraceInfo(
-               buffer.asReadOnlyBuffer(), exceptionText, false);
+         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(), Integer.parseInt(
+               buffer.subSequence(digits, digitsEnd).toString()));
       }
       return rc;
    }
 
-   private static StackTraceInfo parseMore (final CharBuffer buffer)
-         throws ParseException
+   private static CharBuffer slice (
+         final CharBuffer buffer,
+         final int start,
+         final int end)
    {
-      StackTraceInfo rc = null;
-      Matcher matcher = FULL_MORE_PATTERN.matcher(buffer);
-      if (matcher.matches())
+      final CharBuffer rc = buffer.asReadOnlyBuffer();
+      rc.limit(buffer.position() + end);
+      rc.position(buffer.position() + start);
+      return rc;
+   }
+
+   private static boolean startsWith (
+         final CharBuffer buffer,
+         final int pos,
+         final String text)
+   {
+      final int len = text.length();
+      boolean rc = pos + len <= buffer.length();
+      for (int i = 0; i < len && rc; i++)
       {
-         final int savePos = buffer.position();
-         matcher = MORE_PATTERN.matcher(buffer);
-         if (! matcher.lookingAt())
-         {
-            throw new ParseException("Cannot parse a more-line correctly: "
-                  + buffer, buffer.position());
-         }
-         final int pos = matcher.end();
-         buffer.position(buffer.position() + pos);
-         boolean digit = false;
-         int i = 0;
-         while (Character.isDigit(buffer.charAt(i)))
-         {
-            ++i;
-            digit = true;
-         }
-         if (! digit)
-         {
-            throw new ParseException("Number of more lines is missing: "
-                  + buffer, buffer.position());
-         }
-         final int moreLines = Integer.parseInt(
-               buffer.subSequence(0, i).toString());
-         buffer.position(savePos);
-         rc = new StackTraceInfo(buffer.asReadOnlyBuffer(), moreLines);
+         rc = buffer.charAt(pos + i) == text.charAt(i);
+      }
+      return rc;
+   }
+
+   private static int skipWhitespace (final CharBuffer buffer, final int pos)
+   {
+      final int len = buffer.length();
+      int rc = pos;
+      while (rc < len && isWhitespace(buffer.charAt(rc)))
+      {
+         rc++;
+      }
+      return rc;
+   }
+
+   /**
+    * Checks for the whitespace chars of regular expressions, which are
+    * space, tab, line feed, vertical tab, form feed and carriage return.
+    */
+   private static boolean isWhitespace (final char c)
+   {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+   }
+
+   /**
+    * Checks for the line terminators of regular expressions, a message
+    * containing one of them cannot be kept in a single log line.
+    */
+   private static boolean containsLineTerminator (
+         final CharBuffer buffer,
+         final int start,
+         final int end)
+   {
+      boolean rc = false;
+      for (int i = start; i < end && ! rc; i++)
+      {
+         final char c = buffer.charAt(i);
+         rc = c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+               || c == '\u2029';
       }
       return rc;
    }
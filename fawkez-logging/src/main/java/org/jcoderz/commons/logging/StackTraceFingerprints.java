@@ -0,0 +1,195 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Keeps the fingerprints of the stack traces written to a log file, so that
+ * a stack trace is written in full only the first time and referenced by its
+ * fingerprint afterwards.
+ * <p>
+ * The fingerprint is a 64 bit FNV-1a hash of the written frames and the
+ * number of frames in common with the enclosing trace. It depends on the
+ * content only, so a reader can resolve a reference with any definition of
+ * the same fingerprint it has read before.
+ * <p>
+ * The set is bounded, if it is full stack traces not seen before are
+ * written in full without fingerprint, so a reader never needs to keep more
+ * definitions of a log file than the set holds. Instances of this are thread safe, but the records must
+ * be written in the order they are formatted, as the
+ * {@link java.util.logging.StreamHandler} does.
+ *
+ */
+public final class StackTraceFingerprints
+{
+   /** The default maximum number of fingerprints kept. */
+   public static final int DEFAULT_CAPACITY = 4096;
+
+   private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+   private static final int HEX_DIGITS = 16;
+
+   private final ConcurrentMap<Long, Boolean> mFingerprints
+         = new ConcurrentHashMap<Long, Boolean>();
+   private final int mCapacity;
+
+   /**
+    * Creates a new instance keeping up to {@link #DEFAULT_CAPACITY}
+    * fingerprints.
+    */
+   public StackTraceFingerprints ()
+   {
+      this(DEFAULT_CAPACITY);
+   }
+
+   /**
+    * Creates a new instance keeping up to <code>capacity</code>
+    * fingerprints.
+    *
+    * @param capacity The maximum number of fingerprints kept.
+    */
+   public StackTraceFingerprints (final int capacity)
+   {
+      mCapacity = capacity;
+   }
+
+   /**
+    * Computes the fingerprint of the frames of a stack trace that are
+    * written.
+    *
+    * @param trace The stack trace.
+    * @param frames The number of frames written, starting with the first.
+    * @param framesInCommon The number of frames in common with the enclosing
+    *       trace, which are not written.
+    * @return the fingerprint.
+    */
+   public static long fingerprint (
+         final StackTraceElement[] trace,
+         final int frames,
+         final int framesInCommon)
+   {
+      long rc = FNV_OFFSET_BASIS;
+      for (int i = 0; i < frames; i++)
+      {
+         final StackTraceElement frame = trace[i];
+         rc = hash(rc, frame.getClassName());
+         rc = hash(rc, frame.getMethodName());
+         rc = hash(rc, frame.getFileName());
+         rc = hash(rc, frame.getLineNumber());
+      }
+      return hash(rc, framesInCommon);
+   }
+
+   /**
+    * Formats a fingerprint as it is written to the log file.
+    *
+    * @param fingerprint The fingerprint.
+    * @return the fingerprint as 16 hexadecimal digits.
+    */
+   public static String toString (final long fingerprint)
+   {
+      final String hex = Long.toHexString(fingerprint);
+      final StringBuilder sb = new StringBuilder(HEX_DIGITS);
+      for (int i = hex.length(); i < HEX_DIGITS; i++)
+      {
+         sb.append('0');
+      }
+      return sb.append(hex).toString();
+   }
+
+   /**
+    * Checks whether a stack trace has been written with the supplied
+    * fingerprint before.
+    *
+    * @param fingerprint The fingerprint.
+    * @return true if the stack trace can be referenced by its fingerprint.
+    */
+   public boolean contains (final long fingerprint)
+   {
+      return mFingerprints.containsKey(new Long(fingerprint));
+   }
+
+   /**
+    * Registers the fingerprint of a stack trace about to be written.
+    *
+    * @param fingerprint The fingerprint.
+    * @return true if the stack trace must be written in full with its
+    *       fingerprint; false if it has been registered before or the set is
+    *       full.
+    */
+   public boolean add (final long fingerprint)
+   {
+      return mFingerprints.size() < mCapacity && mFingerprints.putIfAbsent(
+            new Long(fingerprint), Boolean.TRUE) == null;
+   }
+
+   /**
+    * Forgets all fingerprints, e.g. if a new log file is started.
+    */
+   public void clear ()
+   {
+      mFingerprints.clear();
+   }
+
+   private static long hash (final long hash, final String text)
+   {
+      long rc = hash;
+      if (text == null)
+      {
+         rc = hash(rc, -1);
+      }
+      else
+      {
+         final int length = text.length();
+         for (int i = 0; i < length; i++)
+         {
+            rc = (rc ^ text.charAt(i)) * FNV_PRIME;
+         }
+         rc = hash(rc, length);
+      }
+      return rc;
+   }
+
+   private static long hash (final long hash, final int value)
+   {
+      long rc = hash;
+      for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE)
+      {
+         rc = (rc ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+      }
+      return rc;
+   }
+}
@@ -37,6 +37,7 @@ import java.nio.CharBuffer;
 import java.text.Format;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.LogRecord;
 
@@ -45,6 +46,11 @@ import org.jcoderz.commons.Loggable;
 /**
  * This class is used for formatting the stack trace of a Throwable or for
  * parsing one line of stack trace.
+ * <p>
+ * Stack traces written with {@link StackTraceFingerprints} are resolved
+ * while parsing: the frame lines following a fingerprint line are kept in
+ * the {@link StackTraceDefinitions} of the reader of the log file, and a
+ * later reference line is replaced by them.
  *
  */
 public final class StackTraceFormat
@@ -63,8 +69,12 @@ public final class StackTraceFormat
    private static final String ADDITIONAL_LOGLINE_FORMAT_PATTERN
         = " {" + TEXT_INDEX + "}";
 
-   private static final String CAUSED_BY_CLAUSE = "Caused by: ";
-   private static final String AT_CLAUSE = "  at ";
+   static final String CAUSED_BY_CLAUSE = "Caused by: ";
+   static final String AT_CLAUSE = "  at ";
+   /** Precedes the frames of a stack trace written the first time. */
+   static final String FINGERPRINT_CLAUSE = "  trace #";
+   /** Replaces the frames of a stack trace written before. */
+   static final String REFERENCE_CLAUSE = "  see trace #";
 
    /**
     * Creates a new instance of this and initializes the message format.
@@ -158,8 +168,7 @@ public final class StackTraceFormat
       try
       {
          parse(sb);
-         entry.addToStackTrace(
-               StackTraceElementParser.parse(CharBuffer.wrap(getText())));
+         parseText(getText(), entry);
       }
       catch (ParseException pex)
       {
@@ -175,6 +184,81 @@ public final class StackTraceFormat
       }
    }
 
+   /**
+    * Handles the text of a stack trace line, i.e. the part following the
+    * thread id and tracking number sequence, and adds the stack trace lines
+    * it stands for to the supplied entry. Without
+    * {@linkplain LogFileEntry#getStackTraceDefinitions() definitions} of
+    * the entry, references are not resolved.
+    *
+    * @param text The text of the stack trace line.
+    * @param entry The LogFileEntry which gets the stack trace lines.
+    *
+    * @throws ParseException if an error occurs parsing the text.
+    */
+   void parseText (final String text, final LogFileEntry entry)
+         throws ParseException
+   {
+      final StackTraceDefinitions definitions
+            = entry.getStackTraceDefinitions();
+      if (text.startsWith(FINGERPRINT_CLAUSE))
+      {
+         if (definitions != null)
+         {
+            definitions.startTrace(
+                  text.substring(FINGERPRINT_CLAUSE.length()));
+         }
+      }
+      else if (text.startsWith(REFERENCE_CLAUSE))
+      {
+         if (definitions != null)
+         {
+            definitions.endTrace();
+         }
+         addReferencedTrace(entry, definitions,
+               text.substring(REFERENCE_CLAUSE.length()), text);
+      }
+      else
+      {
+         final StackTraceInfo info
+               = StackTraceElementParser.parse(CharBuffer.wrap(text));
+         if (definitions != null)
+         {
+            definitions.addFrame(info);
+         }
+         entry.addToStackTrace(info);
+      }
+   }
+
+   /**
+    * Adds the frame lines of a stack trace referenced by its fingerprint.
+    * If the trace is unknown, e.g. because the part of the file read does
+    * not contain its definition, the reference line itself is added.
+    */
+   private void addReferencedTrace (
+         final LogFileEntry entry,
+         final StackTraceDefinitions definitions,
+         final String fingerprint,
+         final String text)
+         throws ParseException
+   {
+      final List<StackTraceInfo> trace = (definitions == null)
+            ? null : definitions.get(fingerprint);
+      if (trace == null)
+      {
+         entry.addToStackTrace(
+               StackTraceElementParser.parse(CharBuffer.wrap(text)));
+      }
+      else
+      {
+         for (final Iterator<StackTraceInfo> i = trace.iterator();
+               i.hasNext(); )
+         {
+            entry.addToStackTrace(i.next());
+         }
+      }
+   }
+
    private void appendThrown (
          final StringBuffer sb,
          final LogRecord record,
@@ -152,6 +152,38 @@ public class StackTraceInfo
       return String.valueOf(mStackTraceLine);
    }
 
+   /**
+    * Two stack trace lines are equal if their text is equal, which
+    * determines all information parsed from it.
+    *
+    * @param obj The object to compare this with.
+    * @return true if <code>obj</code> is a StackTraceInfo with the same
+    *       text as this; false, else.
+    *
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   public boolean equals (final Object obj)
+   {
+      boolean rc = (obj == this);
+      if (! rc && obj != null && obj.getClass() == getClass())
+      {
+         rc = mStackTraceLine.equals(((StackTraceInfo) obj).mStackTraceLine);
+      }
+      return rc;
+   }
+
+   /**
+    * Returns the hash code of the text of this stack trace line.
+    *
+    * @return the hash code of this.
+    *
+    * @see java.lang.Object#hashCode()
+    */
+   public int hashCode ()
+   {
+      return mStackTraceLine.hashCode();
+   }
+
    /**
     * Gets flag whether the current line is a caused-by line.
     *
@@ -0,0 +1,366 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jcoderz.commons.BusinessImpact;
+import org.jcoderz.commons.Category;
+import org.jcoderz.commons.util.Assert;
+
+
+
+/**
+ * This printer formats the log messages into the xml format defined by
+ * <code>log-message.xsd</code>, the same format as the {@link XmlPrinter}.
+ * Instead of filling pooled jaxb objects and marshalling them, the elements
+ * are written straight to the PrintWriter through a
+ * {@link XMLStreamWriter}. This printer holds no per record state and needs
+ * no jaxb context; the output is not indented.
+ *
+ */
+public final class StaxXmlPrinter
+      extends LogPrinter
+{
+   /** The namespace of the log message schema. */
+   public static final String NAMESPACE
+         = "http://www.jcoderz.org/commons/logging";
+
+   /**
+    * The prefix bound to {@link #NAMESPACE}. The schema is
+    * <code>elementFormDefault="unqualified"</code>, so only the root
+    * element is qualified.
+    */
+   private static final String PREFIX = "log";
+
+   private final XMLOutputFactory mOutputFactory;
+
+   /**
+    * Creates a new instance of this.
+    *
+    * @throws InstantiationException if no StAX implementation is available.
+    */
+   public StaxXmlPrinter ()
+         throws InstantiationException
+   {
+      super();
+      try
+      {
+         mOutputFactory = XMLOutputFactory.newInstance();
+      }
+      catch (RuntimeException ex)
+      {
+         final InstantiationException iex
+               = new InstantiationException("Cannot initialize StAX resources");
+         iex.initCause(ex);
+         throw iex;
+      }
+   }
+
+   /**
+    * Prints the log data using the supplied print writer in xml format.
+    *
+    * @param printer The PrintWriter to use for printing the data.
+    * @param logRecord The log data to format into xml and print using
+    *       <code>printer</code>.
+    *
+    * @see LogPrinter#print(PrintWriter, LogItem)
+    */
+   public void print (
+         final PrintWriter printer,
+         final LogItem logRecord)
+   {
+      Assert.notNull(printer, "Printer");
+      Assert.notNull(logRecord, "entry");
+      Assert.notNull(logRecord.getType(), "logRecord.getType()");
+
+      if (! logRecord.isExceptionItem())
+      {
+         try
+         {
+            final XMLStreamWriter writer
+                  = mOutputFactory.createXMLStreamWriter(printer);
+            writer.writeStartDocument();
+            writer.setPrefix(PREFIX, NAMESPACE);
+            writer.writeStartElement(PREFIX, "LogRecord", NAMESPACE);
+            writer.writeNamespace(PREFIX, NAMESPACE);
+            writeItems(writer, logRecord);
+            // closes all open elements
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+         }
+         catch (XMLStreamException ex)
+         {
+            System.err.println(
+                  "Error formatting log file entry into xml: " + ex);
+            ex.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Writes the content of the element already opened for
+    * <code>logRecord</code> and of all its nested items. Each nested item
+    * opens a Cause element and within that a NestedRecord or Exception
+    * element, which are closed by the end of the document.
+    */
+   private void writeItems (
+         final XMLStreamWriter writer,
+         final LogItem logRecord)
+         throws XMLStreamException
+   {
+      LogItem entry = logRecord;
+      while (entry != null)
+      {
+         if (entry.isExceptionItem())
+         {
+            writeException(writer, entry);
+         }
+         else
+         {
+            writeLogRecord(writer, entry);
+         }
+         entry = entry.getNestedItem();
+         if (entry != null)
+         {
+            writer.writeStartElement("Cause");
+            writer.writeStartElement(
+                  entry.isExceptionItem() ? "Exception" : "NestedRecord");
+         }
+      }
+   }
+
+   private void writeLogRecord (
+         final XMLStreamWriter writer,
+         final LogItem entry)
+         throws XMLStreamException
+   {
+      writeElement(writer, "Timestamp", getTimestamp(entry));
+      writeElement(writer, "NodeId", entry.getNodeId());
+      writeElement(writer, "InstanceId", entry.getInstanceId());
+      writeElement(writer, "SymbolId", entry.getSymbolId());
+      writeElement(writer, "Symbol", entry.getSymbol());
+      writeElement(writer, "Level", entry.getLoggerLevel());
+      writeElement(writer, "Thread", String.valueOf(entry.getThreadId()));
+      writeElement(writer, "ThreadName", entry.getThreadName());
+      writeElement(writer, "TrackingNumber", entry.getTrackingNumber());
+      // nested items read from a log file carry no impact and category
+      writeElement(writer, "BusinessImpact",
+            (entry.getBusinessImpact() == null)
+               ? BusinessImpact.UNDEFINED : entry.getBusinessImpact());
+      writeElement(writer, "Category", (entry.getCategory() == null)
+            ? Category.UNDEFINED : entry.getCategory());
+
+      writer.writeStartElement("Source");
+      writeElement(writer, "SourceClass", entry.getSourceClass());
+      writeElement(writer, "SourceMethod", entry.getSourceMethod());
+      writer.writeEndElement();
+
+      writeElement(writer, "Message", entry.getMessage());
+      if (entry.getSolution() != null)
+      {
+         writeElement(writer, "Solution", entry.getSolution());
+      }
+
+      for (final Iterator<String> iter
+            = entry.getParameterNames().iterator(); iter.hasNext(); )
+      {
+         final String parameterName = iter.next();
+         writer.writeStartElement("Parameter");
+         writeElement(writer, "Name", parameterName);
+         final List<?> values = entry.getParameterValues(parameterName);
+         if (values == null || values.isEmpty())
+         {
+            // the schema requires at least one value
+            writeElement(writer, "Value", "");
+         }
+         else
+         {
+            for (final Iterator<?> valueIter = values.iterator();
+                  valueIter.hasNext(); )
+            {
+               writeElement(writer, "Value", valueIter.next());
+            }
+         }
+         writer.writeEndElement();
+      }
+      writeStackTrace(writer, entry);
+   }
+
+   private void writeException (
+         final XMLStreamWriter writer,
+         final LogItem entry)
+         throws XMLStreamException
+   {
+      writeElement(writer, "Message", entry.getMessage());
+      writeStackTrace(writer, entry);
+   }
+
+   /**
+    * Writes the Stacktrace element according to the display options. The
+    * element is only started with the first frame, since the schema requires
+    * at least one.
+    */
+   private void writeStackTrace (
+         final XMLStreamWriter writer,
+         final LogItem entry)
+         throws XMLStreamException
+   {
+      if (displayStackTrace(entry)
+            && writeFrames(writer, entry, entry, false))
+      {
+         writer.writeEndElement();
+      }
+   }
+
+   /**
+    * Writes the frames of the stack trace of <code>stackEntry</code>.
+    *
+    * @param writer The writer to write to.
+    * @param entry The entry whose Stacktrace element is written.
+    * @param stackEntry The entry to take the stack trace lines from, this is
+    *       <code>entry</code> or a parent when a '...nnn more' line must be
+    *       completed.
+    * @param started Whether the Stacktrace element has been started already.
+    *
+    * @return true if the Stacktrace element has been started.
+    */
+   private boolean writeFrames (
+         final XMLStreamWriter writer,
+         final LogItem entry,
+         final LogItem stackEntry,
+         final boolean started)
+         throws XMLStreamException
+   {
+      boolean rc = started;
+      for (final Iterator<StackTraceInfo> iter
+            = stackEntry.getStackTraceLines().iterator(); iter.hasNext(); )
+      {
+         final StackTraceInfo info = iter.next();
+
+         // not interested in lines, which contain the exception message,
+         // this information is stored in other elements already.
+         if (info.isLocationLine())
+         {
+            rc = startStackTrace(writer, rc);
+            writer.writeStartElement("StacktraceElement");
+            writeElement(writer, "SourceClass", info.getClassName());
+            writeElement(writer, "SourceMethod", info.getMethodName());
+            if (info.getLine() != 0)
+            {
+               writeElement(
+                     writer, "SourceLine", String.valueOf(info.getLine()));
+            }
+            writer.writeEndElement();
+         }
+         else if (info.isMoreLine())
+         {
+            Assert.assertTrue(info + " must be last line of a StackTrace,",
+                  ! iter.hasNext());
+            final LogItem moreEntry
+                  = getEntryForMoreStackTrace(stackEntry, info);
+            if (moreEntry == null)
+            {
+               throw new IllegalStateException("Did not find correct stack "
+                     + "trace to display for " + entry);
+            }
+            else if (moreEntry == stackEntry)
+            {
+               // the stack trace has been displayed already, display the
+               // more line again.
+               rc = startStackTrace(writer, rc);
+               writer.writeStartElement("StacktraceElement");
+               writeElement(writer, "SourceClass", info.toString());
+               writeElement(writer, "SourceMethod", "");
+               writer.writeEndElement();
+            }
+            else
+            {
+               rc = writeFrames(writer, entry, moreEntry, rc);
+            }
+         }
+      }
+      return rc;
+   }
+
+   /**
+    * Gets the timestamp of the entry. Nested items might not carry an own
+    * timestamp, these get the one of the nearest parent.
+    */
+   private static Object getTimestamp (final LogItem entry)
+   {
+      LogItem item = entry;
+      while (item.getTimestamp() == null && item.getParentItem() != null)
+      {
+         item = item.getParentItem();
+      }
+      return item.getTimestamp();
+   }
+
+   private static boolean startStackTrace (
+         final XMLStreamWriter writer,
+         final boolean started)
+         throws XMLStreamException
+   {
+      if (! started)
+      {
+         writer.writeStartElement("Stacktrace");
+      }
+      return true;
+   }
+
+   /**
+    * Writes a simple element. A <code>null</code> value is written as empty
+    * element, since the schema requires all elements written this way.
+    */
+   private static void writeElement (
+         final XMLStreamWriter writer,
+         final String name,
+         final Object value)
+         throws XMLStreamException
+   {
+      writer.writeStartElement(name);
+      if (value != null)
+      {
+         writer.writeCharacters(value.toString());
+      }
+      writer.writeEndElement();
+   }
+}
@@ -242,7 +242,7 @@ public class TraceLineFormat
       return getLogSource((String) getParameter(LOGSOURCE_INDEX));
    }
 
-   private static final String formatMessage (String pattern, Object[] params)
+   static final String formatMessage (String pattern, Object[] params)
    {
       String result;
       if (params != null && params.length != 0)
@@ -0,0 +1,574 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * A persistent inverted index of the tracking numbers of a log file. It maps
+ * each tracking number to the offsets of the log entries containing it. The
+ * tracking numbers of nested entries are mapped to the offset of the entry
+ * they are nested in.
+ * <p>
+ * The index is kept in a file next to the log file, named like the log file
+ * with the suffix {@link #INDEX_SUFFIX}. Log files compressed with gzip, like
+ * the segments rotated by the {@link RotatingFileHandler}, are indexed by
+ * their decompressed content, which is not expected to change. The index
+ * file is locked while it is updated or searched, so several processes can
+ * share it. The index starts with a header:
+ * <pre>
+ *   int   magic number
+ *   int   version
+ *   long  position in the log file up to which the index is complete, the
+ *         size of a compressed log file
+ *   int   flag whether the last indexed line was a nested line
+ *   long  offset of the last entry indexed
+ *   long  CRC32 of the first line of the log file
+ *   int   number of sorted postings
+ *   int   number of postings
+ * </pre>
+ * followed by postings of an int tracking number and a long entry offset.
+ * Postings beyond the number in the header have been written by an update
+ * which did not complete, they are dropped by the next update.
+ * The first postings are sorted by tracking number and offset, postings
+ * added by later updates are appended unsorted in the order of the log file.
+ * When the unsorted part becomes too large, all postings are sorted again.
+ * </p>
+ * Note: This is not thread safe.
+ *
+ */
+final class TrackingIndex
+{
+   /** The suffix appended to the log file name for the index file. */
+   static final String INDEX_SUFFIX = ".tix";
+
+   /** "FWTX" */
+   private static final int MAGIC = 0x46575458;
+   private static final int VERSION = 2;
+   private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + 8 + 4 + 4;
+   private static final int RESUME_POSITION_OFFSET = 8;
+   private static final int STATE_SIZE = HEADER_SIZE - RESUME_POSITION_OFFSET;
+   private static final int SORTED_POSTINGS_OFFSET = HEADER_SIZE - 8;
+   private static final int POSTING_SIZE = 4 + 8;
+   private static final int POSTING_BUFFER_SIZE = 1024 * POSTING_SIZE;
+   private static final int MIN_UNSORTED_POSTINGS = 4096;
+   private static final int UNSORTED_FRACTION = 4;
+   private static final int INT_BITS = 32;
+   private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+   private final File mLogFile;
+   private final File mIndexFile;
+
+   /**
+    * Creates a new index for the supplied log file. The index file is not
+    * read or written before {@link #update()} is called.
+    *
+    * @param logFile The log file to index.
+    */
+   TrackingIndex (final File logFile)
+   {
+      mLogFile = logFile;
+      mIndexFile = new File(logFile.getPath() + INDEX_SUFFIX);
+   }
+
+   /**
+    * Gets the index file.
+    *
+    * @return the index file.
+    */
+   File getIndexFile ()
+   {
+      return mIndexFile;
+   }
+
+   /**
+    * Brings the index up to date with the log file. The tracking numbers of
+    * entries appended to the log file since the last update are added, the
+    * index is rebuilt if the log file has been truncated or replaced. A
+    * compressed log file is indexed as a whole if it has been replaced.
+    *
+    * @throws IOException if reading the log file or writing the index fails.
+    */
+   void update ()
+         throws IOException
+   {
+      final boolean compressed = LogReader.isCompressedLogFile(mLogFile);
+      final RandomAccessFile log = new RandomAccessFile(mLogFile, "r");
+      try
+      {
+         final RandomAccessFile index = new RandomAccessFile(mIndexFile, "rw");
+         try
+         {
+            final FileLock lock = index.getChannel().lock();
+            try
+            {
+               update(log.getChannel(), index, compressed);
+            }
+            finally
+            {
+               lock.release();
+            }
+         }
+         finally
+         {
+            index.close();
+         }
+      }
+      finally
+      {
+         log.close();
+      }
+   }
+
+   /**
+    * Finds the entries containing the supplied tracking number. The index
+    * must have been updated before.
+    *
+    * @param trackingNumber The tracking number to search for.
+    * @return the offsets of the entries containing the tracking number in
+    * ascending order, might be empty.
+    * @throws IOException if reading the index fails.
+    */
+   long[] find (final int trackingNumber)
+         throws IOException
+   {
+      final long[] rc;
+      final RandomAccessFile index = new RandomAccessFile(mIndexFile, "r");
+      try
+      {
+         final FileLock lock = index.getChannel().lock(0, Long.MAX_VALUE, true);
+         try
+         {
+            rc = find(index, trackingNumber);
+         }
+         finally
+         {
+            lock.release();
+         }
+      }
+      finally
+      {
+         index.close();
+      }
+      return rc;
+   }
+
+   /**
+    * Finds the entries containing the supplied tracking number by scanning
+    * the complete log file, without reading or writing the index file. This
+    * allows searching log files whose index cannot be written, e.g. in a
+    * read-only directory.
+    *
+    * @param logFile The log file to scan.
+    * @param trackingNumber The tracking number to search for.
+    * @return the offsets of the entries containing the tracking number in
+    * ascending order, might be empty.
+    * @throws IOException if reading the log file fails.
+    */
+   static long[] scan (final File logFile, final int trackingNumber)
+         throws IOException
+   {
+      final SearchScanner scanner = new SearchScanner(trackingNumber);
+      final RandomAccessFile log = new RandomAccessFile(logFile, "r");
+      try
+      {
+         scan(log.getChannel(), log.length(), scanner,
+               LogReader.isCompressedLogFile(logFile));
+      }
+      finally
+      {
+         log.close();
+      }
+      return scanner.getOffsets();
+   }
+
+   private static void scan (
+         final FileChannel log,
+         final long logSize,
+         final LogFileScanner scanner,
+         final boolean compressed)
+         throws IOException
+   {
+      if (compressed)
+      {
+         // the positions scanned are those of the decompressed content
+         log.position(0);
+         scanner.scan(new GZIPInputStream(
+               Channels.newInputStream(log), GZIP_BUFFER_SIZE));
+      }
+      else
+      {
+         scanner.scan(log, logSize);
+      }
+   }
+
+   private static long[] find (
+         final RandomAccessFile index,
+         final int trackingNumber)
+         throws IOException
+   {
+      index.seek(SORTED_POSTINGS_OFFSET);
+      final int sorted = index.readInt();
+      final int postings = index.readInt();
+      final ByteBuffer buffer = index.getChannel().map(
+            FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+            (long) postings * POSTING_SIZE);
+      long[] rc = new long[0];
+      int found = 0;
+      // the sorted postings precede the unsorted ones also in log order
+      int i = lowerBound(buffer, sorted, trackingNumber);
+      while (i < postings)
+      {
+         if (buffer.getInt(i * POSTING_SIZE) == trackingNumber)
+         {
+            if (found == rc.length)
+            {
+               rc = copyOf(rc, Math.max(found * 2, 1));
+            }
+            rc[found++] = buffer.getLong(i * POSTING_SIZE + 4);
+         }
+         else if (i < sorted)
+         {
+            // end of the matching sorted postings
+            i = sorted - 1;
+         }
+         i++;
+      }
+      return copyOf(rc, found);
+   }
+
+   private static long[] copyOf (final long[] array, final int length)
+   {
+      final long[] rc = new long[length];
+      System.arraycopy(array, 0, rc, 0, Math.min(array.length, length));
+      return rc;
+   }
+
+   private static int lowerBound (
+         final ByteBuffer buffer,
+         final int sorted,
+         final int trackingNumber)
+   {
+      int low = 0;
+      int high = sorted;
+      while (low < high)
+      {
+         final int middle = (low + high) >>> 1;
+         if (buffer.getInt(middle * POSTING_SIZE) < trackingNumber)
+         {
+            low = middle + 1;
+         }
+         else
+         {
+            high = middle;
+         }
+      }
+      return low;
+   }
+
+   /**
+    * Updates the index. The postings are appended first, the header is
+    * written last, so the number of postings and the position in the log
+    * file only change together.
+    */
+   private void update (
+         final FileChannel log,
+         final RandomAccessFile index,
+         final boolean compressed)
+         throws IOException
+   {
+      final long logSize = log.size();
+      long position = 0;
+      boolean afterNestedLine = false;
+      long entryStart = 0;
+      int sorted = 0;
+      int postings = 0;
+      if (index.length() >= HEADER_SIZE)
+      {
+         index.seek(0);
+         final int magic = index.readInt();
+         final int version = index.readInt();
+         final long resumePosition = index.readLong();
+         final boolean nested = index.readInt() != 0;
+         final long entry = index.readLong();
+         final long fingerprint = index.readLong();
+         final int sortedPostings = index.readInt();
+         final int numberOfPostings = index.readInt();
+         if (magic == MAGIC && version == VERSION
+               && resumePosition <= logSize
+               && sortedPostings >= 0 && sortedPostings <= numberOfPostings
+               && index.length()
+                  >= HEADER_SIZE + (long) numberOfPostings * POSTING_SIZE
+               && (! compressed || resumePosition == logSize)
+               && (resumePosition == 0
+                  || fingerprint == LogFileScanner.getFirstLineChecksum(log)))
+         {
+            position = resumePosition;
+            afterNestedLine = nested;
+            entryStart = entry;
+            sorted = sortedPostings;
+            postings = numberOfPostings;
+         }
+      }
+      if (position == 0)
+      {
+         // new, outdated or invalid index
+         index.setLength(0);
+         index.write(new byte[HEADER_SIZE]);
+         index.seek(0);
+         index.writeInt(MAGIC);
+         index.writeInt(VERSION);
+         sorted = 0;
+         postings = 0;
+      }
+      // drop postings of a previous update which did not complete
+      index.setLength(HEADER_SIZE + (long) postings * POSTING_SIZE);
+      if (position < logSize)
+      {
+         index.seek(index.length());
+         final Scanner scanner
+               = new Scanner(index, position, afterNestedLine, entryStart);
+         scan(log, logSize, scanner, compressed);
+         scanner.flushPostings();
+         postings = (int) ((index.length() - HEADER_SIZE) / POSTING_SIZE);
+         if (postings - sorted > Math.max(MIN_UNSORTED_POSTINGS,
+               sorted / UNSORTED_FRACTION))
+         {
+            // the postings are rewritten in place, a sort which does not
+            // complete must cause the index to be rebuilt
+            writeState(index, 0, false, 0, 0, 0, 0);
+            sort(index, postings);
+            sorted = postings;
+         }
+         writeState(index,
+               compressed ? logSize : scanner.getResumePosition(),
+               scanner.isAfterNestedLine(), scanner.getEntryStart(),
+               LogFileScanner.getFirstLineChecksum(log), sorted, postings);
+      }
+   }
+
+   /**
+    * Writes the header fields following the version with a single write.
+    */
+   private static void writeState (
+         final RandomAccessFile index,
+         final long resumePosition,
+         final boolean afterNestedLine,
+         final long entryStart,
+         final long fingerprint,
+         final int sorted,
+         final int postings)
+         throws IOException
+   {
+      final ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+      state.putLong(resumePosition);
+      state.putInt(afterNestedLine ? 1 : 0);
+      state.putLong(entryStart);
+      state.putLong(fingerprint);
+      state.putInt(sorted);
+      state.putInt(postings);
+      state.flip();
+      index.getChannel().write(state, RESUME_POSITION_OFFSET);
+   }
+
+   /**
+    * Sorts all postings by tracking number. Postings are in log file order
+    * within the sorted and the unsorted part, so sorting by tracking number
+    * and posting number keeps the offsets of a tracking number ascending.
+    */
+   private void sort (final RandomAccessFile index, final int postings)
+         throws IOException
+   {
+      final ByteBuffer buffer = ByteBuffer.allocate(postings * POSTING_SIZE);
+      index.getChannel().read(buffer, HEADER_SIZE);
+      final long[] keys = new long[postings];
+      for (int i = 0; i < postings; i++)
+      {
+         keys[i] = ((long) buffer.getInt(i * POSTING_SIZE) << INT_BITS) | i;
+      }
+      Arrays.sort(keys);
+      final ByteBuffer sorted = ByteBuffer.allocate(postings * POSTING_SIZE);
+      for (int i = 0; i < postings; i++)
+      {
+         final int posting = (int) keys[i];
+         sorted.putInt((int) (keys[i] >> INT_BITS));
+         sorted.putLong(buffer.getLong(posting * POSTING_SIZE + 4));
+      }
+      sorted.flip();
+      index.getChannel().write(sorted, HEADER_SIZE);
+   }
+
+   /**
+    * Handles the tracking number of each entry and nested entry.
+    */
+   private abstract static class PostingScanner
+         extends LogFileScanner
+   {
+      private int mLastTrackingNumber = 0;
+      private long mLastEntryStart = -1;
+
+      PostingScanner (
+            final long position,
+            final boolean afterNestedLine,
+            final long entryStart)
+      {
+         super(position, afterNestedLine, entryStart, true);
+      }
+
+      /**
+       * Handles a tracking number found within an entry. Is called once
+       * for repeated lines of an entry with the same tracking number.
+       *
+       * @param trackingNumber The tracking number.
+       * @param entryStart The offset of the entry.
+       * @throws IOException if handling the posting fails.
+       */
+      abstract void addPosting (final int trackingNumber, final long entryStart)
+            throws IOException;
+
+      /** {@inheritDoc} */
+      final void handleLine (
+            final StringBuffer line,
+            final long lineStart,
+            final long entryStart)
+            throws IOException
+      {
+         final LogFileEntry entry = parse(line);
+         if (entry != null && entry.getTrackingNumber() != null)
+         {
+            try
+            {
+               final int trackingNumber
+                     = LogIndex.fromTrackingNumber(entry.getTrackingNumber());
+               if (trackingNumber != mLastTrackingNumber
+                     || entryStart != mLastEntryStart)
+               {
+                  addPosting(trackingNumber, entryStart);
+                  mLastTrackingNumber = trackingNumber;
+                  mLastEntryStart = entryStart;
+               }
+            }
+            catch (NumberFormatException ex)
+            {
+               System.err.println("Cannot index line at " + lineStart + ": "
+                     + ex);
+            }
+         }
+      }
+   }
+
+   /**
+    * Appends a posting for the tracking number of each entry and nested entry.
+    */
+   private static final class Scanner
+         extends PostingScanner
+   {
+      private final RandomAccessFile mIndex;
+      private final ByteBuffer mPostingBuffer
+            = ByteBuffer.allocate(POSTING_BUFFER_SIZE);
+
+      private Scanner (
+            final RandomAccessFile index,
+            final long position,
+            final boolean afterNestedLine,
+            final long entryStart)
+      {
+         super(position, afterNestedLine, entryStart);
+         mIndex = index;
+      }
+
+      void flushPostings ()
+            throws IOException
+      {
+         mIndex.write(mPostingBuffer.array(), 0, mPostingBuffer.position());
+         mPostingBuffer.clear();
+      }
+
+      /** {@inheritDoc} */
+      void addPosting (final int trackingNumber, final long entryStart)
+            throws IOException
+      {
+         if (! mPostingBuffer.hasRemaining())
+         {
+            flushPostings();
+         }
+         mPostingBuffer.putInt(trackingNumber);
+         mPostingBuffer.putLong(entryStart);
+      }
+   }
+
+   /**
+    * Collects the offsets of the entries containing one tracking number.
+    */
+   private static final class SearchScanner
+         extends PostingScanner
+   {
+      private final int mTrackingNumber;
+      private long[] mOffsets = new long[0];
+      private int mFound = 0;
+
+      private SearchScanner (final int trackingNumber)
+      {
+         super(0, false, 0);
+         mTrackingNumber = trackingNumber;
+      }
+
+      long[] getOffsets ()
+      {
+         return copyOf(mOffsets, mFound);
+      }
+
+      /** {@inheritDoc} */
+      void addPosting (final int trackingNumber, final long entryStart)
+      {
+         if (trackingNumber == mTrackingNumber
+               && (mFound == 0 || mOffsets[mFound - 1] != entryStart))
+         {
+            if (mFound == mOffsets.length)
+            {
+               mOffsets = copyOf(mOffsets, Math.max(mFound * 2, 1));
+            }
+            mOffsets[mFound++] = entryStart;
+         }
+      }
+   }
+}
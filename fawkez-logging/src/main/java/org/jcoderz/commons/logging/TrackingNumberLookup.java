@@ -0,0 +1,223 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Finds the log entries containing a tracking number within a log file and
+ * all its rotated files.
+ * <p>
+ * The rotated files of a log file, e.g. <code>log.out</code>, are the files
+ * in the same directory named like the segments of the
+ * {@link RotatingFileHandler}, e.g. <code>log.out.20061231-235959-999.gz</code>,
+ * or like the files of the <code>java.util.logging.FileHandler</code>, e.g.
+ * <code>log.out.1</code> or the compressed <code>log.out.1.gz</code>. For
+ * each file a {@link TrackingIndex} is built the first time it is searched
+ * and updated incrementally by each later search. A compressed file is only
+ * decompressed to build its index and to read the entries found. If the
+ * index of a file cannot be written, e.g. in a read-only log directory, the
+ * file is scanned completely without an index.
+ * Entries are found for their own tracking number as well as for the tracking
+ * number of any nested entry, so searching for the tracking number of a
+ * cause finds the entries logging it as nested entry.
+ * </p>
+ *
+ */
+public final class TrackingNumberLookup
+{
+   /** Matches the numeric suffix of the files rotated by the FileHandler. */
+   private static final Pattern NUMBER_SUFFIX
+         = Pattern.compile("\\.\\d+(\\.gz)?");
+
+   private final File mDirectory;
+   private final String mLogFileName;
+
+   /**
+    * Creates a new lookup for the supplied log file and its rotated files.
+    *
+    * @param directory The directory containing the log files.
+    * @param logFileName The name of the current log file.
+    */
+   public TrackingNumberLookup (final File directory, final String logFileName)
+   {
+      mDirectory = directory;
+      mLogFileName = logFileName;
+   }
+
+   /**
+    * Gets the log file and its rotated files ordered by their last
+    * modification, the oldest first.
+    *
+    * @return list of log files, might be empty.
+    */
+   public List<File> getLogFiles ()
+   {
+      final File[] files = mDirectory.listFiles(new FileFilter()
+         {
+            public boolean accept (final File file)
+            {
+               final String name = file.getName();
+               return file.isFile() && name.startsWith(mLogFileName)
+                  && isRotationSuffix(
+                        name.substring(mLogFileName.length()));
+            }
+         });
+      final List<File> rc = new ArrayList<File>();
+      if (files != null)
+      {
+         rc.addAll(Arrays.asList(files));
+         Collections.sort(rc, new Comparator<File>()
+            {
+               public int compare (final File a, final File b)
+               {
+                  final long diff = a.lastModified() - b.lastModified();
+                  return (diff == 0) ? b.getName().compareTo(a.getName())
+                        : ((diff < 0) ? -1 : 1);
+               }
+            });
+      }
+      return rc;
+   }
+
+   /**
+    * Finds all entries containing the supplied tracking number.
+    *
+    * @param trackingNumber The tracking number as hex string as printed in
+    * the log file.
+    * @return the locations of the entries containing the tracking number,
+    * ordered by file as returned by {@link #getLogFiles()} and by offset.
+    * @throws IOException if reading a log file or an index fails.
+    * @throws NumberFormatException if the tracking number is not a hex
+    * number.
+    */
+   public List<Location> find (final String trackingNumber)
+         throws IOException, NumberFormatException
+   {
+      final int id = LogIndex.fromTrackingNumber(trackingNumber);
+      final List<Location> rc = new ArrayList<Location>();
+      final List<File> files = getLogFiles();
+      for (int i = 0; i < files.size(); i++)
+      {
+         final File file = files.get(i);
+         final TrackingIndex index = new TrackingIndex(file);
+         long[] offsets;
+         try
+         {
+            index.update();
+            offsets = index.find(id);
+         }
+         catch (IOException ex)
+         {
+            System.err.println("Cannot use the index file "
+                  + index.getIndexFile() + ", scanning the complete log file: "
+                  + ex);
+            offsets = TrackingIndex.scan(file, id);
+         }
+         if (offsets.length > 0)
+         {
+            rc.add(new Location(file, offsets));
+         }
+      }
+      return rc;
+   }
+
+   private static boolean isRotationSuffix (final String suffix)
+   {
+      return suffix.length() == 0
+            || RotatingFileHandler.SEGMENT_SUFFIX.matcher(suffix).matches()
+            || NUMBER_SUFFIX.matcher(suffix).matches();
+   }
+
+   /**
+    * The offsets of the entries found within one log file.
+    */
+   public static final class Location
+   {
+      private final File mFile;
+      private final long[] mOffsets;
+
+      private Location (final File file, final long[] offsets)
+      {
+         mFile = file;
+         mOffsets = offsets;
+      }
+
+      /**
+       * Gets the log file.
+       *
+       * @return the log file.
+       */
+      public File getFile ()
+      {
+         return mFile;
+      }
+
+      /**
+       * Gets the offsets of the entries found within the log file.
+       *
+       * @return the offsets in ascending order.
+       */
+      public long[] getOffsets ()
+      {
+         return (long[]) mOffsets.clone();
+      }
+
+      /**
+       * Creates a reader for the entries found within the log file.
+       *
+       * @return a LogReader returning the entries found.
+       * @throws InstantiationException if the log file cannot be opened.
+       */
+      public LogReader createReader ()
+            throws InstantiationException
+      {
+         return new OffsetLogReader(mFile.getPath(), mOffsets);
+      }
+
+      /** {@inheritDoc} */
+      public String toString ()
+      {
+         return mFile + " " + mOffsets.length + " entries";
+      }
+   }
+}
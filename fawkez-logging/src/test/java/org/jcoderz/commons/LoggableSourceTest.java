@@ -0,0 +1,143 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.test.TssLogMessage;
+
+
+/**
+ * Tests the detection of the source class and method of loggables.
+ */
+public class LoggableSourceTest
+      extends TestCase
+{
+   /**
+    * Tests that the source is the method asking for it, skipping the
+    * frames of the loggable itself.
+    */
+   public void testSourceIsCaller ()
+   {
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      assertEquals("Source class", LoggableSourceTest.class.getName(),
+            loggable.getSourceClass());
+      assertTrue("Source method " + loggable.getSourceMethod(),
+            loggable.getSourceMethod().startsWith("testSourceIsCaller("));
+   }
+
+   /**
+    * Tests that the source is determined once and then kept, even if
+    * asked for from a different place.
+    */
+   public void testSourceIsKept ()
+   {
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      final String method = loggable.getSourceMethod();
+      assertEquals("Source method", method, sourceMethodOf(loggable));
+      for (int i = 0; i < 2; i++)
+      {
+         final Loggable other = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+         final String otherMethod = sourceMethodOf(other);
+         assertTrue("Source method " + otherMethod,
+               otherMethod.startsWith("sourceMethodOf("));
+      }
+   }
+
+   /**
+    * Tests that the source is taken from the stack trace of a throwable
+    * loggable, which is the place the loggable was created at.
+    */
+   public void testSourceFromThrowable ()
+   {
+      final LogEvent event = createEvent();
+      final LoggableImpl loggable
+            = new LoggableImpl(event, TssLogMessage.FUNNY_RUNTIME);
+      loggable.findSourceInThrowable();
+      assertEquals("Source class", LoggableSourceTest.class.getName(),
+            loggable.getSourceClass());
+      assertTrue("Source method " + loggable.getSourceMethod(),
+            loggable.getSourceMethod().startsWith("createEvent("));
+   }
+
+   /**
+    * Tests that the source of a loggable, which is no throwable, is not
+    * taken from a stack trace of the loggable.
+    */
+   public void testNoSourceFromOtherLoggable ()
+   {
+      final LogEvent event = createEvent();
+      final LoggableImpl loggable
+            = new LoggableImpl(event, TssLogMessage.FUNNY_RUNTIME);
+      final LoggableImpl other
+            = new LoggableImpl(loggable, TssLogMessage.FUNNY_RUNTIME);
+      other.findSourceInThrowable();
+      assertTrue("Source method " + other.getSourceMethod(),
+            other.getSourceMethod().startsWith(
+                  "testNoSourceFromOtherLoggable("));
+   }
+
+   /**
+    * Tests that classes are classified correctly and that the number of
+    * cached classifications is bounded, also when asked for many classes.
+    */
+   public void testCachedClassesBounded ()
+   {
+      assertTrue("Loggable class",
+            LoggableImpl.isLoggingClass(LogEvent.class.getName()));
+      assertTrue("LogMessageInfo class",
+            LoggableImpl.isLoggingClass(
+                  TssLogMessage.FUNNY_RUNTIME.getClass().getName()));
+      assertFalse("Other class",
+            LoggableImpl.isLoggingClass(LoggableSourceTest.class.getName()));
+      for (int i = 0; i <= LoggableImpl.MAX_CACHED_CLASSES; i++)
+      {
+         assertFalse("Unknown class", LoggableImpl.isLoggingClass(
+               LoggableSourceTest.class.getName() + "$Unknown" + i));
+      }
+      assertEquals("Cached classes", LoggableImpl.MAX_CACHED_CLASSES,
+            LoggableImpl.getNumberOfCachedClasses());
+      assertTrue("Class classified without cache",
+            LoggableImpl.isLoggingClass(BaseException.class.getName()));
+   }
+
+   private static LogEvent createEvent ()
+   {
+      return new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+   }
+
+   private static String sourceMethodOf (final Loggable loggable)
+   {
+      return loggable.getSourceMethod();
+   }
+}
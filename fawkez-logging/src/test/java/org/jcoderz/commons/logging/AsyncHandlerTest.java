@@ -0,0 +1,173 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.AsyncHandler}.
+ *
+ */
+public class AsyncHandlerTest
+      extends TestCase
+{
+   private static final int RECORD_COUNT = 1000;
+   private static final int SMALL_CAPACITY = 4;
+
+   /**
+    * Collects the published records, optionally waits for a latch before
+    * accepting the first record.
+    */
+   private static final class CollectingHandler
+         extends Handler
+   {
+      private final List<LogRecord> mRecords = new ArrayList<LogRecord>();
+      private final List<String> mThreadNames = new ArrayList<String>();
+      private final CountDownLatch mGate;
+
+      private CollectingHandler (CountDownLatch gate)
+      {
+         mGate = gate;
+      }
+
+      /** {@inheritDoc} */
+      public synchronized void publish (LogRecord record)
+      {
+         try
+         {
+            mGate.await();
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+         }
+         mRecords.add(record);
+         mThreadNames.add(Thread.currentThread().getName());
+      }
+
+      /** {@inheritDoc} */
+      public void flush ()
+      {
+         // nop
+      }
+
+      /** {@inheritDoc} */
+      public void close ()
+      {
+         // nop
+      }
+   }
+
+   /**
+    * Tests that all records are delivered in order with the blocking policy,
+    * even if the buffer is much smaller than the number of records.
+    */
+   public void testBlockingPolicyDeliversAllInOrder ()
+   {
+      final CollectingHandler target
+            = new CollectingHandler(new CountDownLatch(0));
+      final AsyncHandler handler = new AsyncHandler(target, SMALL_CAPACITY,
+            AsyncHandler.OverflowPolicy.BLOCK, Level.WARNING);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+      }
+      handler.flush();
+      assertEquals("All records must be delivered",
+            RECORD_COUNT, target.mRecords.size());
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         assertEquals("Records must be delivered in order",
+               String.valueOf(i), target.mRecords.get(i).getMessage());
+         assertEquals("Thread name of the logging thread expected",
+               Thread.currentThread().getName(), target.mThreadNames.get(i));
+      }
+      assertEquals("Nothing must be dropped", 0, handler.getDroppedCount());
+      handler.close();
+   }
+
+   /**
+    * Tests that records below the drop level are dropped and counted if the
+    * buffer is full.
+    */
+   public void testDropBelowLevelPolicy ()
+   {
+      final CountDownLatch gate = new CountDownLatch(1);
+      final CollectingHandler target = new CollectingHandler(gate);
+      final AsyncHandler handler = new AsyncHandler(target, SMALL_CAPACITY,
+            AsyncHandler.OverflowPolicy.DROP_BELOW_LEVEL, Level.WARNING);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.FINE, String.valueOf(i)));
+      }
+      gate.countDown();
+      handler.flush();
+      assertTrue("Records must be dropped", handler.getDroppedCount() > 0);
+      assertEquals("Every record must be delivered or dropped", RECORD_COUNT,
+            target.mRecords.size() + handler.getDroppedCount());
+      handler.close();
+   }
+
+   /**
+    * Tests that the oldest records are evicted if the buffer is full and
+    * that the newest record is delivered.
+    */
+   public void testDropOldestPolicy ()
+   {
+      final CountDownLatch gate = new CountDownLatch(1);
+      final CollectingHandler target = new CollectingHandler(gate);
+      final AsyncHandler handler = new AsyncHandler(target, SMALL_CAPACITY,
+            AsyncHandler.OverflowPolicy.DROP_OLDEST, Level.WARNING);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.SEVERE, String.valueOf(i)));
+      }
+      gate.countDown();
+      handler.flush();
+      assertTrue("Records must be evicted", handler.getEvictedCount() > 0);
+      assertEquals("Every record must be delivered or evicted", RECORD_COUNT,
+            target.mRecords.size() + handler.getEvictedCount());
+      assertEquals("Newest record must be delivered",
+            String.valueOf(RECORD_COUNT - 1),
+            target.mRecords.get(target.mRecords.size() - 1).getMessage());
+      handler.close();
+   }
+}
@@ -0,0 +1,251 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.Loggable;
+
+
+/**
+ * Tests that log records written by the class
+ * {@link org.jcoderz.commons.logging.BinaryLogHandler} are read back by the
+ * {@link org.jcoderz.commons.logging.BinaryLogReader} with the same content
+ * the {@link org.jcoderz.commons.logging.LogReader} reads from the text
+ * format.
+ *
+ */
+public class BinaryLogReaderTest
+      extends TestCase
+{
+   private static final int NUMBER_OF_RECORDS = 300;
+
+   private final LogFileFixture mFixture = new LogFileFixture();
+   private LogRecord[] mRecords;
+   private File mTextFile;
+   private File mBinaryFile;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mTextFile = mFixture.createFile("fawkez-binary", ".log");
+      mBinaryFile = mFixture.createFile("fawkez-binary", ".bin");
+      mRecords = LogFileFixture.createRecords(0, NUMBER_OF_RECORDS);
+      LogFileFixture.write(mTextFile, new LogFormatter(), mRecords, false);
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mFixture.delete();
+   }
+
+   /**
+    * Tests that the binary file is displayed like the text file.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSameContentAsTextFormat ()
+         throws Exception
+   {
+      writeBinary(0, NUMBER_OF_RECORDS, false);
+      assertTrue("Binary file expected",
+            BinaryLogFormat.isBinaryLogFile(mBinaryFile));
+      assertFalse("Text file expected",
+            BinaryLogFormat.isBinaryLogFile(mTextFile));
+      assertEquals("Binary reader must read the same entries",
+            print(new LogReader(mTextFile.getPath()), NUMBER_OF_RECORDS),
+            print(new BinaryLogReader(mBinaryFile.getPath()),
+                  NUMBER_OF_RECORDS));
+      assertTrue("Binary file expected to be smaller",
+            mBinaryFile.length() < mTextFile.length());
+   }
+
+   /**
+    * Tests that records appended by a second handler start a new segment
+    * and are read after the records of the first one.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testAppend ()
+         throws Exception
+   {
+      final int half = NUMBER_OF_RECORDS / 2;
+      writeBinary(0, half, false);
+      writeBinary(half, NUMBER_OF_RECORDS, true);
+      assertEquals("Binary reader must read the same entries",
+            print(new LogReader(mTextFile.getPath()), NUMBER_OF_RECORDS),
+            print(new BinaryLogReader(mBinaryFile.getPath()),
+                  NUMBER_OF_RECORDS));
+   }
+
+   /**
+    * Tests that a partial record at the end of the file, left by a process
+    * which died while writing it, is dropped when appending, so the records
+    * appended are read.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testAppendAfterPartialRecord ()
+         throws Exception
+   {
+      final int half = NUMBER_OF_RECORDS / 2;
+      writeBinary(0, half + 1, false);
+      final RandomAccessFile file = new RandomAccessFile(mBinaryFile, "rw");
+      try
+      {
+         file.setLength(file.length() - 2);
+      }
+      finally
+      {
+         file.close();
+      }
+      writeBinary(half + 1, NUMBER_OF_RECORDS, true);
+
+      final LogRecord[] expected = new LogRecord[NUMBER_OF_RECORDS - 1];
+      System.arraycopy(mRecords, 0, expected, 0, half);
+      System.arraycopy(mRecords, half + 1, expected, half,
+            NUMBER_OF_RECORDS - half - 1);
+      LogFileFixture.write(mTextFile, new LogFormatter(), expected, false);
+      assertEquals("Binary reader must read the complete records",
+            print(new LogReader(mTextFile.getPath()), expected.length),
+            print(new BinaryLogReader(mBinaryFile.getPath()),
+                  expected.length));
+   }
+
+   /**
+    * Tests that records are read as soon as they are written and that a
+    * filter is applied.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFollowAndFilter ()
+         throws Exception
+   {
+      final BinaryLogHandler handler = new BinaryLogHandler(mBinaryFile, false);
+      final BinaryLogReader reader
+            = new BinaryLogReader(mBinaryFile.getPath());
+      try
+      {
+         reader.addFilter(new Filter()
+         {
+            public boolean isPassable (LogItem entry)
+            {
+               return Level.SEVERE.equals(entry.getLoggerLevel());
+            }
+         });
+         assertNull("Nothing written yet", reader.readLogFileEntry());
+         handler.publish(mRecords[0]);
+         assertTrue("Data expected", reader.available());
+         assertNull("Trace record must be filtered",
+               reader.readLogFileEntry());
+         handler.publish(mRecords[2]);
+         final LogFileEntry entry = reader.readLogFileEntry();
+         assertNotNull("Error record expected", entry);
+         final Loggable loggable = (Loggable) mRecords[2].getParameters()[0];
+         assertEquals("Tracking number", loggable.getTrackingNumber(),
+               entry.getTrackingNumber());
+         assertNotNull("Nested entry expected", entry.getNestedItem());
+         entry.release();
+         assertFalse("Everything read", reader.available());
+      }
+      finally
+      {
+         reader.close();
+         handler.close();
+      }
+   }
+
+   private void writeBinary (final int from, final int to, boolean append)
+         throws InstantiationException
+   {
+      final BinaryLogHandler handler
+            = new BinaryLogHandler(mBinaryFile, append);
+      try
+      {
+         for (int i = from; i < to; i++)
+         {
+            handler.publish(mRecords[i]);
+         }
+      }
+      finally
+      {
+         handler.close();
+      }
+   }
+
+   private String print (final LogReader reader, final int expectedEntries)
+   {
+      final DisplayOptions options = new DisplayOptions();
+      options.displayThreadId(true);
+      options.displayTimestamp(true);
+      options.displaySymbol(true);
+      options.displayParameters(true);
+      options.displayTrackingNumber(true);
+      options.displayStackTrace(true);
+      options.displayMessageStackTrace(true);
+      final BasicPrinter printer = new BasicPrinter();
+      printer.setDisplayOptions(options);
+      final StringWriter out = new StringWriter();
+      final PrintWriter writer = new PrintWriter(out);
+      int entries = 0;
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            entries++;
+            printer.print(writer, entry);
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertEquals("Unexpected number of entries", expectedEntries, entries);
+      writer.flush();
+      return out.toString();
+   }
+}
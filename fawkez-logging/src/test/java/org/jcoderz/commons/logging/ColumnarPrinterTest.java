@@ -0,0 +1,224 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.logging.ColumnarLogFormat.Column;
+
+
+/**
+ * Tests the classes {@link org.jcoderz.commons.logging.ColumnarPrinter} and
+ * {@link org.jcoderz.commons.logging.ColumnarLogReader}.
+ *
+ */
+public class ColumnarPrinterTest
+      extends TestCase
+{
+   private static final int RECORD_COUNT = 100;
+   private static final int BLOCK_SIZE = 16;
+   private static final int ERROR_EVERY = 10;
+
+   /**
+    * Tests that all items are read back with their values and the
+    * statistics of each block.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testReadBack ()
+         throws Exception
+   {
+      final List<LogItem> items = readItems();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ColumnarPrinter printer = new ColumnarPrinter(out, BLOCK_SIZE);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         printer.print(null, items.get(i));
+      }
+      printer.finish();
+
+      final ColumnarLogReader reader = new ColumnarLogReader(
+            new ByteArrayInputStream(out.toByteArray()));
+      int row = 0;
+      int blocks = 0;
+      while (reader.nextBlock())
+      {
+         blocks++;
+         final long[] times = reader.getLongs(Column.TIMESTAMP);
+         final long[] depths = reader.getLongs(Column.DEPTH);
+         final String[] symbols = reader.getStrings(Column.SYMBOL_ID);
+         final String[] messages = reader.getStrings(Column.MESSAGE);
+         final List<List<String>> parameters
+               = reader.getStringLists(Column.PARAMETERS);
+         assertTrue("Block size", reader.getRowCount() <= BLOCK_SIZE);
+         for (int i = 0; i < reader.getRowCount(); i++)
+         {
+            final LogItem item = nthItem(items, row++);
+            final LogItem timed = (item.getTimestamp() == null)
+                  ? item.getParentItem() : item;
+            assertEquals("Timestamp of the item or its parent",
+                  timed.getTimestamp().getTime(), times[i]);
+            assertTrue("Minimum", times[i] >= ((Long) reader.getMinimum(
+                  Column.TIMESTAMP)).longValue());
+            assertTrue("Maximum", times[i] <= ((Long) reader.getMaximum(
+                  Column.TIMESTAMP)).longValue());
+            assertEquals("Depth", item.getParentItem() == null ? 0 : 1,
+                  depths[i]);
+            assertEquals("Symbol id", item.getSymbolId(), symbols[i]);
+            assertTrue("Symbol in statistics",
+                  reader.mayContain(Column.SYMBOL_ID, symbols[i]));
+            assertEquals("Message", item.getMessage(), messages[i]);
+            assertEquals("Parameters",
+                  2 * countParameters(item), parameters.get(i).size());
+         }
+      }
+      reader.close();
+      assertEquals("All items expected", countItems(items), row);
+      assertTrue("More than one block expected", blocks > 1);
+   }
+
+   /**
+    * Tests that blocks not containing a symbol are recognized by their
+    * statistics.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testStatisticsExcludeBlocks ()
+         throws Exception
+   {
+      final List<LogItem> items = readItems();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ColumnarPrinter printer = new ColumnarPrinter(out, BLOCK_SIZE);
+      for (int i = 0; i < ERROR_EVERY; i++)
+      {
+         printer.print(null, items.get(i));
+      }
+      printer.finish();
+      final ColumnarLogReader reader = new ColumnarLogReader(
+            new ByteArrayInputStream(out.toByteArray()));
+      assertTrue("Block expected", reader.nextBlock());
+      assertFalse("Unknown symbol",
+            reader.mayContain(Column.SYMBOL_ID, "ZZZZZZZZ"));
+      assertFalse("Single block expected", reader.nextBlock());
+      reader.close();
+   }
+
+   private static List<LogItem> readItems ()
+   {
+      final LogFormatter formatter = new LogFormatter();
+      final StringBuffer sb = new StringBuffer();
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         final LogRecord record;
+         if (i % ERROR_EVERY == 0)
+         {
+            final InternalErrorException ex = new InternalErrorException(
+                  "Failure " + i, new IllegalStateException("cause " + i));
+            record = new LogRecord(Level.SEVERE, ex.getMessage());
+            record.setParameters(new Object[] {ex});
+            record.setThrown(ex);
+         }
+         else
+         {
+            record = new LogRecord(Level.INFO, "Record " + i);
+         }
+         record.setMillis(1000L * i);
+         sb.append(formatter.format(record));
+      }
+      final LogReader reader = new LogReader(new CharArrayReader(
+            sb.toString().toCharArray()));
+      final List<LogItem> rc = new ArrayList<LogItem>();
+      LogFileEntry entry = reader.readLogFileEntry();
+      while (entry != null)
+      {
+         rc.add(entry);
+         entry = reader.readLogFileEntry();
+      }
+      assertEquals("Entries", RECORD_COUNT, rc.size());
+      return rc;
+   }
+
+   private static LogItem nthItem (final List<LogItem> items, final int n)
+   {
+      LogItem rc = null;
+      int count = 0;
+      for (int i = 0; i < items.size() && rc == null; i++)
+      {
+         for (LogItem item = items.get(i); item != null && rc == null;
+               item = item.getNestedItem())
+         {
+            if (count++ == n)
+            {
+               rc = item;
+            }
+         }
+      }
+      return rc;
+   }
+
+   private static int countItems (final List<LogItem> items)
+   {
+      int rc = 0;
+      for (int i = 0; i < items.size(); i++)
+      {
+         for (LogItem item = items.get(i); item != null;
+               item = item.getNestedItem())
+         {
+            rc++;
+         }
+      }
+      return rc;
+   }
+
+   private static int countParameters (final LogItem item)
+   {
+      int rc = 0;
+      for (final Iterator<String> names
+            = item.getParameterNames().iterator(); names.hasNext(); )
+      {
+         rc += item.getParameterValues(names.next()).size();
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,206 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.test.TssLogMessage;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.DeduplicatingHandler}.
+ *
+ */
+public class DeduplicatingHandlerTest
+      extends TestCase
+{
+   private static final long START = 1000000L;
+   private static final int BURST = 3;
+   private static final int REPEATS = 100;
+
+   /** Collects the published records. */
+   private static final class CollectingHandler
+         extends Handler
+   {
+      private final List<LogRecord> mRecords = new ArrayList<LogRecord>();
+
+      /** {@inheritDoc} */
+      public synchronized void publish (LogRecord record)
+      {
+         mRecords.add(record);
+      }
+
+      /** {@inheritDoc} */
+      public void flush ()
+      {
+         // nop
+      }
+
+      /** {@inheritDoc} */
+      public void close ()
+      {
+         // nop
+      }
+   }
+
+   /**
+    * Tests that repeats beyond the burst are suppressed and reported in
+    * one summary on flush.
+    */
+   public void testRepeatsCollapsed ()
+   {
+      final CollectingHandler target = new CollectingHandler();
+      final DeduplicatingHandler handler
+            = new DeduplicatingHandler(target, 1, BURST, null);
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      for (int i = 0; i < REPEATS; i++)
+      {
+         handler.publish(record(loggable, START + i));
+      }
+      assertEquals("Records passed", BURST, target.mRecords.size());
+      assertEquals("Records suppressed", REPEATS - BURST,
+            handler.getSuppressedCount());
+      handler.flush();
+      assertEquals("Records with summary", BURST + 1, target.mRecords.size());
+      final String summary = target.mRecords.get(BURST).getMessage();
+      assertTrue("Summary " + summary, summary.startsWith(
+            "Suppressed " + (REPEATS - BURST) + " repetitions"));
+      assertTrue("Summary " + summary,
+            summary.indexOf(TssLogMessage.FUNNY_RUNTIME.getSymbol()) > 0);
+      handler.flush();
+      assertEquals("Summary only once", BURST + 1, target.mRecords.size());
+      handler.close();
+   }
+
+   /**
+    * Tests that tokens are refilled with the rate and that the summary is
+    * published in front of the next record that passes.
+    */
+   public void testRateAndSummaryBeforeNextRecord ()
+   {
+      final CollectingHandler target = new CollectingHandler();
+      final DeduplicatingHandler handler
+            = new DeduplicatingHandler(target, 2, 1, null);
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      handler.publish(record(loggable, START));
+      handler.publish(record(loggable, START + 100));
+      handler.publish(record(loggable, START + 200));
+      assertEquals("Records passed", 1, target.mRecords.size());
+      final LogRecord next = record(loggable, START + 500);
+      handler.publish(next);
+      assertEquals("Records with summary", 3, target.mRecords.size());
+      assertTrue("Summary expected " + target.mRecords.get(1).getMessage(),
+            target.mRecords.get(1).getMessage().startsWith("Suppressed 2 "));
+      assertSame("Record after summary", next, target.mRecords.get(2));
+      handler.close();
+   }
+
+   /**
+    * Tests that the summary of a key that does not pass again is published
+    * with a record of another key once the interval has elapsed.
+    */
+   public void testSummaryAfterInterval ()
+   {
+      final CollectingHandler target = new CollectingHandler();
+      final DeduplicatingHandler handler
+            = new DeduplicatingHandler(target, 0, 1, null, 1);
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      handler.publish(record(loggable, START));
+      handler.publish(record(loggable, START + 10));
+      handler.publish(record(loggable, START + 20));
+      final LogRecord early = new LogRecord(Level.INFO, "early");
+      early.setMillis(START + 500);
+      handler.publish(early);
+      assertEquals("Summary before interval", 2, target.mRecords.size());
+      final LogRecord late = new LogRecord(Level.INFO, "late");
+      late.setMillis(START + 1500);
+      handler.publish(late);
+      assertEquals("Records with summary", 4, target.mRecords.size());
+      assertTrue("Summary expected " + target.mRecords.get(2).getMessage(),
+            target.mRecords.get(2).getMessage().startsWith("Suppressed 2 "));
+      assertSame("Record after summary", late, target.mRecords.get(3));
+      handler.close();
+      assertEquals("No summary left on close", 4, target.mRecords.size());
+   }
+
+   /**
+    * Tests that the cause type, per message limits and plain records are
+    * taken into account.
+    */
+   public void testKeysAndLimits ()
+   {
+      final CollectingHandler target = new CollectingHandler();
+      final Map<Integer, Double> limits = new HashMap<Integer, Double>();
+      limits.put(new Integer(TssLogMessage.IMPLIED_PARAMETERS.toInt()),
+            new Double(1000));
+      final DeduplicatingHandler handler
+            = new DeduplicatingHandler(target, 0, 1, limits);
+      final Loggable plain = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      final Loggable caused = new LogEvent(TssLogMessage.FUNNY_RUNTIME,
+            new IllegalStateException());
+      final Loggable limited
+            = new LogEvent(TssLogMessage.IMPLIED_PARAMETERS);
+      for (int i = 0; i < 10; i++)
+      {
+         handler.publish(record(plain, START + i * 10));
+         handler.publish(record(caused, START + i * 10));
+         handler.publish(record(limited, START + i * 10));
+         handler.publish(new LogRecord(Level.INFO, "plain " + i));
+      }
+      // 1 + 1 of the rate 0 keys, 10 of the limited and 10 plain ones
+      assertEquals("Records passed", 22, target.mRecords.size());
+      assertEquals("Records suppressed", 18, handler.getSuppressedCount());
+      handler.close();
+      assertEquals("Records with summaries", 24, target.mRecords.size());
+   }
+
+   private static LogRecord record (Loggable loggable, long millis)
+   {
+      final LogRecord rc = new LogRecord(
+            loggable.getLogMessageInfo().getLogLevel(),
+            loggable.getMessage());
+      rc.setParameters(new Object[] {loggable});
+      rc.setMillis(millis);
+      return rc;
+   }
+}
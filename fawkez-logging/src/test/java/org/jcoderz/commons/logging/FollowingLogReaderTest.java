@@ -0,0 +1,216 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.FollowingLogReader}.
+ *
+ */
+public class FollowingLogReaderTest
+      extends TestCase
+{
+   private static final int RECORD_COUNT = 20;
+
+   private final LogFormatter mFormatter = new LogFormatter();
+   private File mFile;
+   private File mRotated;
+   private FollowingLogReader mReader;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mFile = File.createTempFile("fawkez-follow", ".log");
+      mRotated = new File(mFile.getPath() + ".1");
+      mReader = new FollowingLogReader(mFile.getPath());
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mReader.close();
+      mFile.delete();
+      mRotated.delete();
+   }
+
+   /**
+    * Tests that entries appended to the file are read.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testReadsAppendedEntries ()
+         throws IOException
+   {
+      assertFalse("Empty file", mReader.available());
+      append(mFile, 0, RECORD_COUNT, "");
+      assertEquals("Entries written first", RECORD_COUNT, readAll());
+      assertFalse("All read", mReader.available());
+      append(mFile, RECORD_COUNT, RECORD_COUNT, "");
+      assertEquals("Entries appended", RECORD_COUNT, readAll());
+      assertEquals("Position", mFile.length(), mReader.getPosition());
+   }
+
+   /**
+    * Tests that a partially written line is not read before its end has
+    * been written.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testWaitsForLineEnd ()
+         throws IOException
+   {
+      append(mFile, 0, 1, "");
+      final String line = mFormatter.format(
+            new LogRecord(Level.INFO, "partial"));
+      final int split = line.length() / 2;
+      append(mFile, line.substring(0, split));
+      assertEquals("Complete entry", 1, readAll());
+      assertFalse("Partial line must not be read", mReader.available());
+      append(mFile, line.substring(split));
+      assertEquals("Completed entry", 1, readAll());
+   }
+
+   /**
+    * Tests that an entry at the end of the file rejected by a filter is not
+    * reported as available again, so followers do not spin on it.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testRejectedLastEntryNotAvailable ()
+         throws IOException
+   {
+      mReader.addFilter(new Filter()
+         {
+            /** {@inheritDoc} */
+            public boolean isPassable (final LogItem entry)
+            {
+               return entry.getMessage().indexOf("rejected") < 0;
+            }
+         });
+      append(mFile, 0, 2, "");
+      append(mFile, 0, 1, "rejected");
+      int passed = 0;
+      LogFileEntry entry = mReader.readLogFileEntry();
+      while (entry != null)
+      {
+         passed++;
+         entry.release();
+         entry = mReader.readLogFileEntry();
+      }
+      assertEquals("Entries passing the filter", 2, passed);
+      assertFalse("Rejected entry must not be available",
+            mReader.available());
+      append(mFile, 2, 1, "");
+      assertEquals("Entry appended after the rejected one", 1, readAll());
+   }
+
+   /**
+    * Tests that the new file is read after rotation and after truncation.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testFollowsRotationAndTruncation ()
+         throws IOException
+   {
+      append(mFile, 0, RECORD_COUNT, "");
+      assertEquals("Entries before rotation", RECORD_COUNT, readAll());
+      // written right before the rotation, must not be missed
+      append(mFile, 0, 2, "old");
+      assertTrue("Rename failed", mFile.renameTo(mRotated));
+      append(mFile, 0, 1, "new");
+      assertEquals("Rest of the old and the new file", 3, readAll());
+      assertEquals("Reopen expected", 1, mReader.getReopenCount());
+
+      new FileWriter(mFile).close();
+      append(mFile, 0, 1, "");
+      assertEquals("Entry after truncation", 1, readAll());
+      assertEquals("Second reopen expected", 2, mReader.getReopenCount());
+   }
+
+   private int readAll ()
+   {
+      int rc = 0;
+      while (mReader.available())
+      {
+         final LogFileEntry entry = mReader.readLogFileEntry();
+         if (entry != null)
+         {
+            rc++;
+            entry.release();
+         }
+      }
+      return rc;
+   }
+
+   private void append (
+         final File file,
+         final int from,
+         final int count,
+         final String text)
+         throws IOException
+   {
+      final StringBuffer sb = new StringBuffer();
+      for (int i = from; i < from + count; i++)
+      {
+         sb.append(mFormatter.format(
+               new LogRecord(Level.INFO, "Record " + text + i)));
+      }
+      append(file, sb.toString());
+   }
+
+   private static void append (final File file, final String text)
+         throws IOException
+   {
+      final Writer writer = new FileWriter(file, true);
+      try
+      {
+         writer.write(text);
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+}
@@ -0,0 +1,375 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Filter;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the batched sending of the class
+ * {@link org.jcoderz.commons.logging.JmsHandler} against a fake jms provider.
+ *
+ */
+public class JmsHandlerTest
+      extends TestCase
+{
+   private static final int RECORD_COUNT = 1000;
+   private static final int SMALL_CAPACITY = 4;
+   private static final int BATCH_SIZE = 10;
+   private static final long LONG_BATCH_TIME = 60000;
+   private static final long SHORT_BATCH_TIME = 50;
+   private static final long WAIT_MILLIS = 5000;
+
+   /**
+    * Fake jms provider. Messages sent by a session become visible in
+    * {@link #mCommitted} when the session is committed.
+    */
+   private static final class FakeProvider
+         implements InvocationHandler
+   {
+      private final List<String> mCommitted = new ArrayList<String>();
+      private final CountDownLatch mGate;
+      private final boolean mFailCommit;
+      private int mCommits = 0;
+      private int mMaxBatchSize = 0;
+
+      private FakeProvider (CountDownLatch gate, boolean failCommit)
+      {
+         mGate = gate;
+         mFailCommit = failCommit;
+      }
+
+      private QueueConnection createConnection ()
+      {
+         return (QueueConnection) createProxy(QueueConnection.class, this);
+      }
+
+      /** {@inheritDoc} */
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+         Object rc = null;
+         if ("createQueueSession".equals(method.getName()))
+         {
+            final FakeSession session = new FakeSession();
+            session.mSession
+                  = (QueueSession) createProxy(QueueSession.class, session);
+            rc = session.mSession;
+         }
+         else
+         {
+            rc = invokeObjectMethod(proxy, method, args);
+         }
+         return rc;
+      }
+
+      private synchronized void commit (List<String> messages)
+            throws JMSException
+      {
+         if (mFailCommit)
+         {
+            throw new JMSException("Commit failed.");
+         }
+         mCommitted.addAll(messages);
+         mCommits++;
+         mMaxBatchSize = Math.max(mMaxBatchSize, messages.size());
+      }
+
+      private synchronized int getCommittedCount ()
+      {
+         return mCommitted.size();
+      }
+
+      /**
+       * Fake session, which also serves as the sender of the session.
+       */
+      private final class FakeSession
+            implements InvocationHandler
+      {
+         private final List<String> mPending = new ArrayList<String>();
+         private QueueSession mSession;
+
+         /** {@inheritDoc} */
+         public Object invoke (Object proxy, Method method, Object[] args)
+               throws JMSException, InterruptedException
+         {
+            final String name = method.getName();
+            Object rc = null;
+            if ("createSender".equals(name))
+            {
+               rc = createProxy(QueueSender.class, this);
+            }
+            else if ("createTextMessage".equals(name))
+            {
+               rc = createProxy(TextMessage.class, new FakeMessage());
+            }
+            else if ("send".equals(name))
+            {
+               mGate.await();
+               mPending.add(((TextMessage) args[0]).getText());
+            }
+            else if ("commit".equals(name))
+            {
+               try
+               {
+                  commit(mPending);
+               }
+               finally
+               {
+                  mPending.clear();
+               }
+            }
+            else if ("rollback".equals(name) || "close".equals(name))
+            {
+               mPending.clear();
+            }
+            else
+            {
+               rc = invokeObjectMethod(proxy, method, args);
+            }
+            return rc;
+         }
+      }
+   }
+
+   /**
+    * Fake text message.
+    */
+   private static final class FakeMessage
+         implements InvocationHandler
+   {
+      private String mText;
+
+      /** {@inheritDoc} */
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+         Object rc = null;
+         if ("setText".equals(method.getName()))
+         {
+            mText = (String) args[0];
+         }
+         else if ("getText".equals(method.getName()))
+         {
+            rc = mText;
+         }
+         else
+         {
+            rc = invokeObjectMethod(proxy, method, args);
+         }
+         return rc;
+      }
+   }
+
+   /**
+    * Tests that all records are sent and committed in batches of the
+    * configured size by several sender threads.
+    */
+   public void testBatchedSendingCommitsAll ()
+   {
+      final FakeProvider provider
+            = new FakeProvider(new CountDownLatch(0), false);
+      final JmsHandler handler = createHandler(provider, 3,
+            SMALL_CAPACITY, AsyncHandler.OverflowPolicy.BLOCK,
+            LONG_BATCH_TIME);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+      }
+      handler.flush();
+      assertEquals("All records must be committed",
+            RECORD_COUNT, provider.getCommittedCount());
+      final Set<String> texts = new HashSet<String>(provider.mCommitted);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         assertTrue("Record " + i + " must be sent",
+               texts.contains(String.valueOf(i)));
+      }
+      assertEquals("Sent count", RECORD_COUNT, handler.getSentCount());
+      assertEquals("Commit count", provider.mCommits,
+            handler.getCommitCount());
+      assertTrue("Batch size must not be exceeded",
+            provider.mMaxBatchSize <= BATCH_SIZE);
+      assertTrue("Expected to commit in batches",
+            provider.mCommits < RECORD_COUNT);
+      assertEquals("Nothing must be dropped", 0, handler.getDroppedCount());
+      handler.close();
+   }
+
+   /**
+    * Tests that an incomplete batch is committed after the batch time
+    * without an explicit flush.
+    */
+   public void testBatchTimeCommitsIncompleteBatch ()
+         throws InterruptedException
+   {
+      final FakeProvider provider
+            = new FakeProvider(new CountDownLatch(0), false);
+      final JmsHandler handler = createHandler(provider, 1,
+            AsyncHandler.DEFAULT_CAPACITY, AsyncHandler.OverflowPolicy.BLOCK,
+            SHORT_BATCH_TIME);
+      for (int i = 0; i < BATCH_SIZE / 2; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+      }
+      final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+      while (provider.getCommittedCount() < BATCH_SIZE / 2
+            && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(SHORT_BATCH_TIME / 2);
+      }
+      assertEquals("Batch must be committed after the batch time",
+            BATCH_SIZE / 2, provider.getCommittedCount());
+      handler.close();
+   }
+
+   /**
+    * Tests that records below the drop level are dropped and counted if the
+    * queue is full.
+    */
+   public void testDropBelowLevelPolicy ()
+   {
+      final CountDownLatch gate = new CountDownLatch(1);
+      final FakeProvider provider = new FakeProvider(gate, false);
+      final JmsHandler handler = createHandler(provider, 1,
+            SMALL_CAPACITY, AsyncHandler.OverflowPolicy.DROP_BELOW_LEVEL,
+            LONG_BATCH_TIME);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.FINE, String.valueOf(i)));
+      }
+      assertTrue("Records must be dropped", handler.getDroppedCount() > 0);
+      gate.countDown();
+      handler.flush();
+      assertEquals("Each record must be sent or dropped", RECORD_COUNT,
+            handler.getSentCount() + handler.getDroppedCount());
+      handler.close();
+   }
+
+   /**
+    * Tests that messages of a failed commit are counted as failed.
+    */
+   public void testFailedCommitIsCounted ()
+   {
+      final FakeProvider provider
+            = new FakeProvider(new CountDownLatch(0), true);
+      final JmsHandler handler = createHandler(provider, 1,
+            SMALL_CAPACITY, AsyncHandler.OverflowPolicy.BLOCK,
+            LONG_BATCH_TIME);
+      handler.setErrorManager(new java.util.logging.ErrorManager()
+      {
+         public void error (String msg, Exception ex, int code)
+         {
+            // expected
+         }
+      });
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+      }
+      handler.flush();
+      assertEquals("All records must fail", RECORD_COUNT,
+            handler.getFailedCount());
+      assertEquals("Nothing must be sent", 0, handler.getSentCount());
+      handler.close();
+   }
+
+   private static JmsHandler createHandler (
+         FakeProvider provider,
+         int senders,
+         int capacity,
+         AsyncHandler.OverflowPolicy policy,
+         long batchTime)
+   {
+      final JmsHandler rc = new JmsHandler(provider.createConnection(), null,
+            senders, capacity, policy, Level.WARNING, BATCH_SIZE, batchTime);
+      rc.setFilter(new Filter()
+      {
+         public boolean isLoggable (LogRecord record)
+         {
+            return true;
+         }
+      });
+      rc.setFormatter(new Formatter()
+      {
+         public String format (LogRecord record)
+         {
+            return record.getMessage();
+         }
+      });
+      return rc;
+   }
+
+   private static Object createProxy (Class<?> type, InvocationHandler handler)
+   {
+      return Proxy.newProxyInstance(JmsHandlerTest.class.getClassLoader(),
+            new Class[] {type}, handler);
+   }
+
+   private static Object invokeObjectMethod (
+         Object proxy, Method method, Object[] args)
+   {
+      final String name = method.getName();
+      Object rc = null;
+      if ("equals".equals(name))
+      {
+         rc = Boolean.valueOf(proxy == args[0]);
+      }
+      else if ("hashCode".equals(name))
+      {
+         rc = Integer.valueOf(System.identityHashCode(proxy));
+      }
+      else if ("toString".equals(name))
+      {
+         rc = "Fake" + proxy.getClass().getInterfaces()[0].getSimpleName();
+      }
+      return rc;
+   }
+}
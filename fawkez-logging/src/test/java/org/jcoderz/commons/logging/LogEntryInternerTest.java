@@ -0,0 +1,141 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.CharArrayReader;
+import java.nio.CharBuffer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.LogEntryInterner}.
+ *
+ */
+public class LogEntryInternerTest
+      extends TestCase
+{
+   /**
+    * Tests that the entries read by a LogReader share their values and
+    * stack trace lines.
+    */
+   public void testSharedValues ()
+   {
+      final LogFormatter formatter = new LogFormatter();
+      final Throwable thrown = new IllegalStateException("failure");
+      final String log = formatter.format(createRecord(thrown))
+            + formatter.format(createRecord(thrown));
+      final LogReader reader = new LogReader(
+            new CharArrayReader(log.toCharArray()));
+      final LogFileEntry first = reader.readLogFileEntry();
+      final LogFileEntry second = reader.readLogFileEntry();
+      assertNotNull("First entry", first);
+      assertNotNull("Second entry", second);
+      assertNotSame("Two entries", first, second);
+      assertSame("Node id", first.getNodeId(), second.getNodeId());
+      assertSame("Instance id", first.getInstanceId(),
+            second.getInstanceId());
+      assertSame("Thread name", first.getThreadName(),
+            second.getThreadName());
+      assertSame("Symbol id", first.getSymbolId(), second.getSymbolId());
+      assertSame("Source class", first.getSourceClass(),
+            second.getSourceClass());
+      assertFalse("Stack trace", first.getStackTraceLines().isEmpty());
+      assertEquals("Stack trace", first.getStackTraceLines().size(),
+            second.getStackTraceLines().size());
+      for (int i = 0; i < first.getStackTraceLines().size(); i++)
+      {
+         assertSame("Stack trace line " + i,
+               first.getStackTraceLines().get(i),
+               second.getStackTraceLines().get(i));
+      }
+      second.release();
+      first.release();
+      reader.close();
+   }
+
+   /**
+    * Tests that the table of shared values is bounded.
+    */
+   public void testBoundedValues ()
+   {
+      final LogEntryInterner interner = new LogEntryInterner();
+      final String value = new String("main");
+      assertSame("First value", value, interner.intern(value));
+      assertSame("Known value", value, interner.intern(new String("main")));
+      assertNull("Null value", interner.intern((String) null));
+      for (int i = 0; i < LogEntryInterner.MAX_VALUES; i++)
+      {
+         interner.intern("thread-" + i);
+      }
+      final String other = new String("main");
+      assertSame("Dropped value", other, interner.intern(other));
+   }
+
+   /**
+    * Tests that equal stack trace lines are shared.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSharedStackTraceLines ()
+         throws Exception
+   {
+      final LogEntryInterner interner = new LogEntryInterner();
+      final String line = "  at org.jcoderz.Test.test(Test.java:42)";
+      final StackTraceInfo info = StackTraceElementParser.parse(
+            CharBuffer.wrap(line));
+      final StackTraceInfo equal = StackTraceElementParser.parse(
+            CharBuffer.wrap(new String(line)));
+      assertEquals("Equal lines", info, equal);
+      assertEquals("Equal hash codes", info.hashCode(), equal.hashCode());
+      assertSame("First line", info, interner.intern(info));
+      assertSame("Equal line", info, interner.intern(equal));
+      final StackTraceInfo other = StackTraceElementParser.parse(
+            CharBuffer.wrap(line.replaceFirst("42", "43")));
+      assertFalse("Other line", info.equals(other));
+      assertSame("Other line", other, interner.intern(other));
+   }
+
+   private static LogRecord createRecord (final Throwable thrown)
+   {
+      final LogRecord rc = new LogRecord(Level.WARNING, "Failure");
+      rc.setSourceClassName(new String("org.jcoderz.Test"));
+      rc.setSourceMethodName("test");
+      rc.setThrown(thrown);
+      return rc;
+   }
+}
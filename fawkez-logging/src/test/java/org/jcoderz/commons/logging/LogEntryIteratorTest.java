@@ -0,0 +1,238 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.LogEntryIterator}.
+ *
+ */
+public class LogEntryIteratorTest
+      extends TestCase
+{
+   private static final int NUMBER_OF_RECORDS = 500;
+   private static final int SMALL_SPLIT_SIZE = 1024;
+
+   private final LogFileFixture mFixture = new LogFileFixture();
+   private File mLogFile;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mLogFile = mFixture.createFile("fawkez-iterator", ".log");
+      LogFileFixture.write(mLogFile, new LogFormatter(),
+            LogFileFixture.createRecords(0, NUMBER_OF_RECORDS), false);
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mFixture.delete();
+   }
+
+   /**
+    * Tests iterating over all entries of a file.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testAllEntries ()
+         throws Exception
+   {
+      final LogEntryIterator iter = LogEntryIterator.open(mLogFile.getPath());
+      assertEquals("Size", mLogFile.length(), iter.estimateSize());
+      final List<String> messages = messages(iter);
+      assertEquals("Number of entries", NUMBER_OF_RECORDS, messages.size());
+      // the log events have the same message
+      for (int i = 0; i < NUMBER_OF_RECORDS; i += 3)
+      {
+         assertTrue("Entry " + i, messages.get(i).matches(
+               "(?s).*number " + i + "\\b.*"));
+         if (i + 2 < NUMBER_OF_RECORDS)
+         {
+            assertTrue("Entry " + (i + 2), messages.get(i + 2).matches(
+                  "(?s).*Failure " + (i + 2) + "\\b.*"));
+         }
+      }
+      assertFalse("No more entries", iter.hasNext());
+      iter.close();
+   }
+
+   /**
+    * Tests that the parts of a split file iterated in parallel contain all
+    * entries exactly once and in the order of the file.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSplit ()
+         throws Exception
+   {
+      final List<LogEntryIterator> parts = new ArrayList<LogEntryIterator>();
+      split(LogEntryIterator.open(mLogFile.getPath(), SMALL_SPLIT_SIZE), parts);
+      assertTrue("Several parts", parts.size() > 2);
+      long size = 0;
+      for (int i = 0; i < parts.size(); i++)
+      {
+         size += parts.get(i).estimateSize();
+      }
+      assertEquals("Size of all parts", mLogFile.length(), size);
+
+      final List<List<String>> results = new ArrayList<List<String>>();
+      final List<Throwable> failures
+            = Collections.synchronizedList(new ArrayList<Throwable>());
+      final Thread[] threads = new Thread[parts.size()];
+      for (int i = 0; i < threads.length; i++)
+      {
+         final LogEntryIterator part = parts.get(i);
+         final List<String> result = new ArrayList<String>();
+         results.add(result);
+         threads[i] = new Thread()
+         {
+            public void run ()
+            {
+               try
+               {
+                  result.addAll(messages(part));
+               }
+               catch (Throwable ex)
+               {
+                  failures.add(ex);
+               }
+            }
+         };
+         threads[i].start();
+      }
+      final List<String> messages = new ArrayList<String>();
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i].join();
+         messages.addAll(results.get(i));
+      }
+      assertEquals("Failures", Collections.EMPTY_LIST, failures);
+      assertEquals("Entries of all parts",
+            messages(LogEntryIterator.open(mLogFile.getPath())), messages);
+   }
+
+   /**
+    * Tests filtering and the restrictions once the iteration has been
+    * started.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFilter ()
+         throws Exception
+   {
+      final LogEntryIterator iter
+            = LogEntryIterator.open(mLogFile.getPath(), SMALL_SPLIT_SIZE);
+      iter.addFilter(new LevelFilter(Collections.singletonList("SEVERE")));
+      assertTrue("Entries", iter.hasNext());
+      assertNull("Split after start", iter.trySplit());
+      try
+      {
+         iter.addFilter(new LevelFilter(null));
+         fail("Filter added after start");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+      int count = 0;
+      while (iter.hasNext())
+      {
+         assertEquals("Level", Level.SEVERE, iter.next().getLoggerLevel());
+         count++;
+      }
+      assertEquals("Number of entries", NUMBER_OF_RECORDS / 3, count);
+      iter.close();
+   }
+
+   /**
+    * Tests that a missing file is reported.
+    */
+   public void testMissingFile ()
+   {
+      try
+      {
+         LogEntryIterator.open(mLogFile.getPath() + ".missing");
+         fail("Missing file opened");
+      }
+      catch (InstantiationException expected)
+      {
+         // expected
+      }
+   }
+
+   private static void split (
+         final LogEntryIterator iter,
+         final List<LogEntryIterator> parts)
+   {
+      final LogEntryIterator prefix = iter.trySplit();
+      if (prefix == null)
+      {
+         parts.add(iter);
+      }
+      else
+      {
+         split(prefix, parts);
+         split(iter, parts);
+      }
+   }
+
+   private static List<String> messages (final LogEntryIterator iter)
+   {
+      final List<String> rc = new ArrayList<String>();
+      try
+      {
+         while (iter.hasNext())
+         {
+            rc.add(iter.next().getMessage());
+         }
+      }
+      finally
+      {
+         iter.close();
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,119 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.CharArrayReader;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.LogFileEntry}.
+ *
+ */
+public class LogFileEntryTest
+      extends TestCase
+{
+   /**
+    * Tests that a released entry is reused by the same thread and does not
+    * keep any data of its former use.
+    */
+   public void testReuse ()
+   {
+      final LogFileEntry entry = readEntry();
+      assertNotNull("Nested entry", entry.getNestedItem());
+      final LogFileEntry nested = (LogFileEntry) entry.getNestedItem();
+      entry.release();
+      // released twice by mistake, but reused only once
+      entry.release();
+      final LogFileEntry reused = LogFileEntry.getLogFileEntry();
+      final LogFileEntry other = LogFileEntry.getLogFileEntry();
+      assertTrue("Reused entry", reused == entry || other == entry);
+      assertTrue("Reused nested entry",
+            reused == nested || other == nested);
+      assertNotSame("Reused once", reused, other);
+      assertNull("Message", entry.getMessage());
+      assertNull("Thread name", entry.getThreadName());
+      assertEquals("Thread id", 0, entry.getThreadId());
+      assertNull("Nested entry", entry.getNestedItem());
+      assertNull("Parent entry", nested.getParentItem());
+      assertTrue("Stack trace", nested.getStackTraceLines().isEmpty());
+      assertTrue("Parameters", nested.getParameterNames().isEmpty());
+      reused.release();
+      other.release();
+   }
+
+   /**
+    * Tests that an entry released by another thread is not reused by this
+    * thread.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testReleasedByOtherThread ()
+         throws Exception
+   {
+      final LogFileEntry entry = LogFileEntry.getLogFileEntry();
+      final Thread thread = new Thread()
+      {
+         public void run ()
+         {
+            entry.release();
+         }
+      };
+      thread.start();
+      thread.join();
+      final LogFileEntry other = LogFileEntry.getLogFileEntry();
+      assertNotSame("Entry of other thread", entry, other);
+      other.release();
+   }
+
+   private static LogFileEntry readEntry ()
+   {
+      final InternalErrorException ex = new InternalErrorException(
+            "Failure", new IllegalStateException("cause"));
+      final LogRecord record = new LogRecord(Level.SEVERE, ex.getMessage());
+      record.setParameters(new Object[] {ex});
+      record.setThrown(ex);
+      final String log = new LogFormatter().format(record);
+      final LogReader reader = new LogReader(
+            new CharArrayReader(log.toCharArray()));
+      final LogFileEntry rc = reader.readLogFileEntry();
+      reader.close();
+      return rc;
+   }
+}
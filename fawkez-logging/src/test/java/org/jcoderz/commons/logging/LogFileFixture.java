@@ -0,0 +1,207 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.test.TssLogMessage;
+
+
+/**
+ * Creates the log records and the temporary log files used by the tests of
+ * the log readers.
+ *
+ */
+final class LogFileFixture
+{
+   /** The time of the first record created. */
+   static final long START_TIME = 1000000000000L;
+   /** The time between two records created, in milliseconds. */
+   static final long TIME_STEP = 1000;
+   /** The number of distinct thread ids of the records created. */
+   static final int NUMBER_OF_THREADS = 7;
+
+   private static final String CLASSNAME = LogFileFixture.class.getName();
+
+   private final List<File> mFiles = new ArrayList<File>();
+
+   /**
+    * Creates a new empty temporary file, which is removed by
+    * {@link #delete()}.
+    *
+    * @param prefix The prefix of the file name.
+    * @param suffix The suffix of the file name.
+    * @return the new file.
+    * @throws IOException if the file cannot be created.
+    */
+   File createFile (final String prefix, final String suffix)
+         throws IOException
+   {
+      final File rc = File.createTempFile(prefix, suffix);
+      mFiles.add(rc);
+      return rc;
+   }
+
+   /**
+    * Deletes all files created by this.
+    */
+   void delete ()
+   {
+      for (final Iterator<File> iter = mFiles.iterator(); iter.hasNext(); )
+      {
+         iter.next().delete();
+      }
+      mFiles.clear();
+   }
+
+   /**
+    * Creates the records with the numbers <code>from</code> up to but
+    * excluding <code>to</code>.
+    *
+    * @param from The number of the first record.
+    * @param to The number of the record following the last one.
+    * @return the new records.
+    */
+   static LogRecord[] createRecords (final int from, final int to)
+   {
+      final LogRecord[] rc = new LogRecord[to - from];
+      for (int i = from; i < to; i++)
+      {
+         rc[i - from] = createRecord(i);
+      }
+      return rc;
+   }
+
+   /**
+    * Creates a record, in turn a plain trace record, a record carrying a
+    * log event with a parameter and a record carrying a nested exception.
+    *
+    * @param i The number of the record.
+    * @return the new record.
+    */
+   static LogRecord createRecord (final int i)
+   {
+      final LogRecord rc;
+      switch (i % 3)
+      {
+         case 0:
+            rc = new LogRecord(Level.INFO, "Trace message number " + i);
+            break;
+         case 1:
+         {
+            final Loggable loggable
+                  = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+            loggable.addParameter("Number", String.valueOf(i));
+            rc = new LogRecord(Level.WARNING, loggable.getMessage());
+            rc.setParameters(new Object[] {loggable});
+            break;
+         }
+         default:
+            rc = createExceptionRecord(i);
+            break;
+      }
+      setSource(rc, i);
+      return rc;
+   }
+
+   /**
+    * Creates a record carrying an exception with a nested loggable, which
+    * adds a message line after the nested line, and a cause.
+    *
+    * @param i The number of the record.
+    * @return the new record.
+    */
+   static LogRecord createExceptionRecord (final int i)
+   {
+      final InternalErrorException ex = new InternalErrorException(
+            "Failure " + i, new InternalErrorException("Nested " + i,
+                  new IllegalStateException("cause " + i)));
+      final LogRecord rc = new LogRecord(Level.SEVERE, ex.getMessage());
+      rc.setParameters(new Object[] {ex});
+      rc.setThrown(ex);
+      setSource(rc, i);
+      return rc;
+   }
+
+   /**
+    * Writes the head of the formatter and the records to the file.
+    *
+    * @param file The file to write.
+    * @param formatter The formatter of the records.
+    * @param records The records to write.
+    * @param append Whether to append to the file.
+    * @throws IOException if writing the file fails.
+    */
+   static void write (
+         final File file,
+         final LogFormatter formatter,
+         final LogRecord[] records,
+         final boolean append)
+         throws IOException
+   {
+      final Writer writer = new FileWriter(file, append);
+      try
+      {
+         writer.write(formatter.getHead(null));
+         for (int i = 0; i < records.length; i++)
+         {
+            writer.write(formatter.format(records[i]));
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   private static void setSource (final LogRecord record, final int i)
+   {
+      record.setSourceClassName(CLASSNAME);
+      record.setSourceMethodName("createRecord");
+      record.setSequenceNumber(i);
+      record.setThreadID(i % NUMBER_OF_THREADS);
+      record.setMillis(START_TIME + TIME_STEP * i);
+   }
+}
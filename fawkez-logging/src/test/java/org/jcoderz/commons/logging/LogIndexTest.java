@@ -0,0 +1,248 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.types.Date;
+import org.jcoderz.commons.types.Period;
+
+
+/**
+ * Tests the classes {@link org.jcoderz.commons.logging.LogIndex} and
+ * {@link org.jcoderz.commons.logging.IndexedLogReader}.
+ *
+ */
+public class LogIndexTest
+      extends TestCase
+{
+   private static final int NUMBER_OF_RECORDS = 300;
+
+   private final LogFormatter mFormatter = new LogFormatter();
+   private final LogFileFixture mFixture = new LogFileFixture();
+   private File mLogFile;
+   private LogIndex mIndex;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mLogFile = mFixture.createFile("fawkez-index", ".log");
+      mIndex = new LogIndex(mLogFile);
+      write(0, NUMBER_OF_RECORDS, false);
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mFixture.delete();
+      mIndex.getIndexFile().delete();
+   }
+
+   /**
+    * Tests that the index contains one record per entry with the values of
+    * the entry.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testIndexRecords ()
+         throws Exception
+   {
+      mIndex.update();
+      assertEquals("Unexpected number of entries", NUMBER_OF_RECORDS,
+            mIndex.getNumberOfEntries());
+      final LogReader reader = new LogReader(mLogFile.getPath());
+      final LogFileEntry indexed = new LogFileEntry();
+      try
+      {
+         for (int i = 0; i < NUMBER_OF_RECORDS; i++)
+         {
+            final LogFileEntry entry = reader.readLogFileEntry();
+            mIndex.fill(i, indexed);
+            assertEquals("Timestamp of entry " + i, entry.getTimestamp(),
+                  indexed.getTimestamp());
+            assertEquals("Thread id of entry " + i, entry.getThreadId(),
+                  indexed.getThreadId());
+            assertEquals("Level of entry " + i, entry.getLoggerLevel(),
+                  indexed.getLoggerLevel());
+            assertEquals("Symbol id of entry " + i,
+                  entry.getSymbolId().trim(), indexed.getSymbolId());
+            assertEquals("Tracking number of entry " + i,
+                  entry.getTrackingNumber(), indexed.getTrackingNumber());
+            entry.release();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * Tests that the index is updated incrementally when entries are appended
+    * and rebuilt when the log file is replaced.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testUpdate ()
+         throws Exception
+   {
+      mIndex.update();
+      write(NUMBER_OF_RECORDS, NUMBER_OF_RECORDS, true);
+      mIndex.update();
+      assertEquals("Appended entries must be indexed", 2 * NUMBER_OF_RECORDS,
+            mIndex.getNumberOfEntries());
+      assertEquals("Unexpected entries", readAll(new LogReader(
+            mLogFile.getPath()), null), readAll(new IndexedLogReader(
+                  mLogFile.getPath(), mIndex), null));
+
+      write(NUMBER_OF_RECORDS, NUMBER_OF_RECORDS / 2, false);
+      mIndex.update();
+      assertEquals("Index must be rebuilt", NUMBER_OF_RECORDS / 2,
+            mIndex.getNumberOfEntries());
+   }
+
+   /**
+    * Tests that records written by an update which did not complete are
+    * dropped and not indexed twice.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testInterruptedUpdate ()
+         throws Exception
+   {
+      mIndex.update();
+      // records of the next entries without the header being written
+      final RandomAccessFile index
+            = new RandomAccessFile(mIndex.getIndexFile(), "rw");
+      try
+      {
+         final byte[] records = new byte[10 * LogIndex.RECORD_SIZE];
+         index.seek(index.length() - records.length);
+         index.readFully(records);
+         index.write(records);
+      }
+      finally
+      {
+         index.close();
+      }
+      write(NUMBER_OF_RECORDS, NUMBER_OF_RECORDS, true);
+      mIndex.update();
+      assertEquals("Records of the interrupted update must be dropped",
+            2 * NUMBER_OF_RECORDS, mIndex.getNumberOfEntries());
+      assertEquals("Unexpected entries", readAll(new LogReader(
+            mLogFile.getPath()), null), readAll(new IndexedLogReader(
+                  mLogFile.getPath(), mIndex), null));
+   }
+
+   /**
+    * Tests that the indexed reader returns the same entries as the sequential
+    * reader for the filters evaluated against the index.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFilters ()
+         throws Exception
+   {
+      mIndex.update();
+      assertFilter(new ThreadIdFilter(Arrays.asList(
+            new Long[] {new Long(2), new Long(5)})));
+      assertFilter(new LevelFilter(Arrays.asList(
+            new String[] {Level.WARNING.getName()})));
+      assertFilter(new PeriodFilter(new Period[] {Period.createPeriod(
+            Date.fromLong(LogFileFixture.START_TIME
+                  + 100 * LogFileFixture.TIME_STEP),
+            Date.fromLong(LogFileFixture.START_TIME
+                  + 150 * LogFileFixture.TIME_STEP))}));
+   }
+
+   private void write (final int first, final int count, final boolean append)
+         throws IOException
+   {
+      LogFileFixture.write(mLogFile, mFormatter,
+            LogFileFixture.createRecords(first, first + count), append);
+   }
+
+   private void assertFilter (final Filter filter)
+         throws InstantiationException
+   {
+      final String expected = readAll(
+            new LogReader(mLogFile.getPath()), filter);
+      assertTrue("Filter must pass some entries", expected.length() > 0);
+      assertEquals("Unexpected entries for " + filter, expected,
+            readAll(new IndexedLogReader(mLogFile.getPath(), mIndex), filter));
+   }
+
+   private String readAll (final LogReader reader, final Filter filter)
+   {
+      if (filter != null)
+      {
+         reader.addFilter(filter);
+      }
+      final DisplayOptions options = new DisplayOptions();
+      options.displayThreadId(true);
+      options.displayTimestamp(true);
+      options.displayLoggerLevel(true);
+      options.displayTrackingNumber(true);
+      options.displayStackTrace(true);
+      final BasicPrinter printer = new BasicPrinter();
+      printer.setDisplayOptions(options);
+      final StringWriter out = new StringWriter();
+      final PrintWriter writer = new PrintWriter(out);
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            printer.print(writer, entry);
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      writer.flush();
+      return out.toString();
+   }
+}
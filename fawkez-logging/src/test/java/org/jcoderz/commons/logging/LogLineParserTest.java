@@ -0,0 +1,247 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogFormatter;
+import org.jcoderz.commons.types.Date;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.LogLineParser}.
+ *
+ */
+public class LogLineParserTest
+      extends TestCase
+{
+   private static final long TIME = 1234567890123L;
+   private static final int TIMESTAMP_COUNT = 10000;
+   /** 1583-01-01T00:00:00.000Z, the first year parsed by the parser. */
+   private static final long FIRST_TIME = -12212553600000L;
+   /** 9999-12-31T23:59:59.999Z, the last time with a four digit year. */
+   private static final long LAST_TIME = 253402300799999L;
+
+   /**
+    * Tests that all lines written by the LogFormatter are parsed with the
+    * same result as by their LogLineFormat.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSameResultAsFormat ()
+         throws Exception
+   {
+      final List<String> lines = formatLines();
+      for (final Iterator<String> i = lines.iterator(); i.hasNext(); )
+      {
+         final String line = i.next();
+         assertSameResult(line);
+         assertTrue("Parsed directly: " + line, parseDirect(line));
+      }
+   }
+
+   /**
+    * Tests lines with a sequence of tracking numbers and with fields the
+    * parser leaves to the LogLineFormat.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSpecialLines ()
+         throws Exception
+   {
+      final String line = formatLines().get(0);
+      final int pos = line.indexOf(" TRACEMSG ") + 30;
+      final String tracking = line.substring(pos, pos + 8);
+      assertSameResult(line.substring(0, pos) + "00000001>-0000000a>-"
+            + line.substring(pos));
+      // only leading zeros in the tracking number, custom level
+      assertSameResult(line.substring(0, pos) + "00000000"
+            + line.substring(pos + tracking.length()));
+      final String level = line.replaceFirst("INFO    ", "800     ");
+      assertSameResult(level);
+      assertFalse("Custom level", parseDirect(level));
+   }
+
+   /**
+    * Tests that malformed lines are reported by the LogLineFormat.
+    */
+   public void testMalformedLine ()
+   {
+      final String line = formatLines().get(0);
+      assertMalformed(line.substring(0, 40));
+      assertMalformed(line.replaceFirst("-\\d\\d-", "-13-"));
+   }
+
+   /**
+    * Tests the timestamps parsed against the ones of the Date.
+    */
+   public void testTimestamp ()
+   {
+      long time = FIRST_TIME;
+      final long step = (LAST_TIME - FIRST_TIME) / TIMESTAMP_COUNT + 1;
+      for (int i = 0; i < TIMESTAMP_COUNT; i++)
+      {
+         final String timestamp = new Date(time).toString();
+         assertEquals(timestamp, time,
+               LogLineParser.parseTimestamp(timestamp, 0));
+         time += step;
+      }
+      assertEquals("Invalid month", Long.MIN_VALUE,
+            LogLineParser.parseTimestamp("2009-13-01T00:00:00.000Z", 0));
+      assertEquals("Invalid day", Long.MIN_VALUE,
+            LogLineParser.parseTimestamp("2009-02-29T00:00:00.000Z", 0));
+      assertTrue("Leap day", LogLineParser.parseTimestamp(
+            "2008-02-29T00:00:00.000Z", 0) != Long.MIN_VALUE);
+   }
+
+   private static void assertMalformed (final String line)
+   {
+      try
+      {
+         parse(line, true);
+         fail("ParseException expected for " + line);
+      }
+      catch (java.text.ParseException expected)
+      {
+         // expected
+      }
+   }
+
+   private static void assertSameResult (final String line)
+         throws Exception
+   {
+      final LogFileEntry expected = parse(line, false);
+      final LogFileEntry actual = parse(line, true);
+      assertEquals(line, expected.getTimestamp(), actual.getTimestamp());
+      assertEquals(line, expected.getNodeId(), actual.getNodeId());
+      assertEquals(line, expected.getInstanceId(), actual.getInstanceId());
+      assertEquals(line, expected.getThreadId(), actual.getThreadId());
+      assertEquals(line, expected.getThreadName(), actual.getThreadName());
+      assertEquals(line, expected.getLoggerLevel(), actual.getLoggerLevel());
+      assertEquals(line, expected.getSymbolId(), actual.getSymbolId());
+      assertEquals(line, expected.getBusinessImpact(),
+            actual.getBusinessImpact());
+      assertEquals(line, expected.getTrackingNumber(),
+            actual.getTrackingNumber());
+      assertEquals(line, expected.getMessage(), actual.getMessage());
+      assertEquals(line, expected.getSourceClass(), actual.getSourceClass());
+      assertEquals(line, expected.getSourceMethod(),
+            actual.getSourceMethod());
+      assertEquals(line, expected.getSymbol(), actual.getSymbol());
+      assertEquals(line, expected.getSolution(), actual.getSolution());
+      assertEquals(line, expected.getParameterNames(),
+            actual.getParameterNames());
+      for (final Iterator<String> i = expected.getParameterNames().iterator();
+            i.hasNext(); )
+      {
+         final String name = i.next();
+         assertEquals(line, expected.getParameterValues(name),
+               actual.getParameterValues(name));
+      }
+      assertEquals(line, expected.getStackTraceLines().toString(),
+            actual.getStackTraceLines().toString());
+   }
+
+   private static LogFileEntry parse (final String line, final boolean fast)
+         throws java.text.ParseException
+   {
+      final LogLineFormat.LogLineType type
+            = LogLineFormat.getLogLineType(line.charAt(0));
+      final LogLineFormat format = LogLineFormatFactory.create(type);
+      final LogFileEntry rc = new LogFileEntry();
+      if (fast)
+      {
+         LogLineParser.parse(format, type, new StringBuffer(line), rc);
+      }
+      else
+      {
+         format.parse(new StringBuffer(line), rc);
+      }
+      return rc;
+   }
+
+   private static boolean parseDirect (final String line)
+         throws java.text.ParseException
+   {
+      final LogLineFormat.LogLineType type
+            = LogLineFormat.getLogLineType(line.charAt(0));
+      return LogLineParser.parseDirect(LogLineFormatFactory.create(type),
+            type, line, new LogFileEntry());
+   }
+
+   private static List<String> formatLines ()
+   {
+      final LogFormatter formatter = new LogFormatter();
+      final StringBuffer sb = new StringBuffer();
+
+      final LogRecord trace = new LogRecord(Level.INFO, "Trace \\,] message");
+      trace.setSourceClassName("org.jcoderz.Test");
+      trace.setSourceMethodName("test");
+      trace.setMillis(TIME);
+      sb.append(formatter.format(trace));
+
+      final InternalErrorException ex = new InternalErrorException(
+            "Failure [a,b\\,c]", new IllegalStateException("cause"));
+      ex.addParameter("LIST", "x,y]z");
+      final LogRecord error = new LogRecord(Level.SEVERE, ex.getMessage());
+      error.setParameters(new Object[] {ex});
+      error.setThrown(ex);
+      error.setMillis(TIME);
+      sb.append(formatter.format(error));
+
+      final LogRecord thrown = new LogRecord(Level.WARNING, "");
+      thrown.setThrown(new RuntimeException("runtime"));
+      thrown.setMillis(TIME);
+      sb.append(formatter.format(thrown));
+
+      final List<String> rc = new ArrayList<String>();
+      final String[] lines = sb.toString().split("\r?\n");
+      for (int i = 0; i < lines.length; i++)
+      {
+         // a caused by line requires the nested entry
+         if (lines[i].indexOf(StackTraceFormat.CAUSED_BY_CLAUSE) < 0
+               || ! lines[i].startsWith("S"))
+         {
+            rc.add(lines[i]);
+         }
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,209 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.test.TssLogMessage;
+
+
+/**
+ * Tests that the class {@link org.jcoderz.commons.logging.LogLineWriter}
+ * writes the same lines as the formats created by the
+ * {@link org.jcoderz.commons.logging.LogLineFormatFactory}.
+ *
+ */
+public class LogLineWriterTest
+      extends TestCase
+{
+   private static final String CLASSNAME = LogLineWriterTest.class.getName();
+
+   private final LogLineWriter mWriter = new LogLineWriter();
+   private final StringBuilder mActual = new StringBuilder();
+
+   /**
+    * Tests trace lines of records with and without parameters, with
+    * multi line text and with a Throwable.
+    */
+   public void testTraceLine ()
+   {
+      LogRecord record = new LogRecord(Level.INFO,
+            "\r\nLine1\n\tLine 2  \r\n");
+      record.setSourceClassName(CLASSNAME);
+      record.setSourceMethodName("testTraceLine");
+      record.setThreadID(1234567);
+      record.setSequenceNumber(0xabcdef12L);
+      assertTraceLine(record);
+
+      record = new LogRecord(Level.FINEST, "Value {0} at {1}");
+      record.setParameters(new Object[] {"foo\nbar", new Integer(2)});
+      assertTraceLine(record);
+
+      record = new LogRecord(Level.SEVERE, null);
+      record.setThrown(new Exception("test"));
+      assertTraceLine(record);
+   }
+
+   /**
+    * Tests the message and parameter lines of a log event carrying
+    * parameters with characters which must be escaped.
+    */
+   public void testMessageAndParameterLines ()
+   {
+      final Loggable loggable = new LogEvent(TssLogMessage.FUNNY_RUNTIME);
+      loggable.addParameter("Param1", "foo, [bar]\n\tbaz");
+      loggable.addParameter("Param1", null);
+      loggable.addParameter("AParam", "first");
+      final LogRecord record = createRecord(loggable);
+      final List<String> ids = startTrackingIds(record, loggable);
+
+      final StringBuffer expected = new StringBuffer();
+      LogLineFormatFactory.create(LogLineFormat.LOG_MESSAGE).format(
+            expected, record, loggable, ids, null, null);
+      LogLineFormatFactory.create(LogLineFormat.PARAMETER_LINE).format(
+            expected, record, loggable, ids, null, null);
+      mWriter.appendMessageLine(mActual, LogLineFormat.LOG_MESSAGE, record,
+            loggable);
+      mWriter.appendParameterLines(mActual, record, loggable);
+      assertEquals("Message and parameter lines must match",
+            expected.toString(), mActual.toString());
+   }
+
+   /**
+    * Tests the nested and stack trace lines of a chain of exceptions.
+    */
+   public void testNestedAndStackTraceLines ()
+   {
+      final Throwable root = new NullPointerException("root");
+      final InternalErrorException middle
+            = new InternalErrorException("middle", root);
+      final InternalErrorException top
+            = new InternalErrorException("top", middle);
+      final LogRecord record = createRecord(top);
+      final List<String> ids = startTrackingIds(record, top);
+
+      final StringBuffer expected = new StringBuffer();
+      final LogLineFormat nested
+            = LogLineFormatFactory.create(LogLineFormat.NESTED_MESSAGE);
+      final LogLineFormat stack
+            = LogLineFormatFactory.create(LogLineFormat.STACKTRACE_MESSAGE);
+
+      // the tracking number is inherited from the cause, so the sequence
+      // must not change
+      mWriter.addTrackingId(middle.getTrackingNumber());
+      mWriter.addTrackingId("12345678");
+      ids.add("12345678");
+      nested.format(expected, record, middle, ids, null,
+            middle.getLogMessageInfo().getSymbol());
+      mWriter.appendNestedLine(mActual, record, middle,
+            middle.getLogMessageInfo().getSymbol());
+      nested.format(expected, record, null, ids, null, root);
+      mWriter.appendNestedLine(mActual, record, null, root);
+
+      stack.format(expected, record, top, ids, top, null);
+      mWriter.appendStackTraceLines(mActual, record, top, top, null);
+      stack.format(expected, record, top, ids, middle, top);
+      mWriter.appendStackTraceLines(mActual, record, top, middle, top);
+      stack.format(expected, record, top, ids, root, middle);
+      mWriter.appendStackTraceLines(mActual, record, top, root, middle);
+
+      assertEquals("Nested and stack trace lines must match",
+            expected.toString(), mActual.toString());
+   }
+
+   /**
+    * Tests the whitespace handling against the one of the
+    * {@link WhitespaceFormat}.
+    */
+   public void testCollapseWhitespace ()
+   {
+      final String[] texts = {"abc", " abc ", "\nabc", "\n\n a\r\n b\t",
+            "a \n b", "\n \nabc", "a\t\t\tb\n"};
+      for (int i = 0; i < texts.length; i++)
+      {
+         final StringBuilder sb = new StringBuilder();
+         LogLineWriter.appendCollapsed(sb, texts[i]);
+         assertEquals("Whitespace must be collapsed for '" + texts[i] + "'",
+               WhitespaceFormat.format(texts[i]), sb.toString());
+      }
+   }
+
+   private void assertTraceLine (final LogRecord record)
+   {
+      final List<String> ids = startTrackingIds(record, null);
+      final StringBuffer expected = new StringBuffer();
+      final LogLineFormat.LogLineType type = record.getThrown() == null
+            ? LogLineFormat.TRACE_MESSAGE : LogLineFormat.EXCEPTION_MESSAGE;
+      LogLineFormatFactory.create(type).format(
+            expected, record, null, ids, null, null);
+      mActual.setLength(0);
+      mWriter.appendTraceLine(mActual, record);
+      assertEquals("Trace line must match", expected.toString(),
+            mActual.toString());
+   }
+
+   private List<String> startTrackingIds (
+         final LogRecord record,
+         final Loggable loggable)
+   {
+      final List<String> rc = new ArrayList<String>();
+      if (loggable == null)
+      {
+         rc.add(Integer.toHexString((int) record.getSequenceNumber()));
+      }
+      else
+      {
+         rc.add(loggable.getTrackingNumber());
+      }
+      mWriter.startTrackingIds(record, loggable);
+      return rc;
+   }
+
+   private LogRecord createRecord (final Loggable loggable)
+   {
+      final LogRecord rc = new LogRecord(
+            loggable.getLogMessageInfo().getLogLevel(), loggable.getMessage());
+      rc.setSourceClassName(CLASSNAME);
+      rc.setSourceMethodName("createRecord");
+      rc.setParameters(new Object[] {loggable});
+      return rc;
+   }
+}
@@ -32,14 +32,20 @@
  */
 package org.jcoderz.commons.logging;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import org.jcoderz.commons.ArgumentMalformedException;
+import org.jcoderz.commons.LogFormatter;
 import org.jcoderz.commons.types.Date;
 import org.jcoderz.commons.types.Period;
 
@@ -129,6 +135,106 @@ public class LogViewerTest
       assertPeriod("", end, Date.OLD_DATE.toString(), end);
    }
 
+   /**
+    * Tests the method
+    * {@linkplain LogViewer#expandFileNames(String, String)}.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testExpandFileNames ()
+         throws IOException
+   {
+      final File root = File.createTempFile("fawkez-viewer", "");
+      root.delete();
+      final File[] files = {
+            new File(root, "node1" + File.separator + "log.out"),
+            new File(root, "node1" + File.separator + "log.out.1"),
+            new File(root, "node2" + File.separator + "log.out"),
+            new File(root, "other" + File.separator + "log.out")};
+      try
+      {
+         for (int i = 0; i < files.length; i++)
+         {
+            files[i].getParentFile().mkdirs();
+            files[i].createNewFile();
+         }
+         assertEquals("Without wildcards",
+               Arrays.asList(new String[] {"a" + File.separator + "b",
+                     "c" + File.separator + "b"}),
+               LogViewer.expandFileNames("a,c", "b"));
+         final List<String> found = LogViewer.expandFileNames(
+               root.getPath() + File.separator + "node?", "log.out*");
+         assertEquals("With wildcards", Arrays.asList(new String[] {
+               files[0].getPath(), files[1].getPath(), files[2].getPath()}),
+               found);
+         assertTrue("Nothing found", LogViewer.expandFileNames(
+               root.getPath(), "*.gz").isEmpty());
+      }
+      finally
+      {
+         for (int i = 0; i < files.length; i++)
+         {
+            files[i].delete();
+            files[i].getParentFile().delete();
+         }
+         root.delete();
+      }
+   }
+
+   /**
+    * Tests the method
+    * {@linkplain LogViewer#findTrackingNumber(String, String, String)}.
+    *
+    * @throws IOException in case of an unexpected error.
+    */
+   public void testFindTrackingNumber ()
+         throws IOException
+   {
+      final File root = File.createTempFile("fawkez-viewer", "");
+      root.delete();
+      final File[] files = {
+            new File(root, "node1" + File.separator + "log.out"),
+            new File(root, "node1" + File.separator + "log.out.1"),
+            new File(root, "node2" + File.separator + "log.out")};
+      final LogRecord[] records = {LogFileFixture.createRecord(3)};
+      try
+      {
+         for (int i = 0; i < files.length; i++)
+         {
+            files[i].getParentFile().mkdirs();
+            LogFileFixture.write(files[i], new LogFormatter(), records, false);
+         }
+         final List<TrackingNumberLookup.Location> found
+               = LogViewer.findTrackingNumber(
+                     root.getPath() + File.separator + "node?", "log.out*",
+                     Integer.toHexString(3));
+         assertEquals("Each file must be found once", files.length,
+               found.size());
+         try
+         {
+            LogViewer.findTrackingNumber(root.getPath(), "*.gz", "3");
+            fail("No log file expected");
+         }
+         catch (LoggingException expected)
+         {
+            // expected
+         }
+      }
+      finally
+      {
+         for (int i = 0; i < files.length; i++)
+         {
+            final File[] children = files[i].getParentFile().listFiles();
+            for (int j = 0; children != null && j < children.length; j++)
+            {
+               children[j].delete();
+            }
+            files[i].getParentFile().delete();
+         }
+         root.delete();
+      }
+   }
+
    private void assertPeriod (String start, String end, String expectedStart,
          String expectedEndend)
    {
@@ -0,0 +1,108 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogEvent;
+import org.jcoderz.commons.LogThreadContext;
+import org.jcoderz.commons.Loggable;
+import org.jcoderz.commons.LoggableImpl;
+import org.jcoderz.commons.test.TssLogMessage;
+
+
+/**
+ * Tests the internal and thread context parameters of loggables.
+ */
+public class LoggableParametersTest
+      extends TestCase
+{
+   private static final String CONTEXT_KEY = "LoggableParametersTest";
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+         throws Exception
+   {
+      LogThreadContext.remove(CONTEXT_KEY);
+      super.tearDown();
+   }
+
+   /** Tests that internal parameters are available and formatted. */
+   public void testInternalParameters ()
+   {
+      final Loggable loggable
+            = new LogEvent(TssLogMessage.IMPLIED_PARAMETERS);
+      assertEquals("Tracking number", loggable.getTrackingNumber(),
+            loggable.getParameter(
+               LoggableImpl.TRACKING_NUMBER_PARAMETER_NAME).get(0));
+      assertEquals("Thread name", loggable.getThreadName(),
+            loggable.getParameter(
+               LoggableImpl.THREAD_NAME_PARAMETER_NAME).get(0));
+      assertEquals("Event time", new Long(loggable.getEventTime()),
+            loggable.getParameter(
+               LoggableImpl.EVENT_TIME_PARAMETER_NAME).get(0));
+      assertTrue("Parameter names " + loggable.getParameterNames(),
+            loggable.getParameterNames().contains(
+               LoggableImpl.MESSAGE_INFO_PARAMETER_NAME));
+      assertTrue("Message " + loggable.getMessage(),
+            loggable.getMessage().startsWith("This error has the id "
+               + loggable.getTrackingNumber() + " occured on Thread "));
+   }
+
+   /**
+    * Tests that the thread context is taken at construction time and
+    * that internal values stay in front of values added later.
+    */
+   public void testContextAtConstruction ()
+   {
+      LogThreadContext.put(CONTEXT_KEY, "before");
+      final Loggable loggable
+            = new LogEvent(TssLogMessage.IMPLIED_PARAMETERS);
+      LogThreadContext.put(CONTEXT_KEY, "after");
+      loggable.addParameter(
+            LoggableImpl.THREAD_NAME_PARAMETER_NAME, "added");
+
+      final List<?> context = loggable.getParameter(
+            LoggableImpl.CONTEXT_PARAMETER_PREFIX + CONTEXT_KEY);
+      assertEquals("Context values " + context, 1, context.size());
+      assertEquals("Context value", "before", context.get(0));
+
+      final List<?> names = loggable.getParameter(
+            LoggableImpl.THREAD_NAME_PARAMETER_NAME);
+      assertEquals("Thread names " + names, 2, names.size());
+      assertEquals("Thread name", loggable.getThreadName(), names.get(0));
+      assertEquals("Added thread name", "added", names.get(1));
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests that the class {@link org.jcoderz.commons.logging.MappedLogReader}
+ * reads the same entries in the same order as the sequential
+ * {@link org.jcoderz.commons.logging.LogReader}.
+ *
+ */
+public class MappedLogReaderTest
+      extends TestCase
+{
+   private static final int NUMBER_OF_RECORDS = 500;
+   private static final int THREADS = 3;
+   private static final int SMALL_CHUNK_SIZE = 1024;
+
+   private final LogFileFixture mFixture = new LogFileFixture();
+   private File mLogFile;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mLogFile = mFixture.createFile("fawkez-mapped", ".log");
+      LogFileFixture.write(mLogFile, new LogFormatter(),
+            LogFileFixture.createRecords(0, NUMBER_OF_RECORDS), false);
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mFixture.delete();
+   }
+
+   /**
+    * Tests reading with chunks much smaller than a single exception entry,
+    * so that chunk ends must be moved to the next entry start.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSmallChunks ()
+         throws Exception
+   {
+      final String expected = print(new LogReader(mLogFile.getPath()));
+      final String actual = print(new MappedLogReader(
+            mLogFile.getPath(), THREADS, SMALL_CHUNK_SIZE));
+      assertEquals("Mapped reader must read the same entries",
+            expected, actual);
+   }
+
+   /**
+    * Tests reading the complete file as a single chunk.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSingleChunk ()
+         throws Exception
+   {
+      final String expected = print(new LogReader(mLogFile.getPath()));
+      final String actual = print(new MappedLogReader(mLogFile.getPath()));
+      assertEquals("Mapped reader must read the same entries",
+            expected, actual);
+   }
+
+   /**
+    * Tests that closing a reader before reading all entries does not fail.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testCloseWhileParsing ()
+         throws Exception
+   {
+      final LogReader reader = new MappedLogReader(
+            mLogFile.getPath(), THREADS, SMALL_CHUNK_SIZE);
+      final LogFileEntry entry = reader.readLogFileEntry();
+      assertNotNull("First entry must be read", entry);
+      entry.release();
+      assertTrue("More entries must be available", reader.available());
+      reader.close();
+   }
+
+   private String print (final LogReader reader)
+   {
+      final DisplayOptions options = new DisplayOptions();
+      options.displayThreadId(true);
+      options.displayTimestamp(true);
+      options.displaySymbol(true);
+      options.displayParameters(true);
+      options.displayTrackingNumber(true);
+      options.displayStackTrace(true);
+      options.displayMessageStackTrace(true);
+      final BasicPrinter printer = new BasicPrinter();
+      printer.setDisplayOptions(options);
+      final StringWriter out = new StringWriter();
+      final PrintWriter writer = new PrintWriter(out);
+      int entries = 0;
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            entries++;
+            printer.print(writer, entry);
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertEquals("Unexpected number of entries", NUMBER_OF_RECORDS, entries);
+      writer.flush();
+      return out.toString();
+   }
+}
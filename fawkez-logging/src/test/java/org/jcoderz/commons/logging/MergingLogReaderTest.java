@@ -0,0 +1,159 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.MergingLogReader}.
+ *
+ */
+public class MergingLogReaderTest
+      extends TestCase
+{
+   private static final int FILE_COUNT = 3;
+   private static final int RECORD_COUNT = 500;
+   private static final int SMALL_PREFETCH = 4;
+
+   private final File[] mFiles = new File[FILE_COUNT];
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      final LogFormatter formatter = new LogFormatter();
+      for (int i = 0; i < FILE_COUNT; i++)
+      {
+         mFiles[i] = File.createTempFile("fawkez-merge", ".log");
+         final Writer writer = new FileWriter(mFiles[i]);
+         try
+         {
+            // file i holds the records logged at times congruent to i
+            for (int j = 0; j < RECORD_COUNT; j++)
+            {
+               final LogRecord record = new LogRecord(Level.INFO,
+                     "Record " + i + "/" + j);
+               record.setMillis(1000L * (j * FILE_COUNT + i));
+               writer.write(formatter.format(record));
+            }
+         }
+         finally
+         {
+            writer.close();
+         }
+      }
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      for (int i = 0; i < FILE_COUNT; i++)
+      {
+         mFiles[i].delete();
+      }
+   }
+
+   /**
+    * Tests that the entries of all files are returned ordered by time.
+    *
+    * @throws InstantiationException in case of an unexpected error.
+    */
+   public void testMergesOrderedByTime ()
+         throws InstantiationException
+   {
+      final MergingLogReader reader = createReader();
+      try
+      {
+         long last = Long.MIN_VALUE;
+         int count = 0;
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            final long time = entry.getTimestamp().getTime();
+            assertEquals("Entry " + count, 1000L * count, time);
+            assertTrue("Entries must be ordered by time", time > last);
+            last = time;
+            count++;
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+         assertEquals("All entries must be read",
+               FILE_COUNT * RECORD_COUNT, count);
+         assertFalse("Nothing left", reader.available());
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * Tests that the readers can be closed before all entries are read.
+    *
+    * @throws InstantiationException in case of an unexpected error.
+    */
+   public void testCloseWhileReading ()
+         throws InstantiationException
+   {
+      final MergingLogReader reader = createReader();
+      assertTrue("Entries expected", reader.available());
+      final LogFileEntry entry = reader.readLogFileEntry();
+      assertNotNull("First entry", entry);
+      entry.release();
+      reader.close();
+      assertFalse("Closed", reader.available());
+   }
+
+   private MergingLogReader createReader ()
+         throws InstantiationException
+   {
+      final List<LogReader> readers = new ArrayList<LogReader>();
+      for (int i = 0; i < FILE_COUNT; i++)
+      {
+         readers.add(new LogReader(mFiles[i].getPath()));
+      }
+      return new MergingLogReader(readers, SMALL_PREFETCH);
+   }
+}
@@ -0,0 +1,236 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.RotatingFileHandler}.
+ *
+ */
+public class RotatingFileHandlerTest
+      extends TestCase
+{
+   private static final int RECORD_COUNT = 200;
+   private static final long SMALL_LIMIT = 4096;
+   private static final int SMALL_BUFFER_SIZE = 512;
+   private static final long FLUSH_INTERVAL = 50;
+   private static final long FLUSH_TIMEOUT = 5000;
+
+   private File mDirectory;
+   private File mFile;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mDirectory = File.createTempFile("fawkez-rotating", "");
+      mDirectory.delete();
+      mDirectory.mkdir();
+      mFile = new File(mDirectory, "log.out");
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      final File[] files = mDirectory.listFiles();
+      for (int i = 0; i < files.length; i++)
+      {
+         files[i].delete();
+      }
+      mDirectory.delete();
+   }
+
+   /**
+    * Tests that the file is rotated by size, the segments are compressed and
+    * all records are read back from the segments and the current file.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testRotatesAndCompresses ()
+         throws Exception
+   {
+      final RotatingFileHandler handler = new RotatingFileHandler(mFile,
+            true, SMALL_LIMIT, 0, 0, true, SMALL_BUFFER_SIZE);
+      for (int i = 0; i < RECORD_COUNT; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, "Record " + i));
+      }
+      handler.close();
+      final File[] segments = handler.getSegments();
+      assertTrue("Rotation expected", segments.length > 1);
+      int count = 0;
+      for (int i = 0; i < segments.length; i++)
+      {
+         assertTrue("Compressed segment expected " + segments[i],
+               segments[i].getName().endsWith(
+                     RotatingFileHandler.COMPRESSED_SUFFIX));
+         assertTrue("Gzip content expected " + segments[i],
+               LogReader.isCompressedLogFile(segments[i]));
+         count += countEntries(segments[i]);
+      }
+      count += countEntries(mFile);
+      assertEquals("All records must be read back", RECORD_COUNT, count);
+   }
+
+   /**
+    * Tests that only the configured number of segments is kept.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testDeletesOldSegments ()
+         throws Exception
+   {
+      final int count = 3;
+      final RotatingFileHandler handler = new RotatingFileHandler(mFile,
+            true, 0, 0, count, false, SMALL_BUFFER_SIZE);
+      for (int i = 0; i < RECORD_COUNT / 10; i++)
+      {
+         handler.publish(new LogRecord(Level.INFO, "Record " + i));
+         handler.rotate();
+      }
+      handler.close();
+      final File[] segments = handler.getSegments();
+      assertEquals("Number of segments", count, segments.length);
+      assertEquals("Newest segment must be kept", 1,
+            countEntries(segments[segments.length - 1]));
+   }
+
+   /**
+    * Tests that buffered records are written to the file after the flush
+    * interval without further records being published.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFlushesPeriodically ()
+         throws Exception
+   {
+      final RotatingFileHandler handler = new RotatingFileHandler(mFile,
+            true, 0, 0, 0, false, SMALL_BUFFER_SIZE, FLUSH_INTERVAL);
+      try
+      {
+         handler.publish(new LogRecord(Level.INFO, "Buffered"));
+         final long timeout = System.currentTimeMillis() + FLUSH_TIMEOUT;
+         while (mFile.length() == 0 && System.currentTimeMillis() < timeout)
+         {
+            Thread.sleep(FLUSH_INTERVAL);
+         }
+         assertEquals("Record must be written before close", 1,
+               countEntries(mFile));
+      }
+      finally
+      {
+         handler.close();
+      }
+   }
+
+   /**
+    * Tests that the index files of a segment are deleted with the segment.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testDeletesIndexesOfOldSegments ()
+         throws Exception
+   {
+      RotatingFileHandler handler = new RotatingFileHandler(mFile,
+            true, 0, 0, 1, true, SMALL_BUFFER_SIZE);
+      handler.publish(new LogRecord(Level.INFO, "First"));
+      handler.rotate();
+      handler.close();
+      final File segment = handler.getSegments()[0];
+      final File index = new File(segment.getPath() + LogIndex.INDEX_SUFFIX);
+      final File trackingIndex
+            = new File(segment.getPath() + TrackingIndex.INDEX_SUFFIX);
+      assertTrue("Index must be created", index.createNewFile());
+      assertTrue("Tracking index must be created",
+            trackingIndex.createNewFile());
+      handler = new RotatingFileHandler(mFile,
+            true, 0, 0, 1, true, SMALL_BUFFER_SIZE);
+      handler.publish(new LogRecord(Level.INFO, "Second"));
+      handler.rotate();
+      handler.close();
+      assertFalse("Segment must be deleted", segment.exists());
+      assertFalse("Index must be deleted", index.exists());
+      assertFalse("Tracking index must be deleted", trackingIndex.exists());
+   }
+
+   /**
+    * Tests that an existing file is rotated if the handler does not append.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testRotatesExistingFile ()
+         throws Exception
+   {
+      RotatingFileHandler handler = new RotatingFileHandler(mFile,
+            true, 0, 0, 0, true, SMALL_BUFFER_SIZE);
+      handler.publish(new LogRecord(Level.INFO, "First"));
+      handler.close();
+      handler = new RotatingFileHandler(mFile,
+            false, 0, 0, 0, true, SMALL_BUFFER_SIZE);
+      handler.publish(new LogRecord(Level.INFO, "Second"));
+      handler.close();
+      final File[] segments = handler.getSegments();
+      assertEquals("Number of segments", 1, segments.length);
+      assertEquals("Entries of the segment", 1, countEntries(segments[0]));
+      assertEquals("Entries of the file", 1, countEntries(mFile));
+   }
+
+   private static int countEntries (final File file)
+         throws InstantiationException
+   {
+      final LogReader reader = new LogReader(file.getPath());
+      int rc = 0;
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            rc++;
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return rc;
+   }
+}
@@ -0,0 +1,155 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.nio.CharBuffer;
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.StackTraceElementParser}.
+ *
+ */
+public class StackTraceElementParserTest
+      extends TestCase
+{
+   /**
+    * Tests the location lines of a stack trace.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testLocation ()
+         throws Exception
+   {
+      assertLocation("  at org.jcoderz.Foo.bar(Foo.java:123)",
+            "org.jcoderz.Foo", "bar", 123);
+      assertLocation("\tat org.jcoderz.Foo$1.run(Foo.java:7)  ",
+            "org.jcoderz.Foo$1", "run", 7);
+      assertLocation("at org.jcoderz.Foo.access$000(Foo2.java:42)",
+            "org.jcoderz.Foo", "access$000", 42);
+      assertLocation("at java.lang.Object.wait(Native Method)",
+            "java.lang.Object", "wait", -1);
+      assertLocation("at Foo.<init>(Unknown Source)", "Foo", "<init>", -1);
+      assertLocation("at bar(x)", "", "bar", -1);
+
+      final StackTraceElement element = new Throwable().getStackTrace()[0];
+      assertLocation(StackTraceFormat.AT_CLAUSE + element,
+            element.getClassName(), element.getMethodName(),
+            element.getLineNumber());
+   }
+
+   /**
+    * Tests the lines which are no location lines.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testOtherLines ()
+         throws Exception
+   {
+      StackTraceInfo info = parse("Caused by:   java.lang.Exception: x");
+      assertTrue("Cause", info.isCauseLine());
+      assertEquals("Cause", "java.lang.Exception: x",
+            info.getExceptionMessage());
+
+      info = parse("  ... 17 more ");
+      assertTrue("More", info.isMoreLine());
+      assertEquals("More", 17, info.getMoreLines());
+      assertEquals("More", "  ... 17 more ", info.toString());
+
+      info = parse("...3 more");
+      assertTrue("More", info.isMoreLine());
+      assertEquals("More", 3, info.getMoreLines());
+
+      info = parse("... 3more");
+      assertFalse("No more line", info.isMoreLine());
+      assertTrue("Exception text", info.isExceptionMessageLine());
+
+      info = parse(" java.lang.IllegalStateException: at a.b(c)");
+      assertTrue("Exception text", info.isExceptionMessageLine());
+      assertFalse("Exception text", info.isCauseLine());
+      assertEquals("Exception text",
+            "java.lang.IllegalStateException: at a.b(c)",
+            info.getExceptionMessage());
+
+      info = parse("attribute.missing(x)");
+      assertTrue("Exception text", info.isExceptionMessageLine());
+   }
+
+   /**
+    * Tests lines that cannot be parsed.
+    */
+   public void testInvalidLines ()
+   {
+      assertInvalid("at a.b.(x)");
+      assertInvalid("message second line");
+   }
+
+   private static void assertLocation (
+         final String line,
+         final String className,
+         final String methodName,
+         final int lineNumber)
+         throws ParseException
+   {
+      final StackTraceInfo info = parse(line);
+      assertTrue(line, info.isLocationLine());
+      assertEquals(line, className, info.getClassName());
+      assertEquals(line, methodName, info.getMethodName());
+      assertEquals(line, lineNumber, info.getLine());
+      assertEquals(line, line, info.toString());
+   }
+
+   private static void assertInvalid (final String line)
+   {
+      try
+      {
+         parse(line);
+         fail("ParseException expected for " + line);
+      }
+      catch (ParseException expected)
+      {
+         // expected
+      }
+   }
+
+   private static StackTraceInfo parse (final String line)
+         throws ParseException
+   {
+      // the parser must respect the position of the buffer
+      final CharBuffer buffer = CharBuffer.wrap("xx" + line);
+      buffer.position(2);
+      return StackTraceElementParser.parse(buffer.slice());
+   }
+}
@@ -0,0 +1,252 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests that stack traces written with fingerprints by the
+ * {@link org.jcoderz.commons.LogFormatter} are read back in full by the
+ * {@link org.jcoderz.commons.logging.LogReader}.
+ *
+ */
+public class StackTraceFingerprintsTest
+      extends TestCase
+{
+   private static final int NUMBER_OF_RECORDS = 50;
+   private static final int THREADS = 3;
+   private static final int CHUNK_SIZE = 1024;
+
+   private final LogRecord[] mRecords = new LogRecord[NUMBER_OF_RECORDS];
+   private final LogFileFixture mFixture = new LogFileFixture();
+   private File mFullFile;
+   private File mFingerprintFile;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mFullFile = mFixture.createFile("fawkez-full", ".log");
+      mFingerprintFile = mFixture.createFile("fawkez-fingerprint", ".log");
+      for (int i = 0; i < NUMBER_OF_RECORDS; i++)
+      {
+         mRecords[i] = LogFileFixture.createExceptionRecord(i);
+      }
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      mFixture.delete();
+   }
+
+   /**
+    * Tests that a file with fingerprints is displayed like the one with
+    * full stack traces and is smaller.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testSameContentAsFullStackTraces ()
+         throws Exception
+   {
+      LogFileFixture.write(mFullFile, new LogFormatter(false), mRecords, false);
+      LogFileFixture.write(
+            mFingerprintFile, new LogFormatter(true), mRecords, false);
+      assertEquals("Fingerprints must be resolved",
+            print(new LogReader(mFullFile.getPath())),
+            print(new LogReader(mFingerprintFile.getPath())));
+      assertTrue("File with fingerprints expected to be smaller",
+            mFingerprintFile.length() < mFullFile.length());
+   }
+
+   /**
+    * Tests that the head of a new file resets the fingerprints.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testHeadWritesFullTraceAgain ()
+         throws Exception
+   {
+      final LogFormatter formatter = new LogFormatter(true);
+      LogFileFixture.write(mFullFile, formatter, mRecords, false);
+      LogFileFixture.write(mFingerprintFile, formatter, mRecords, false);
+      final String text = read(mFingerprintFile);
+      assertTrue("Full trace expected",
+            text.indexOf(StackTraceFormat.FINGERPRINT_CLAUSE) > 0);
+   }
+
+   /**
+    * Tests that a reference to an unknown trace is kept as it is.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testUnknownReference ()
+         throws Exception
+   {
+      final LogFormatter formatter = new LogFormatter(true);
+      final Writer writer = new FileWriter(mFingerprintFile);
+      try
+      {
+         writer.write(formatter.getHead(null));
+         // the first trace is fingerprinted but never written
+         formatter.format(mRecords[0]);
+         for (int i = 1; i < NUMBER_OF_RECORDS; i++)
+         {
+            writer.write(formatter.format(mRecords[i]));
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+      final String result = print(new LogReader(mFingerprintFile.getPath()));
+      assertTrue("Reference expected " + result,
+            result.indexOf(StackTraceFormat.REFERENCE_CLAUSE.trim()) > 0);
+   }
+
+   /**
+    * Tests that references are resolved by readers of parts of the file,
+    * which do not read the definitions themselves.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testReadersOfPartsResolveReferences ()
+         throws Exception
+   {
+      LogFileFixture.write(mFullFile, new LogFormatter(false), mRecords, false);
+      LogFileFixture.write(
+            mFingerprintFile, new LogFormatter(true), mRecords, false);
+      final String expected = print(new LogReader(mFullFile.getPath()));
+      assertEquals("Fingerprints must be resolved by the chunk readers",
+            expected, print(new MappedLogReader(
+                  mFingerprintFile.getPath(), THREADS, CHUNK_SIZE)));
+
+      final LogIndex fullIndex = new LogIndex(mFullFile);
+      final LogIndex index = new LogIndex(mFingerprintFile);
+      try
+      {
+         fullIndex.update();
+         index.update();
+         final int last = NUMBER_OF_RECORDS - 1;
+         final LogReader fullReader = new LogReader(mFullFile.getPath());
+         fullReader.seek(fullIndex.getOffset(last));
+         final LogReader reader = new LogReader(mFingerprintFile.getPath());
+         reader.seek(index.getOffset(last));
+         assertEquals("Fingerprints must be resolved after seeking",
+               print(fullReader), print(reader));
+      }
+      finally
+      {
+         fullIndex.getIndexFile().delete();
+         index.getIndexFile().delete();
+      }
+   }
+
+   /**
+    * Tests that no fingerprint is registered if the set is full, so the
+    * stack trace is written without fingerprint.
+    */
+   public void testFullSetRegistersNoFingerprint ()
+   {
+      final StackTraceFingerprints fingerprints
+            = new StackTraceFingerprints(1);
+      assertTrue("First fingerprint expected to be added",
+            fingerprints.add(1));
+      assertTrue("First fingerprint expected", fingerprints.contains(1));
+      assertFalse("Fingerprint added twice", fingerprints.add(1));
+      assertFalse("Fingerprint added to a full set", fingerprints.add(2));
+      assertFalse("Fingerprint of a full set", fingerprints.contains(2));
+   }
+
+   private static String read (final File file)
+         throws IOException
+   {
+      final StringBuilder sb = new StringBuilder();
+      final java.io.Reader reader = new java.io.FileReader(file);
+      try
+      {
+         final char[] buffer = new char[1024];
+         int read = reader.read(buffer);
+         while (read >= 0)
+         {
+            sb.append(buffer, 0, read);
+            read = reader.read(buffer);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return sb.toString();
+   }
+
+   private static String print (final LogReader reader)
+   {
+      final DisplayOptions options = new DisplayOptions();
+      options.displayTimestamp(true);
+      options.displayTrackingNumber(true);
+      options.displayStackTrace(true);
+      options.displayMessageStackTrace(true);
+      final BasicPrinter printer = new BasicPrinter();
+      printer.setDisplayOptions(options);
+      final StringWriter out = new StringWriter();
+      final PrintWriter writer = new PrintWriter(out);
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            printer.print(writer, entry);
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      writer.flush();
+      return out.toString();
+   }
+}
@@ -0,0 +1,181 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.StaxXmlPrinter}.
+ *
+ */
+public class StaxXmlPrinterTest
+      extends TestCase
+{
+   private static final String MESSAGE = "Failure <1> & more";
+
+   /**
+    * Tests that a record published with an exception is printed valid
+    * according to the log message schema, as it is done by the JmsHandler.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testLogElement ()
+         throws Exception
+   {
+      final StaxXmlPrinter printer = new StaxXmlPrinter();
+      final DisplayOptions options = new DisplayOptions();
+      options.displayMessageStackTrace(false);
+      options.displayStackTrace(false);
+      printer.setDisplayOptions(options);
+
+      final String xml = print(printer, new LogElement(createRecord()));
+      validate(xml);
+      final LogRecordType record = unmarshal(xml);
+      assertTrue("Message", record.getMessage().indexOf(MESSAGE) >= 0);
+      assertEquals("Level", Level.SEVERE.toString(), record.getLevel());
+      assertNotNull("Timestamp", record.getTimestamp());
+      assertNull("No stack trace expected", record.getStacktrace());
+      assertNotNull("Cause expected", record.getCause());
+   }
+
+   /**
+    * Tests that an entry read from a log file is printed with its stack
+    * traces and nested items.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testLogFileEntry ()
+         throws Exception
+   {
+      final StaxXmlPrinter printer = new StaxXmlPrinter();
+      final DisplayOptions options = new DisplayOptions();
+      options.displayMessageStackTrace(true);
+      options.displayStackTrace(true);
+      printer.setDisplayOptions(options);
+
+      final String text = new LogFormatter().format(createRecord());
+      final LogReader reader = new LogReader(
+            new CharArrayReader(text.toCharArray()));
+      final LogFileEntry entry = reader.readLogFileEntry();
+      assertNotNull("Entry expected", entry);
+
+      final String xml = print(printer, entry);
+      validate(xml);
+      final LogRecordType record = unmarshal(xml);
+      assertEquals("Message", entry.getMessage(), record.getMessage());
+      assertEquals("Timestamp", entry.getTimestamp().getTime(),
+            record.getTimestamp().toGregorianCalendar().getTimeInMillis());
+      assertEquals("Symbol id", entry.getSymbolId(), record.getSymbolId());
+      assertNotNull("Stack trace expected", record.getStacktrace());
+      assertFalse("Frames expected",
+            record.getStacktrace().getStacktraceElement().isEmpty());
+
+      int depth = 0;
+      CauseType cause = record.getCause();
+      while (cause != null)
+      {
+         depth++;
+         if (cause.getException() != null)
+         {
+            cause = cause.getException().getCause();
+         }
+         else
+         {
+            cause = cause.getNestedRecord().getCause();
+         }
+      }
+      int items = 0;
+      for (LogItem item = entry.getNestedItem(); item != null;
+            item = item.getNestedItem())
+      {
+         items++;
+      }
+      assertEquals("Nested items", items, depth);
+   }
+
+   private static LogRecord createRecord ()
+   {
+      final InternalErrorException ex = new InternalErrorException(
+            MESSAGE, new IllegalStateException("cause"));
+      final LogRecord rc = new LogRecord(Level.SEVERE, ex.getMessage());
+      rc.setParameters(new Object[] {ex});
+      rc.setThrown(ex);
+      return rc;
+   }
+
+   private static String print (
+         final StaxXmlPrinter printer,
+         final LogItem item)
+   {
+      final CharArrayWriter out = new CharArrayWriter();
+      final PrintWriter writer = new PrintWriter(out);
+      printer.print(writer, item);
+      writer.flush();
+      return out.toString();
+   }
+
+   private static void validate (final String xml)
+         throws Exception
+   {
+      final Schema schema = SchemaFactory.newInstance(
+            XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+               StaxXmlPrinterTest.class.getResource("/log-message.xsd"));
+      schema.newValidator().validate(new StreamSource(
+            new CharArrayReader(xml.toCharArray())));
+   }
+
+   private static LogRecordType unmarshal (final String xml)
+         throws Exception
+   {
+      return JAXBContext.newInstance("org.jcoderz.commons.logging")
+            .createUnmarshaller().unmarshal(new StreamSource(
+               new CharArrayReader(xml.toCharArray())), LogRecordType.class)
+            .getValue();
+   }
+}
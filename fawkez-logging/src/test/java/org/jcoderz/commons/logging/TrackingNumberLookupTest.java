@@ -0,0 +1,378 @@
+/*
+ * $Id$
+ *
+ * Copyright 2006, The jCoderZ.org Project. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following
+ *      disclaimer in the documentation and/or other materials
+ *      provided with the distribution.
+ *    * Neither the name of the jCoderZ.org Project nor the names of
+ *      its contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written
+ *      permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE REGENTS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS AND CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jcoderz.commons.logging;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+import org.jcoderz.commons.InternalErrorException;
+import org.jcoderz.commons.LogFormatter;
+
+
+/**
+ * Tests the class {@link org.jcoderz.commons.logging.TrackingNumberLookup}.
+ *
+ */
+public class TrackingNumberLookupTest
+      extends TestCase
+{
+   private static final String CLASSNAME
+         = TrackingNumberLookupTest.class.getName();
+   private static final String LOG_FILE = "log.out";
+   /** More than the minimum number of unsorted postings of the index. */
+   private static final int NUMBER_OF_RECORDS = 5000;
+   private static final int NUMBER_OF_SEQUENCES = 1000;
+   private static final int NUMBER_OF_ROTATED_RECORDS = 500;
+   private static final long ROTATION_LIMIT = 8192;
+   private static final int BUFFER_SIZE = 512;
+
+   private final LogFormatter mFormatter = new LogFormatter();
+   private File mDirectory;
+   private TrackingNumberLookup mLookup;
+
+   /** {@inheritDoc} */
+   protected void setUp ()
+         throws IOException
+   {
+      mDirectory = File.createTempFile("fawkez-tracking", "");
+      mDirectory.delete();
+      mDirectory.mkdir();
+      mLookup = new TrackingNumberLookup(mDirectory, LOG_FILE);
+   }
+
+   /** {@inheritDoc} */
+   protected void tearDown ()
+   {
+      final File[] files = mDirectory.listFiles();
+      for (int i = 0; i < files.length; i++)
+      {
+         files[i].delete();
+      }
+      mDirectory.delete();
+   }
+
+   /**
+    * Tests finding trace entries in the current and a rotated log file,
+    * before and after entries are appended.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFindTraceEntries ()
+         throws Exception
+   {
+      final File rotated = new File(mDirectory, LOG_FILE + ".1");
+      final Writer writer = new FileWriter(rotated);
+      try
+      {
+         for (int i = 0; i < NUMBER_OF_RECORDS; i++)
+         {
+            writer.write(mFormatter.format(createTraceRecord(i)));
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+      rotated.setLastModified(System.currentTimeMillis() - 1000);
+      write(new LogRecord[] {createTraceRecord(1)}, false);
+
+      final String trackingNumber = Integer.toHexString(1);
+      List<TrackingNumberLookup.Location> locations
+            = mLookup.find(trackingNumber);
+      assertEquals("Entries must be found in both files", 2,
+            locations.size());
+      assertEquals("Rotated file must be first", rotated,
+            locations.get(0).getFile());
+      assertEquals("Unexpected entries in rotated file",
+            NUMBER_OF_RECORDS / NUMBER_OF_SEQUENCES,
+            locations.get(0).getOffsets().length);
+      assertEquals("Unexpected entries in current file", 1,
+            locations.get(1).getOffsets().length);
+      assertEntries(locations.get(0), trackingNumber,
+            NUMBER_OF_RECORDS / NUMBER_OF_SEQUENCES);
+
+      write(new LogRecord[] {createTraceRecord(2), createTraceRecord(1)},
+            true);
+      locations = mLookup.find(trackingNumber);
+      assertEquals("Appended entry must be found", 2,
+            locations.get(1).getOffsets().length);
+      assertEntries(locations.get(1), trackingNumber, 2);
+   }
+
+   /**
+    * Tests that only the log file and its rotated files are searched, not
+    * other files named like the log file.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testGetLogFiles ()
+         throws Exception
+   {
+      write(new LogRecord[] {createTraceRecord(1)}, false);
+      final File[] rotated = new File[] {
+            new File(mDirectory, LOG_FILE + ".1"),
+            new File(mDirectory, LOG_FILE + ".2.gz"),
+            new File(mDirectory, LOG_FILE + ".20061231-235959-999"),
+            new File(mDirectory, LOG_FILE + ".20061231-235959-999-1.gz")};
+      final File[] others = new File[] {
+            new File(mDirectory, LOG_FILE + ".col"),
+            new File(mDirectory, LOG_FILE + ".1.bak"),
+            new File(mDirectory, LOG_FILE + "x"),
+            new File(mDirectory, LOG_FILE + LogIndex.INDEX_SUFFIX),
+            new File(mDirectory, LOG_FILE + TrackingIndex.INDEX_SUFFIX)};
+      for (int i = 0; i < rotated.length; i++)
+      {
+         assertTrue("File must be created", rotated[i].createNewFile());
+      }
+      for (int i = 0; i < others.length; i++)
+      {
+         assertTrue("File must be created", others[i].createNewFile());
+      }
+      final List<File> files = mLookup.getLogFiles();
+      assertEquals("Unexpected log files " + files, rotated.length + 1,
+            files.size());
+      assertTrue("Log file expected",
+            files.contains(new File(mDirectory, LOG_FILE)));
+      for (int i = 0; i < rotated.length; i++)
+      {
+         assertTrue("Rotated file expected " + rotated[i],
+               files.contains(rotated[i]));
+      }
+   }
+
+   /**
+    * Tests finding entries in the segments rotated and compressed by the
+    * {@link RotatingFileHandler}.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFindInCompressedSegments ()
+         throws Exception
+   {
+      final RotatingFileHandler handler = new RotatingFileHandler(
+            new File(mDirectory, LOG_FILE), false, ROTATION_LIMIT, 0, 0, true,
+            BUFFER_SIZE);
+      handler.setFormatter(mFormatter);
+      for (int i = 0; i < NUMBER_OF_ROTATED_RECORDS; i++)
+      {
+         handler.publish(createTraceRecord(i));
+      }
+      handler.close();
+      final File[] segments = handler.getSegments();
+      assertTrue("Rotation expected", segments.length > 1);
+      assertTrue("Compressed segment expected " + segments[0],
+            segments[0].getName().endsWith(
+                  RotatingFileHandler.COMPRESSED_SUFFIX));
+
+      final String first = Integer.toHexString(1);
+      for (int i = 0; i < 2; i++)
+      {
+         // the second search uses the index built by the first one
+         final List<TrackingNumberLookup.Location> locations
+               = mLookup.find(first);
+         assertEquals("Entry must be found once", 1, locations.size());
+         assertEquals("Entry must be found in the first segment",
+               segments[0], locations.get(0).getFile());
+         assertEntries(locations.get(0), first, 1);
+      }
+      final String last = Integer.toHexString(NUMBER_OF_ROTATED_RECORDS - 1);
+      assertEntries(mLookup.find(last).get(0), last, 1);
+   }
+
+   /**
+    * Tests that postings written by an index update which did not complete
+    * are dropped and not found twice.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testInterruptedUpdate ()
+         throws Exception
+   {
+      write(new LogRecord[] {createTraceRecord(1), createTraceRecord(2)},
+            false);
+      final String trackingNumber = Integer.toHexString(1);
+      assertEquals("Unexpected entries", 1,
+            mLookup.find(trackingNumber).get(0).getOffsets().length);
+      // the postings of the next entries without the header being written
+      final RandomAccessFile index = new RandomAccessFile(
+            new File(mDirectory, LOG_FILE + TrackingIndex.INDEX_SUFFIX), "rw");
+      try
+      {
+         // an int tracking number and a long offset for each entry
+         final byte[] postings = new byte[2 * (4 + 8)];
+         index.seek(index.length() - postings.length);
+         index.readFully(postings);
+         index.write(postings);
+      }
+      finally
+      {
+         index.close();
+      }
+      write(new LogRecord[] {createTraceRecord(1)}, true);
+      final TrackingNumberLookup.Location location
+            = mLookup.find(trackingNumber).get(0);
+      assertEquals("Postings of the interrupted update must be dropped", 2,
+            location.getOffsets().length);
+      assertEntries(location, trackingNumber, 2);
+   }
+
+   /**
+    * Tests finding entries in a log file whose index file cannot be written.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFindWithoutIndex ()
+         throws Exception
+   {
+      write(new LogRecord[] {createTraceRecord(1), createTraceRecord(2),
+            createTraceRecord(1)}, false);
+      // a directory in place of the index file cannot be opened, like an
+      // index file in a read-only directory
+      final File index
+            = new File(mDirectory, LOG_FILE + TrackingIndex.INDEX_SUFFIX);
+      assertTrue("Directory must be created", index.mkdir());
+      final String trackingNumber = Integer.toHexString(1);
+      final List<TrackingNumberLookup.Location> locations
+            = mLookup.find(trackingNumber);
+      assertEquals("Entries must be found without index", 1,
+            locations.size());
+      assertEntries(locations.get(0), trackingNumber, 2);
+      assertEquals("Index must not be written", 0, index.list().length);
+   }
+
+   /**
+    * Tests finding an entry by the tracking number of a nested loggable.
+    *
+    * @throws Exception in case of an unexpected error.
+    */
+   public void testFindNestedEntries ()
+         throws Exception
+   {
+      final InternalErrorException nested
+            = new InternalErrorException("Nested");
+      final InternalErrorException top
+            = new InternalErrorException("Top", nested);
+      final LogRecord record = new LogRecord(Level.SEVERE, top.getMessage());
+      record.setParameters(new Object[] {top});
+      write(new LogRecord[] {createTraceRecord(1), record,
+            createTraceRecord(2)}, false);
+
+      final List<TrackingNumberLookup.Location> byTop
+            = mLookup.find(top.getTrackingNumber());
+      final List<TrackingNumberLookup.Location> byNested
+            = mLookup.find(nested.getTrackingNumber());
+      assertEquals("Entry must be found by its tracking number", 1,
+            byTop.size());
+      assertEquals("Entry must be found by the nested tracking number", 1,
+            byNested.size());
+      assertEquals("Nested tracking number must find the same entry",
+            byTop.get(0).getOffsets()[0], byNested.get(0).getOffsets()[0]);
+      final LogReader reader = byNested.get(0).createReader();
+      try
+      {
+         final LogFileEntry entry = reader.readLogFileEntry();
+         assertEquals("Unexpected entry", top.getTrackingNumber(),
+               entry.getTrackingNumber());
+         assertNotNull("Nested entry must be read", entry.getNestedItem());
+         entry.release();
+         assertNull("Only one entry expected", reader.readLogFileEntry());
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   private void assertEntries (
+         final TrackingNumberLookup.Location location,
+         final String trackingNumber,
+         final int expectedEntries)
+         throws InstantiationException
+   {
+      final LogReader reader = location.createReader();
+      int entries = 0;
+      try
+      {
+         LogFileEntry entry = reader.readLogFileEntry();
+         while (entry != null)
+         {
+            entries++;
+            assertEquals("Unexpected tracking number", trackingNumber,
+                  entry.getTrackingNumber());
+            entry.release();
+            entry = reader.readLogFileEntry();
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertEquals("Unexpected number of entries", expectedEntries, entries);
+   }
+
+   private void write (final LogRecord[] records, final boolean append)
+         throws IOException
+   {
+      final Writer writer
+            = new FileWriter(new File(mDirectory, LOG_FILE), append);
+      try
+      {
+         for (int i = 0; i < records.length; i++)
+         {
+            writer.write(mFormatter.format(records[i]));
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   private static LogRecord createTraceRecord (final int i)
+   {
+      final LogRecord rc = new LogRecord(Level.INFO, "Trace message " + i);
+      rc.setSourceClassName(CLASSNAME);
+      rc.setSourceMethodName("createTraceRecord");
+      // the sequence number is the tracking number of trace records
+      rc.setSequenceNumber(i % NUMBER_OF_SEQUENCES);
+      return rc;
+   }
+}